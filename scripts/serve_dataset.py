@@ -0,0 +1,67 @@
+import argparse
+import http.server
+import os
+import re
+
+RANGE_PATTERN = re.compile(r'bytes=(\d*)-(\d*)$')
+
+class RangeRequestHandler(http.server.SimpleHTTPRequestHandler):
+    """Serves files like SimpleHTTPRequestHandler, but answers single byte range
+    requests with 206 Partial Content, as RNA-Scoop asks for blocks of remote files"""
+
+    def send_head(self):
+        self.range = None
+        path = self.translate_path(self.path)
+        if os.path.isdir(path) or not os.path.isfile(path):
+            return super().send_head()
+
+        size = os.path.getsize(path)
+        match = RANGE_PATTERN.match(self.headers.get('Range', ''))
+        if not match or not (match.group(1) or match.group(2)):
+            return super().send_head()
+
+        if match.group(1):
+            start = int(match.group(1))
+            end = min(int(match.group(2)), size - 1) if match.group(2) else size - 1
+        else:
+            start = max(0, size - int(match.group(2)))
+            end = size - 1
+        if start > end or start >= size:
+            self.send_response(416)
+            self.send_header('Content-Range', 'bytes */%d' % size)
+            self.end_headers()
+            return None
+
+        f = open(path, 'rb')
+        f.seek(start)
+        self.range = end - start + 1
+        self.send_response(206)
+        self.send_header('Content-Type', self.guess_type(path))
+        self.send_header('Content-Range', 'bytes %d-%d/%d' % (start, end, size))
+        self.send_header('Content-Length', str(self.range))
+        self.send_header('Accept-Ranges', 'bytes')
+        self.send_header('Last-Modified', self.date_time_string(int(os.path.getmtime(path))))
+        self.end_headers()
+        return f
+
+    def copyfile(self, source, outputfile):
+        if self.range is None:
+            return super().copyfile(source, outputfile)
+        remaining = self.range
+        while remaining > 0:
+            chunk = source.read(min(remaining, 1024 * 1024))
+            if not chunk:
+                break
+            outputfile.write(chunk)
+            remaining -= len(chunk)
+
+parser = argparse.ArgumentParser(description='Serve dataset files over HTTP with range requests, to load them in RNA-Scoop by URL.')
+parser.add_argument('directory', help='directory with the dataset files')
+parser.add_argument('--port', type=int, default=8000, help='port to listen on (default: 8000)')
+parser.add_argument('--bind', default='127.0.0.1', help='address to listen on (default: 127.0.0.1)')
+args = parser.parse_args()
+
+os.chdir(args.directory)
+server = http.server.ThreadingHTTPServer((args.bind, args.port), RangeRequestHandler)
+print('Serving %s at http://%s:%d/' % (os.getcwd(), args.bind, args.port))
+server.serve_forever()
@@ -0,0 +1,237 @@
+package expression;
+
+import java.util.Random;
+
+/**
+ * Compares the cost of getting every isoform's average expression and number of expressing
+ * cells in every cluster (what the genes' max fold changes, the gene filters and the dot plot
+ * need) by scanning each cluster's cells for each isoform, as it used to be done, against
+ * calculating the cluster aggregates in one pass and looking the numbers up. The time the
+ * aggregates took to calculate is reported separately, and the lookups are checked against the
+ * scans. The matrix and clusters are generated in memory
+ *
+ * Then compares moving some cells to a new cluster, and merging two clusters, in the aggregates
+ * (as the cluster view does when cells are moved between clusters or clusters are merged) against
+ * calculating the aggregates again with the new clusters. The moved and merged aggregates are
+ * checked against ones calculated again
+ *
+ * Usage: ClusterAggregatesBenchmark [numCells] [numIsoforms] [numClusters] [fraction of values that are nonzero] [expression transform] [number of cells moved]
+ */
+public class ClusterAggregatesBenchmark {
+    private static final int NUM_WARMUP_RUNS = 2;
+    private static final int NUM_TIMED_RUNS = 5;
+    private static final double TOLERANCE = 1e-6;
+
+    public static void main(String[] args) throws Exception {
+        int numCells = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        int numIsoforms = (args.length > 1) ? Integer.parseInt(args[1]) : 6000;
+        int numClusters = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+        double nonZeroFraction = (args.length > 3) ? Double.parseDouble(args[3]) : 0.3;
+        ExpressionTransform transform = (args.length > 4) ? ExpressionTransform.fromName(args[4]) : ExpressionTransform.RAW;
+        int numMovedCells = (args.length > 5) ? Integer.parseInt(args[5]) : Math.max(1, numCells / 100);
+
+        ExpressionMatrix matrix = transform.apply(makeMatrix(numCells, numIsoforms, nonZeroFraction));
+        int[] cellClusterCodes = makeCellClusterCodes(numCells, numClusters);
+        int[][] clusters = getClusterCellNumbers(cellClusterCodes, numClusters);
+        System.out.println("Matrix: " + numCells + " cells x " + numIsoforms + " isoforms, " + numClusters + " clusters, " +
+                           transform.getName() + " expression");
+
+        ClusterAggregates clusterAggregates = null;
+        for (int i = 0; i < NUM_WARMUP_RUNS; i++) {
+            clusterAggregates = new ClusterAggregates(matrix, cellClusterCodes, numCells, numClusters);
+            checkLookups(matrix, clusters, clusterAggregates);
+        }
+
+        long scanTime = 0;
+        long aggregateTime = 0;
+        long lookupTime = 0;
+        for (int i = 0; i < NUM_TIMED_RUNS; i++) {
+            long start = System.nanoTime();
+            scanClusters(matrix, clusters);
+            scanTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            clusterAggregates = new ClusterAggregates(matrix, cellClusterCodes, numCells, numClusters);
+            aggregateTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            lookUpClusters(clusterAggregates, numIsoforms, numClusters);
+            lookupTime += System.nanoTime() - start;
+        }
+
+        double scanMillis = scanTime / 1e6 / NUM_TIMED_RUNS;
+        double aggregateMillis = aggregateTime / 1e6 / NUM_TIMED_RUNS;
+        double lookupMillis = lookupTime / 1e6 / NUM_TIMED_RUNS;
+        System.out.printf("Scanning each cluster's cells for each isoform: %.1f ms%n", scanMillis);
+        System.out.printf("Calculating the cluster aggregates:             %.1f ms%n", aggregateMillis);
+        System.out.printf("Looking up every isoform in every cluster:      %.3f ms%n", lookupMillis);
+        System.out.printf("Speedup of a pass after the first: %.0fx%n", scanMillis / lookupMillis);
+
+        benchmarkMoveAndMerge(matrix, cellClusterCodes, numClusters, numMovedCells);
+    }
+
+    /**
+     * Times moving the given number of random cells to a new cluster and merging cluster 1 into
+     * cluster 0 in the aggregates, against calculating the aggregates again after each
+     */
+    private static void benchmarkMoveAndMerge(ExpressionMatrix matrix, int[] cellClusterCodes, int numClusters, int numMovedCells) {
+        int numCells = cellClusterCodes.length;
+        int[] movedCellNumbers = makeMovedCellNumbers(numCells, numMovedCells);
+        int[] movedCellClusterCodes = cellClusterCodes.clone();
+        for (int cellNumber : movedCellNumbers)
+            movedCellClusterCodes[cellNumber] = numClusters;
+        int[] mergedCellClusterCodes = movedCellClusterCodes.clone();
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++) {
+            if (mergedCellClusterCodes[cellNumber] == 1)
+                mergedCellClusterCodes[cellNumber] = 0;
+        }
+        System.out.println("Moving " + movedCellNumbers.length + " cells to a new cluster, then merging cluster 1 into cluster 0");
+
+        for (int i = 0; i < NUM_WARMUP_RUNS; i++) {
+            ClusterAggregates clusterAggregates = new ClusterAggregates(matrix, cellClusterCodes, numCells, numClusters);
+            clusterAggregates.moveCells(movedCellNumbers, cellClusterCodes, numClusters);
+            checkAggregates(clusterAggregates, new ClusterAggregates(matrix, movedCellClusterCodes, numCells, numClusters + 1), numClusters + 1);
+            clusterAggregates.mergeCode(1, 0);
+            checkAggregates(clusterAggregates, new ClusterAggregates(matrix, mergedCellClusterCodes, numCells, numClusters + 1), numClusters + 1);
+        }
+
+        long moveTime = 0;
+        long moveRebuildTime = 0;
+        long mergeTime = 0;
+        long mergeRebuildTime = 0;
+        for (int i = 0; i < NUM_TIMED_RUNS; i++) {
+            ClusterAggregates clusterAggregates = new ClusterAggregates(matrix, cellClusterCodes, numCells, numClusters);
+
+            long start = System.nanoTime();
+            clusterAggregates.moveCells(movedCellNumbers, cellClusterCodes, numClusters);
+            moveTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            new ClusterAggregates(matrix, movedCellClusterCodes, numCells, numClusters + 1);
+            moveRebuildTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            clusterAggregates.mergeCode(1, 0);
+            mergeTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            new ClusterAggregates(matrix, mergedCellClusterCodes, numCells, numClusters + 1);
+            mergeRebuildTime += System.nanoTime() - start;
+        }
+
+        double moveMillis = moveTime / 1e6 / NUM_TIMED_RUNS;
+        double moveRebuildMillis = moveRebuildTime / 1e6 / NUM_TIMED_RUNS;
+        double mergeMillis = mergeTime / 1e6 / NUM_TIMED_RUNS;
+        double mergeRebuildMillis = mergeRebuildTime / 1e6 / NUM_TIMED_RUNS;
+        System.out.printf("Moving the cells in the aggregates:             %.3f ms%n", moveMillis);
+        System.out.printf("Calculating the aggregates after the move:      %.1f ms%n", moveRebuildMillis);
+        System.out.printf("Merging the clusters in the aggregates:         %.3f ms%n", mergeMillis);
+        System.out.printf("Calculating the aggregates after the merge:     %.1f ms%n", mergeRebuildMillis);
+        System.out.printf("Speedup of a move: %.0fx, of a merge: %.0fx%n", moveRebuildMillis / moveMillis, mergeRebuildMillis / mergeMillis);
+    }
+
+    /**
+     * Gets the average expression (zeros included) and number of expressing cells of every
+     * isoform in every cluster by scanning the cluster's cells
+     *
+     * @return sum of the numbers, so the work isn't optimized away
+     */
+    private static double scanClusters(ExpressionMatrix matrix, int[][] clusters) {
+        double checksum = 0;
+        for (int isoformIndex = 0; isoformIndex < matrix.getNumIsoforms(); isoformIndex++) {
+            for (int[] cluster : clusters) {
+                ExpressionSum expressionSum = new ExpressionSum();
+                matrix.forEachExpressingCell(isoformIndex, cluster, expressionSum);
+                int numNonExpressingCells = cluster.length - expressionSum.getNumExpressingCells();
+                checksum += (expressionSum.getSum() + numNonExpressingCells * matrix.getNonExpressingLevel(isoformIndex)) / cluster.length;
+                checksum += expressionSum.getNumExpressingCells();
+            }
+        }
+        return checksum;
+    }
+
+    private static double lookUpClusters(ClusterAggregates clusterAggregates, int numIsoforms, int numClusters) {
+        double checksum = 0;
+        for (int isoformIndex = 0; isoformIndex < numIsoforms; isoformIndex++) {
+            for (int code = 0; code < numClusters; code++) {
+                checksum += clusterAggregates.getAverageExpression(isoformIndex, code, true);
+                checksum += clusterAggregates.getNumExpressingCells(isoformIndex, code);
+            }
+        }
+        return checksum;
+    }
+
+    private static void checkLookups(ExpressionMatrix matrix, int[][] clusters, ClusterAggregates clusterAggregates) {
+        for (int isoformIndex = 0; isoformIndex < matrix.getNumIsoforms(); isoformIndex++) {
+            for (int code = 0; code < clusters.length; code++) {
+                ExpressionSum expressionSum = new ExpressionSum();
+                matrix.forEachExpressingCell(isoformIndex, clusters[code], expressionSum);
+                int numExpressingCells = expressionSum.getNumExpressingCells();
+                double sum = expressionSum.getSum() + (clusters[code].length - numExpressingCells) * matrix.getNonExpressingLevel(isoformIndex);
+                if (clusterAggregates.getNumExpressingCells(isoformIndex, code) != numExpressingCells ||
+                    Math.abs(clusterAggregates.getSum(isoformIndex, code) - sum) > TOLERANCE * Math.max(1, Math.abs(sum)))
+                    throw new IllegalStateException("Aggregates of isoform " + isoformIndex + " in cluster " + code + " disagree with a scan");
+            }
+        }
+    }
+
+    private static void checkAggregates(ClusterAggregates clusterAggregates, ClusterAggregates expectedClusterAggregates, int numCodes) {
+        int numIsoforms = clusterAggregates.getMatrix().getNumIsoforms();
+        for (int code = 0; code < numCodes; code++) {
+            if (clusterAggregates.getNumCells(code) != expectedClusterAggregates.getNumCells(code))
+                throw new IllegalStateException("Cluster " + code + " has the wrong number of cells");
+            for (int isoformIndex = 0; isoformIndex < numIsoforms; isoformIndex++) {
+                double sum = expectedClusterAggregates.getSum(isoformIndex, code);
+                if (clusterAggregates.getNumExpressingCells(isoformIndex, code) != expectedClusterAggregates.getNumExpressingCells(isoformIndex, code) ||
+                    Math.abs(clusterAggregates.getSum(isoformIndex, code) - sum) > TOLERANCE * Math.max(1, Math.abs(sum)))
+                    throw new IllegalStateException("Aggregates of isoform " + isoformIndex + " in cluster " + code +
+                                                    " disagree with ones calculated again");
+            }
+        }
+    }
+
+    private static ExpressionMatrix makeMatrix(int numCells, int numIsoforms, double nonZeroFraction) throws Exception {
+        Random random = new Random(0);
+        ExpressionMatrixBuilder builder = new ExpressionMatrixBuilder(numCells, numIsoforms, ExpressionEncoding.FLOAT,
+                                                                      IsoformQuorum.NONE.newCounter(numIsoforms), MatrixLayout.DENSE);
+        double[] cellExpression = new double[numIsoforms];
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++) {
+            for (int isoformIndex = 0; isoformIndex < numIsoforms; isoformIndex++)
+                cellExpression[isoformIndex] = (random.nextDouble() < nonZeroFraction) ? Math.exp(random.nextGaussian() * 2) : 0;
+            builder.setCellExpression(cellNumber, cellExpression);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Puts each cell in a random cluster, so a cluster's cells are spread across the matrix
+     */
+    private static int[] makeCellClusterCodes(int numCells, int numClusters) {
+        Random random = new Random(1);
+        int[] cellClusterCodes = new int[numCells];
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++)
+            cellClusterCodes[cellNumber] = random.nextInt(numClusters);
+        return cellClusterCodes;
+    }
+
+    /**
+     * Picks the given number of different cells at random, in order
+     */
+    private static int[] makeMovedCellNumbers(int numCells, int numMovedCells) {
+        Random random = new Random(2);
+        return random.ints(0, numCells).distinct().limit(Math.min(numMovedCells, numCells)).sorted().toArray();
+    }
+
+    private static int[][] getClusterCellNumbers(int[] cellClusterCodes, int numClusters) {
+        int[] numCellsByCode = new int[numClusters];
+        for (int code : cellClusterCodes)
+            numCellsByCode[code]++;
+        int[][] clusters = new int[numClusters][];
+        for (int code = 0; code < numClusters; code++)
+            clusters[code] = new int[numCellsByCode[code]];
+        int[] positions = new int[numClusters];
+        for (int cellNumber = 0; cellNumber < cellClusterCodes.length; cellNumber++)
+            clusters[cellClusterCodes[cellNumber]][positions[cellClusterCodes[cellNumber]]++] = cellNumber;
+        return clusters;
+    }
+}
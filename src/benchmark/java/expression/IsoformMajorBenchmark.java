@@ -0,0 +1,136 @@
+package expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the cost of the per-isoform scans behind the genes' max fold changes (the average
+ * expression and number of expressing cells of every isoform in every cluster) when a dense
+ * matrix is read one cell's array at a time, as it used to be, against reading its
+ * isoform-major copy. The matrix and clusters are generated in memory; the isoform-major copy
+ * is built before the scans are timed, and the time it took to build is reported separately
+ *
+ * Usage: IsoformMajorBenchmark [numCells] [numIsoforms] [numClusters] [fraction of values that are nonzero]
+ */
+public class IsoformMajorBenchmark {
+    private static final int NUM_WARMUP_RUNS = 2;
+    private static final int NUM_TIMED_RUNS = 5;
+    private static final int NUM_ISOFORMS_PER_GENE = 3;
+
+    public static void main(String[] args) throws Exception {
+        int numCells = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        int numIsoforms = (args.length > 1) ? Integer.parseInt(args[1]) : 6000;
+        int numClusters = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+        double nonZeroFraction = (args.length > 3) ? Double.parseDouble(args[3]) : 0.3;
+
+        DenseExpressionMatrix matrix = makeMatrix(numCells, numIsoforms, nonZeroFraction);
+        int[][] clusters = makeClusters(numCells, numClusters);
+        System.out.println("Matrix: " + numCells + " cells x " + numIsoforms + " isoforms (" + (numIsoforms / NUM_ISOFORMS_PER_GENE) +
+                           " genes), " + numClusters + " clusters");
+
+        long start = System.nanoTime();
+        matrix.forEachExpressingCell(0, (cellNumber, expression) -> {});
+        System.out.printf("Building the isoform-major copy: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        double rowMajorChecksum = 0;
+        double isoformMajorChecksum = 0;
+        for (int i = 0; i < NUM_WARMUP_RUNS; i++) {
+            rowMajorChecksum = getMaxFoldChanges(matrix, clusters, false);
+            isoformMajorChecksum = getMaxFoldChanges(matrix, clusters, true);
+        }
+        if (rowMajorChecksum != isoformMajorChecksum)
+            throw new IllegalStateException("Scans disagree: " + rowMajorChecksum + " vs " + isoformMajorChecksum);
+
+        long rowMajorTime = 0;
+        long isoformMajorTime = 0;
+        for (int i = 0; i < NUM_TIMED_RUNS; i++) {
+            start = System.nanoTime();
+            getMaxFoldChanges(matrix, clusters, false);
+            rowMajorTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            getMaxFoldChanges(matrix, clusters, true);
+            isoformMajorTime += System.nanoTime() - start;
+        }
+
+        double rowMajorMillis = rowMajorTime / 1e6 / NUM_TIMED_RUNS;
+        double isoformMajorMillis = isoformMajorTime / 1e6 / NUM_TIMED_RUNS;
+        System.out.printf("Fold changes of all genes, reading cells' arrays: %.1f ms%n", rowMajorMillis);
+        System.out.printf("Fold changes of all genes, isoform-major copy:    %.1f ms%n", isoformMajorMillis);
+        System.out.printf("Speedup: %.2fx%n", rowMajorMillis / isoformMajorMillis);
+    }
+
+    /**
+     * Calculates the max fold change of every gene the way Gene does: for each of its isoforms,
+     * the isoform's average expression and number of expressing cells in each cluster
+     *
+     * @return sum of the genes' max fold changes, so the scans can be checked against each other
+     */
+    private static double getMaxFoldChanges(DenseExpressionMatrix matrix, int[][] clusters, boolean isoformMajor) {
+        double checksum = 0;
+        for (int geneStart = 0; geneStart < matrix.getNumIsoforms(); geneStart += NUM_ISOFORMS_PER_GENE) {
+            double maxFoldChange = 0;
+            for (int isoformIndex = geneStart; isoformIndex < Math.min(geneStart + NUM_ISOFORMS_PER_GENE, matrix.getNumIsoforms()); isoformIndex++) {
+                double minExpression = Integer.MAX_VALUE;
+                double maxExpression = Integer.MIN_VALUE;
+                for (int[] cluster : clusters) {
+                    ExpressionSum expressionSum = new ExpressionSum();
+                    ExpressionSum expressingCells = new ExpressionSum();
+                    if (isoformMajor) {
+                        matrix.forEachExpressingCell(isoformIndex, cluster, expressionSum);
+                        matrix.forEachExpressingCell(isoformIndex, cluster, expressingCells);
+                    } else {
+                        visitCellByCell(matrix, isoformIndex, cluster, expressionSum);
+                        visitCellByCell(matrix, isoformIndex, cluster, expressingCells);
+                    }
+                    double expression = expressionSum.getSum() / cluster.length;
+                    minExpression = Math.min(minExpression, expression);
+                    maxExpression = Math.max(maxExpression, expression);
+                    checksum += expressingCells.getNumExpressingCells();
+                }
+                maxFoldChange = Math.max(maxFoldChange, maxExpression / minExpression);
+            }
+            checksum += maxFoldChange;
+        }
+        return checksum;
+    }
+
+    private static void visitCellByCell(ExpressionMatrix matrix, int isoformIndex, int[] cellNumbers, ExpressionVisitor visitor) {
+        for (int cellNumber : cellNumbers) {
+            double expression = matrix.getExpression(cellNumber, isoformIndex);
+            if (expression != 0)
+                visitor.visit(cellNumber, expression);
+        }
+    }
+
+    private static DenseExpressionMatrix makeMatrix(int numCells, int numIsoforms, double nonZeroFraction) throws Exception {
+        Random random = new Random(0);
+        ExpressionMatrixBuilder builder = new ExpressionMatrixBuilder(numCells, numIsoforms, ExpressionEncoding.FLOAT,
+                                                                      IsoformQuorum.NONE.newCounter(numIsoforms), MatrixLayout.DENSE);
+        double[] cellExpression = new double[numIsoforms];
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++) {
+            for (int isoformIndex = 0; isoformIndex < numIsoforms; isoformIndex++)
+                cellExpression[isoformIndex] = (random.nextDouble() < nonZeroFraction) ? Math.exp(random.nextGaussian() * 2) : 0;
+            builder.setCellExpression(cellNumber, cellExpression);
+        }
+        return (DenseExpressionMatrix) builder.build();
+    }
+
+    /**
+     * Puts each cell in a random cluster, so a cluster's cells are spread across the matrix
+     */
+    private static int[][] makeClusters(int numCells, int numClusters) {
+        Random random = new Random(1);
+        List<List<Integer>> clusters = new ArrayList<>();
+        for (int i = 0; i < numClusters; i++)
+            clusters.add(new ArrayList<>());
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++)
+            clusters.get(random.nextInt(numClusters)).add(cellNumber);
+
+        int[][] clusterCellNumbers = new int[numClusters][];
+        for (int i = 0; i < numClusters; i++)
+            clusterCellNumbers[i] = clusters.get(i).stream().mapToInt(Integer::intValue).toArray();
+        return clusterCellNumbers;
+    }
+}
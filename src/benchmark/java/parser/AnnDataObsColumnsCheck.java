@@ -0,0 +1,47 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checks which obs columns of the AnnData files in src/benchmark/resources/parser are read as
+ * label sets. Both files have a numeric obs column (n_genes), which must be skipped:
+ *   - numeric_obs_columns.h5ad is laid out as AnnData 0.7 and later write files: its categorical
+ *     column is a group, its numeric columns (n_genes, total_counts) are plain datasets, and obs
+ *     has no __categories group
+ *   - old_categories_obs_columns.h5ad is laid out as older AnnData versions write files: the
+ *     categories of its categorical column are in obs/__categories
+ *
+ * Usage: AnnDataObsColumnsCheck [directory with the files]
+ */
+public class AnnDataObsColumnsCheck {
+
+    public static void main(String[] args) throws Exception {
+        String directory = (args.length > 0) ? args[0] : "src/benchmark/resources/parser";
+
+        LinkedHashMap<String, String[]> expectedColumns = new LinkedHashMap<>();
+        expectedColumns.put("cell_type", new String[]{"B", "T", "T", "B", "NA", "T"});
+        check(directory + "/numeric_obs_columns.h5ad", expectedColumns);
+
+        expectedColumns = new LinkedHashMap<>();
+        expectedColumns.put("louvain", new String[]{"1", "0", "0", "2", "1", "0"});
+        check(directory + "/old_categories_obs_columns.h5ad", expectedColumns);
+    }
+
+    private static void check(String path, LinkedHashMap<String, String[]> expectedColumns) throws Exception {
+        try (AnnDataLoader annDataLoader = new AnnDataLoader(path)) {
+            LinkedHashMap<String, String[]> columns = annDataLoader.getCategoricalColumns();
+            if (!columns.keySet().equals(expectedColumns.keySet()))
+                throw new IllegalStateException(path + ": read columns " + columns.keySet() + ", expected " + expectedColumns.keySet());
+            for (Map.Entry<String, String[]> column : expectedColumns.entrySet()) {
+                if (!Arrays.equals(columns.get(column.getKey()), column.getValue()))
+                    throw new IllegalStateException(path + ": column " + column.getKey() + " has values " +
+                                                    Arrays.toString(columns.get(column.getKey())) + ", expected " +
+                                                    Arrays.toString(column.getValue()));
+            }
+            System.out.println(path + ": read " + columns.keySet() + " (" + annDataLoader.getNumCells() + " cells, " +
+                               annDataLoader.getIsoformIndexMap().size() + " isoforms)");
+        }
+    }
+}
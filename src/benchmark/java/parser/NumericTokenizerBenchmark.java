@@ -0,0 +1,116 @@
+package parser;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the cost per value of parsing a tab-separated matrix with NumericTokenizer against
+ * parsing it the way the matrix used to be parsed (a String per line, a regex split and
+ * Double.parseDouble() per value). The matrix is generated in memory, so disk speed doesn't
+ * affect the results
+ *
+ * Usage: NumericTokenizerBenchmark [numRows] [numCols] [fraction of values that are nonzero]
+ */
+public class NumericTokenizerBenchmark {
+    private static final int NUM_WARMUP_RUNS = 3;
+    private static final int NUM_TIMED_RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int numRows = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        int numCols = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+        double nonZeroFraction = (args.length > 2) ? Double.parseDouble(args[2]) : 0.1;
+
+        byte[] matrix = makeMatrix(numRows, numCols, nonZeroFraction);
+        long numValues = (long) numRows * numCols;
+        System.out.println("Matrix: " + numRows + " x " + numCols + ", " + matrix.length + " bytes");
+
+        double splitChecksum = 0;
+        double tokenizerChecksum = 0;
+        for (int i = 0; i < NUM_WARMUP_RUNS; i++) {
+            splitChecksum = parseWithSplit(matrix, numCols);
+            tokenizerChecksum = parseWithTokenizer(matrix, numCols);
+        }
+        if (splitChecksum != tokenizerChecksum)
+            throw new IllegalStateException("Parsers disagree: " + splitChecksum + " vs " + tokenizerChecksum);
+
+        long splitTime = 0;
+        long tokenizerTime = 0;
+        for (int i = 0; i < NUM_TIMED_RUNS; i++) {
+            long start = System.nanoTime();
+            parseWithSplit(matrix, numCols);
+            splitTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            parseWithTokenizer(matrix, numCols);
+            tokenizerTime += System.nanoTime() - start;
+        }
+
+        double splitNanosPerValue = (double) splitTime / NUM_TIMED_RUNS / numValues;
+        double tokenizerNanosPerValue = (double) tokenizerTime / NUM_TIMED_RUNS / numValues;
+        System.out.printf("Regex split + Double.parseDouble: %.2f ns/value%n", splitNanosPerValue);
+        System.out.printf("NumericTokenizer:                 %.2f ns/value%n", tokenizerNanosPerValue);
+        System.out.printf("Speedup: %.2fx%n", splitNanosPerValue / tokenizerNanosPerValue);
+    }
+
+    private static double parseWithSplit(byte[] matrix, int numCols) throws IOException {
+        Pattern pattern = Pattern.compile("\t");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(matrix), StandardCharsets.ISO_8859_1));
+        double checksum = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            double[] row = pattern.splitAsStream(line).mapToDouble(Double::parseDouble).toArray();
+            if (row.length != numCols)
+                throw new IllegalStateException("Unexpected number of columns");
+            for (double d : row)
+                checksum += d;
+        }
+        return checksum;
+    }
+
+    private static double parseWithTokenizer(byte[] matrix, int numCols) throws IOException {
+        NumericTokenizer tokenizer = new NumericTokenizer(new ByteArrayInputStream(matrix));
+        double[] row = new double[numCols];
+        double checksum = 0;
+        while (tokenizer.nextLine()) {
+            if (tokenizer.parseLine((byte) '\t', row) != numCols || tokenizer.getInvalidValue() != null)
+                throw new IllegalStateException("Invalid row at line " + tokenizer.getLineNumber());
+            for (double d : row)
+                checksum += d;
+        }
+        return checksum;
+    }
+
+    /**
+     * Values are written in a mix of the formats expression matrices use: integers, decimals and
+     * scientific notation
+     */
+    private static byte[] makeMatrix(int numRows, int numCols, double nonZeroFraction) {
+        Random random = new Random(0);
+        StringBuilder matrix = new StringBuilder();
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numCols; j++) {
+                if (j > 0)
+                    matrix.append('\t');
+                if (random.nextDouble() >= nonZeroFraction) {
+                    matrix.append('0');
+                } else {
+                    double value = Math.exp(random.nextGaussian() * 2);
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            matrix.append(Math.round(value));
+                            break;
+                        case 1:
+                            matrix.append(String.format("%.4f", value));
+                            break;
+                        default:
+                            matrix.append(String.format("%.6e", value));
+                    }
+                }
+            }
+            matrix.append('\n');
+        }
+        return matrix.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,156 @@
+package parser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Checks reading a file from an HTTP server on this machine with RemoteFile, with the cache in a
+ * temporary directory:
+ *   - reads of parts of blocks, across blocks and of the file's shorter last block return the
+ *     file's bytes
+ *   - blocks that have been read are taken from the cache, by the same RemoteFile and by one
+ *     opened again, without asking the server
+ *   - a block read after the file has changed on the server (new ETag) fails instead of returning
+ *     the new version's bytes, and isn't cached; the file opened again reads the new version
+ *
+ * The server honours Range and If-Range as RFC 7233 says, and counts the requests for file bytes
+ *
+ * Usage: RemoteFileCheck
+ */
+public class RemoteFileCheck {
+    private static final String FILE_PATH = "/matrix.rsm";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private static volatile byte[] content;
+    private static volatile String eTag;
+    private static final AtomicInteger numFileRequests = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        Path cacheDirectory = Files.createTempDirectory("remote-file-check");
+        System.setProperty(RemoteFile.CACHE_DIRECTORY_PROPERTY, cacheDirectory.toString());
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(FILE_PATH, RemoteFileCheck::respond);
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + FILE_PATH;
+            setContent(makeContent(7 * RemoteFile.BLOCK_SIZE / 2, 0), "\"v1\"");
+
+            RemoteFile remoteFile = RemoteFile.open(url);
+            checkRead(remoteFile, 10, 100, 1);
+            checkRead(remoteFile, RemoteFile.BLOCK_SIZE - 50, 100, 2);
+            checkRead(remoteFile, content.length - 5, 5, 3);
+            System.out.println("Partial and cross-block reads: OK");
+
+            checkRead(remoteFile, 0, RemoteFile.BLOCK_SIZE + 1, 3);
+            checkRead(RemoteFile.open(url), 20, RemoteFile.BLOCK_SIZE, 3);
+            System.out.println("Cache reuse: OK");
+
+            byte[] oldContent = content;
+            RemoteFile oldRemoteFile = RemoteFile.open(url);
+            setContent(makeContent(oldContent.length, 1), "\"v2\"");
+            try {
+                ByteBuffer bytes = oldRemoteFile.read(2 * RemoteFile.BLOCK_SIZE + 10, 10);
+                throw new IllegalStateException("read " + bytes.remaining() + " bytes of a file that changed on the server");
+            } catch (IOException e) {
+                System.out.println("Read after the file changed failed: " + e.getMessage());
+            }
+            if (countCachedBlocks(cacheDirectory) != 3)
+                throw new IllegalStateException("a block of the changed file was cached with the old version");
+            // cached blocks of the version that was opened can still be read
+            checkRead(oldRemoteFile, 0, 10, oldContent, numFileRequests.get());
+
+            RemoteFile newRemoteFile = RemoteFile.open(url);
+            int numRequests = numFileRequests.get();
+            checkRead(newRemoteFile, 0, 10, content, numRequests + 1);
+            checkRead(newRemoteFile, 2 * RemoteFile.BLOCK_SIZE + 10, 10, content, numRequests + 2);
+            System.out.println("Validator change: OK");
+        } finally {
+            server.stop(0);
+            try (Stream<Path> files = Files.walk(cacheDirectory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange) throws IOException {
+        byte[] file = content;
+        String fileETag = eTag;
+        exchange.getResponseHeaders().set("ETag", fileETag);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(file.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        numFileRequests.incrementAndGet();
+        int start = 0;
+        int end = file.length - 1;
+        int responseCode = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        Matcher rangeMatcher = (range == null) ? null : RANGE.matcher(range);
+        if (rangeMatcher != null && rangeMatcher.matches() && (ifRange == null || ifRange.equals(fileETag))) {
+            start = Integer.parseInt(rangeMatcher.group(1));
+            end = Math.min(Integer.parseInt(rangeMatcher.group(2)), file.length - 1);
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + file.length);
+            responseCode = 206;
+        }
+        exchange.sendResponseHeaders(responseCode, end - start + 1);
+        try (OutputStream response = exchange.getResponseBody()) {
+            response.write(file, start, end - start + 1);
+        }
+    }
+
+    private static void setContent(byte[] newContent, String newETag) {
+        content = newContent;
+        eTag = newETag;
+    }
+
+    private static byte[] makeContent(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void checkRead(RemoteFile remoteFile, long position, int length, int expectedNumRequests) throws IOException {
+        checkRead(remoteFile, position, length, content, expectedNumRequests);
+    }
+
+    /**
+     * Checks that the bytes read are the given file's, and that the server has been asked for the
+     * file the given number of times in all
+     */
+    private static void checkRead(RemoteFile remoteFile, long position, int length, byte[] file,
+                                  int expectedNumRequests) throws IOException {
+        ByteBuffer buffer = remoteFile.read(position, length);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        if (!Arrays.equals(bytes, Arrays.copyOfRange(file, (int) position, (int) position + length)))
+            throw new IllegalStateException("read the wrong bytes at " + position + " (" + length + " bytes)");
+        if (numFileRequests.get() != expectedNumRequests)
+            throw new IllegalStateException("the server was asked for the file " + numFileRequests.get() +
+                                            " times after reading at " + position + ", expected " + expectedNumRequests);
+    }
+
+    private static long countCachedBlocks(Path cacheDirectory) throws IOException {
+        try (Stream<Path> files = Files.walk(cacheDirectory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".block")).count();
+        }
+    }
+}
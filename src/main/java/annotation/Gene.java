@@ -89,6 +89,15 @@ public class Gene implements Comparable<Gene> {
             }
         }
     }
+    /**
+     * Forgets the max fold changes calculated for every label set (e.g. when the gene is reused
+     * for a reloaded dataset, whose label sets are new)
+     */
+    public void clearMaxFoldChanges() {
+        maxFoldChangeMap.clear();
+        maxFoldChange.set(new GeneMaxFoldChange(0, 0));
+    }
+
     /**
      * Removes given label set from the map of max fold changes
      */
@@ -161,7 +170,8 @@ public class Gene implements Comparable<Gene> {
             double minExpression = Integer.MAX_VALUE;
             double maxExpression = Integer.MIN_VALUE;
             for (Cluster cluster : clusters) {
-                double expression = isoform.getAverageExpressionInCluster(cluster, false, true);
+                // fold changes are of untransformed expression, as they're meaningless for e.g. z-scores
+                double expression = isoform.getRawAverageExpressionInCluster(cluster);
                 if (expression < minExpression)
                     minExpression = expression;
                 if (expression > maxExpression)
@@ -1,14 +1,13 @@
 package annotation;
 
 import controller.clusterview.ClusterViewController;
+import expression.ExpressionSum;
 import labelset.Cluster;
 import mediator.ControllerMediator;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
 
 public class Isoform {
 
@@ -40,13 +39,23 @@ public class Isoform {
         return getAverageExpressionInCells(includeZeros, cells);
     }
 
+    /**
+     * The average in all the cells in the cluster is looked up in the cluster's label set's
+     * aggregates; the average in the selected ones is calculated from their expression levels
+     */
     public double getAverageExpressionInCluster(Cluster cluster, boolean onlySelected, boolean includeZeros) {
-        Collection<ClusterViewController.CellDataItem> cellsInCluster;
-        if (onlySelected)
-            cellsInCluster = ControllerMediator.getInstance().getSelectedCellsInCluster(cluster);
-        else
-            cellsInCluster = cluster.getCells();
-        return getAverageExpressionInCells(includeZeros, cellsInCluster);
+        if (!onlySelected)
+            return ControllerMediator.getInstance().getAverageExpressionInCluster(id, cluster, includeZeros);
+        Collection<ClusterViewController.CellDataItem> selectedCellsInCluster = ControllerMediator.getInstance().getSelectedCellsInCluster(cluster);
+        return getAverageExpressionInCells(includeZeros, selectedCellsInCluster);
+    }
+
+    /**
+     * Returns the average of the isoform's untransformed expression levels in all the cells in the
+     * given cluster (zeros included), whichever expression transform is in use
+     */
+    public double getRawAverageExpressionInCluster(Cluster cluster) {
+        return ControllerMediator.getInstance().getRawAverageExpressionInCluster(id, cluster);
     }
 
     public double getMedianExpression(boolean onlySelected, boolean includeZeros) {
@@ -98,43 +107,46 @@ public class Isoform {
     }
 
     private double getAverageExpressionInCells(boolean includeZeros, Collection<ClusterViewController.CellDataItem> cells) {
-        double expressionSum = 0;
-        int numCells = 0;
-
-        for (ClusterViewController.CellDataItem cell : cells) {
-            double expression = cell.getIsoformExpressionLevel(id);
-            if (includeZeros || expression > 0) {
-                expressionSum += expression;
-                numCells++;
-            }
-        }
+        ExpressionSum expressionSum = new ExpressionSum();
+        ControllerMediator.getInstance().forEachExpressingCell(id, cells, expressionSum);
+
+        int numCells = includeZeros ? cells.size() : expressionSum.getNumExpressingCells();
         if (numCells == 0)
             return 0;
-        return expressionSum / numCells;
+        double sum = expressionSum.getSum();
+        if (includeZeros)
+            sum += (numCells - expressionSum.getNumExpressingCells()) * ControllerMediator.getInstance().getNonExpressingLevel(id);
+        return sum / numCells;
     }
 
+    /**
+     * Only the expressing cells' values are collected and sorted; if zeros are included, the
+     * other cells are accounted for as having the lowest values (the isoform's non-expressing
+     * level, which is zero unless the expression transform in use changes it)
+     */
     private double getMedianExpressionInCells(boolean includeZeros, Collection<ClusterViewController.CellDataItem> cells) {
-        List<ClusterViewController.CellDataItem> cellList;
-        if (!includeZeros)
-            cellList = cells.stream().filter(cell -> cell.getIsoformExpressionLevel(id) > 0).collect(Collectors.toList());
-        else if (!(cells instanceof List))
-            cellList = new ArrayList<>(cells);
-        else
-            cellList = (List) cells;
+        DoubleStream.Builder nonZeroExpressionValues = DoubleStream.builder();
+        ControllerMediator.getInstance().forEachExpressingCell(id, cells, (cellNumber, expression) -> nonZeroExpressionValues.add(expression));
+        double[] sortedNonZeroExpressionValues = nonZeroExpressionValues.build().sorted().toArray();
 
-        int numCells = cellList.size();
+        int numZeros = includeZeros ? cells.size() - sortedNonZeroExpressionValues.length : 0;
+        int numCells = numZeros + sortedNonZeroExpressionValues.length;
         if (numCells == 0) {
             return 0;
         } else {
-            cellList.sort(Comparator.comparingDouble(cell -> cell.getIsoformExpressionLevel(id)));
-            ClusterViewController.CellDataItem medianCell = cellList.get(numCells / 2);
+            double zeroExpression = (numZeros > 0) ? ControllerMediator.getInstance().getNonExpressingLevel(id) : 0;
+            double medianExpression = getNthLowestExpression(numCells / 2, numZeros, zeroExpression, sortedNonZeroExpressionValues);
 
             if (numCells % 2 != 0) {
-                return medianCell.getIsoformExpressionLevel(id);
+                return medianExpression;
             } else {
-                ClusterViewController.CellDataItem medianCellTwo = cellList.get(numCells / 2 - 1);
-                return (medianCell.getIsoformExpressionLevel(id) + medianCellTwo.getIsoformExpressionLevel(id)) / 2;
+                double medianExpressionTwo = getNthLowestExpression(numCells / 2 - 1, numZeros, zeroExpression, sortedNonZeroExpressionValues);
+                return (medianExpression + medianExpressionTwo) / 2;
             }
         }
     }
+
+    private static double getNthLowestExpression(int n, int numZeros, double zeroExpression, double[] sortedNonZeroExpressionValues) {
+        return (n < numZeros) ? zeroExpression : sortedNonZeroExpressionValues[n - numZeros];
+    }
 }
\ No newline at end of file
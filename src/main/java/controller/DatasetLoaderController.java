@@ -1,6 +1,7 @@
 package controller;
 
 import exceptions.*;
+import expression.IsoformQuorum;
 import javafx.application.Platform;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -11,6 +12,7 @@ import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Toggle;
 import javafx.scene.layout.HBox;
@@ -42,9 +44,12 @@ public class DatasetLoaderController extends PopUpController implements Initiali
     @FXML private TextField gtfField;
     @FXML private TextField matrixField;
     @FXML private TextField isoformIDsField;
+    @FXML private CheckBox labelledIsoformsOnlyCheckBox;
     @FXML private VBox labelSets;
     @FXML private TextField embeddingField;
     @FXML private TextField expressionUnitField;
+    @FXML private TextField minIsoformExpressionField;
+    @FXML private TextField minIsoformCellsField;
 
     private boolean saved = false;
     private Toggle optionLoadedBy = null;
@@ -52,9 +57,12 @@ public class DatasetLoaderController extends PopUpController implements Initiali
     private String loadedGTFPath = null;
     private String loadedMatrixPath = null;
     private String loadedIsoformIDsPath = null;
+    private boolean loadedLabelledIsoformsOnly = false;
     private Collection<LabelSetLoaderSection> loadedLabelSets = null;
     private String loadedEmbeddingPath = null;
     private String loadedExpressionUnit = null;
+    private String loadedMinIsoformExpression = null;
+    private String loadedMinIsoformCells = null;
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
@@ -145,10 +153,13 @@ public class DatasetLoaderController extends PopUpController implements Initiali
             gtfField.setText(loadedGTFPath);
             matrixField.setText(loadedMatrixPath);
             isoformIDsField.setText(loadedIsoformIDsPath);
+            labelledIsoformsOnlyCheckBox.setSelected(loadedLabelledIsoformsOnly);
             labelSets.getChildren().clear();
             labelSets.getChildren().addAll(loadedLabelSets);
             embeddingField.setText(loadedEmbeddingPath);
             expressionUnitField.setText(loadedExpressionUnit);
+            minIsoformExpressionField.setText(loadedMinIsoformExpression);
+            minIsoformCellsField.setText(loadedMinIsoformCells);
         }
     }
 
@@ -158,9 +169,12 @@ public class DatasetLoaderController extends PopUpController implements Initiali
         loadedGTFPath = gtfField.getText();
         loadedMatrixPath = matrixField.getText();
         loadedIsoformIDsPath = isoformIDsField.getText();
+        loadedLabelledIsoformsOnly = labelledIsoformsOnlyCheckBox.isSelected();
         saveLoadedLabelSets();
         loadedEmbeddingPath = embeddingField.getText();
         loadedExpressionUnit = expressionUnitField.getText();
+        loadedMinIsoformExpression = minIsoformExpressionField.getText();
+        loadedMinIsoformCells = minIsoformCellsField.getText();
         saved = true;
     }
 
@@ -172,8 +186,11 @@ public class DatasetLoaderController extends PopUpController implements Initiali
         loadedLabelSets.add(new LabelSetLoaderSection());
         loadedMatrixPath = "";
         loadedIsoformIDsPath = "";
+        loadedLabelledIsoformsOnly = false;
         loadedEmbeddingPath = "";
         loadedExpressionUnit = "";
+        loadedMinIsoformExpression = "";
+        loadedMinIsoformCells = "";
         saved = false;
     }
 
@@ -317,11 +334,16 @@ public class DatasetLoaderController extends PopUpController implements Initiali
         private void loadByFiles() throws RNAScoopException {
             String gtfPath = getNecessaryPath(gtfField, "GTF file");
             String matrixPath = getNecessaryPath(matrixField, "matrix file");
-            String isoformIDsPath = getNecessaryPath(isoformIDsField, "matrix column labels file");
-            Map<String, String> labelSets = getLabelSets();
+            // an AnnData file has its own isoform IDs and label sets (a dense Arrow matrix has isoform IDs)
+            boolean isAnnData = Parser.isAnnDataFile(matrixPath);
+            String isoformIDsPath = Parser.holdsIsoformIDs(matrixPath) ? isoformIDsField.getText() : getNecessaryPath(isoformIDsField, "matrix column labels file");
+            Map<String, String> labelSets = getLabelSets(isAnnData);
             String embedding = embeddingField.getText();
             String expressionUnit = expressionUnitField.getText();
-            boolean success = Parser.loadDatasetFromIndividualPaths(gtfPath, matrixPath, isoformIDsPath, embedding, labelSets, expressionUnit);
+            boolean labelledIsoformsOnly = labelledIsoformsOnlyCheckBox.isSelected();
+            IsoformQuorum isoformQuorum = getIsoformQuorum();
+            boolean success = Parser.loadDatasetFromIndividualPaths(gtfPath, matrixPath, isoformIDsPath, embedding, labelSets, expressionUnit,
+                                                                    labelledIsoformsOnly, isoformQuorum);
             if (success) {
                 saveLoadedDatasetData();
             } else {
@@ -337,11 +359,38 @@ public class DatasetLoaderController extends PopUpController implements Initiali
             return filePath;
         }
 
-        private Map<String, String> getLabelSets() throws RNAScoopException{
+        /**
+         * Returns the quorum isoforms must meet to be loaded, no quorum if the min cells field is
+         * empty. The min expression defaults to 0
+         */
+        private IsoformQuorum getIsoformQuorum() throws InvalidIsoformQuorumException {
+            String minCells = minIsoformCellsField.getText().trim();
+            String minExpression = minIsoformExpressionField.getText().trim();
+            if (minCells.equals(""))
+                return IsoformQuorum.NONE;
+
+            try {
+                IsoformQuorum isoformQuorum = new IsoformQuorum(minExpression.equals("") ? 0 : Double.parseDouble(minExpression),
+                                                                Integer.parseInt(minCells));
+                if (!(isoformQuorum.getMinExpression() >= 0) || isoformQuorum.getMinCells() < 0)
+                    throw new InvalidIsoformQuorumException();
+                return isoformQuorum;
+            } catch (NumberFormatException e) {
+                throw new InvalidIsoformQuorumException();
+            }
+        }
+
+        /**
+         * @param skipEmptySections whether sections with no name or path are ignored instead of
+         *                          being an error
+         */
+        private Map<String, String> getLabelSets(boolean skipEmptySections) throws RNAScoopException{
             Map<String, String> labelSetMap = new HashMap<>();
             for (Node child : labelSets.getChildren()) {
                 LabelSetLoaderSection labelSetLoaderSection = (LabelSetLoaderSection) child;
                 String name = labelSetLoaderSection.getName();
+                if (skipEmptySections && name.equals("") && labelSetLoaderSection.getPath().equals(""))
+                    continue;
                 if (name.equals(""))
                     throw new LabelSetMissingNameException();
                 if (labelSetMap.containsKey(name))
@@ -125,6 +125,10 @@ public class GeneSelectorController extends PopUpController implements Initializ
         addGenesWithGivenIDsAndNames(genesShown);
     }
 
+    public List<Gene> getGenes() {
+        return new ArrayList<>(genes);
+    }
+
     public Collection<Gene> getShownGenes() {
         return shownGenes;
     }
@@ -1,5 +1,6 @@
 package controller;
 
+import expression.ExpressionTransform;
 import javafx.application.Platform;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -52,6 +53,11 @@ public class MainController implements InteractiveElementController {
     @FXML private CheckMenuItem showIsoformIDToggle;
     @FXML private CheckMenuItem showIsoformPlotLegendToggle;
     @FXML private CheckMenuItem colorCellPlotByIsoformToggle;
+    // expression transform toggles
+    @FXML private RadioMenuItem rawExpressionToggle;
+    @FXML private RadioMenuItem log1pExpressionToggle;
+    @FXML private RadioMenuItem cpmExpressionToggle;
+    @FXML private RadioMenuItem zScoreExpressionToggle;
 
     private Stage window;
     private boolean clusterViewIsOpen;
@@ -161,6 +167,16 @@ public class MainController implements InteractiveElementController {
         return hideDotPlotToggle.isSelected();
     }
 
+    public ExpressionTransform getExpressionTransform() {
+        if (log1pExpressionToggle.isSelected())
+            return ExpressionTransform.LOG1P;
+        else if (cpmExpressionToggle.isSelected())
+            return ExpressionTransform.CPM;
+        else if (zScoreExpressionToggle.isSelected())
+            return ExpressionTransform.Z_SCORE;
+        return ExpressionTransform.RAW;
+    }
+
     public boolean isShowingMedian() {
         return showMedianToggle.isSelected();
     }
@@ -320,6 +336,15 @@ public class MainController implements InteractiveElementController {
     }
 
 
+    /**
+     * When one of the expression transform toggles is selected, recalculates the expression
+     * levels shown in the cell plot and the dot plot
+     */
+    @FXML
+    protected void handleExpressionTransformToggle() {
+        ControllerMediator.getInstance().clusterViewHandleExpressionTransformChange();
+    }
+
     /**
      * When one of the gene label toggles is selected/deselected updates the gene labels
      * of all the genes in the isoform plot
@@ -412,6 +437,34 @@ public class MainController implements InteractiveElementController {
         ControllerMediator.getInstance().displayDatasetLoader();
     }
 
+    /**
+     * Appends the batch of cells described by the JSON file user selects from file chooser
+     * to the loaded dataset
+     */
+    @FXML
+    protected void handleAppendCellsButton() {
+        FileChooser fileChooser = new FileChooser();
+        FileChooser.ExtensionFilter jsonFilter = new FileChooser.ExtensionFilter("JSON Files", "*.json");
+        fileChooser.getExtensionFilters().add(jsonFilter);
+        File file = fileChooser.showOpenDialog(window);
+        if (file != null) {
+            disableAppendingCellsAssociatedFunctionality();
+            try {
+                Thread cellAppender = new Thread(() -> {
+                    try {
+                        Parser.appendCellsFromJSONFile(file.getPath());
+                    } finally {
+                        runLater(this::enableAppendingCellsAssociatedFunctionality);
+                    }
+                });
+                cellAppender.start();
+            } catch (Exception e) {
+                enableAppendingCellsAssociatedFunctionality();
+                ControllerMediator.getInstance().addConsoleUnexpectedExceptionMessage(e);
+            }
+        }
+    }
+
     /**
      * If the isoform plot was closed in the previous session, closes the isoform plot,
      * otherwise opens it
@@ -461,6 +514,7 @@ public class MainController implements InteractiveElementController {
         restoreShowIsoformIDToggle(prevSession);
         restoreShowIsoformPlotLegendToggle(prevSession);
         restoreColorCellPlotByIsoformToggle(prevSession);
+        restoreExpressionTransformToggles(prevSession);
     }
 
     /**
@@ -557,6 +611,59 @@ public class MainController implements InteractiveElementController {
         colorCellPlotByIsoformToggle.setSelected(wasColoringCellPlotByIsoform);
     }
 
+    /**
+     * Selects the expression transform toggle that was selected in the previous session (the raw
+     * expression toggle if the session didn't save one), and transforms the loaded matrix
+     * accordingly
+     */
+    private void restoreExpressionTransformToggles(JSONObject prevSession) {
+        ExpressionTransform transform = null;
+        if (prevSession.has(SessionMaker.EXPRESSION_TRANSFORM_KEY))
+            transform = ExpressionTransform.fromName(prevSession.getString(SessionMaker.EXPRESSION_TRANSFORM_KEY));
+        selectExpressionTransformToggle(transform == null ? ExpressionTransform.RAW : transform);
+        ControllerMediator.getInstance().transformCellIsoformExpressionMatrix();
+    }
+
+    private void selectExpressionTransformToggle(ExpressionTransform transform) {
+        switch (transform) {
+            case LOG1P:
+                log1pExpressionToggle.setSelected(true);
+                break;
+            case CPM:
+                cpmExpressionToggle.setSelected(true);
+                break;
+            case Z_SCORE:
+                zScoreExpressionToggle.setSelected(true);
+                break;
+            default:
+                rawExpressionToggle.setSelected(true);
+        }
+    }
+
+    private void disableAppendingCellsAssociatedFunctionality() {
+        disable();
+        ControllerMediator.getInstance().disableDatasetLoader();
+        ControllerMediator.getInstance().disableIsoformPlot();
+        ControllerMediator.getInstance().disableGeneSelector();
+        ControllerMediator.getInstance().disableClusterView(true);
+        ControllerMediator.getInstance().disableClusterViewSettings();
+        ControllerMediator.getInstance().disableGradientAdjuster();
+        ControllerMediator.getInstance().disableLabelSetManager();
+        ControllerMediator.getInstance().disableGeneFilterer();
+    }
+
+    private void enableAppendingCellsAssociatedFunctionality() {
+        enable();
+        ControllerMediator.getInstance().enableDatasetLoader();
+        ControllerMediator.getInstance().enableIsoformPlot();
+        ControllerMediator.getInstance().enableGeneSelector();
+        ControllerMediator.getInstance().enableClusterView();
+        ControllerMediator.getInstance().enableClusterViewSettings();
+        ControllerMediator.getInstance().enableGradientAdjuster();
+        ControllerMediator.getInstance().enableLabelSetManager();
+        ControllerMediator.getInstance().enableGeneFilterer();
+    }
+
     private void setViewTogglesToDefault() {
         revComplementToggle.setSelected(false);
         hideSingleExonIsoformsToggle.setSelected(false);
@@ -568,6 +675,7 @@ public class MainController implements InteractiveElementController {
         showIsoformIDToggle.setSelected(false);
         showIsoformPlotLegendToggle.setSelected(true);
         colorCellPlotByIsoformToggle.setSelected(false);
+        rawExpressionToggle.setSelected(true);
     }
 
     /**
@@ -5,6 +5,13 @@ import com.jujutsu.tsne.TSneConfiguration;
 import com.jujutsu.tsne.barneshut.BHTSne;
 import com.jujutsu.utils.TSneUtils;
 import controller.InteractiveElementController;
+import expression.AppendedExpressionMatrix;
+import expression.ClusterAggregates;
+import expression.CompressedExpressionMatrix;
+import expression.ExpressionMatrix;
+import expression.ExpressionSum;
+import expression.ExpressionTransform;
+import expression.ExpressionVisitor;
 import javafx.application.Platform;
 import javafx.embed.swing.SwingNode;
 import javafx.fxml.FXML;
@@ -80,7 +87,10 @@ public class ClusterViewController implements Initializable, InteractiveElementC
     @FXML private StackPane plotHolder;
 
     private HashMap<String, Integer> isoformIndexMap;
-    private double[][] cellIsoformExpressionMatrix;
+    private ExpressionMatrix cellIsoformExpressionMatrix;
+    // view of the matrix in the expression transform in use, which the cell plot's colors and
+    // the isoforms' expression statistics are read from (t-SNE and UMAP use the raw matrix)
+    private volatile ExpressionMatrix transformedExpressionMatrix;
     private double[][] embedding; // optional embedding user can load
     private ChartPanel plot;
     private PlotRenderer plotRenderer;
@@ -138,10 +148,116 @@ public class ClusterViewController implements Initializable, InteractiveElementC
         exportEmbeddingButton.setDisable(false);
     }
 
-    public void setCellIsoformExpressionMatrix(double[][] cellIsoformExpressionMatrix) {
+    public void setCellIsoformExpressionMatrix(ExpressionMatrix cellIsoformExpressionMatrix) {
         if (!isPlotCleared())
             clearPlot();
+        if (this.cellIsoformExpressionMatrix != null && this.cellIsoformExpressionMatrix != cellIsoformExpressionMatrix)
+            closeCompressedExpressionMatrices(this.cellIsoformExpressionMatrix);
         this.cellIsoformExpressionMatrix = cellIsoformExpressionMatrix;
+        transformExpressionMatrix();
+    }
+
+    /**
+     * Recalculates the expression levels shown (the cell plot's colors and gradient values, the
+     * dot plot) when the expression transform in use changes. The matrix isn't reloaded, only the
+     * statistics the transform needs are calculated
+     */
+    public void handleExpressionTransformChange() {
+        if (cellIsoformExpressionMatrix == null)
+            return;
+
+        disableAssociatedFunctionality();
+        Thread transformer = new Thread(() -> {
+            try {
+                transformExpressionMatrix();
+                if (!isPlotCleared()) {
+                    new PlotMaker().setGradientValues();
+                    // the dot plot reads the label set in use's aggregates, so they're calculated here
+                    ControllerMediator.getInstance().getLabelSetInUse().getClusterAggregates(transformedExpressionMatrix);
+                }
+                runLater(() -> {
+                    ControllerMediator.getInstance().updateIsoformPlot(false);
+                    redrawPlotSansLegend();
+                });
+            } catch (Exception e) {
+                runLater(() -> ControllerMediator.getInstance().addConsoleUnexpectedExceptionMessage(e));
+            } finally {
+                runLater(this::enableAssociatedFunctionality);
+            }
+        });
+        transformer.start();
+    }
+
+    /**
+     * Replaces the loaded matrix with the given one, which is the loaded matrix with cells
+     * appended to it, and adds the appended cells to the clusters they're in in each label set.
+     * The matrix's view in the expression transform in use is given too, as making it reads the
+     * whole matrix, which shouldn't be done on the JavaFX thread. If the cell plot is drawn from
+     * a loaded embedding, the cells are added to it at the given coordinates. Otherwise (no
+     * coordinates are given, or the plot was drawn with t-SNE or UMAP, whose coordinates the
+     * given ones aren't in), the plot is cleared, as the cells can't be placed in it. The cells
+     * already loaded are left as they are
+     *
+     * @param transformedAppendedMatrix view of the appended matrix in the expression transform in use
+     * @param cellsEmbedding embedding coordinates of the appended cells, null if there are none.
+     *                       They're only kept if an embedding is loaded
+     * @param cellLabels maps the name of each label set to the names of the clusters the appended
+     *                   cells are in
+     */
+    public void appendCells(ExpressionMatrix appendedMatrix, ExpressionMatrix transformedAppendedMatrix, double[][] cellsEmbedding,
+                            Map<String, List<String>> cellLabels) {
+        if (!isPlotCleared() && (embedding == null || cellsEmbedding == null))
+            clearPlot();
+
+        int firstCellNumber = getNumCellsToPlot();
+        cellIsoformExpressionMatrix = appendedMatrix;
+        transformedExpressionMatrix = transformedAppendedMatrix;
+        if (embedding != null) {
+            double[][] appendedEmbedding = Arrays.copyOf(embedding, embedding.length + cellsEmbedding.length);
+            System.arraycopy(cellsEmbedding, 0, appendedEmbedding, embedding.length, cellsEmbedding.length);
+            embedding = appendedEmbedding;
+        }
+        if (!isPlotCleared()) {
+            // the plot is only told about the new cells once they're in the label sets' clusters
+            XYSeries plottedCells = cellsInPlot.getSeries(0);
+            for (int i = 0; i < cellsEmbedding.length; i++) {
+                CellDataItem cellDataItem = new CellDataItem(cellsEmbedding[i][0], cellsEmbedding[i][1], firstCellNumber + i);
+                plottedCells.add(cellDataItem, false);
+                cellNumberCellMap.put(cellDataItem.getCellNumber(), cellDataItem);
+            }
+        }
+        ControllerMediator.getInstance().appendCellsToLabelSets(firstCellNumber, cellLabels);
+        if (!isPlotCleared()) {
+            cellsInPlot.getSeries(0).fireSeriesChanged();
+            redrawPlot();
+        }
+    }
+
+    /**
+     * Closes the stores of the given matrix's compressed expression matrices (the matrix itself,
+     * or the parts of an appended matrix)
+     */
+    private void closeCompressedExpressionMatrices(ExpressionMatrix cellIsoformExpressionMatrix) {
+        if (cellIsoformExpressionMatrix instanceof CompressedExpressionMatrix) {
+            closeCompressedExpressionMatrix((CompressedExpressionMatrix) cellIsoformExpressionMatrix);
+        } else if (cellIsoformExpressionMatrix instanceof AppendedExpressionMatrix) {
+            for (ExpressionMatrix part : ((AppendedExpressionMatrix) cellIsoformExpressionMatrix).getParts())
+                closeCompressedExpressionMatrices(part);
+        }
+    }
+
+    /**
+     * Reports how well the matrix's block cache did, so it can be sized for the dataset, then
+     * closes the matrix's store
+     */
+    private void closeCompressedExpressionMatrix(CompressedExpressionMatrix compressedExpressionMatrix) {
+        String cacheStatistics = compressedExpressionMatrix.getBlockCache().getStatistics();
+        Platform.runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Expression block cache: " + cacheStatistics));
+        try {
+            compressedExpressionMatrix.close();
+        } catch (IOException e) {
+            Platform.runLater(() -> ControllerMediator.getInstance().addConsoleUnexpectedExceptionMessage(e));
+        }
     }
 
     public void setIsoformIndexMap(HashMap<String, Integer> isoformIndexMap) {
@@ -262,7 +378,7 @@ public class ClusterViewController implements Initializable, InteractiveElementC
     }
 
     public void exportEmbeddingToFile(String pathToDir) throws IOException {
-        if (!isPlotCleared() && !CurrentSession.isEmbeddingSaved()) {
+        if ((!isPlotCleared() || embedding != null) && !CurrentSession.isEmbeddingSaved()) {
             Files.createDirectories(Paths.get(pathToDir));
             exportEmbeddingToFile(new File(pathToDir + File.separator + "embedding.txt"));
         }
@@ -302,6 +418,40 @@ public class ClusterViewController implements Initializable, InteractiveElementC
         return cellNumberCellMap;
     }
 
+    public ExpressionMatrix getCellIsoformExpressionMatrix() {
+        return cellIsoformExpressionMatrix;
+    }
+
+    /**
+     * Returns the view of the matrix in the expression transform in use
+     */
+    public ExpressionMatrix getTransformedExpressionMatrix() {
+        return transformedExpressionMatrix;
+    }
+
+    /**
+     * Returns the expression level the isoform with the given ID has in the cells that don't
+     * express it, in the expression transform in use
+     */
+    public double getNonExpressingLevel(String isoformID) {
+        Integer isoformIndex = isoformIndexMap.get(isoformID);
+        if (isoformIndex == null || transformedExpressionMatrix == null)
+            return 0;
+        return transformedExpressionMatrix.getNonExpressingLevel(isoformIndex);
+    }
+
+    public double[][] getEmbedding() {
+        return embedding;
+    }
+
+    public HashMap<String, Integer> getIsoformIndexMap() {
+        return isoformIndexMap;
+    }
+
+    public boolean isEmbeddingLoaded() {
+        return embedding != null;
+    }
+
     public boolean areCellsSelected() {
         if (!isPlotCleared())
             return cellSelectionManager.getSelectedCells().size() > 0;
@@ -318,23 +468,91 @@ public class ClusterViewController implements Initializable, InteractiveElementC
 
     public int getNumCellsToPlot() {
         if (cellIsoformExpressionMatrix != null)
-            return cellIsoformExpressionMatrix.length;
+            return cellIsoformExpressionMatrix.getNumCells();
         return 0;
     }
 
+    /**
+     * Returns the number of cells in the given cluster (only its selected cells, if onlySelected
+     * is true) that express the isoform with the given ID. For all of the cluster's cells, the
+     * number is looked up in the cluster's label set's aggregates
+     */
     public int getNumExpressingCells(String isoformID, Cluster cluster, boolean onlySelected) {
-        int numExpressingCells = 0;
-        Collection<ClusterViewController.CellDataItem> cellsInCluster;
-        if (onlySelected)
-            cellsInCluster = getSelectedCellsInCluster(cluster);
-        else
-            cellsInCluster = cluster.getCells();
+        if (!onlySelected) {
+            Integer isoformIndex = isoformIndexMap.get(isoformID);
+            if (isoformIndex == null || cluster.getCells().isEmpty())
+                return 0;
+            return getClusterAggregates(cluster).getNumExpressingCells(isoformIndex, cluster.getCode());
+        }
 
-        for (ClusterViewController.CellDataItem selectedCell : cellsInCluster) {
-            if (selectedCell.getIsoformExpressionLevel(isoformID) > 0)
-                numExpressingCells++;
+        ExpressionSum expressionSum = new ExpressionSum();
+        forEachExpressingCell(isoformID, getSelectedCellsInCluster(cluster), expressionSum);
+        return expressionSum.getNumExpressingCells();
+    }
+
+    /**
+     * Returns the average expression of the isoform with the given ID in the given cluster's
+     * cells (only in the ones that express it, if zeros aren't included), in the expression
+     * transform in use. It's looked up in the cluster's label set's aggregates
+     */
+    public double getAverageExpressionInCluster(String isoformID, Cluster cluster, boolean includeZeros) {
+        Integer isoformIndex = isoformIndexMap.get(isoformID);
+        if (isoformIndex == null || cluster.getCells().isEmpty())
+            return 0;
+        return getClusterAggregates(cluster).getAverageExpression(isoformIndex, cluster.getCode(), includeZeros);
+    }
+
+    /**
+     * Same as getAverageExpressionInCluster() with zeros included, but of the isoform's
+     * untransformed expression, whichever expression transform is in use
+     */
+    public double getRawAverageExpressionInCluster(String isoformID, Cluster cluster) {
+        Integer isoformIndex = isoformIndexMap.get(isoformID);
+        if (isoformIndex == null || cluster.getCells().isEmpty())
+            return 0;
+        return getClusterAggregates(cluster).getRawAverageExpression(isoformIndex, cluster.getCode());
+    }
+
+    /**
+     * Visits each of the given cells that expresses the isoform with the given ID (the visitor
+     * is given the cell's number and the isoform's expression in it, in the expression transform
+     * in use)
+     *
+     * If the matrix stores fewer values for the isoform than there are given cells (e.g. the
+     * matrix is sparse), only the stored values are looked at
+     */
+    public void forEachExpressingCell(String isoformID, Collection<CellDataItem> cells, ExpressionVisitor visitor) {
+        if (cells.isEmpty())
+            return;
+        Integer isoformIndex = isoformIndexMap.get(isoformID);
+        if (isoformIndex == null)
+            return;
+
+        ExpressionMatrix matrix = transformedExpressionMatrix;
+        boolean cellsAreSet = cells instanceof Set;
+        if (cellsAreSet && cells.size() == cellNumberCellMap.size()) {
+            // given cells are all the cells in the plot
+            matrix.forEachExpressingCell(isoformIndex, visitor);
+        } else if (cells instanceof Cluster.Cells) {
+            // a cluster's cells are looked up by number, without their data items
+            Cluster cluster = ((Cluster.Cells) cells).getCluster();
+            if (matrix.getNumStoredValues(isoformIndex) < cluster.getNumCells()) {
+                matrix.forEachExpressingCell(isoformIndex, (cellNumber, expression) -> {
+                    if (cluster.containsCell(cellNumber))
+                        visitor.visit(cellNumber, expression);
+                });
+            } else {
+                matrix.forEachExpressingCell(isoformIndex, cluster.getCellNumbers(), visitor);
+            }
+        } else if (cellsAreSet && matrix.getNumStoredValues(isoformIndex) < cells.size()) {
+            matrix.forEachExpressingCell(isoformIndex, (cellNumber, expression) -> {
+                if (cells.contains(cellNumberCellMap.get(cellNumber)))
+                    visitor.visit(cellNumber, expression);
+            });
+        } else {
+            int[] cellNumbers = cells.stream().mapToInt(CellDataItem::getCellNumber).sorted().toArray();
+            matrix.forEachExpressingCell(isoformIndex, cellNumbers, visitor);
         }
-        return numExpressingCells;
     }
 
     public Collection<CellDataItem> getCells(boolean onlySelected) {
@@ -410,6 +628,18 @@ public class ClusterViewController implements Initializable, InteractiveElementC
         }
     }
 
+    private ClusterAggregates getClusterAggregates(Cluster cluster) {
+        return cluster.getLabelSet().getClusterAggregates(transformedExpressionMatrix);
+    }
+
+    /**
+     * Makes the view of the matrix in the expression transform in use
+     */
+    public void transformExpressionMatrix() {
+        ExpressionTransform transform = ControllerMediator.getInstance().getExpressionTransform();
+        transformedExpressionMatrix = (cellIsoformExpressionMatrix == null) ? null : transform.apply(cellIsoformExpressionMatrix);
+    }
+
     private void disableAssociatedFunctionality() {
         disable();
         ControllerMediator.getInstance().disableMain();
@@ -448,12 +678,18 @@ public class ClusterViewController implements Initializable, InteractiveElementC
     }
 
     /**
-     * Writes embedding used to generate cell plot to given file
+     * Writes embedding used to generate cell plot to given file (or, if the plot is cleared,
+     * the loaded embedding)
      */
     private void exportEmbeddingToFile(File embeddingFile) {
         StringBuilder embedding = new StringBuilder();
-        for (CellDataItem cellDataItem : getCells(false))
-            embedding.append(cellDataItem.getX()).append("\t").append(cellDataItem.getY()).append("\n");
+        if (!isPlotCleared()) {
+            for (CellDataItem cellDataItem : getCells(false))
+                embedding.append(cellDataItem.getX()).append("\t").append(cellDataItem.getY()).append("\n");
+        } else {
+            for (double[] cellCoords : this.embedding)
+                embedding.append(cellCoords[0]).append("\t").append(cellCoords[1]).append("\n");
+        }
 
         try {
             FileWriter fileWriter = new FileWriter(embeddingFile);
@@ -470,10 +706,6 @@ public class ClusterViewController implements Initializable, InteractiveElementC
      * Represents a cell in the plot
      */
     public class CellDataItem extends XYDataItem {
-        /**
-         * Each number is the level of expression of some isoform in this cell.
-         */
-        private double[] isoformExpressionLevels;
         /**
          * The row in the cell isoform expression matrix that this cell represents
          * (first row is represented by cell 0). This is also the index of this cell in the
@@ -481,26 +713,35 @@ public class ClusterViewController implements Initializable, InteractiveElementC
          */
         private int cellNumber;
 
-        private CellDataItem(Number x, Number y, double[] isoformExpressionLevels, int cellNumber) {
+        private CellDataItem(Number x, Number y, int cellNumber) {
             super(x, y);
-            this.isoformExpressionLevels = isoformExpressionLevels;
             this.cellNumber = cellNumber;
         }
 
         /**
          * Returns the level of expression of the isoform with the given ID
-         * in this cell. Returns 0 if that information isn't stored
+         * in this cell, in the expression transform in use. Returns 0 if that
+         * information isn't stored
          */
         public double getIsoformExpressionLevel(String isoformID) {
             Integer isoformIndex = isoformIndexMap.get(isoformID);
 
             if (isoformIndex != null) {
-                return isoformExpressionLevels[isoformIndex];
+                return transformedExpressionMatrix.getExpression(cellNumber, isoformIndex);
             }
             else
                 return 0;
         }
 
+        /**
+         * Returns whether the isoform with the given ID has a nonzero (untransformed)
+         * expression level in this cell
+         */
+        public boolean expressesIsoform(String isoformID) {
+            Integer isoformIndex = isoformIndexMap.get(isoformID);
+            return isoformIndex != null && cellIsoformExpressionMatrix.getExpression(cellNumber, isoformIndex) != 0;
+        }
+
         public int getCellNumber() {
             return cellNumber;
         }
@@ -831,7 +1072,7 @@ public class ClusterViewController implements Initializable, InteractiveElementC
          */
         private boolean shouldSelectCell(CellDataItem cell, Collection<String> isoformIDs) {
             for (String isoformID : isoformIDs) {
-                if (cell.getIsoformExpressionLevel(isoformID) == 0)
+                if (!cell.expressesIsoform(isoformID))
                     return false;
             }
             return true;
@@ -904,47 +1145,12 @@ public class ClusterViewController implements Initializable, InteractiveElementC
         }
 
         private void setGradientValues() {
-            double minExpression = Double.MAX_VALUE;
-            double maxExpression = Double.MIN_VALUE;
-
-            int sampleSize = 100000;
-            double replacementProb = 0.5d;
-            double maxRandNum = sampleSize/replacementProb;
-            double[] sampleExpressionVals = new double[sampleSize];
-            int numExpressionValsGE1 = 0;
-
-            for (double[] row : cellIsoformExpressionMatrix) {
-                for (double d : row) {
-                    if (d < minExpression) {
-                        minExpression = d;
-                    }
-                    if (d > maxExpression) {
-                        maxExpression = d;
-                    }
-                    if (d >= 1) {
-                        if (numExpressionValsGE1 < sampleSize) {
-                            sampleExpressionVals[numExpressionValsGE1] = d;
-                        }
-                        else {
-                            // randomly replace one value in the sample
-                            int i = (int) Math.floor(Math.random() * maxRandNum);
-                            if (i < sampleSize) {
-                                sampleExpressionVals[i] = d;
-                            }
-                        }
-                        ++numExpressionValsGE1;
-                    }
-                }
-            }
+            ExpressionSampler expressionSampler = new ExpressionSampler();
+            for (int cellNumber = 0; cellNumber < transformedExpressionMatrix.getNumCells(); cellNumber++)
+                transformedExpressionMatrix.forEachExpressedIsoform(cellNumber, expressionSampler);
 
-            if (numExpressionValsGE1 < sampleSize) {
-                sampleExpressionVals = Arrays.copyOfRange(sampleExpressionVals, 0, numExpressionValsGE1);
-            }
-
-            Arrays.sort(sampleExpressionVals);
-
-            addMinMaxExpressionToGradientLabels(minExpression, maxExpression);
-            setGradientMaxMinToRecommended(sampleExpressionVals);
+            addMinMaxExpressionToGradientLabels(expressionSampler.getMinExpression(), expressionSampler.getMaxExpression());
+            setGradientMaxMinToRecommended(expressionSampler.getSortedSample());
         }
 
         private double[][] generateTSNEMatrix() {
@@ -953,7 +1159,7 @@ public class ClusterViewController implements Initializable, InteractiveElementC
             int maxIterations = ControllerMediator.getInstance().getMaxIterations();
 
             BHTSne tSNE = new BHTSne();
-            TSneConfiguration config = TSneUtils.buildConfig(cellIsoformExpressionMatrix, 2, initial_dims, perplexity,
+            TSneConfiguration config = TSneUtils.buildConfig(cellIsoformExpressionMatrix.toArray(), 2, initial_dims, perplexity,
                     maxIterations, false, 0.5D, false);
             return tSNE.tsne(config);
         }
@@ -966,7 +1172,7 @@ public class ClusterViewController implements Initializable, InteractiveElementC
             umap.setMinDist(minDist);
             umap.setNumberNearestNeighbours(nearestNeighbors);
             umap.setThreads(Runtime.getRuntime().availableProcessors());
-            return umap.fitTransform(cellIsoformExpressionMatrix);
+            return umap.fitTransform(cellIsoformExpressionMatrix.toArray());
         }
 
         /**
@@ -978,7 +1184,7 @@ public class ClusterViewController implements Initializable, InteractiveElementC
             for (int cellNumber = 0; cellNumber < matrix.length; cellNumber++) {
                 double cellX = matrix[cellNumber][0];
                 double cellY = matrix[cellNumber][1];
-                CellDataItem cellDataItem = new CellDataItem(cellX, cellY, cellIsoformExpressionMatrix[cellNumber], cellNumber);
+                CellDataItem cellDataItem = new CellDataItem(cellX, cellY, cellNumber);
                 cells.add(cellDataItem);
                 cellNumberCellMap.put(cellDataItem.getCellNumber(), cellDataItem);
             }
@@ -1086,5 +1292,71 @@ public class ClusterViewController implements Initializable, InteractiveElementC
                 ControllerMediator.getInstance().setGradientMaxMinToRecommended();
             }
         }
+
+        /**
+         * Finds the min and max expression values in the matrix and keeps a random sample of the
+         * values >= 1. Only visits the expressing cells' values, the others are accounted for by
+         * counting them
+         */
+        private class ExpressionSampler implements ExpressionVisitor {
+            private static final int SAMPLE_SIZE = 100000;
+            private static final double REPLACEMENT_PROB = 0.5d;
+            private static final double MAX_RAND_NUM = SAMPLE_SIZE / REPLACEMENT_PROB;
+
+            private double minNonZeroExpression = Double.MAX_VALUE;
+            private double maxExpression = Double.MIN_VALUE;
+            private long numNonZeroExpressionVals = 0;
+            private double[] sampleExpressionVals = new double[SAMPLE_SIZE];
+            private int numExpressionValsGE1 = 0;
+
+            @Override
+            public void visit(int isoformIndex, double d) {
+                numNonZeroExpressionVals++;
+                if (d < minNonZeroExpression) {
+                    minNonZeroExpression = d;
+                }
+                if (d > maxExpression) {
+                    maxExpression = d;
+                }
+                if (d >= 1) {
+                    if (numExpressionValsGE1 < SAMPLE_SIZE) {
+                        sampleExpressionVals[numExpressionValsGE1] = d;
+                    }
+                    else {
+                        // randomly replace one value in the sample
+                        int i = (int) Math.floor(Math.random() * MAX_RAND_NUM);
+                        if (i < SAMPLE_SIZE) {
+                            sampleExpressionVals[i] = d;
+                        }
+                    }
+                    ++numExpressionValsGE1;
+                }
+            }
+
+            public double getMinExpression() {
+                long numExpressionVals = (long) transformedExpressionMatrix.getNumCells() * transformedExpressionMatrix.getNumIsoforms();
+                if (numNonZeroExpressionVals == numExpressionVals)
+                    return minNonZeroExpression;
+
+                // the cells that don't express an isoform have its non-expressing level
+                double minExpression = minNonZeroExpression;
+                for (int isoformIndex = 0; isoformIndex < transformedExpressionMatrix.getNumIsoforms(); isoformIndex++)
+                    minExpression = Math.min(minExpression, transformedExpressionMatrix.getNonExpressingLevel(isoformIndex));
+                return minExpression;
+            }
+
+            public double getMaxExpression() {
+                return maxExpression;
+            }
+
+            public double[] getSortedSample() {
+                double[] sample = sampleExpressionVals;
+                if (numExpressionValsGE1 < SAMPLE_SIZE) {
+                    sample = Arrays.copyOfRange(sampleExpressionVals, 0, numExpressionValsGE1);
+                }
+                Arrays.sort(sample);
+                return sample;
+            }
+        }
     }
 }
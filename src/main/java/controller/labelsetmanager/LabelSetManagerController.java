@@ -9,7 +9,6 @@ import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.ScrollPane;
 import javafx.stage.FileChooser;
-import labelset.Cluster;
 import labelset.LabelSet;
 import mediator.ControllerMediator;
 import org.json.JSONObject;
@@ -141,10 +140,8 @@ public class LabelSetManagerController extends PopUpController {
      * Clears cells in each cluster in each label set
      */
     public void clearLabelSetClusterCells() {
-        for (LabelSet labelSet : labelSets) {
-            for (Cluster cluster : labelSet.getClusters())
-                cluster.clearCells();
-        }
+        for (LabelSet labelSet : labelSets)
+            labelSet.clearClusterCells();
     }
 
     public void restoreLabelSetManagerFromPrevSession(JSONObject prevSession) {
@@ -170,6 +167,17 @@ public class LabelSetManagerController extends PopUpController {
                 labelSet.addCellsToClusters();
     }
 
+    /**
+     * Adds cells appended to the dataset to each label set
+     *
+     * @param cellLabels maps the name of each label set to the names of the clusters the
+     *                   appended cells are in, in the order of the cells
+     */
+    public void appendCellsToLabelSets(int firstCellNumber, Map<String, List<String>> cellLabels) {
+        for (LabelSet labelSet : labelSets)
+            labelSet.appendCells(firstCellNumber, cellLabels.get(labelSet.getName()));
+    }
+
     public LabelSet getLabelSetInUse() {
         return labelSetInUse;
     }
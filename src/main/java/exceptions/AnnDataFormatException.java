@@ -0,0 +1,9 @@
+package exceptions;
+
+public class AnnDataFormatException extends RNAScoopException {
+
+    public AnnDataFormatException(String problem) {
+        message = "The AnnData (.h5ad) file " + problem;
+    }
+
+}
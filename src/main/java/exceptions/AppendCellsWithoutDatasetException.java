@@ -0,0 +1,9 @@
+package exceptions;
+
+public class AppendCellsWithoutDatasetException extends RNAScoopException {
+
+    public AppendCellsWithoutDatasetException() {
+        message = "Cells can only be appended once a dataset has been loaded";
+    }
+
+}
@@ -0,0 +1,9 @@
+package exceptions;
+
+public class ArrowFormatException extends RNAScoopException {
+
+    public ArrowFormatException(String pathToFile, String problem) {
+        message = "The Arrow file \"" + pathToFile + "\" " + problem;
+    }
+
+}
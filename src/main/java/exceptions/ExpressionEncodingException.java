@@ -0,0 +1,23 @@
+package exceptions;
+
+import expression.ExpressionEncoding;
+
+public class ExpressionEncodingException extends RNAScoopException {
+
+    public ExpressionEncodingException(double value, ExpressionEncoding encoding) {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            message = "The expression matrix contains the value " + value + ", which isn't a finite number, so it cannot be stored with the \"" +
+                      encoding.getName() + "\" expression encoding (only the double and float expression encodings can store it)";
+        else if (encoding.isWholeNumbersOnly())
+            message = "The expression matrix contains the value " + value + ", which cannot be stored with the \"" +
+                      encoding.getName() + "\" expression encoding (only whole numbers up to " + (long) encoding.getMaxValue() + " can be)";
+        else
+            message = "The expression matrix contains the value " + value + ", which is larger than the \"" +
+                      encoding.getName() + "\" expression encoding can store (" + encoding.getMaxValue() + ")";
+    }
+
+    public ExpressionEncodingException(String encodingName) {
+        message = "\"" + encodingName + "\" is not an expression encoding. Expression encoding must be double, float, half, log16, int or short";
+    }
+
+}
@@ -0,0 +1,9 @@
+package exceptions;
+
+public class InvalidExpressionStoreException extends RNAScoopException {
+
+    public InvalidExpressionStoreException(String pathToStore) {
+        message = "The file \"" + pathToStore + "\" is not a valid expression store, or was written by an incompatible version of RNA-Scoop";
+    }
+
+}
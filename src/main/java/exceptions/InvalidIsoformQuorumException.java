@@ -0,0 +1,9 @@
+package exceptions;
+
+public class InvalidIsoformQuorumException extends RNAScoopException {
+
+    public InvalidIsoformQuorumException() {
+        message = "Min isoform expression must be a non-negative number and min isoform cells must be a non-negative whole number";
+    }
+
+}
@@ -0,0 +1,9 @@
+package exceptions;
+
+public class MatrixLayoutException extends RNAScoopException {
+
+    public MatrixLayoutException(String layoutName) {
+        message = "\"" + layoutName + "\" is not a matrix layout. Matrix layout must be auto, dense, sparse or store";
+    }
+
+}
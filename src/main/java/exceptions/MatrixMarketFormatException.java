@@ -0,0 +1,9 @@
+package exceptions;
+
+public class MatrixMarketFormatException extends RNAScoopException {
+
+    public MatrixMarketFormatException(String problem, int lineNumber) {
+        message = "Line " + lineNumber + " of the Matrix Market expression matrix " + problem;
+    }
+
+}
@@ -0,0 +1,9 @@
+package exceptions;
+
+public class MatrixNotNumberException extends RNAScoopException {
+
+    public MatrixNotNumberException(String value, int lineNumber) {
+        message = "The value \"" + value + "\" at line " + lineNumber + " in the expression matrix is not a number";
+    }
+
+}
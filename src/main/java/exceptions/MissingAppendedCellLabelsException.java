@@ -0,0 +1,9 @@
+package exceptions;
+
+public class MissingAppendedCellLabelsException extends RNAScoopException {
+
+    public MissingAppendedCellLabelsException(String labelSetName) {
+        message = "The appended cells must have labels for the label set \"" + labelSetName + "\"";
+    }
+
+}
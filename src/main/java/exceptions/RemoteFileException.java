@@ -0,0 +1,9 @@
+package exceptions;
+
+public class RemoteFileException extends RNAScoopException {
+
+    public RemoteFileException(String url, String reason) {
+        message = "Could not fetch \"" + url + "\": " + reason;
+    }
+
+}
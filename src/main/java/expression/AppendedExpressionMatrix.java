@@ -0,0 +1,156 @@
+package expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Expression matrix made of the cells of other matrices, one after another: the cells of the
+ * first part come first, then the cells of the second part, and so on. Each part keeps its own
+ * storage, so appending cells to a matrix doesn't copy or re-read the cells it already has
+ */
+public class AppendedExpressionMatrix implements ExpressionMatrix {
+    private final List<ExpressionMatrix> parts;
+    // the cells of part i are [firstCellNumbers[i], firstCellNumbers[i + 1])
+    private final int[] firstCellNumbers;
+    private final int numIsoforms;
+
+    private AppendedExpressionMatrix(List<ExpressionMatrix> parts) {
+        this.parts = parts;
+        numIsoforms = parts.get(0).getNumIsoforms();
+        firstCellNumbers = new int[parts.size() + 1];
+        for (int i = 0; i < parts.size(); i++)
+            firstCellNumbers[i + 1] = firstCellNumbers[i] + parts.get(i).getNumCells();
+    }
+
+    /**
+     * Returns a matrix with the cells of the given matrix followed by the given cells. Both
+     * must have the same isoforms, in the same order
+     */
+    public static AppendedExpressionMatrix append(ExpressionMatrix matrix, ExpressionMatrix cells) {
+        if (matrix.getNumIsoforms() != cells.getNumIsoforms())
+            throw new IllegalArgumentException("Appended cells have " + cells.getNumIsoforms() + " isoforms, not " + matrix.getNumIsoforms());
+
+        List<ExpressionMatrix> parts = new ArrayList<>();
+        if (matrix instanceof AppendedExpressionMatrix)
+            parts.addAll(((AppendedExpressionMatrix) matrix).parts);
+        else
+            parts.add(matrix);
+        parts.add(cells);
+        return new AppendedExpressionMatrix(parts);
+    }
+
+    /**
+     * Returns whether this matrix's first cells are the given matrix's, i.e. this is the given
+     * matrix with cells appended to it
+     */
+    public boolean startsWith(ExpressionMatrix matrix) {
+        List<ExpressionMatrix> matrixParts = (matrix instanceof AppendedExpressionMatrix) ? ((AppendedExpressionMatrix) matrix).parts : Collections.singletonList(matrix);
+        if (matrixParts.size() > parts.size())
+            return false;
+        for (int i = 0; i < matrixParts.size(); i++) {
+            if (parts.get(i) != matrixParts.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the matrices whose cells make up this matrix, in the order of their cells
+     */
+    public List<ExpressionMatrix> getParts() {
+        return Collections.unmodifiableList(parts);
+    }
+
+    @Override
+    public int getNumCells() {
+        return firstCellNumbers[parts.size()];
+    }
+
+    @Override
+    public int getNumIsoforms() {
+        return numIsoforms;
+    }
+
+    @Override
+    public double getExpression(int cellNumber, int isoformIndex) {
+        int part = getPart(cellNumber);
+        return parts.get(part).getExpression(cellNumber - firstCellNumbers[part], isoformIndex);
+    }
+
+    @Override
+    public void getCellExpression(int cellNumber, double[] expressionLevels) {
+        int part = getPart(cellNumber);
+        parts.get(part).getCellExpression(cellNumber - firstCellNumbers[part], expressionLevels);
+    }
+
+    @Override
+    public void forEachExpressingCell(int isoformIndex, ExpressionVisitor visitor) {
+        for (int part = 0; part < parts.size(); part++) {
+            int firstCellNumber = firstCellNumbers[part];
+            parts.get(part).forEachExpressingCell(isoformIndex, (cellNumber, expression) -> visitor.visit(firstCellNumber + cellNumber, expression));
+        }
+    }
+
+    /**
+     * The given cell numbers are split between the parts, each part visiting its own cells
+     */
+    @Override
+    public void forEachExpressingCell(int isoformIndex, int[] cellNumbers, ExpressionVisitor visitor) {
+        int start = 0;
+        while (start < cellNumbers.length) {
+            int part = getPart(cellNumbers[start]);
+            int firstCellNumber = firstCellNumbers[part];
+            int end = start;
+            while (end < cellNumbers.length && cellNumbers[end] < firstCellNumbers[part + 1])
+                end++;
+            int[] partCellNumbers = new int[end - start];
+            for (int i = start; i < end; i++)
+                partCellNumbers[i - start] = cellNumbers[i] - firstCellNumber;
+            parts.get(part).forEachExpressingCell(isoformIndex, partCellNumbers,
+                                                  (cellNumber, expression) -> visitor.visit(firstCellNumber + cellNumber, expression));
+            start = end;
+        }
+    }
+
+    @Override
+    public void forEachExpressedIsoform(int cellNumber, ExpressionVisitor visitor) {
+        int part = getPart(cellNumber);
+        parts.get(part).forEachExpressedIsoform(cellNumber - firstCellNumbers[part], visitor);
+    }
+
+    /**
+     * True if every part keeps its values by isoform
+     */
+    @Override
+    public boolean isStoredByIsoform() {
+        for (ExpressionMatrix part : parts) {
+            if (!part.isStoredByIsoform())
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int getNumStoredValues(int isoformIndex) {
+        int numStoredValues = 0;
+        for (ExpressionMatrix part : parts)
+            numStoredValues += part.getNumStoredValues(isoformIndex);
+        return numStoredValues;
+    }
+
+    /**
+     * Returns the index of the part the cell with the given number is in
+     */
+    private int getPart(int cellNumber) {
+        int position = Arrays.binarySearch(firstCellNumbers, 0, parts.size(), cellNumber);
+        // parts with no cells share their first cell number with the part after them
+        if (position >= 0) {
+            while (position + 1 < parts.size() && firstCellNumbers[position + 1] == cellNumber)
+                position++;
+            return position;
+        }
+        return -position - 2;
+    }
+}
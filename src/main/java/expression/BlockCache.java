@@ -0,0 +1,114 @@
+package expression;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * Least recently used cache of decompressed expression blocks, bounded by the number of bytes
+ * the blocks take on the heap. Blocks are loaded outside of the cache's lock, so threads
+ * missing on different blocks decompress them at the same time
+ *
+ * Keeps hit and miss counts so the cache can be sized for the datasets it serves
+ */
+public class BlockCache {
+    private final long capacityInBytes;
+    private final LinkedHashMap<Long, ExpressionBlock> blocks;
+    private long sizeInBytes;
+    private long numHits;
+    private long numMisses;
+    private long numEvictions;
+
+    BlockCache(long capacityInBytes) {
+        this.capacityInBytes = capacityInBytes;
+        // access order, so iteration starts at the least recently used block
+        blocks = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the block with the given key, loading it with the given loader if it isn't cached
+     */
+    ExpressionBlock get(long key, LongFunction<ExpressionBlock> loader) {
+        synchronized (this) {
+            ExpressionBlock block = blocks.get(key);
+            if (block != null) {
+                numHits++;
+                return block;
+            }
+            numMisses++;
+        }
+
+        ExpressionBlock block = loader.apply(key);
+        synchronized (this) {
+            ExpressionBlock cachedBlock = blocks.get(key);
+            if (cachedBlock != null)
+                // another thread loaded it first
+                return cachedBlock;
+            blocks.put(key, block);
+            sizeInBytes += block.getSizeInBytes();
+            evict();
+        }
+        return block;
+    }
+
+    /**
+     * Evicts least recently used blocks until the cache fits its capacity. The most recently
+     * used block is always kept, even if it alone is bigger than the capacity
+     */
+    private void evict() {
+        Iterator<Map.Entry<Long, ExpressionBlock>> iterator = blocks.entrySet().iterator();
+        while (sizeInBytes > capacityInBytes && blocks.size() > 1) {
+            ExpressionBlock block = iterator.next().getValue();
+            iterator.remove();
+            sizeInBytes -= block.getSizeInBytes();
+            numEvictions++;
+        }
+    }
+
+    synchronized void clear() {
+        blocks.clear();
+        sizeInBytes = 0;
+    }
+
+    public long getCapacityInBytes() {
+        return capacityInBytes;
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public synchronized int getNumBlocks() {
+        return blocks.size();
+    }
+
+    public synchronized long getNumHits() {
+        return numHits;
+    }
+
+    public synchronized long getNumMisses() {
+        return numMisses;
+    }
+
+    public synchronized long getNumEvictions() {
+        return numEvictions;
+    }
+
+    /**
+     * Fraction of block requests served from the cache (0 if there were no requests)
+     */
+    public synchronized double getHitRate() {
+        long numRequests = numHits + numMisses;
+        return (numRequests == 0) ? 0 : (double) numHits / numRequests;
+    }
+
+    /**
+     * One-line summary of the cache's use, e.g. for the console
+     */
+    public synchronized String getStatistics() {
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d evictions, %d blocks cached (%.1f of %.1f MB)",
+                             numHits, numMisses, getHitRate() * 100, numEvictions, blocks.size(),
+                             sizeInBytes / 1048576.0, capacityInBytes / 1048576.0);
+    }
+}
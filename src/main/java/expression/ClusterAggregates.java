@@ -0,0 +1,333 @@
+package expression;
+
+import java.util.Arrays;
+
+/**
+ * Per-(isoform, cluster) statistics of a matrix for a division of its cells into clusters: the
+ * number of cells in each cluster, and for each isoform and cluster the number of cells that
+ * express the isoform and the sum of their expression values. They're calculated in one pass
+ * over the matrix's nonzero values, so averages and numbers of expressing cells in clusters are
+ * lookups afterwards. When cells move between clusters, the statistics are updated by taking the
+ * moved cells' values out of their old clusters and adding them to the new one, so the cost is
+ * proportional to the number of cells moved. Cells appended to the matrix are added the same way
+ *
+ * Clusters are identified by code, and the statistics are kept in primitive arrays indexed by
+ * (code * number of isoforms + isoform index), so a new code is appended to the arrays. If the
+ * matrix is a transformed view, the sums of the transformed values and of the untransformed ones
+ * are both kept
+ */
+public class ClusterAggregates {
+    private ExpressionMatrix matrix;
+    // the matrix's untransformed values, and the view transforming them (null if the matrix isn't transformed)
+    private ExpressionMatrix rawMatrix;
+    private TransformedExpressionMatrix transformedMatrix;
+    private final int numIsoforms;
+    // cells with lower numbers are in the clusters
+    private int numClusteredCells;
+    private int numCodes;
+    private int[] numCellsByCode;
+    private int[] numExpressingCells;
+    // sums of the values in the matrix's expression transform, over the expressing cells
+    private double[] nonZeroSums;
+    // sums of the untransformed values (null if the matrix isn't transformed, as they're the same)
+    private double[] rawSums;
+    private double[] nonExpressingLevels;
+
+    /**
+     * The matrix is read one isoform at a time if it stores its values by isoform, otherwise one
+     * cell at a time, so either way it's read in one pass
+     *
+     * @param cellClusterCodes code of the cluster each cell is in, indexed by cell number. Cells
+     *                         with numbers past numCells (or past the matrix's cells) aren't in
+     *                         any cluster
+     */
+    public ClusterAggregates(ExpressionMatrix matrix, int[] cellClusterCodes, int numCells, int numCodes) {
+        this.matrix = matrix;
+        transformedMatrix = (matrix instanceof TransformedExpressionMatrix) ? (TransformedExpressionMatrix) matrix : null;
+        rawMatrix = (transformedMatrix != null) ? transformedMatrix.getMatrix() : matrix;
+        this.numCodes = numCodes;
+        numIsoforms = matrix.getNumIsoforms();
+        numClusteredCells = Math.min(numCells, matrix.getNumCells());
+
+        numCellsByCode = new int[numCodes];
+        for (int cellNumber = 0; cellNumber < numClusteredCells; cellNumber++)
+            numCellsByCode[cellClusterCodes[cellNumber]]++;
+
+        numExpressingCells = new int[numIsoforms * numCodes];
+        nonZeroSums = new double[numIsoforms * numCodes];
+        if (transformedMatrix != null)
+            rawSums = new double[numIsoforms * numCodes];
+        if (rawMatrix.isStoredByIsoform()) {
+            for (int isoformIndex = 0; isoformIndex < numIsoforms; isoformIndex++) {
+                int isoform = isoformIndex;
+                rawMatrix.forEachExpressingCell(isoformIndex, (cellNumber, expression) -> {
+                    if (cellNumber < numClusteredCells)
+                        addValue(cellClusterCodes[cellNumber] * numIsoforms, cellNumber, isoform, expression);
+                });
+            }
+        } else {
+            for (int cellNumber = 0; cellNumber < numClusteredCells; cellNumber++)
+                addCellValues(cellClusterCodes[cellNumber], cellNumber);
+        }
+
+        setNonExpressingLevels();
+    }
+
+    private ClusterAggregates(ClusterAggregates clusterAggregates, int numCodes) {
+        matrix = clusterAggregates.matrix;
+        rawMatrix = clusterAggregates.rawMatrix;
+        transformedMatrix = clusterAggregates.transformedMatrix;
+        numIsoforms = clusterAggregates.numIsoforms;
+        numClusteredCells = clusterAggregates.numClusteredCells;
+        this.numCodes = numCodes;
+        numCellsByCode = new int[numCodes];
+        numExpressingCells = new int[numIsoforms * numCodes];
+        nonZeroSums = new double[numIsoforms * numCodes];
+        if (clusterAggregates.rawSums != null)
+            rawSums = new double[numIsoforms * numCodes];
+        nonExpressingLevels = clusterAggregates.nonExpressingLevels;
+    }
+
+    /**
+     * Returns aggregates of the same matrix with all the cells these aggregates have in clusters
+     * in one cluster, with code 0. They're added up from these aggregates, so no values are read
+     * from the matrix
+     */
+    public ClusterAggregates mergeAllCodes() {
+        ClusterAggregates merged = new ClusterAggregates(this, 1);
+        for (int code = 0; code < numCodes; code++) {
+            merged.numCellsByCode[0] += numCellsByCode[code];
+            for (int isoformIndex = 0; isoformIndex < numIsoforms; isoformIndex++) {
+                int i = code * numIsoforms + isoformIndex;
+                merged.numExpressingCells[isoformIndex] += numExpressingCells[i];
+                merged.nonZeroSums[isoformIndex] += nonZeroSums[i];
+                if (rawSums != null)
+                    merged.rawSums[isoformIndex] += rawSums[i];
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Moves the cells with the given numbers from the clusters they're in to the cluster with the
+     * given code (which may be a code these aggregates don't have yet). Only the moved cells'
+     * values are read from the matrix
+     *
+     * @param cellClusterCodes code of the cluster each cell is in before the move, indexed by
+     *                         cell number
+     */
+    public void moveCells(int[] cellNumbers, int[] cellClusterCodes, int code) {
+        if (code >= numCodes)
+            addCodes(code + 1);
+        int newOffset = code * numIsoforms;
+
+        boolean[] changedCodes = new boolean[numCodes];
+        for (int cellNumber : cellNumbers) {
+            int oldCode = cellClusterCodes[cellNumber];
+            if (oldCode == code)
+                continue;
+            changedCodes[oldCode] = true;
+            numCellsByCode[oldCode]--;
+            numCellsByCode[code]++;
+            int oldOffset = oldCode * numIsoforms;
+            rawMatrix.forEachExpressedIsoform(cellNumber, (isoformIndex, expression) -> {
+                double transformedExpression = transform(cellNumber, isoformIndex, expression);
+                numExpressingCells[oldOffset + isoformIndex]--;
+                numExpressingCells[newOffset + isoformIndex]++;
+                if (rawSums != null) {
+                    rawSums[oldOffset + isoformIndex] -= expression;
+                    rawSums[newOffset + isoformIndex] += expression;
+                }
+                nonZeroSums[oldOffset + isoformIndex] -= transformedExpression;
+                nonZeroSums[newOffset + isoformIndex] += transformedExpression;
+            });
+        }
+
+        // sums left with no expressing cells are set back to exactly zero, so rounding errors from
+        // the subtractions don't build up
+        for (int oldCode = 0; oldCode < numCodes; oldCode++) {
+            if (!changedCodes[oldCode])
+                continue;
+            for (int i = oldCode * numIsoforms; i < (oldCode + 1) * numIsoforms; i++) {
+                if (numExpressingCells[i] == 0) {
+                    nonZeroSums[i] = 0;
+                    if (rawSums != null)
+                        rawSums[i] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the cells appended to the matrix to the clusters with their codes, reading only the
+     * appended cells' rows. The aggregates are then of the given matrix, which must be the
+     * matrix they're of with cells appended to it, in the same expression transform. Z-scores
+     * change when cells are appended, but as they're a linear function of the untransformed
+     * values, their sums are worked out from the untransformed sums
+     *
+     * @param firstCellNumber number of the first appended cell
+     * @param cellClusterCodes code of the cluster each cell is in, indexed by cell number
+     * @param numCells number of cells with codes (the appended cells included)
+     * @return false if the given matrix isn't this one with cells appended (e.g. it's in another
+     *         expression transform), in which case the aggregates are left as they are and must
+     *         be calculated again
+     */
+    public boolean addCells(ExpressionMatrix appendedMatrix, int firstCellNumber, int[] cellClusterCodes, int numCells, int numCodes) {
+        TransformedExpressionMatrix appendedTransformedMatrix = (appendedMatrix instanceof TransformedExpressionMatrix) ? (TransformedExpressionMatrix) appendedMatrix : null;
+        ExpressionMatrix appendedRawMatrix = (appendedTransformedMatrix != null) ? appendedTransformedMatrix.getMatrix() : appendedMatrix;
+        ExpressionTransform transform = (transformedMatrix != null) ? transformedMatrix.getTransform() : null;
+        ExpressionTransform appendedTransform = (appendedTransformedMatrix != null) ? appendedTransformedMatrix.getTransform() : null;
+        if (transform != appendedTransform || firstCellNumber != numClusteredCells ||
+            !(appendedRawMatrix instanceof AppendedExpressionMatrix) || !((AppendedExpressionMatrix) appendedRawMatrix).startsWith(rawMatrix))
+            return false;
+
+        matrix = appendedMatrix;
+        rawMatrix = appendedRawMatrix;
+        transformedMatrix = appendedTransformedMatrix;
+        if (numCodes > this.numCodes)
+            addCodes(numCodes);
+        int newNumClusteredCells = Math.min(numCells, matrix.getNumCells());
+        for (int cellNumber = numClusteredCells; cellNumber < newNumClusteredCells; cellNumber++) {
+            numCellsByCode[cellClusterCodes[cellNumber]]++;
+            addCellValues(cellClusterCodes[cellNumber], cellNumber);
+        }
+        numClusteredCells = newNumClusteredCells;
+
+        if (transform == ExpressionTransform.Z_SCORE) {
+            // a z-score is (expression - mean) / standard deviation, so the sum of an isoform's
+            // z-scores in n cells is n * (its z-score at 0) + (sum of its expression) / standard deviation
+            for (int isoformIndex = 0; isoformIndex < numIsoforms; isoformIndex++) {
+                double zeroLevel = transformedMatrix.transform(0, isoformIndex, 0);
+                double scaleFactor = transformedMatrix.transform(0, isoformIndex, 1) - zeroLevel;
+                for (int code = 0; code < this.numCodes; code++) {
+                    int i = code * numIsoforms + isoformIndex;
+                    nonZeroSums[i] = numExpressingCells[i] * zeroLevel + rawSums[i] * scaleFactor;
+                }
+            }
+        }
+        setNonExpressingLevels();
+        return true;
+    }
+
+    /**
+     * Moves all the cells in the cluster with the given code to the cluster with the other code.
+     * No values are read from the matrix, as the cluster's statistics are added to the other's
+     */
+    public void mergeCode(int code, int intoCode) {
+        int offset = code * numIsoforms;
+        int intoOffset = intoCode * numIsoforms;
+        numCellsByCode[intoCode] += numCellsByCode[code];
+        numCellsByCode[code] = 0;
+        for (int isoformIndex = 0; isoformIndex < numIsoforms; isoformIndex++) {
+            numExpressingCells[intoOffset + isoformIndex] += numExpressingCells[offset + isoformIndex];
+            numExpressingCells[offset + isoformIndex] = 0;
+            nonZeroSums[intoOffset + isoformIndex] += nonZeroSums[offset + isoformIndex];
+            nonZeroSums[offset + isoformIndex] = 0;
+            if (rawSums != null) {
+                rawSums[intoOffset + isoformIndex] += rawSums[offset + isoformIndex];
+                rawSums[offset + isoformIndex] = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the matrix the statistics were calculated from
+     */
+    public ExpressionMatrix getMatrix() {
+        return matrix;
+    }
+
+    public int getNumCells(int code) {
+        return numCellsByCode[code];
+    }
+
+    public int getNumExpressingCells(int isoformIndex, int code) {
+        return numExpressingCells[code * numIsoforms + isoformIndex];
+    }
+
+    /**
+     * Returns the sum of the isoform's expression in the cluster's cells that express it
+     */
+    public double getNonZeroSum(int isoformIndex, int code) {
+        return nonZeroSums[code * numIsoforms + isoformIndex];
+    }
+
+    /**
+     * Returns the sum of the isoform's expression in all of the cluster's cells (the cells that
+     * don't express it have its non-expressing level)
+     */
+    public double getSum(int isoformIndex, int code) {
+        int i = code * numIsoforms + isoformIndex;
+        return nonZeroSums[i] + (numCellsByCode[code] - numExpressingCells[i]) * nonExpressingLevels[isoformIndex];
+    }
+
+    /**
+     * Returns the sum of the isoform's untransformed expression in the cluster's cells
+     */
+    public double getRawSum(int isoformIndex, int code) {
+        return (rawSums != null) ? rawSums[code * numIsoforms + isoformIndex] : getNonZeroSum(isoformIndex, code);
+    }
+
+    /**
+     * Returns the isoform's average expression in the cluster's cells (only in the cells that
+     * express it, if zeros aren't included), or 0 if there are no such cells
+     */
+    public double getAverageExpression(int isoformIndex, int code, boolean includeZeros) {
+        int numCells = includeZeros ? getNumCells(code) : getNumExpressingCells(isoformIndex, code);
+        if (numCells == 0)
+            return 0;
+        return (includeZeros ? getSum(isoformIndex, code) : getNonZeroSum(isoformIndex, code)) / numCells;
+    }
+
+    /**
+     * Returns the isoform's average untransformed expression in all of the cluster's cells, or 0
+     * if the cluster has no cells
+     */
+    public double getRawAverageExpression(int isoformIndex, int code) {
+        int numCells = getNumCells(code);
+        return (numCells == 0) ? 0 : getRawSum(isoformIndex, code) / numCells;
+    }
+
+    /**
+     * Adds the values of the cell with the given number to the statistics of the cluster with the
+     * given code, reading the cell's row of the matrix
+     */
+    private void addCellValues(int code, int cellNumber) {
+        int offset = code * numIsoforms;
+        rawMatrix.forEachExpressedIsoform(cellNumber, (isoformIndex, expression) -> addValue(offset, cellNumber, isoformIndex, expression));
+    }
+
+    /**
+     * Adds the given untransformed value of the isoform in the cell with the given number to the
+     * statistics of the cluster whose first element is at the given offset
+     */
+    private void addValue(int offset, int cellNumber, int isoformIndex, double expression) {
+        int i = offset + isoformIndex;
+        numExpressingCells[i]++;
+        if (rawSums != null)
+            rawSums[i] += expression;
+        nonZeroSums[i] += transform(cellNumber, isoformIndex, expression);
+    }
+
+    private void setNonExpressingLevels() {
+        nonExpressingLevels = new double[numIsoforms];
+        for (int isoformIndex = 0; isoformIndex < numIsoforms; isoformIndex++)
+            nonExpressingLevels[isoformIndex] = matrix.getNonExpressingLevel(isoformIndex);
+    }
+
+    private double transform(int cellNumber, int isoformIndex, double expression) {
+        return (transformedMatrix != null) ? transformedMatrix.transform(cellNumber, isoformIndex, expression) : expression;
+    }
+
+    /**
+     * Grows the arrays to hold the given number of codes. The new codes' clusters have no cells
+     */
+    private void addCodes(int newNumCodes) {
+        numCellsByCode = Arrays.copyOf(numCellsByCode, newNumCodes);
+        numExpressingCells = Arrays.copyOf(numExpressingCells, newNumCodes * numIsoforms);
+        nonZeroSums = Arrays.copyOf(nonZeroSums, newNumCodes * numIsoforms);
+        if (rawSums != null)
+            rawSums = Arrays.copyOf(rawSums, newNumCodes * numIsoforms);
+        numCodes = newNumCodes;
+    }
+}
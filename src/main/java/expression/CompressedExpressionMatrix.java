@@ -0,0 +1,323 @@
+package expression;
+
+import exceptions.InvalidExpressionStoreException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Expression matrix read from a compressed expression store, for datasets that don't fit on
+ * the heap even when stored sparsely. The store holds the matrix's nonzero values twice, in
+ * deflated blocks of cells (row blocks, for per-cell access) and in deflated blocks of isoforms
+ * (column blocks, for per-isoform statistics). Blocks are decompressed when they are needed and
+ * kept in an LRU block cache of a fixed size, so only the blocks in use take room on the heap
+ *
+ * A store begins with a header of HEADER_SIZE bytes (magic number, format version, number of
+ * cells, number of isoforms, cells per row block, number of row blocks, number of column
+ * blocks, index offset), followed by the blocks, then the index: the offsets of the row blocks,
+ * the first isoform and offset of each column block, and each isoform's number of nonzero values.
+ * Each block is its uncompressed size followed by its deflated bytes. Everything is
+ * little-endian. Stores are written by ExpressionStoreConverter
+ *
+ * The store's file stays open until the matrix is closed. Stores can also be read from any
+ * other source of their bytes (e.g. a server), which is only asked for the header, the index and
+ * the blocks that are used
+ */
+public class CompressedExpressionMatrix implements ExpressionMatrix, AutoCloseable {
+    public static final String STORE_EXTENSION = ".rsz";
+    static final int MAGIC_NUMBER = 0x52535A58; // "RSZX"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    /**
+     * Cache size (in MB) can be set with this system property, otherwise a quarter of the max heap
+     * size is used
+     */
+    public static final String CACHE_SIZE_PROPERTY = "rnascoop.blockCacheMB";
+
+    private final ExpressionStoreSource source;
+    private final int numCells;
+    private final int numIsoforms;
+    private final int cellsPerRowBlock;
+    private final long[] rowBlockOffsets;
+    private final int[] columnBlockFirstIsoforms;
+    private final long[] columnBlockOffsets;
+    private final int[] isoformNumValues;
+    private final BlockCache blockCache;
+
+    private CompressedExpressionMatrix(ExpressionStoreSource source, int numCells, int numIsoforms, int cellsPerRowBlock, long[] rowBlockOffsets,
+                                       int[] columnBlockFirstIsoforms, long[] columnBlockOffsets, int[] isoformNumValues,
+                                       long cacheSizeInBytes) {
+        this.source = source;
+        this.numCells = numCells;
+        this.numIsoforms = numIsoforms;
+        this.cellsPerRowBlock = cellsPerRowBlock;
+        this.rowBlockOffsets = rowBlockOffsets;
+        this.columnBlockFirstIsoforms = columnBlockFirstIsoforms;
+        this.columnBlockOffsets = columnBlockOffsets;
+        this.isoformNumValues = isoformNumValues;
+        blockCache = new BlockCache(cacheSizeInBytes);
+    }
+
+    /**
+     * Opens the compressed expression store at the given path, with a block cache of the size
+     * given by the CACHE_SIZE_PROPERTY system property
+     */
+    public static CompressedExpressionMatrix open(String pathToStore) throws IOException, InvalidExpressionStoreException {
+        return open(pathToStore, getDefaultCacheSize());
+    }
+
+    public static CompressedExpressionMatrix open(String pathToStore, long cacheSizeInBytes) throws IOException, InvalidExpressionStoreException {
+        return open(new FileSource(pathToStore), cacheSizeInBytes);
+    }
+
+    /**
+     * Opens the compressed expression store read from the given source, with a block cache of
+     * the size given by the CACHE_SIZE_PROPERTY system property. The source is closed when the
+     * matrix is closed (or if the store can't be opened)
+     */
+    public static CompressedExpressionMatrix open(ExpressionStoreSource source) throws IOException, InvalidExpressionStoreException {
+        return open(source, getDefaultCacheSize());
+    }
+
+    public static CompressedExpressionMatrix open(ExpressionStoreSource source, long cacheSizeInBytes) throws IOException, InvalidExpressionStoreException {
+        try {
+            long storeSize = source.size();
+            if (storeSize < HEADER_SIZE)
+                throw new InvalidExpressionStoreException(source.getName());
+            ByteBuffer header = read(source, 0, HEADER_SIZE);
+            int magicNumber = header.getInt();
+            int version = header.getInt();
+            int numCells = header.getInt();
+            int numIsoforms = header.getInt();
+            int cellsPerRowBlock = header.getInt();
+            int numRowBlocks = header.getInt();
+            int numColumnBlocks = header.getInt();
+            long indexOffset = header.getLong();
+            long indexSize = (long) (numRowBlocks + 1) * Long.BYTES + (long) (numColumnBlocks + 1) * (Integer.BYTES + Long.BYTES) +
+                             (long) numIsoforms * Integer.BYTES;
+            if (magicNumber != MAGIC_NUMBER || version != FORMAT_VERSION || numCells < 0 || numIsoforms < 0 || cellsPerRowBlock <= 0 ||
+                numRowBlocks < 0 || numColumnBlocks < 0 || indexOffset < HEADER_SIZE || indexOffset + indexSize != storeSize)
+                throw new InvalidExpressionStoreException(source.getName());
+
+            ByteBuffer index = read(source, indexOffset, (int) indexSize);
+            long[] rowBlockOffsets = new long[numRowBlocks + 1];
+            index.asLongBuffer().get(rowBlockOffsets);
+            index.position(index.position() + rowBlockOffsets.length * Long.BYTES);
+            int[] columnBlockFirstIsoforms = new int[numColumnBlocks + 1];
+            index.asIntBuffer().get(columnBlockFirstIsoforms);
+            index.position(index.position() + columnBlockFirstIsoforms.length * Integer.BYTES);
+            long[] columnBlockOffsets = new long[numColumnBlocks + 1];
+            index.asLongBuffer().get(columnBlockOffsets);
+            index.position(index.position() + columnBlockOffsets.length * Long.BYTES);
+            int[] isoformNumValues = new int[numIsoforms];
+            index.asIntBuffer().get(isoformNumValues);
+
+            return new CompressedExpressionMatrix(source, numCells, numIsoforms, cellsPerRowBlock, rowBlockOffsets,
+                                                  columnBlockFirstIsoforms, columnBlockOffsets, isoformNumValues, cacheSizeInBytes);
+        } catch (IOException | InvalidExpressionStoreException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    private static long getDefaultCacheSize() {
+        String cacheSize = System.getProperty(CACHE_SIZE_PROPERTY);
+        if (cacheSize != null) {
+            try {
+                return Long.parseLong(cacheSize.trim()) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                // invalid size, use the default
+            }
+        }
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    @Override
+    public int getNumCells() {
+        return numCells;
+    }
+
+    @Override
+    public int getNumIsoforms() {
+        return numIsoforms;
+    }
+
+    @Override
+    public double getExpression(int cellNumber, int isoformIndex) {
+        return getRowBlock(cellNumber).get(cellNumber % cellsPerRowBlock, isoformIndex);
+    }
+
+    @Override
+    public void getCellExpression(int cellNumber, double[] expressionLevels) {
+        Arrays.fill(expressionLevels, 0, numIsoforms, 0);
+        getRowBlock(cellNumber).copyRow(cellNumber % cellsPerRowBlock, expressionLevels);
+    }
+
+    @Override
+    public void forEachExpressingCell(int isoformIndex, ExpressionVisitor visitor) {
+        if (isoformNumValues[isoformIndex] == 0)
+            return;
+        int columnBlock = getColumnBlock(isoformIndex);
+        getBlock(-(columnBlock + 1L)).forEachValue(isoformIndex - columnBlockFirstIsoforms[columnBlock], visitor);
+    }
+
+    /**
+     * The values are kept both by cell (in row blocks) and by isoform (in column blocks)
+     */
+    @Override
+    public boolean isStoredByIsoform() {
+        return true;
+    }
+
+    @Override
+    public void forEachExpressedIsoform(int cellNumber, ExpressionVisitor visitor) {
+        getRowBlock(cellNumber).forEachValue(cellNumber % cellsPerRowBlock, visitor);
+    }
+
+    @Override
+    public int getNumStoredValues(int isoformIndex) {
+        return isoformNumValues[isoformIndex];
+    }
+
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    @Override
+    public void close() throws IOException {
+        blockCache.clear();
+        source.close();
+    }
+
+    private ExpressionBlock getRowBlock(int cellNumber) {
+        return getBlock(cellNumber / cellsPerRowBlock);
+    }
+
+    /**
+     * Index of the column block holding the given isoform
+     */
+    private int getColumnBlock(int isoformIndex) {
+        int position = Arrays.binarySearch(columnBlockFirstIsoforms, isoformIndex);
+        // isoforms that don't start a block are in the block before their insertion point
+        return (position >= 0) ? position : -position - 2;
+    }
+
+    /**
+     * Row blocks have keys 0, 1, ..., column blocks have keys -1, -2, ...
+     */
+    private ExpressionBlock getBlock(long key) {
+        return blockCache.get(key, this::loadBlock);
+    }
+
+    private ExpressionBlock loadBlock(long key) {
+        long start;
+        long end;
+        if (key >= 0) {
+            start = rowBlockOffsets[(int) key];
+            end = rowBlockOffsets[(int) key + 1];
+        } else {
+            int columnBlock = (int) (-key - 1);
+            start = columnBlockOffsets[columnBlock];
+            end = columnBlockOffsets[columnBlock + 1];
+        }
+
+        try {
+            return inflateBlock(read(source, start, (int) (end - start)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads and decompresses the block stored in the given bytes of the channel
+     */
+    static ExpressionBlock readBlock(FileChannel channel, long start, long end) throws IOException {
+        return inflateBlock(read(channel, start, (int) (end - start)));
+    }
+
+    /**
+     * Decompresses the given block, as it is stored (its uncompressed size, then its deflated
+     * bytes)
+     */
+    private static ExpressionBlock inflateBlock(ByteBuffer compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            byte[] block = new byte[compressed.getInt()];
+            inflater.setInput(compressed.array(), compressed.position(), compressed.remaining());
+            int length = 0;
+            while (length < block.length && !inflater.finished()) {
+                int numInflated = inflater.inflate(block, length, block.length - length);
+                // a truncated deflate stream needs more input than the block has
+                if (numInflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Expression store block is truncated");
+                length += numInflated;
+            }
+            if (length != block.length)
+                throw new IOException("Expression store block is truncated");
+            return ExpressionBlock.deserialize(ByteBuffer.wrap(block));
+        } catch (DataFormatException e) {
+            throw new IOException("Expression store block is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads the given bytes of the channel. Reads by position, so blocks can be read by several
+     * threads at the same time
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of expression store");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer read(ExpressionStoreSource source, long position, int length) throws IOException {
+        return source.read(position, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Store file on disk
+     */
+    private static class FileSource implements ExpressionStoreSource {
+        private final String pathToStore;
+        private final FileChannel channel;
+
+        private FileSource(String pathToStore) throws IOException {
+            this.pathToStore = pathToStore;
+            channel = FileChannel.open(Paths.get(pathToStore), StandardOpenOption.READ);
+        }
+
+        @Override
+        public String getName() {
+            return pathToStore;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public ByteBuffer read(long position, int length) throws IOException {
+            return CompressedExpressionMatrix.read(channel, position, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package expression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a compressed expression store (see CompressedExpressionMatrix) one cell at a time, so
+ * the matrix never has to fit on the heap. Row blocks are written as their cells are added.
+ * Once every cell is added, the column blocks are made by reading the row blocks back, a group
+ * of column blocks at a time, so only a bounded number of values is held at once
+ */
+class CompressedExpressionStoreWriter implements AutoCloseable {
+    static final int CELLS_PER_ROW_BLOCK = 64;
+    // column blocks end once they hold about this many values (always at least one isoform)
+    private static final int COLUMN_BLOCK_NUM_VALUES = 64 * 1024;
+    // max number of values held while making column blocks
+    private static final long PASS_NUM_VALUES = 8 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final int numIsoforms;
+    private final Deflater deflater;
+    private final int[] isoformNumValues;
+    private long[] rowBlockOffsets;
+    private int numRowBlocks;
+    private int numCells;
+
+    // row block being filled
+    private final int[] blockPointers;
+    private int[] blockIsoformIndices;
+    private double[] blockValues;
+    private int numBlockCells;
+
+    CompressedExpressionStoreWriter(String pathToStore, int numIsoforms) throws IOException {
+        channel = FileChannel.open(Paths.get(pathToStore), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                   StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(CompressedExpressionMatrix.HEADER_SIZE);
+        this.numIsoforms = numIsoforms;
+        deflater = new Deflater(Deflater.BEST_SPEED);
+        isoformNumValues = new int[numIsoforms];
+        rowBlockOffsets = new long[16];
+        blockPointers = new int[CELLS_PER_ROW_BLOCK + 1];
+        blockIsoformIndices = new int[1024];
+        blockValues = new double[1024];
+    }
+
+    /**
+     * Adds the next cell's expression levels (one for every isoform)
+     */
+    void addCell(double[] expressionLevels) throws IOException {
+        int position = blockPointers[numBlockCells];
+        for (int i = 0; i < numIsoforms; i++) {
+            if (expressionLevels[i] == 0)
+                continue;
+            if (position == blockValues.length) {
+                blockIsoformIndices = Arrays.copyOf(blockIsoformIndices, position * 2);
+                blockValues = Arrays.copyOf(blockValues, position * 2);
+            }
+            blockIsoformIndices[position] = i;
+            blockValues[position] = expressionLevels[i];
+            isoformNumValues[i]++;
+            position++;
+        }
+        numBlockCells++;
+        blockPointers[numBlockCells] = position;
+        numCells++;
+
+        if (numBlockCells == CELLS_PER_ROW_BLOCK)
+            writeRowBlock();
+    }
+
+    int getNumCells() {
+        return numCells;
+    }
+
+    /**
+     * Writes the column blocks, the index and the header. The store can be opened once this returns
+     */
+    void finish() throws IOException {
+        if (numBlockCells > 0)
+            writeRowBlock();
+        rowBlockOffsets = Arrays.copyOf(rowBlockOffsets, numRowBlocks + 1);
+        rowBlockOffsets[numRowBlocks] = channel.position();
+
+        int[] columnBlockFirstIsoforms = getColumnBlockFirstIsoforms();
+        long[] columnBlockOffsets = writeColumnBlocks(columnBlockFirstIsoforms);
+        long indexOffset = channel.position();
+        writeIndex(columnBlockFirstIsoforms, columnBlockOffsets);
+
+        ByteBuffer header = ByteBuffer.allocate(CompressedExpressionMatrix.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CompressedExpressionMatrix.MAGIC_NUMBER);
+        header.putInt(CompressedExpressionMatrix.FORMAT_VERSION);
+        header.putInt(numCells);
+        header.putInt(numIsoforms);
+        header.putInt(CELLS_PER_ROW_BLOCK);
+        header.putInt(numRowBlocks);
+        header.putInt(columnBlockFirstIsoforms.length - 1);
+        header.putLong(indexOffset);
+        header.position(0);
+        write(header, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        channel.close();
+    }
+
+    private void writeRowBlock() throws IOException {
+        int numValues = blockPointers[numBlockCells];
+        ExpressionBlock block = new ExpressionBlock(Arrays.copyOf(blockPointers, numBlockCells + 1),
+                                                    Arrays.copyOf(blockIsoformIndices, numValues),
+                                                    Arrays.copyOf(blockValues, numValues));
+        if (numRowBlocks + 1 >= rowBlockOffsets.length)
+            rowBlockOffsets = Arrays.copyOf(rowBlockOffsets, rowBlockOffsets.length * 2);
+        rowBlockOffsets[numRowBlocks++] = channel.position();
+        writeBlock(block);
+        numBlockCells = 0;
+    }
+
+    /**
+     * Splits the isoforms into column blocks of about COLUMN_BLOCK_NUM_VALUES values
+     *
+     * @return the first isoform of each block, then the number of isoforms
+     */
+    private int[] getColumnBlockFirstIsoforms() {
+        int[] firstIsoforms = new int[numIsoforms + 1];
+        int numColumnBlocks = 0;
+        long blockNumValues = 0;
+        for (int isoformIndex = 0; isoformIndex < numIsoforms; isoformIndex++) {
+            if (isoformIndex == 0 || blockNumValues + isoformNumValues[isoformIndex] > COLUMN_BLOCK_NUM_VALUES) {
+                firstIsoforms[numColumnBlocks++] = isoformIndex;
+                blockNumValues = 0;
+            }
+            blockNumValues += isoformNumValues[isoformIndex];
+        }
+        firstIsoforms[numColumnBlocks] = numIsoforms;
+        return Arrays.copyOf(firstIsoforms, numColumnBlocks + 1);
+    }
+
+    /**
+     * Makes the column blocks from the row blocks, in passes over as many column blocks as fit in
+     * PASS_NUM_VALUES values
+     *
+     * @return offset of each column block, then the offset of the end of the last one
+     */
+    private long[] writeColumnBlocks(int[] columnBlockFirstIsoforms) throws IOException {
+        int numColumnBlocks = columnBlockFirstIsoforms.length - 1;
+        long[] columnBlockOffsets = new long[numColumnBlocks + 1];
+        int passStart = 0;
+        while (passStart < numColumnBlocks) {
+            int passEnd = passStart + 1;
+            long passNumValues = getNumValues(columnBlockFirstIsoforms[passStart], columnBlockFirstIsoforms[passEnd]);
+            while (passEnd < numColumnBlocks) {
+                long blockNumValues = getNumValues(columnBlockFirstIsoforms[passEnd], columnBlockFirstIsoforms[passEnd + 1]);
+                if (passNumValues + blockNumValues > PASS_NUM_VALUES)
+                    break;
+                passNumValues += blockNumValues;
+                passEnd++;
+            }
+            writeColumnBlockPass(columnBlockFirstIsoforms, columnBlockOffsets, passStart, passEnd, (int) passNumValues);
+            passStart = passEnd;
+        }
+        columnBlockOffsets[numColumnBlocks] = channel.position();
+        return columnBlockOffsets;
+    }
+
+    private void writeColumnBlockPass(int[] columnBlockFirstIsoforms, long[] columnBlockOffsets, int passStart, int passEnd,
+                                      int passNumValues) throws IOException {
+        int passFirstIsoform = columnBlockFirstIsoforms[passStart];
+        int passEndIsoform = columnBlockFirstIsoforms[passEnd];
+        int[] pointers = new int[passEndIsoform - passFirstIsoform + 1];
+        for (int isoformIndex = passFirstIsoform; isoformIndex < passEndIsoform; isoformIndex++)
+            pointers[isoformIndex - passFirstIsoform + 1] = pointers[isoformIndex - passFirstIsoform] + isoformNumValues[isoformIndex];
+
+        // row blocks are read with positional reads, which leave the channel's position at the end
+        // of the blocks written so far
+        // cells are visited in increasing order, so each column ends up sorted by cell number
+        int[] cellNumbers = new int[passNumValues];
+        double[] values = new double[passNumValues];
+        int[] nextPositions = Arrays.copyOf(pointers, pointers.length - 1);
+        for (int rowBlock = 0; rowBlock < numRowBlocks; rowBlock++) {
+            ExpressionBlock block = CompressedExpressionMatrix.readBlock(channel, rowBlockOffsets[rowBlock], rowBlockOffsets[rowBlock + 1]);
+            int firstCell = rowBlock * CELLS_PER_ROW_BLOCK;
+            int numRowBlockCells = Math.min(CELLS_PER_ROW_BLOCK, numCells - firstCell);
+            for (int row = 0; row < numRowBlockCells; row++) {
+                int cellNumber = firstCell + row;
+                block.forEachValue(row, (isoformIndex, expression) -> {
+                    if (isoformIndex >= passFirstIsoform && isoformIndex < passEndIsoform) {
+                        int position = nextPositions[isoformIndex - passFirstIsoform]++;
+                        cellNumbers[position] = cellNumber;
+                        values[position] = expression;
+                    }
+                });
+            }
+        }
+
+        for (int columnBlock = passStart; columnBlock < passEnd; columnBlock++) {
+            int firstIsoform = columnBlockFirstIsoforms[columnBlock] - passFirstIsoform;
+            int endIsoform = columnBlockFirstIsoforms[columnBlock + 1] - passFirstIsoform;
+            int[] blockPointers = new int[endIsoform - firstIsoform + 1];
+            for (int i = 0; i < blockPointers.length; i++)
+                blockPointers[i] = pointers[firstIsoform + i] - pointers[firstIsoform];
+            ExpressionBlock block = new ExpressionBlock(blockPointers,
+                                                        Arrays.copyOfRange(cellNumbers, pointers[firstIsoform], pointers[endIsoform]),
+                                                        Arrays.copyOfRange(values, pointers[firstIsoform], pointers[endIsoform]));
+            columnBlockOffsets[columnBlock] = channel.position();
+            writeBlock(block);
+        }
+    }
+
+    private long getNumValues(int firstIsoform, int endIsoform) {
+        long numValues = 0;
+        for (int isoformIndex = firstIsoform; isoformIndex < endIsoform; isoformIndex++)
+            numValues += isoformNumValues[isoformIndex];
+        return numValues;
+    }
+
+    private void writeIndex(int[] columnBlockFirstIsoforms, long[] columnBlockOffsets) throws IOException {
+        int indexSize = rowBlockOffsets.length * Long.BYTES + columnBlockFirstIsoforms.length * (Integer.BYTES + Long.BYTES) +
+                        numIsoforms * Integer.BYTES;
+        ByteBuffer index = ByteBuffer.allocate(indexSize).order(ByteOrder.LITTLE_ENDIAN);
+        for (long offset : rowBlockOffsets)
+            index.putLong(offset);
+        for (int firstIsoform : columnBlockFirstIsoforms)
+            index.putInt(firstIsoform);
+        for (long offset : columnBlockOffsets)
+            index.putLong(offset);
+        for (int numValues : isoformNumValues)
+            index.putInt(numValues);
+        index.flip();
+        write(index, channel.position());
+        channel.position(channel.position() + indexSize);
+    }
+
+    /**
+     * Writes the block's uncompressed size, then its deflated bytes, at the channel's position
+     */
+    private void writeBlock(ExpressionBlock block) throws IOException {
+        byte[] serialized = block.serialize();
+        deflater.reset();
+        deflater.setInput(serialized);
+        deflater.finish();
+        byte[] compressed = new byte[Math.max(64, serialized.length / 2)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length)
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(serialized.length);
+        buffer.put(compressed, 0, length);
+        buffer.flip();
+        long position = channel.position();
+        write(buffer, position);
+        channel.position(position + Integer.BYTES + length);
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+}
@@ -0,0 +1,168 @@
+package expression;
+
+/**
+ * Expression matrix held entirely on the heap, one array of values per cell
+ *
+ * Per-isoform scans (averages, medians and fold changes of an isoform across cells) would read
+ * one value from every cell's array, so the first scan builds an isoform-major copy of the
+ * values, one array per isoform, that later scans read contiguously. The copy isn't built if
+ * the heap doesn't have room for it; scans then read the cells' arrays
+ */
+public class DenseExpressionMatrix implements ExpressionMatrix {
+    // cells and isoforms transposed together when the isoform-major copy is built, so the
+    // values read and written in a tile stay in the CPU cache
+    private static final int TILE_SIZE = 64;
+    // part of the free heap the isoform-major copy may take
+    private static final double COPY_HEAP_FRACTION = 0.5;
+
+    private final ExpressionValues[] matrix;
+    private final int numIsoforms;
+    private final ExpressionEncoding encoding;
+    // values of each isoform, indexed by cell number (null until built)
+    private volatile ExpressionValues[] isoformMatrix;
+    private volatile boolean isoformMatrixTooLarge;
+
+    public DenseExpressionMatrix(double[][] matrix) {
+        this.matrix = new ExpressionValues[matrix.length];
+        for (int cellNumber = 0; cellNumber < matrix.length; cellNumber++)
+            this.matrix[cellNumber] = new ExpressionValues.DoubleValues(matrix[cellNumber]);
+        numIsoforms = (matrix.length > 0) ? matrix[0].length : 0;
+        encoding = ExpressionEncoding.DOUBLE;
+    }
+
+    /**
+     * Creates matrix from the values of each cell, all stored in the given encoding
+     */
+    DenseExpressionMatrix(ExpressionValues[] matrix, int numIsoforms, ExpressionEncoding encoding) {
+        this.matrix = matrix;
+        this.numIsoforms = numIsoforms;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Bytes a dense matrix of the given size takes in the given encoding, including its
+     * isoform-major copy
+     */
+    static long getSize(long numCells, long numIsoforms, ExpressionEncoding encoding) {
+        return 2 * numCells * numIsoforms * encoding.getNumBytes();
+    }
+
+    @Override
+    public int getNumCells() {
+        return matrix.length;
+    }
+
+    @Override
+    public int getNumIsoforms() {
+        return numIsoforms;
+    }
+
+    @Override
+    public double getExpression(int cellNumber, int isoformIndex) {
+        return matrix[cellNumber].get(isoformIndex);
+    }
+
+    @Override
+    public void getCellExpression(int cellNumber, double[] expressionLevels) {
+        ExpressionValues cellValues = matrix[cellNumber];
+        if (cellValues instanceof ExpressionValues.DoubleValues) {
+            System.arraycopy(cellValues.getArray(), 0, expressionLevels, 0, numIsoforms);
+        } else {
+            for (int i = 0; i < numIsoforms; i++)
+                expressionLevels[i] = cellValues.get(i);
+        }
+    }
+
+    @Override
+    public void forEachExpressingCell(int isoformIndex, ExpressionVisitor visitor) {
+        ExpressionValues[] isoformMatrix = getIsoformMatrix();
+        if (isoformMatrix == null) {
+            ExpressionMatrix.super.forEachExpressingCell(isoformIndex, visitor);
+            return;
+        }
+
+        ExpressionValues isoformValues = isoformMatrix[isoformIndex];
+        for (int cellNumber = 0; cellNumber < matrix.length; cellNumber++) {
+            double expression = isoformValues.get(cellNumber);
+            if (expression != 0)
+                visitor.visit(cellNumber, expression);
+        }
+    }
+
+    @Override
+    public void forEachExpressingCell(int isoformIndex, int[] cellNumbers, ExpressionVisitor visitor) {
+        ExpressionValues[] isoformMatrix = getIsoformMatrix();
+        if (isoformMatrix == null) {
+            ExpressionMatrix.super.forEachExpressingCell(isoformIndex, cellNumbers, visitor);
+            return;
+        }
+
+        ExpressionValues isoformValues = isoformMatrix[isoformIndex];
+        for (int cellNumber : cellNumbers) {
+            double expression = isoformValues.get(cellNumber);
+            if (expression != 0)
+                visitor.visit(cellNumber, expression);
+        }
+    }
+
+    /**
+     * True if the matrix has an isoform-major copy of its values (which is built if it hasn't
+     * been, and the heap has room for it)
+     */
+    @Override
+    public boolean isStoredByIsoform() {
+        return getIsoformMatrix() != null;
+    }
+
+    /**
+     * Values stored as doubles are returned without being copied
+     */
+    @Override
+    public double[][] toArray() {
+        if (matrix.length == 0 || !(matrix[0] instanceof ExpressionValues.DoubleValues))
+            return ExpressionMatrix.super.toArray();
+
+        double[][] array = new double[matrix.length][];
+        for (int cellNumber = 0; cellNumber < matrix.length; cellNumber++)
+            array[cellNumber] = (double[]) matrix[cellNumber].getArray();
+        return array;
+    }
+
+    /**
+     * Returns the isoform-major copy of the values, building it if it hasn't been built, or
+     * null if the heap doesn't have room for it
+     */
+    private ExpressionValues[] getIsoformMatrix() {
+        ExpressionValues[] isoformMatrix = this.isoformMatrix;
+        if (isoformMatrix != null || isoformMatrixTooLarge)
+            return isoformMatrix;
+
+        synchronized (this) {
+            if (this.isoformMatrix == null && !isoformMatrixTooLarge) {
+                Runtime runtime = Runtime.getRuntime();
+                long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+                if ((long) matrix.length * numIsoforms * encoding.getNumBytes() > freeHeap * COPY_HEAP_FRACTION)
+                    isoformMatrixTooLarge = true;
+                else
+                    this.isoformMatrix = transpose();
+            }
+            return this.isoformMatrix;
+        }
+    }
+
+    private ExpressionValues[] transpose() {
+        ExpressionValues[] isoformMatrix = new ExpressionValues[numIsoforms];
+        for (int isoformIndex = 0; isoformIndex < numIsoforms; isoformIndex++)
+            isoformMatrix[isoformIndex] = encoding.allocate(matrix.length);
+
+        for (int tileStart = 0; tileStart < numIsoforms; tileStart += TILE_SIZE) {
+            int tileEnd = Math.min(tileStart + TILE_SIZE, numIsoforms);
+            for (int cellNumber = 0; cellNumber < matrix.length; cellNumber++) {
+                ExpressionValues cellValues = matrix[cellNumber];
+                for (int isoformIndex = tileStart; isoformIndex < tileEnd; isoformIndex++)
+                    cellValues.copyTo(isoformIndex, isoformMatrix[isoformIndex], cellNumber, 1);
+            }
+        }
+        return isoformMatrix;
+    }
+}
@@ -0,0 +1,91 @@
+package expression;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Block of a compressed expression store: the nonzero values of a run of rows (cells in a row
+ * block, isoforms in a column block), compressed like the rows of a SparseExpressionMatrix. The
+ * values of row i are at [pointers[i], pointers[i + 1]), each with the index of its column
+ * (isoform index in a row block, cell number in a column block)
+ *
+ * Serialized form (little-endian): number of rows, pointers, indices, values
+ */
+class ExpressionBlock {
+    // rough size of the block object and its array headers
+    private static final int OVERHEAD_BYTES = 64;
+
+    private final int[] pointers;
+    private final int[] indices;
+    private final double[] values;
+
+    ExpressionBlock(int[] pointers, int[] indices, double[] values) {
+        this.pointers = pointers;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    static ExpressionBlock deserialize(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int numRows = buffer.getInt();
+        int[] pointers = new int[numRows + 1];
+        buffer.asIntBuffer().get(pointers);
+        buffer.position(buffer.position() + pointers.length * Integer.BYTES);
+        int numValues = pointers[numRows];
+        int[] indices = new int[numValues];
+        buffer.asIntBuffer().get(indices);
+        buffer.position(buffer.position() + numValues * Integer.BYTES);
+        double[] values = new double[numValues];
+        buffer.asDoubleBuffer().get(values);
+        return new ExpressionBlock(pointers, indices, values);
+    }
+
+    byte[] serialize() {
+        ByteBuffer buffer = ByteBuffer.allocate(getSerializedSize()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(pointers.length - 1);
+        buffer.asIntBuffer().put(pointers);
+        buffer.position(buffer.position() + pointers.length * Integer.BYTES);
+        buffer.asIntBuffer().put(indices);
+        buffer.position(buffer.position() + indices.length * Integer.BYTES);
+        buffer.asDoubleBuffer().put(values);
+        return buffer.array();
+    }
+
+    private int getSerializedSize() {
+        return Integer.BYTES * (1 + pointers.length + indices.length) + Double.BYTES * values.length;
+    }
+
+    /**
+     * Approximate number of bytes the block takes on the heap
+     */
+    long getSizeInBytes() {
+        return OVERHEAD_BYTES + getSerializedSize();
+    }
+
+    int getNumValues(int row) {
+        return pointers[row + 1] - pointers[row];
+    }
+
+    /**
+     * Returns the value at the given column of the given row (0 if it isn't stored)
+     */
+    double get(int row, int column) {
+        int position = Arrays.binarySearch(indices, pointers[row], pointers[row + 1], column);
+        return (position >= 0) ? values[position] : 0;
+    }
+
+    /**
+     * Copies the values of the given row into the given array, at their columns. Columns with no
+     * stored value are not touched
+     */
+    void copyRow(int row, double[] rowValues) {
+        for (int i = pointers[row]; i < pointers[row + 1]; i++)
+            rowValues[indices[i]] = values[i];
+    }
+
+    void forEachValue(int row, ExpressionVisitor visitor) {
+        for (int i = pointers[row]; i < pointers[row + 1]; i++)
+            visitor.visit(indices[i], values[i]);
+    }
+}
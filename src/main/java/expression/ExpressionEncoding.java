@@ -0,0 +1,115 @@
+package expression;
+
+/**
+ * How the values of an in-memory expression matrix are stored. Encodings other than DOUBLE
+ * take 2-4x less memory, at the cost of precision (largest relative error of a decoded value):
+ *   - DOUBLE: exact
+ *   - FLOAT: 6e-8
+ *   - HALF: 4.9e-4, values up to 65504 (values below 6.1e-5 have an absolute error of 3e-8)
+ *   - LOG16: 2.5e-4, values up to about 8.9 million (log1p of the value quantized to 16 bits;
+ *            values below 1 have an absolute error of 2.5e-4)
+ *   - INT: exact, for whole numbers (e.g. raw counts) up to 2^31 - 1
+ *   - SHORT: exact, for whole numbers up to 65535
+ * Zero is only ever stored for zero (tiny values are kept as the smallest nonzero value), so the
+ * cells and isoforms counted as expressing are the same whatever the encoding
+ */
+public enum ExpressionEncoding {
+    DOUBLE("double", Double.BYTES, Double.MAX_VALUE, false) {
+        @Override
+        ExpressionValues allocate(int length) {
+            return new ExpressionValues.DoubleValues(length);
+        }
+    },
+    FLOAT("float", Float.BYTES, Float.MAX_VALUE, false) {
+        @Override
+        ExpressionValues allocate(int length) {
+            return new ExpressionValues.FloatValues(length);
+        }
+    },
+    HALF("half", Character.BYTES, ExpressionValues.HalfValues.MAX_VALUE, false) {
+        @Override
+        ExpressionValues allocate(int length) {
+            return new ExpressionValues.HalfValues(length);
+        }
+    },
+    LOG16("log16", Character.BYTES, ExpressionValues.Log16Values.MAX_VALUE, false) {
+        @Override
+        ExpressionValues allocate(int length) {
+            return new ExpressionValues.Log16Values(length);
+        }
+    },
+    INT("int", Integer.BYTES, Integer.MAX_VALUE, true) {
+        @Override
+        ExpressionValues allocate(int length) {
+            return new ExpressionValues.IntValues(length);
+        }
+    },
+    SHORT("short", Character.BYTES, Character.MAX_VALUE, true) {
+        @Override
+        ExpressionValues allocate(int length) {
+            return new ExpressionValues.ShortValues(length);
+        }
+    };
+
+    private final String name;
+    private final int numBytes;
+    private final double maxValue;
+    private final boolean wholeNumbersOnly;
+
+    ExpressionEncoding(String name, int numBytes, double maxValue, boolean wholeNumbersOnly) {
+        this.name = name;
+        this.numBytes = numBytes;
+        this.maxValue = maxValue;
+        this.wholeNumbersOnly = wholeNumbersOnly;
+    }
+
+    /**
+     * Returns the encoding with the given name (as written in dataset JSON files), or null if
+     * there isn't one
+     */
+    public static ExpressionEncoding fromName(String name) {
+        for (ExpressionEncoding encoding : values()) {
+            if (encoding.name.equalsIgnoreCase(name))
+                return encoding;
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of bytes each value takes
+     */
+    public int getNumBytes() {
+        return numBytes;
+    }
+
+    public double getMaxValue() {
+        return maxValue;
+    }
+
+    public boolean isWholeNumbersOnly() {
+        return wholeNumbersOnly;
+    }
+
+    /**
+     * Whether the given (non-negative) expression value can be stored in this encoding. NaN and
+     * infinity are only stored by the encodings that have them (DOUBLE and FLOAT)
+     */
+    public boolean canEncode(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return canEncodeNonFinite();
+        return value <= maxValue && (!wholeNumbersOnly || value == Math.rint(value));
+    }
+
+    /**
+     * Whether NaN and infinity can be stored in this encoding
+     */
+    public boolean canEncodeNonFinite() {
+        return this == DOUBLE || this == FLOAT;
+    }
+
+    abstract ExpressionValues allocate(int length);
+}
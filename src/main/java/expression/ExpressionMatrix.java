@@ -0,0 +1,95 @@
+package expression;
+
+/**
+ * Cell by isoform expression matrix. Rows represent cells (first row is cell 0) and
+ * columns represent isoforms, in the order given by the isoform labels file
+ */
+public interface ExpressionMatrix {
+
+    int getNumCells();
+
+    int getNumIsoforms();
+
+    /**
+     * Returns the level of expression of the isoform at the given column in the cell
+     * at the given row
+     */
+    double getExpression(int cellNumber, int isoformIndex);
+
+    /**
+     * Copies the expression levels of all isoforms in the given cell into the given array
+     * (which must have a length of at least getNumIsoforms())
+     */
+    void getCellExpression(int cellNumber, double[] expressionLevels);
+
+    /**
+     * Visits every cell in which the isoform at the given column has a nonzero expression level
+     */
+    default void forEachExpressingCell(int isoformIndex, ExpressionVisitor visitor) {
+        for (int cellNumber = 0; cellNumber < getNumCells(); cellNumber++) {
+            double expression = getExpression(cellNumber, isoformIndex);
+            if (expression != 0)
+                visitor.visit(cellNumber, expression);
+        }
+    }
+
+    /**
+     * Visits each of the cells with the given numbers (in increasing order) in which the isoform
+     * at the given column has a nonzero expression level
+     */
+    default void forEachExpressingCell(int isoformIndex, int[] cellNumbers, ExpressionVisitor visitor) {
+        for (int cellNumber : cellNumbers) {
+            double expression = getExpression(cellNumber, isoformIndex);
+            if (expression != 0)
+                visitor.visit(cellNumber, expression);
+        }
+    }
+
+    /**
+     * Visits every isoform that has a nonzero expression level in the given cell
+     */
+    default void forEachExpressedIsoform(int cellNumber, ExpressionVisitor visitor) {
+        for (int isoformIndex = 0; isoformIndex < getNumIsoforms(); isoformIndex++) {
+            double expression = getExpression(cellNumber, isoformIndex);
+            if (expression != 0)
+                visitor.visit(isoformIndex, expression);
+        }
+    }
+
+    /**
+     * Returns whether the matrix keeps its values by isoform, so forEachExpressingCell() reads an
+     * isoform's values without going through every cell's, and scanning the whole matrix one
+     * isoform at a time is one pass over it. Otherwise whole-matrix scans should go one cell at a
+     * time, with forEachExpressedIsoform()
+     */
+    default boolean isStoredByIsoform() {
+        return false;
+    }
+
+    /**
+     * Returns the expression level of the isoform at the given column in the cells that don't
+     * express it (zero, except in views that transform the values, e.g. z-scores)
+     */
+    default double getNonExpressingLevel(int isoformIndex) {
+        return 0;
+    }
+
+    /**
+     * Returns the number of values forEachExpressingCell() looks at for the given isoform
+     * (every cell for dense matrices, only the nonzero values for sparse ones)
+     */
+    default int getNumStoredValues(int isoformIndex) {
+        return getNumCells();
+    }
+
+    /**
+     * Returns the whole matrix as a 2D array on the heap. Should only be used by code that
+     * needs every value at once (e.g. t-SNE and UMAP)
+     */
+    default double[][] toArray() {
+        double[][] matrix = new double[getNumCells()][getNumIsoforms()];
+        for (int cellNumber = 0; cellNumber < matrix.length; cellNumber++)
+            getCellExpression(cellNumber, matrix[cellNumber]);
+        return matrix;
+    }
+}
@@ -0,0 +1,214 @@
+package expression;
+
+import exceptions.ExpressionEncodingException;
+
+import java.util.Arrays;
+
+/**
+ * Collects the rows of an expression matrix as they are parsed, keeping only their nonzero
+ * values, then builds whichever representation (sparse or dense) takes less memory, unless it's
+ * given the layout to build. Values are stored in the builder's expression encoding as soon as
+ * they are set
+ *
+ * A builder can be given an isoform quorum counter, which counts the cells each isoform is
+ * expressed in as cells are set. Isoforms that don't meet the quorum are dropped from the
+ * collected rows when the matrix is built, so the matrix only has columns for the isoforms
+ * the counter keeps
+ *
+ * Different cells may be set from different threads at the same time
+ */
+public class ExpressionMatrixBuilder {
+    private static final int[] EMPTY = new int[0];
+
+    private final int numCells;
+    private final int numIsoforms;
+    private final int[][] cellIsoformIndices;
+    private final ExpressionValues[] cellValues;
+    private final ExpressionEncoding encoding;
+    private final IsoformQuorum.Counter quorumCounter;
+    private final MatrixLayout layout;
+
+    public ExpressionMatrixBuilder(int numCells, int numIsoforms) {
+        this(numCells, numIsoforms, ExpressionEncoding.DOUBLE);
+    }
+
+    public ExpressionMatrixBuilder(int numCells, int numIsoforms, ExpressionEncoding encoding) {
+        this(numCells, numIsoforms, encoding, IsoformQuorum.NONE.newCounter(numIsoforms));
+    }
+
+    public ExpressionMatrixBuilder(int numCells, int numIsoforms, ExpressionEncoding encoding, IsoformQuorum.Counter quorumCounter) {
+        this(numCells, numIsoforms, encoding, quorumCounter, null);
+    }
+
+    /**
+     * @param layout layout of the built matrix (DENSE or SPARSE), or null to build whichever
+     *               takes less memory
+     */
+    public ExpressionMatrixBuilder(int numCells, int numIsoforms, ExpressionEncoding encoding, IsoformQuorum.Counter quorumCounter,
+                                   MatrixLayout layout) {
+        if (layout == MatrixLayout.STORE)
+            throw new IllegalArgumentException("Expression stores are written by ExpressionStoreConverter, not built");
+        this.numCells = numCells;
+        this.numIsoforms = numIsoforms;
+        this.encoding = encoding;
+        this.quorumCounter = quorumCounter;
+        this.layout = layout;
+        cellIsoformIndices = new int[numCells][];
+        cellValues = new ExpressionValues[numCells];
+    }
+
+    /**
+     * Saves the nonzero expression levels of the given cell
+     * @throws ExpressionEncodingException an expression level can't be stored in the builder's encoding
+     */
+    public void setCellExpression(int cellNumber, double[] expressionLevels) throws ExpressionEncodingException {
+        int numNonZeros = 0;
+        for (int i = 0; i < numIsoforms; i++) {
+            if (expressionLevels[i] != 0)
+                numNonZeros++;
+        }
+        int[] isoformIndices = new int[numNonZeros];
+        ExpressionValues values = encoding.allocate(numNonZeros);
+        int position = 0;
+        for (int i = 0; i < numIsoforms; i++) {
+            if (expressionLevels[i] != 0) {
+                isoformIndices[position] = i;
+                setValue(values, position, expressionLevels[i]);
+                quorumCounter.count(i, expressionLevels[i]);
+                position++;
+            }
+        }
+        cellIsoformIndices[cellNumber] = isoformIndices;
+        cellValues[cellNumber] = values;
+    }
+
+    /**
+     * Saves the nonzero expression levels of the given cell, given as the indices of the
+     * isoforms the cell expresses (in increasing order) and their expression levels. The builder
+     * keeps the given isoform indices array
+     * @throws ExpressionEncodingException an expression level can't be stored in the builder's encoding
+     */
+    public void setCellExpression(int cellNumber, int[] isoformIndices, double[] values) throws ExpressionEncodingException {
+        ExpressionValues encodedValues = encoding.allocate(values.length);
+        for (int i = 0; i < values.length; i++) {
+            setValue(encodedValues, i, values[i]);
+            quorumCounter.count(isoformIndices[i], values[i]);
+        }
+        cellIsoformIndices[cellNumber] = isoformIndices;
+        cellValues[cellNumber] = encodedValues;
+    }
+
+    private void setValue(ExpressionValues values, int position, double value) throws ExpressionEncodingException {
+        if (!encoding.canEncode(value))
+            throw new ExpressionEncodingException(value, encoding);
+        values.set(position, value);
+    }
+
+    /**
+     * Builds the matrix, with only the isoforms kept by the quorum counter (in their original
+     * order). It is stored in the builder's layout if it was given one (a sparse matrix can't
+     * have more than Integer.MAX_VALUE values, so larger ones are stored densely). Otherwise
+     * it is stored sparsely unless the matrix is dense enough that storing every value takes
+     * less memory
+     */
+    public ExpressionMatrix build() {
+        int[] keptIsoforms = quorumCounter.getKeptIsoforms();
+        int numBuiltIsoforms = numIsoforms;
+        if (keptIsoforms != null && keptIsoforms.length < numIsoforms) {
+            dropIsoforms(keptIsoforms);
+            numBuiltIsoforms = keptIsoforms.length;
+        }
+
+        long numNonZeros = 0;
+        for (int[] isoformIndices : cellIsoformIndices)
+            numNonZeros += (isoformIndices != null) ? isoformIndices.length : 0;
+
+        boolean buildSparse = (layout != null) ? layout == MatrixLayout.SPARSE : getSparseSize(numNonZeros, numBuiltIsoforms) < getDenseSize(numBuiltIsoforms);
+        if (buildSparse && numNonZeros <= Integer.MAX_VALUE)
+            return buildSparse((int) numNonZeros, numBuiltIsoforms);
+        else
+            return buildDense(numBuiltIsoforms);
+    }
+
+    /**
+     * Removes the values of the isoforms that aren't kept from every collected row, and renumbers
+     * the kept isoforms. Rows are compacted in place
+     */
+    private void dropIsoforms(int[] keptIsoforms) {
+        int[] newIsoformIndices = new int[numIsoforms];
+        Arrays.fill(newIsoformIndices, -1);
+        for (int i = 0; i < keptIsoforms.length; i++)
+            newIsoformIndices[keptIsoforms[i]] = i;
+
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++) {
+            int[] isoformIndices = cellIsoformIndices[cellNumber];
+            if (isoformIndices == null)
+                continue;
+            ExpressionValues values = cellValues[cellNumber];
+            int numKeptValues = 0;
+            for (int i = 0; i < isoformIndices.length; i++) {
+                int newIsoformIndex = newIsoformIndices[isoformIndices[i]];
+                if (newIsoformIndex >= 0) {
+                    isoformIndices[numKeptValues] = newIsoformIndex;
+                    values.copyTo(i, values, numKeptValues, 1);
+                    numKeptValues++;
+                }
+            }
+            // values past the kept ones are never read, only the indices are trimmed
+            if (numKeptValues < isoformIndices.length)
+                cellIsoformIndices[cellNumber] = Arrays.copyOf(isoformIndices, numKeptValues);
+        }
+    }
+
+    /**
+     * Approximate number of bytes a sparse matrix takes (an index and a value for each nonzero,
+     * stored both by cell and by isoform)
+     */
+    private long getSparseSize(long numNonZeros, int numBuiltIsoforms) {
+        return 2 * numNonZeros * (Integer.BYTES + encoding.getNumBytes()) + (long) (numCells + numBuiltIsoforms + 2) * Integer.BYTES;
+    }
+
+    /**
+     * Approximate number of bytes a dense matrix takes (every value, stored both by cell and,
+     * once per-isoform statistics are calculated, by isoform)
+     */
+    private long getDenseSize(int numBuiltIsoforms) {
+        return DenseExpressionMatrix.getSize(numCells, numBuiltIsoforms, encoding);
+    }
+
+    private ExpressionMatrix buildSparse(int numNonZeros, int numBuiltIsoforms) {
+        int[] cellPointers = new int[numCells + 1];
+        int[] isoformIndices = new int[numNonZeros];
+        ExpressionValues values = encoding.allocate(numNonZeros);
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++) {
+            int[] cellIndices = getCellIsoformIndices(cellNumber);
+            int start = cellPointers[cellNumber];
+            System.arraycopy(cellIndices, 0, isoformIndices, start, cellIndices.length);
+            if (cellIndices.length > 0)
+                cellValues[cellNumber].copyTo(0, values, start, cellIndices.length);
+            cellPointers[cellNumber + 1] = start + cellIndices.length;
+            // rows are no longer needed once copied
+            cellIsoformIndices[cellNumber] = null;
+            cellValues[cellNumber] = null;
+        }
+        return new SparseExpressionMatrix(numCells, numBuiltIsoforms, cellPointers, isoformIndices, values, encoding);
+    }
+
+    private ExpressionMatrix buildDense(int numBuiltIsoforms) {
+        ExpressionValues[] matrix = new ExpressionValues[numCells];
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++) {
+            matrix[cellNumber] = encoding.allocate(numBuiltIsoforms);
+            int[] cellIndices = getCellIsoformIndices(cellNumber);
+            for (int i = 0; i < cellIndices.length; i++)
+                cellValues[cellNumber].copyTo(i, matrix[cellNumber], cellIndices[i], 1);
+            cellIsoformIndices[cellNumber] = null;
+            cellValues[cellNumber] = null;
+        }
+        return new DenseExpressionMatrix(matrix, numBuiltIsoforms, encoding);
+    }
+
+    private int[] getCellIsoformIndices(int cellNumber) {
+        int[] isoformIndices = cellIsoformIndices[cellNumber];
+        return (isoformIndices != null) ? isoformIndices : EMPTY;
+    }
+}
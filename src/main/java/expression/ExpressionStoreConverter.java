@@ -0,0 +1,173 @@
+package expression;
+
+import exceptions.ColumnLabelsLengthException;
+import exceptions.MatrixSizeZeroException;
+import exceptions.NegativeExpressionInMatrixException;
+import exceptions.RNAScoopException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Converts a tab-separated expression matrix (optionally gzipped) into a binary expression
+ * store that can be opened by MappedExpressionMatrix (.rsm) or, if the store path ends in .rsz,
+ * into a compressed expression store that can be opened by CompressedExpressionMatrix. The
+ * matrix is streamed one row at a time, so it never has to fit on the heap
+ *
+ * Usage: java -cp RNA-Scoop.jar expression.ExpressionStoreConverter matrix.txt[.gz] [store.rsm|store.rsz]
+ */
+public class ExpressionStoreConverter {
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java -cp RNA-Scoop.jar expression.ExpressionStoreConverter <matrix> [<store.rsm|store.rsz>]");
+            System.exit(1);
+        }
+        String pathToMatrix = args[0];
+        String pathToStore = (args.length == 2) ? args[1] : getDefaultStorePath(pathToMatrix);
+        try {
+            convert(pathToMatrix, pathToStore);
+            System.out.println("Wrote expression store to: " + pathToStore);
+        } catch (RNAScoopException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns the path of the matrix with its text/gzip extensions replaced by the store extension
+     */
+    public static String getDefaultStorePath(String pathToMatrix) {
+        String path = pathToMatrix;
+        if (path.toLowerCase().endsWith(GZIP_EXTENSION))
+            path = path.substring(0, path.length() - GZIP_EXTENSION.length());
+        return path.replaceFirst("[.][^.\\\\/]+$", "") + MappedExpressionMatrix.STORE_EXTENSION;
+    }
+
+    /**
+     * Writes the matrix at the given path to an expression store at the given store path, a
+     * compressed one if the path ends in .rsz
+     * Throws exceptions if the matrix is empty, if rows have different numbers of columns or
+     * if the matrix contains negative expression values
+     */
+    public static void convert(String pathToMatrix, String pathToStore) throws IOException, MatrixSizeZeroException,
+                                                                            ColumnLabelsLengthException, NegativeExpressionInMatrixException {
+        if (pathToStore.toLowerCase().endsWith(CompressedExpressionMatrix.STORE_EXTENSION))
+            convertToCompressedStore(pathToMatrix, pathToStore);
+        else
+            convertToMappedStore(pathToMatrix, pathToStore);
+    }
+
+    private static void convertToMappedStore(String pathToMatrix, String pathToStore) throws IOException, MatrixSizeZeroException,
+                                                                                          ColumnLabelsLengthException, NegativeExpressionInMatrixException {
+        Pattern pattern = Pattern.compile("\t");
+        int numCells = 0;
+        int numIsoforms = -1;
+
+        try (BufferedReader reader = getReader(pathToMatrix);
+             FileChannel channel = FileChannel.open(Paths.get(pathToStore), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(MappedExpressionMatrix.HEADER_SIZE);
+
+            String line;
+            while ((line = reader.readLine()) != null && !line.matches("\\s*")) {
+                String[] values = pattern.split(line);
+                if (numIsoforms < 0)
+                    numIsoforms = values.length;
+                else if (values.length != numIsoforms)
+                    throw new ColumnLabelsLengthException();
+
+                for (String value : values) {
+                    double expression = Double.parseDouble(value);
+                    if (expression < 0)
+                        throw new NegativeExpressionInMatrixException();
+                    if (!buffer.hasRemaining())
+                        flush(buffer, channel);
+                    buffer.putDouble(expression);
+                }
+                numCells++;
+            }
+            if (numCells == 0)
+                throw new MatrixSizeZeroException();
+            flush(buffer, channel);
+
+            buffer.putInt(MappedExpressionMatrix.MAGIC_NUMBER);
+            buffer.putInt(MappedExpressionMatrix.FORMAT_VERSION);
+            buffer.putInt(numCells);
+            buffer.putInt(numIsoforms);
+            while (buffer.position() < MappedExpressionMatrix.HEADER_SIZE)
+                buffer.put((byte) 0);
+            buffer.flip();
+            channel.position(0);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        } catch (IOException | RNAScoopException e) {
+            new File(pathToStore).delete();
+            throw e;
+        }
+    }
+
+    private static void convertToCompressedStore(String pathToMatrix, String pathToStore) throws IOException, MatrixSizeZeroException,
+                                                                                              ColumnLabelsLengthException, NegativeExpressionInMatrixException {
+        Pattern pattern = Pattern.compile("\t");
+        CompressedExpressionStoreWriter writer = null;
+
+        try (BufferedReader reader = getReader(pathToMatrix)) {
+            double[] expressionLevels = null;
+            String line;
+            while ((line = reader.readLine()) != null && !line.matches("\\s*")) {
+                String[] values = pattern.split(line);
+                if (writer == null) {
+                    writer = new CompressedExpressionStoreWriter(pathToStore, values.length);
+                    expressionLevels = new double[values.length];
+                } else if (values.length != expressionLevels.length) {
+                    throw new ColumnLabelsLengthException();
+                }
+
+                for (int i = 0; i < values.length; i++) {
+                    expressionLevels[i] = Double.parseDouble(values[i]);
+                    if (expressionLevels[i] < 0)
+                        throw new NegativeExpressionInMatrixException();
+                }
+                writer.addCell(expressionLevels);
+            }
+            if (writer == null)
+                throw new MatrixSizeZeroException();
+            writer.finish();
+        } catch (IOException | RNAScoopException e) {
+            if (writer != null)
+                writer.close();
+            new File(pathToStore).delete();
+            throw e;
+        } finally {
+            if (writer != null)
+                writer.close();
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static BufferedReader getReader(String pathToMatrix) throws IOException {
+        if (pathToMatrix.toLowerCase().endsWith(GZIP_EXTENSION))
+            return new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(pathToMatrix))));
+        else
+            return new BufferedReader(new InputStreamReader(new FileInputStream(pathToMatrix)));
+    }
+}
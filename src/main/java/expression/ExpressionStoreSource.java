@@ -0,0 +1,28 @@
+package expression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Bytes of an expression store, read by position. Stores on disk are read through their file
+ * channel; stores on a server can be read with range requests, so only the blocks that are
+ * needed are fetched
+ */
+public interface ExpressionStoreSource extends AutoCloseable {
+
+    /**
+     * Name of the store, for error messages
+     */
+    String getName();
+
+    long size() throws IOException;
+
+    /**
+     * Reads the given bytes of the store into a heap buffer. Can be called from several threads at
+     * the same time
+     */
+    ByteBuffer read(long position, int length) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,25 @@
+package expression;
+
+/**
+ * Adds up the expression values it visits and counts them. Matrices only visit the cells that
+ * express an isoform, so the count is the number of expressing cells (transformed values, e.g.
+ * z-scores, may be zero or negative in cells that express the isoform)
+ */
+public class ExpressionSum implements ExpressionVisitor {
+    private double sum;
+    private int numExpressingCells;
+
+    @Override
+    public void visit(int index, double expression) {
+        sum += expression;
+        numExpressingCells++;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public int getNumExpressingCells() {
+        return numExpressingCells;
+    }
+}
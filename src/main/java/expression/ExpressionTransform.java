@@ -0,0 +1,49 @@
+package expression;
+
+/**
+ * Transformation applied to expression values as they're read (the matrix itself is never
+ * changed):
+ *   - RAW: the values as loaded
+ *   - LOG1P: natural log of 1 + the value
+ *   - CPM: value scaled so each cell's values add up to a million
+ *   - Z_SCORE: value minus the isoform's mean expression across all cells, divided by the
+ *              standard deviation of its expression (zeros included)
+ */
+public enum ExpressionTransform {
+    RAW("raw"),
+    LOG1P("log1p"),
+    CPM("cpm"),
+    Z_SCORE("z_score");
+
+    private final String name;
+
+    ExpressionTransform(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the transform with the given name (as saved in sessions), or null if there
+     * isn't one
+     */
+    public static ExpressionTransform fromName(String name) {
+        for (ExpressionTransform transform : values()) {
+            if (transform.name.equalsIgnoreCase(name))
+                return transform;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a view of the given matrix whose values are transformed by this transform (the
+     * matrix itself if this is RAW)
+     */
+    public ExpressionMatrix apply(ExpressionMatrix matrix) {
+        if (this == RAW)
+            return matrix;
+        return new TransformedExpressionMatrix(matrix, this);
+    }
+
+    public String getName() {
+        return name;
+    }
+}
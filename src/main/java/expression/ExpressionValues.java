@@ -0,0 +1,269 @@
+package expression;
+
+/**
+ * Array of expression values stored in one of the expression encodings. Values are encoded
+ * when set and decoded when read, so matrices holding them look the same whatever the encoding
+ *
+ * ASSUMES values are only set after ExpressionEncoding.canEncode() has accepted them
+ */
+abstract class ExpressionValues {
+
+    abstract int length();
+
+    abstract double get(int i);
+
+    abstract void set(int i, double value);
+
+    /**
+     * The backing array, so values can be copied between arrays of the same encoding without
+     * decoding and re-encoding them
+     */
+    abstract Object getArray();
+
+    /**
+     * Copies values to the given array, which must have the same encoding
+     */
+    void copyTo(int position, ExpressionValues destination, int destinationPosition, int length) {
+        System.arraycopy(getArray(), position, destination.getArray(), destinationPosition, length);
+    }
+
+    static class DoubleValues extends ExpressionValues {
+        private final double[] values;
+
+        DoubleValues(int length) {
+            this(new double[length]);
+        }
+
+        DoubleValues(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        int length() {
+            return values.length;
+        }
+
+        @Override
+        double get(int i) {
+            return values[i];
+        }
+
+        @Override
+        void set(int i, double value) {
+            values[i] = value;
+        }
+
+        @Override
+        Object getArray() {
+            return values;
+        }
+    }
+
+    static class FloatValues extends ExpressionValues {
+        private final float[] values;
+
+        FloatValues(int length) {
+            values = new float[length];
+        }
+
+        @Override
+        int length() {
+            return values.length;
+        }
+
+        @Override
+        double get(int i) {
+            return values[i];
+        }
+
+        @Override
+        void set(int i, double value) {
+            float floatValue = (float) value;
+            // nonzero values too small for a float are kept as the smallest float, so they are
+            // still counted as expressed
+            values[i] = (floatValue == 0 && value != 0) ? Math.copySign(Float.MIN_VALUE, floatValue) : floatValue;
+        }
+
+        @Override
+        Object getArray() {
+            return values;
+        }
+    }
+
+    /**
+     * Values stored as IEEE 754 half-precision floats (10-bit mantissa). Decoded through a table
+     * of every possible half value
+     */
+    static class HalfValues extends ExpressionValues {
+        static final double MAX_VALUE = 65504;
+        private static final int MANTISSA_BITS = 10;
+        private static final int EXPONENT_BIAS = 15;
+        // smallest exponent of a normal half, values below 2^-14 are subnormal
+        private static final int MIN_EXPONENT = -14;
+        private static final double[] DECODED = new double[1 << 16];
+        static {
+            for (int bits = 0; bits < DECODED.length; bits++)
+                DECODED[bits] = decode(bits);
+        }
+
+        private final char[] values;
+
+        HalfValues(int length) {
+            values = new char[length];
+        }
+
+        @Override
+        int length() {
+            return values.length;
+        }
+
+        @Override
+        double get(int i) {
+            return DECODED[values[i]];
+        }
+
+        @Override
+        void set(int i, double value) {
+            values[i] = encode(value);
+        }
+
+        @Override
+        Object getArray() {
+            return values;
+        }
+
+        /**
+         * Rounds the given non-negative value to the nearest half (ties to even)
+         */
+        private static char encode(double value) {
+            if (value < Math.scalb(1.0, MIN_EXPONENT)) {
+                // nonzero values too small for a half are kept as the smallest half, so they
+                // are still counted as expressed
+                char bits = (char) Math.rint(Math.scalb(value, -MIN_EXPONENT + MANTISSA_BITS));
+                return (bits == 0 && value != 0) ? 1 : bits;
+            }
+
+            int exponent = Math.getExponent(value);
+            int mantissa = (int) Math.rint(Math.scalb(value, MANTISSA_BITS - exponent)) - (1 << MANTISSA_BITS);
+            if (mantissa == 1 << MANTISSA_BITS) {
+                // rounded up to the next power of two
+                exponent++;
+                mantissa = 0;
+            }
+            return (char) (((exponent + EXPONENT_BIAS) << MANTISSA_BITS) | mantissa);
+        }
+
+        private static double decode(int bits) {
+            int exponent = (bits >>> MANTISSA_BITS) & 0x1F;
+            int mantissa = bits & ((1 << MANTISSA_BITS) - 1);
+            double sign = ((bits & 0x8000) != 0) ? -1 : 1;
+            if (exponent == 0)
+                return sign * Math.scalb((double) mantissa, MIN_EXPONENT - MANTISSA_BITS);
+            if (exponent == 0x1F)
+                return (mantissa == 0) ? sign * Double.POSITIVE_INFINITY : Double.NaN;
+            return sign * Math.scalb((double) ((1 << MANTISSA_BITS) | mantissa), exponent - EXPONENT_BIAS - MANTISSA_BITS);
+        }
+    }
+
+    /**
+     * Values stored as log1p(value) quantized to 16 bits, so values above 1 all have about the
+     * same relative error. Decoded through a table of every possible code
+     */
+    static class Log16Values extends ExpressionValues {
+        private static final double CODES_PER_UNIT = 4096;
+        static final double MAX_VALUE = Math.expm1(Character.MAX_VALUE / CODES_PER_UNIT);
+        private static final double[] DECODED = new double[1 << 16];
+        static {
+            for (int code = 0; code < DECODED.length; code++)
+                DECODED[code] = Math.expm1(code / CODES_PER_UNIT);
+        }
+
+        private final char[] values;
+
+        Log16Values(int length) {
+            values = new char[length];
+        }
+
+        @Override
+        int length() {
+            return values.length;
+        }
+
+        @Override
+        double get(int i) {
+            return DECODED[values[i]];
+        }
+
+        @Override
+        void set(int i, double value) {
+            long code = Math.min(Character.MAX_VALUE, Math.round(Math.log1p(value) * CODES_PER_UNIT));
+            // nonzero values too small for a code are kept as the smallest code, so they are
+            // still counted as expressed
+            values[i] = (char) ((code == 0 && value != 0) ? 1 : code);
+        }
+
+        @Override
+        Object getArray() {
+            return values;
+        }
+    }
+
+    static class IntValues extends ExpressionValues {
+        private final int[] values;
+
+        IntValues(int length) {
+            values = new int[length];
+        }
+
+        @Override
+        int length() {
+            return values.length;
+        }
+
+        @Override
+        double get(int i) {
+            return values[i];
+        }
+
+        @Override
+        void set(int i, double value) {
+            values[i] = (int) value;
+        }
+
+        @Override
+        Object getArray() {
+            return values;
+        }
+    }
+
+    /**
+     * Whole numbers from 0 to 65535, stored unsigned
+     */
+    static class ShortValues extends ExpressionValues {
+        private final char[] values;
+
+        ShortValues(int length) {
+            values = new char[length];
+        }
+
+        @Override
+        int length() {
+            return values.length;
+        }
+
+        @Override
+        double get(int i) {
+            return values[i];
+        }
+
+        @Override
+        void set(int i, double value) {
+            values[i] = (char) value;
+        }
+
+        @Override
+        Object getArray() {
+            return values;
+        }
+    }
+}
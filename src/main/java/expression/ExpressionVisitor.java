@@ -0,0 +1,11 @@
+package expression;
+
+/**
+ * Receives expression values while iterating over a row or column of an expression matrix.
+ * The index is the cell number when iterating over an isoform, and the isoform index when
+ * iterating over a cell
+ */
+@FunctionalInterface
+public interface ExpressionVisitor {
+    void visit(int index, double expression);
+}
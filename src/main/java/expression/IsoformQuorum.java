@@ -0,0 +1,108 @@
+package expression;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Requirement an isoform has to meet to be kept when a dataset is loaded: it must have an
+ * expression level greater than the min expression in at least min cells. This is the same
+ * quorum requirement scripts/make_matrix.py applies with --tpm and --quorum
+ */
+public class IsoformQuorum {
+    public static final IsoformQuorum NONE = new IsoformQuorum(0, 0);
+
+    private final double minExpression;
+    private final int minCells;
+
+    public IsoformQuorum(double minExpression, int minCells) {
+        this.minExpression = minExpression;
+        this.minCells = minCells;
+    }
+
+    public double getMinExpression() {
+        return minExpression;
+    }
+
+    public int getMinCells() {
+        return minCells;
+    }
+
+    /**
+     * Whether any isoform can fail the quorum (isoforms always meet a quorum of zero cells)
+     */
+    public boolean isRequired() {
+        return minCells > 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        IsoformQuorum isoformQuorum = (IsoformQuorum) o;
+        return Double.compare(isoformQuorum.minExpression, minExpression) == 0 &&
+                minCells == isoformQuorum.minCells;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minExpression, minCells);
+    }
+
+    /**
+     * Returns a counter for the cells in which each of the given number of isoforms meets the
+     * quorum's min expression
+     */
+    public Counter newCounter(int numIsoforms) {
+        return new Counter(numIsoforms);
+    }
+
+    /**
+     * Counts, for each isoform, the cells in which it is expressed above the quorum's min
+     * expression. Can be given the values of different cells from different threads at the
+     * same time
+     */
+    public class Counter {
+        private final AtomicIntegerArray numCells;
+
+        private Counter(int numIsoforms) {
+            numCells = isRequired() ? new AtomicIntegerArray(numIsoforms) : null;
+        }
+
+        public void count(int isoformIndex, double expression) {
+            if (numCells != null && expression > minExpression && numCells.get(isoformIndex) < minCells)
+                numCells.incrementAndGet(isoformIndex);
+        }
+
+        /**
+         * Forgets the cells counted so far, so the matrix can be parsed again
+         */
+        public void reset() {
+            if (numCells != null) {
+                for (int i = 0; i < numCells.length(); i++)
+                    numCells.set(i, 0);
+            }
+        }
+
+        /**
+         * Returns the indices of the isoforms that met the quorum, in increasing order, or null if
+         * the quorum isn't required (so every isoform is kept)
+         */
+        public int[] getKeptIsoforms() {
+            if (numCells == null)
+                return null;
+
+            int numKept = 0;
+            for (int i = 0; i < numCells.length(); i++) {
+                if (numCells.get(i) >= minCells)
+                    numKept++;
+            }
+            int[] keptIsoforms = new int[numKept];
+            int position = 0;
+            for (int i = 0; i < numCells.length(); i++) {
+                if (numCells.get(i) >= minCells)
+                    keptIsoforms[position++] = i;
+            }
+            return keptIsoforms;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package expression;
+
+import exceptions.InvalidExpressionStoreException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Expression matrix read straight from a binary expression store through memory-mapped
+ * buffers, so the matrix takes no room on the heap and opening it costs about as much as
+ * opening the file
+ *
+ * A store begins with a header of HEADER_SIZE bytes (magic number, format version, number
+ * of cells, number of isoforms) followed by every expression value as a little-endian
+ * double, one cell after another. Stores are written by ExpressionStoreConverter
+ */
+public class MappedExpressionMatrix implements ExpressionMatrix {
+    public static final String STORE_EXTENSION = ".rsm";
+    static final int MAGIC_NUMBER = 0x52534D58; // "RSMX"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    private final int numCells;
+    private final int numIsoforms;
+    private final int cellsPerSegment;
+    /**
+     * A single mapped buffer can hold at most Integer.MAX_VALUE bytes, so the matrix is
+     * mapped in segments, each holding a whole number of cells
+     */
+    private final DoubleBuffer[] segments;
+
+    private MappedExpressionMatrix(int numCells, int numIsoforms, int cellsPerSegment, DoubleBuffer[] segments) {
+        this.numCells = numCells;
+        this.numIsoforms = numIsoforms;
+        this.cellsPerSegment = cellsPerSegment;
+        this.segments = segments;
+    }
+
+    /**
+     * Maps the expression store at the given path
+     */
+    public static MappedExpressionMatrix open(String pathToStore) throws IOException, InvalidExpressionStoreException {
+        try (FileChannel channel = FileChannel.open(Paths.get(pathToStore), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                throw new InvalidExpressionStoreException(pathToStore);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+            int magicNumber = header.getInt();
+            int version = header.getInt();
+            int numCells = header.getInt();
+            int numIsoforms = header.getInt();
+            long expectedSize = HEADER_SIZE + (long) numCells * numIsoforms * Double.BYTES;
+            if (magicNumber != MAGIC_NUMBER || version != FORMAT_VERSION || numCells < 0 || numIsoforms < 0 ||
+                channel.size() != expectedSize)
+                throw new InvalidExpressionStoreException(pathToStore);
+
+            long bytesPerCell = Math.max(1, (long) numIsoforms * Double.BYTES);
+            int cellsPerSegment = (int) Math.max(1, Math.min(numCells, Integer.MAX_VALUE / bytesPerCell));
+            int numSegments = (numCells == 0) ? 0 : (numCells + cellsPerSegment - 1) / cellsPerSegment;
+            DoubleBuffer[] segments = new DoubleBuffer[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+                int cellsInSegment = Math.min(cellsPerSegment, numCells - i * cellsPerSegment);
+                long offset = HEADER_SIZE + i * cellsPerSegment * bytesPerCell;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, cellsInSegment * bytesPerCell)
+                                     .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            }
+            return new MappedExpressionMatrix(numCells, numIsoforms, cellsPerSegment, segments);
+        }
+    }
+
+    @Override
+    public int getNumCells() {
+        return numCells;
+    }
+
+    @Override
+    public int getNumIsoforms() {
+        return numIsoforms;
+    }
+
+    @Override
+    public double getExpression(int cellNumber, int isoformIndex) {
+        DoubleBuffer segment = segments[cellNumber / cellsPerSegment];
+        return segment.get((cellNumber % cellsPerSegment) * numIsoforms + isoformIndex);
+    }
+
+    @Override
+    public void getCellExpression(int cellNumber, double[] expressionLevels) {
+        // duplicate so that concurrent readers don't share a position
+        DoubleBuffer segment = segments[cellNumber / cellsPerSegment].duplicate();
+        segment.position((cellNumber % cellsPerSegment) * numIsoforms);
+        segment.get(expressionLevels, 0, numIsoforms);
+    }
+}
@@ -0,0 +1,36 @@
+package expression;
+
+/**
+ * How an expression matrix is laid out:
+ *   - DENSE: every value on the heap, the fastest to read
+ *   - SPARSE: only the nonzero values on the heap, by cell and by isoform
+ *   - STORE: out of core, in a compressed expression store on disk whose blocks are read (and
+ *            cached) as they're used
+ */
+public enum MatrixLayout {
+    DENSE("dense"),
+    SPARSE("sparse"),
+    STORE("store");
+
+    private final String name;
+
+    MatrixLayout(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the layout with the given name (as written in dataset JSON files), or null if
+     * there isn't one
+     */
+    public static MatrixLayout fromName(String name) {
+        for (MatrixLayout layout : values()) {
+            if (layout.name.equalsIgnoreCase(name))
+                return layout;
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
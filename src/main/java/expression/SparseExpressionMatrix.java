@@ -0,0 +1,110 @@
+package expression;
+
+import java.util.Arrays;
+
+/**
+ * Expression matrix that only stores nonzero values. Values are kept twice: compressed by
+ * cell (CSR) for per-cell access, and compressed by isoform (CSC) so that per-isoform
+ * statistics only have to look at the cells that express the isoform
+ */
+public class SparseExpressionMatrix implements ExpressionMatrix {
+    private final int numCells;
+    private final int numIsoforms;
+    // compressed rows: the nonzero values of cell i are at [cellPointers[i], cellPointers[i + 1])
+    private final int[] cellPointers;
+    private final int[] cellIsoformIndices;
+    private final ExpressionValues cellValues;
+    // compressed columns: the nonzero values of isoform j are at [isoformPointers[j], isoformPointers[j + 1])
+    private final int[] isoformPointers;
+    private final int[] isoformCellNumbers;
+    private final ExpressionValues isoformValues;
+
+    /**
+     * Creates matrix from its compressed rows, and builds the compressed columns from them
+     * ASSUMES isoform indices within each row are sorted in increasing order
+     */
+    public SparseExpressionMatrix(int numCells, int numIsoforms, int[] cellPointers, int[] cellIsoformIndices, double[] cellValues) {
+        this(numCells, numIsoforms, cellPointers, cellIsoformIndices, new ExpressionValues.DoubleValues(cellValues), ExpressionEncoding.DOUBLE);
+    }
+
+    /**
+     * Creates matrix from its compressed rows, whose values are stored in the given encoding
+     * ASSUMES isoform indices within each row are sorted in increasing order
+     */
+    SparseExpressionMatrix(int numCells, int numIsoforms, int[] cellPointers, int[] cellIsoformIndices, ExpressionValues cellValues,
+                           ExpressionEncoding encoding) {
+        this.numCells = numCells;
+        this.numIsoforms = numIsoforms;
+        this.cellPointers = cellPointers;
+        this.cellIsoformIndices = cellIsoformIndices;
+        this.cellValues = cellValues;
+
+        int numNonZeros = cellPointers[numCells];
+        isoformPointers = new int[numIsoforms + 1];
+        isoformCellNumbers = new int[numNonZeros];
+        isoformValues = encoding.allocate(numNonZeros);
+        for (int i = 0; i < numNonZeros; i++)
+            isoformPointers[cellIsoformIndices[i] + 1]++;
+        for (int j = 0; j < numIsoforms; j++)
+            isoformPointers[j + 1] += isoformPointers[j];
+
+        // cells are visited in increasing order, so each column ends up sorted by cell number
+        int[] nextPosition = Arrays.copyOf(isoformPointers, numIsoforms);
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++) {
+            for (int i = cellPointers[cellNumber]; i < cellPointers[cellNumber + 1]; i++) {
+                int position = nextPosition[cellIsoformIndices[i]]++;
+                isoformCellNumbers[position] = cellNumber;
+                cellValues.copyTo(i, isoformValues, position, 1);
+            }
+        }
+    }
+
+    @Override
+    public int getNumCells() {
+        return numCells;
+    }
+
+    @Override
+    public int getNumIsoforms() {
+        return numIsoforms;
+    }
+
+    public int getNumNonZeros() {
+        return cellPointers[numCells];
+    }
+
+    @Override
+    public double getExpression(int cellNumber, int isoformIndex) {
+        int position = Arrays.binarySearch(cellIsoformIndices, cellPointers[cellNumber], cellPointers[cellNumber + 1], isoformIndex);
+        return (position >= 0) ? cellValues.get(position) : 0;
+    }
+
+    @Override
+    public void getCellExpression(int cellNumber, double[] expressionLevels) {
+        Arrays.fill(expressionLevels, 0, numIsoforms, 0);
+        for (int i = cellPointers[cellNumber]; i < cellPointers[cellNumber + 1]; i++)
+            expressionLevels[cellIsoformIndices[i]] = cellValues.get(i);
+    }
+
+    @Override
+    public void forEachExpressingCell(int isoformIndex, ExpressionVisitor visitor) {
+        for (int i = isoformPointers[isoformIndex]; i < isoformPointers[isoformIndex + 1]; i++)
+            visitor.visit(isoformCellNumbers[i], isoformValues.get(i));
+    }
+
+    @Override
+    public boolean isStoredByIsoform() {
+        return true;
+    }
+
+    @Override
+    public void forEachExpressedIsoform(int cellNumber, ExpressionVisitor visitor) {
+        for (int i = cellPointers[cellNumber]; i < cellPointers[cellNumber + 1]; i++)
+            visitor.visit(cellIsoformIndices[i], cellValues.get(i));
+    }
+
+    @Override
+    public int getNumStoredValues(int isoformIndex) {
+        return isoformPointers[isoformIndex + 1] - isoformPointers[isoformIndex];
+    }
+}
@@ -0,0 +1,142 @@
+package expression;
+
+/**
+ * View of an expression matrix whose values are transformed as they're read, so no copy of
+ * the matrix is made. The statistics the transform needs (each cell's total expression for
+ * CPM, each isoform's mean and standard deviation for z-scores) are calculated when the view
+ * is created, in one pass over the matrix's nonzero values
+ *
+ * A cell is still considered to express an isoform if the isoform's untransformed expression
+ * in it is nonzero, so the visiting methods visit the same cells as the matrix's do, with the
+ * transformed values. Cells that don't express an isoform have its non-expressing level
+ * (nonzero for z-scores)
+ */
+public class TransformedExpressionMatrix implements ExpressionMatrix {
+    private static final double COUNTS_PER_MILLION = 1e6;
+
+    private final ExpressionMatrix matrix;
+    private final ExpressionTransform transform;
+    // CPM: factor each cell's values are multiplied by
+    private double[] cellScaleFactors;
+    // z-scores: each isoform's mean, and 1 / its standard deviation (0 if its expression doesn't vary)
+    private double[] isoformMeans;
+    private double[] isoformScaleFactors;
+
+    TransformedExpressionMatrix(ExpressionMatrix matrix, ExpressionTransform transform) {
+        this.matrix = matrix;
+        this.transform = transform;
+        if (transform == ExpressionTransform.CPM)
+            calculateCellScaleFactors();
+        else if (transform == ExpressionTransform.Z_SCORE)
+            calculateIsoformMeansAndScaleFactors();
+    }
+
+    public ExpressionTransform getTransform() {
+        return transform;
+    }
+
+    /**
+     * Returns the untransformed matrix this is a view of
+     */
+    ExpressionMatrix getMatrix() {
+        return matrix;
+    }
+
+    @Override
+    public int getNumCells() {
+        return matrix.getNumCells();
+    }
+
+    @Override
+    public int getNumIsoforms() {
+        return matrix.getNumIsoforms();
+    }
+
+    @Override
+    public double getExpression(int cellNumber, int isoformIndex) {
+        return transform(cellNumber, isoformIndex, matrix.getExpression(cellNumber, isoformIndex));
+    }
+
+    @Override
+    public void getCellExpression(int cellNumber, double[] expressionLevels) {
+        matrix.getCellExpression(cellNumber, expressionLevels);
+        for (int isoformIndex = 0; isoformIndex < getNumIsoforms(); isoformIndex++)
+            expressionLevels[isoformIndex] = transform(cellNumber, isoformIndex, expressionLevels[isoformIndex]);
+    }
+
+    @Override
+    public void forEachExpressingCell(int isoformIndex, ExpressionVisitor visitor) {
+        matrix.forEachExpressingCell(isoformIndex, (cellNumber, expression) ->
+                visitor.visit(cellNumber, transform(cellNumber, isoformIndex, expression)));
+    }
+
+    @Override
+    public void forEachExpressingCell(int isoformIndex, int[] cellNumbers, ExpressionVisitor visitor) {
+        matrix.forEachExpressingCell(isoformIndex, cellNumbers, (cellNumber, expression) ->
+                visitor.visit(cellNumber, transform(cellNumber, isoformIndex, expression)));
+    }
+
+    @Override
+    public void forEachExpressedIsoform(int cellNumber, ExpressionVisitor visitor) {
+        matrix.forEachExpressedIsoform(cellNumber, (isoformIndex, expression) ->
+                visitor.visit(isoformIndex, transform(cellNumber, isoformIndex, expression)));
+    }
+
+    @Override
+    public int getNumStoredValues(int isoformIndex) {
+        return matrix.getNumStoredValues(isoformIndex);
+    }
+
+    @Override
+    public boolean isStoredByIsoform() {
+        return matrix.isStoredByIsoform();
+    }
+
+    @Override
+    public double getNonExpressingLevel(int isoformIndex) {
+        return transform(0, isoformIndex, 0);
+    }
+
+    double transform(int cellNumber, int isoformIndex, double expression) {
+        switch (transform) {
+            case LOG1P:
+                return Math.log1p(expression);
+            case CPM:
+                return expression * cellScaleFactors[cellNumber];
+            case Z_SCORE:
+                return (expression - isoformMeans[isoformIndex]) * isoformScaleFactors[isoformIndex];
+            default:
+                return expression;
+        }
+    }
+
+    private void calculateCellScaleFactors() {
+        cellScaleFactors = new double[matrix.getNumCells()];
+        for (int cellNumber = 0; cellNumber < cellScaleFactors.length; cellNumber++) {
+            ExpressionSum cellTotal = new ExpressionSum();
+            matrix.forEachExpressedIsoform(cellNumber, cellTotal);
+            if (cellTotal.getSum() != 0)
+                cellScaleFactors[cellNumber] = COUNTS_PER_MILLION / cellTotal.getSum();
+        }
+    }
+
+    private void calculateIsoformMeansAndScaleFactors() {
+        int numCells = matrix.getNumCells();
+        isoformMeans = new double[matrix.getNumIsoforms()];
+        isoformScaleFactors = new double[matrix.getNumIsoforms()];
+        for (int isoformIndex = 0; isoformIndex < isoformMeans.length; isoformIndex++) {
+            double[] sums = new double[2];
+            matrix.forEachExpressingCell(isoformIndex, (cellNumber, expression) -> {
+                sums[0] += expression;
+                sums[1] += expression * expression;
+            });
+            if (numCells == 0)
+                continue;
+            double mean = sums[0] / numCells;
+            double variance = Math.max(sums[1] / numCells - mean * mean, 0);
+            isoformMeans[isoformIndex] = mean;
+            if (variance > 0)
+                isoformScaleFactors[isoformIndex] = 1 / Math.sqrt(variance);
+        }
+    }
+}
@@ -1,24 +1,34 @@
 package labelset;
 
 import controller.clusterview.ClusterViewController;
+import mediator.ControllerMediator;
 import ui.PointColor;
 
 import java.awt.*;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
- *
+ * Cluster of cells in a label set. Its cells are kept as a sorted array of cell numbers, which
+ * the label set rebuilds whenever cells move between its clusters
  */
 public class Cluster implements Comparable<Cluster> {
+    private static final int[] NO_CELLS = new int[0];
+
     private String name;
     private Color color;
     private LabelSet labelSet;
-    private Set<ClusterViewController.CellDataItem> cells;
+    // the cluster's code in its label set
+    private int code;
+    private int[] cellNumbers;
+    private final Cells cells;
 
     public Cluster(String name) {
         this.name = name;
-        cells = new HashSet<>();
+        cellNumbers = NO_CELLS;
+        cells = new Cells();
         color = PointColor.getColor();
     }
 
@@ -27,21 +37,6 @@ public class Cluster implements Comparable<Cluster> {
         this.labelSet = labelSet;
     }
 
-    public Cluster(String name, LabelSet labelSet, Set<ClusterViewController.CellDataItem> cells) {
-        this.name = name;
-        this.labelSet = labelSet;
-        this.cells = cells;
-        color = PointColor.getColor();
-    }
-
-    public void addCell(ClusterViewController.CellDataItem cell) {
-        cells.add(cell);
-    }
-
-    public void clearCells(){
-        cells.clear();
-    }
-
     public void setLabelSet(LabelSet labelSet) {
         this.labelSet = labelSet;
     }
@@ -87,7 +82,91 @@ public class Cluster implements Comparable<Cluster> {
                                              (double) color.getBlue() / 255);
     }
 
-    public Set<ClusterViewController.CellDataItem> getCells() {
+    /**
+     * Returns this cluster's cells in the cell plot (none if the cell plot isn't drawn)
+     */
+    public Cells getCells() {
         return cells;
     }
+
+    /**
+     * Returns the numbers of the cells in this cluster, in increasing order, whether or not the
+     * cell plot is drawn. The array is the cluster's own, so it must not be changed
+     */
+    public int[] getCellNumbers() {
+        return cellNumbers;
+    }
+
+    public int getNumCells() {
+        return cellNumbers.length;
+    }
+
+    public boolean containsCell(int cellNumber) {
+        return Arrays.binarySearch(cellNumbers, cellNumber) >= 0;
+    }
+
+    /**
+     * Returns this cluster's code in its label set, which its cells' statistics in the label
+     * set's cluster aggregates are indexed by
+     */
+    public int getCode() {
+        return code;
+    }
+
+    public LabelSet getLabelSet() {
+        return labelSet;
+    }
+
+    void setCode(int code) {
+        this.code = code;
+    }
+
+    void setCellNumbers(int[] cellNumbers) {
+        this.cellNumbers = cellNumbers;
+    }
+
+    private boolean areCellsInPlot() {
+        return labelSet != null && labelSet.areCellsInPlot();
+    }
+
+    /**
+     * Read-only view of a cluster's cells in the cell plot, backed by its cell numbers
+     */
+    public class Cells extends AbstractSet<ClusterViewController.CellDataItem> {
+
+        public Cluster getCluster() {
+            return Cluster.this;
+        }
+
+        @Override
+        public int size() {
+            return areCellsInPlot() ? cellNumbers.length : 0;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof ClusterViewController.CellDataItem && areCellsInPlot() &&
+                   containsCell(((ClusterViewController.CellDataItem) o).getCellNumber());
+        }
+
+        @Override
+        public Iterator<ClusterViewController.CellDataItem> iterator() {
+            int[] iteratedCellNumbers = areCellsInPlot() ? cellNumbers : NO_CELLS;
+            return new Iterator<ClusterViewController.CellDataItem>() {
+                private int position = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return position < iteratedCellNumbers.length;
+                }
+
+                @Override
+                public ClusterViewController.CellDataItem next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return ControllerMediator.getInstance().getCell(iteratedCellNumbers[position++]);
+                }
+            };
+        }
+    }
 }
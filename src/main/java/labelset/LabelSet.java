@@ -3,74 +3,128 @@ package labelset;
 import controller.clusterview.ClusterViewController;
 import exceptions.AddClusterWhenNoCellsSelectedException;
 import exceptions.AddingClusterMakesEmptyClustersException;
+import expression.ClusterAggregates;
+import expression.ExpressionMatrix;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import mediator.ControllerMediator;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+/**
+ * Clusters a dataset's cells are divided into. The cluster of each cell is kept as the cluster's
+ * code in an int array indexed by cell number, and each cluster keeps the sorted numbers of its
+ * cells, so a label set takes a few bytes per cell no matter how many clusters it has
+ */
 public class LabelSet {
-    private final Map<Integer, Cluster> cellNumberClusterMap;
+    // code of the cluster each cell is in, indexed by cell number
+    private int[] cellClusterCodes;
+    private int numCells;
+    // cluster with each code (codes of removed clusters map to null)
+    private final List<Cluster> clustersByCode;
     private final ObservableList<Cluster> clusters;
+    // whether the clusters' cells are in the cell plot
+    private boolean cellsInPlot;
     private String name;
+    // per-(isoform, cluster) statistics of the matrix in use, calculated when first needed
+    private ClusterAggregates clusterAggregates;
 
     public LabelSet() {
         clusters = FXCollections.observableArrayList();
-        cellNumberClusterMap = new HashMap<>();
+        clustersByCode = new ArrayList<>();
         name = ControllerMediator.getInstance().getUniqueLabelSetName("Label Set " + (ControllerMediator.getInstance().getNumLabelSets() + 1));
         setUpClusters();
     }
 
-    public LabelSet(Map<Integer, Cluster> cellNumberClusterMap, String name) {
+    /**
+     * Creates a label set with a cluster for each of the given names, in the same order. The
+     * cell with number i is in the cluster whose name is at index cellClusterCodes[i]
+     */
+    public LabelSet(int[] cellClusterCodes, List<String> clusterNames, String name) {
         clusters = FXCollections.observableArrayList();
+        clustersByCode = new ArrayList<>();
         this.name = name;
-        this.cellNumberClusterMap = cellNumberClusterMap;
-        for (Cluster cluster: new LinkedHashSet<>(cellNumberClusterMap.values())) {
-            clusters.add(cluster);
-            cluster.setLabelSet(this);
-        }
-        if (!ControllerMediator.getInstance().isCellPlotCleared())
-            addCellsToClusters();
+        this.cellClusterCodes = cellClusterCodes;
+        numCells = cellClusterCodes.length;
+        for (String clusterName : clusterNames)
+            clusters.add(addCluster(clusterName));
+        rebuildClusterCells();
+        cellsInPlot = !ControllerMediator.getInstance().isCellPlotCleared();
     }
 
     /**
      * Adds all cells in cell plot to appropriate clusters
      */
     public void addCellsToClusters() {
-        for (ClusterViewController.CellDataItem cell : ControllerMediator.getInstance().getCells(false))
-            addCell(cell);
+        cellsInPlot = true;
+    }
+
+    /**
+     * Removes the cells in the cell plot from the clusters, as the cell plot has been cleared.
+     * The clusters keep the numbers of their cells
+     */
+    public void clearClusterCells() {
+        cellsInPlot = false;
+    }
+
+    /**
+     * Adds cells appended to the dataset to this label set. The cell with the given number is
+     * put in the cluster with the first of the given names, the cell after it in the cluster with
+     * the second name, and so on. Clusters are made for the names this label set doesn't have yet
+     * If the cell plot is drawn, ASSUMES the appended cells have been added to it
+     */
+    public void appendCells(int firstCellNumber, List<String> clusterNames) {
+        Map<String, Cluster> clusterMap = new HashMap<>();
+        for (Cluster cluster : clusters)
+            clusterMap.put(cluster.getName(), cluster);
+
+        int newNumCells = Math.max(numCells, firstCellNumber + clusterNames.size());
+        if (newNumCells > cellClusterCodes.length)
+            cellClusterCodes = Arrays.copyOf(cellClusterCodes, newNumCells);
+        for (int i = 0; i < clusterNames.size(); i++) {
+            String clusterName = clusterNames.get(i);
+            Cluster cluster = clusterMap.get(clusterName);
+            if (cluster == null) {
+                cluster = addCluster(clusterName);
+                clusterMap.put(clusterName, cluster);
+                clusters.add(cluster);
+            }
+            cellClusterCodes[firstCellNumber + i] = cluster.getCode();
+        }
+        numCells = newNumCells;
+        addCellsToClusterAggregates(firstCellNumber);
+        rebuildClusterCells();
     }
 
     /**
      * Adds new cluster to label set containing the selected cells in the t-SNE plot
      */
     public void addClusterFromSelectedCells() throws AddClusterWhenNoCellsSelectedException, AddingClusterMakesEmptyClustersException {
-        Set<ClusterViewController.CellDataItem> selectedCells = (Set<ClusterViewController.CellDataItem>) ControllerMediator.getInstance().getCells(true);
+        Collection<ClusterViewController.CellDataItem> selectedCells = ControllerMediator.getInstance().getCells(true);
 
         // check if adding new clusters will result in clusters with no cells
         if (selectedCells.size() == 0)
             throw new AddClusterWhenNoCellsSelectedException();
+        int[] numSelectedCellsByCode = new int[clustersByCode.size()];
+        for (ClusterViewController.CellDataItem selectedCell : selectedCells)
+            numSelectedCellsByCode[cellClusterCodes[selectedCell.getCellNumber()]]++;
         for (Cluster cluster : clusters) {
-            if (selectedCells.containsAll(cluster.getCells()))
+            if (numSelectedCellsByCode[cluster.getCode()] == cluster.getNumCells())
                 throw new AddingClusterMakesEmptyClustersException(cluster.getName());
         }
 
-        Cluster newCluster = new Cluster(getNewClusterName(), this, selectedCells);
-        for (ClusterViewController.CellDataItem selectedCell : selectedCells) {
-            for (Cluster cluster : clusters) {
-                Set<ClusterViewController.CellDataItem> clusterCells = cluster.getCells();
-                if (clusterCells.contains(selectedCell)) {
-                    clusterCells.remove(selectedCell);
-                    break;
-                }
-            }
-            cellNumberClusterMap.put(selectedCell.getCellNumber(), newCluster);
-        }
+        Cluster newCluster = addCluster(getNewClusterName());
+        int[] selectedCellNumbers = selectedCells.stream().mapToInt(ClusterViewController.CellDataItem::getCellNumber).toArray();
+        moveCells(selectedCellNumbers, newCluster.getCode());
         clusters.add(newCluster);
+        rebuildClusterCells();
     }
 
     /**
@@ -89,10 +143,23 @@ public class LabelSet {
         Cluster clusterToCombineWith = getClusterToCombineWith(cluster);
         int indexOfClusterToRemove = clusters.lastIndexOf(cluster);
         clusters.remove(indexOfClusterToRemove);
-        for (ClusterViewController.CellDataItem cell : cluster.getCells()) {
-            cellNumberClusterMap.put(cell.getCellNumber(), clusterToCombineWith);
-            clusterToCombineWith.addCell(cell);
-        }
+        mergeClusterCells(cluster, clusterToCombineWith);
+        clusterToCombineWith.setCellNumbers(merge(clusterToCombineWith.getCellNumbers(), cluster.getCellNumbers()));
+        cluster.setCellNumbers(new int[0]);
+        clustersByCode.set(cluster.getCode(), null);
+    }
+
+    /**
+     * Returns the per-(isoform, cluster) statistics of the given matrix for this label set's
+     * clusters, indexed by the clusters' codes. They're calculated in one pass over the matrix the
+     * first time they're asked for, and again once the matrix (or its expression transform)
+     * changes. When cells move between the clusters, they're updated with just the moved cells'
+     * values
+     */
+    public synchronized ClusterAggregates getClusterAggregates(ExpressionMatrix matrix) {
+        if (clusterAggregates == null || clusterAggregates.getMatrix() != matrix)
+            clusterAggregates = new ClusterAggregates(matrix, cellClusterCodes, numCells, clustersByCode.size());
+        return clusterAggregates;
     }
 
     public Cluster getClusterWithName(String name) {
@@ -113,13 +180,12 @@ public class LabelSet {
 
     /**
      * Returns the cluster a cell with the given number belongs to in this
-     * label set
-     * NOTE: if cell1 belongs to cluster1, this does not mean it has been added to cluster1's
-     * collection of cells. It just means that, according to the cell number -> cluster map,
-     * it should be there, and if addCell(cell1) was called, cell1 would be added to the collection.
+     * label set (null if the label set doesn't have the cell)
      */
-    public Cluster getCellCluster(Integer cellNumber) {
-        return cellNumberClusterMap.get(cellNumber);
+    public Cluster getCellCluster(int cellNumber) {
+        if (cellNumber < 0 || cellNumber >= numCells)
+            return null;
+        return clustersByCode.get(cellClusterCodes[cellNumber]);
     }
 
     /**
@@ -135,27 +201,121 @@ public class LabelSet {
     }
 
     public int getNumCellsInLabelSet() {
-        return cellNumberClusterMap.size();
+        return numCells;
     }
 
     @Override
     public String toString() {
         StringBuilder labelSetString = new StringBuilder();
         for (int i = 0; i < ControllerMediator.getInstance().getNumCellsToPlot(); i++) {
-            Cluster cluster = cellNumberClusterMap.get(i);
+            Cluster cluster = getCellCluster(i);
             labelSetString.append(cluster.getName()).append("\n");
         }
 
         return labelSetString.toString();
     }
 
+    boolean areCellsInPlot() {
+        return cellsInPlot;
+    }
+
+    /**
+     * Makes a cluster with the given name and the next code, without adding it to the list of
+     * clusters
+     */
+    private Cluster addCluster(String clusterName) {
+        Cluster cluster = new Cluster(clusterName, this);
+        cluster.setCode(clustersByCode.size());
+        clustersByCode.add(cluster);
+        return cluster;
+    }
+
+    /**
+     * Rebuilds the sorted cell numbers of every cluster from the cells' cluster codes, with a
+     * counting pass and a filling pass over the cells
+     */
+    private void rebuildClusterCells() {
+        int numCodes = clustersByCode.size();
+        int[] numCellsByCode = new int[numCodes];
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++)
+            numCellsByCode[cellClusterCodes[cellNumber]]++;
+
+        int[][] cellNumbersByCode = new int[numCodes][];
+        for (int code = 0; code < numCodes; code++)
+            cellNumbersByCode[code] = new int[numCellsByCode[code]];
+        int[] positions = new int[numCodes];
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++) {
+            int code = cellClusterCodes[cellNumber];
+            cellNumbersByCode[code][positions[code]++] = cellNumber;
+        }
+
+        for (int code = 0; code < numCodes; code++) {
+            Cluster cluster = clustersByCode.get(code);
+            if (cluster != null)
+                cluster.setCellNumbers(cellNumbersByCode[code]);
+        }
+    }
+
+    /**
+     * Returns this label set's aggregates if they've been calculated, without calculating them
+     */
+    private synchronized ClusterAggregates getCalculatedClusterAggregates() {
+        return clusterAggregates;
+    }
+
     /**
-     * Adds given cell to the cluster it belongs
+     * Adds the cells appended to the matrix from the cell with the given number on to the
+     * aggregates, reading only the appended cells' values. If they can't be added (e.g. the
+     * aggregates are of the matrix in another expression transform), the aggregates are cleared,
+     * so they're calculated again when they're next needed
+     * ASSUMES the appended cells' cluster codes have been set
      */
-    private void addCell(ClusterViewController.CellDataItem cell) {
-        Cluster cluster = cellNumberClusterMap.get(cell.getCellNumber());
-        if (cluster != null)
-            cluster.addCell(cell);
+    private synchronized void addCellsToClusterAggregates(int firstCellNumber) {
+        if (clusterAggregates == null)
+            return;
+        ExpressionMatrix matrix = ControllerMediator.getInstance().getTransformedCellIsoformExpressionMatrix();
+        if (matrix == null || !clusterAggregates.addCells(matrix, firstCellNumber, cellClusterCodes, numCells, clustersByCode.size()))
+            clusterAggregates = null;
+    }
+
+    /**
+     * Puts the cells with the given numbers in the cluster with the given code, taking their
+     * values out of their old clusters' aggregates and adding them to the cluster's. The clusters'
+     * cell numbers aren't rebuilt
+     */
+    private synchronized void moveCells(int[] cellNumbers, int code) {
+        if (clusterAggregates != null)
+            clusterAggregates.moveCells(cellNumbers, cellClusterCodes, code);
+        for (int cellNumber : cellNumbers)
+            cellClusterCodes[cellNumber] = code;
+    }
+
+    /**
+     * Puts the cells of the given cluster in the other cluster, adding the cluster's aggregates to
+     * the other's. The clusters' cell numbers aren't changed
+     */
+    private synchronized void mergeClusterCells(Cluster cluster, Cluster intoCluster) {
+        if (clusterAggregates != null)
+            clusterAggregates.mergeCode(cluster.getCode(), intoCluster.getCode());
+        for (int cellNumber : cluster.getCellNumbers())
+            cellClusterCodes[cellNumber] = intoCluster.getCode();
+    }
+
+    /**
+     * Merges two sorted arrays of cell numbers that have no numbers in common
+     */
+    private static int[] merge(int[] cellNumbers, int[] otherCellNumbers) {
+        int[] merged = new int[cellNumbers.length + otherCellNumbers.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < cellNumbers.length && j < otherCellNumbers.length)
+            merged[k++] = (cellNumbers[i] < otherCellNumbers[j]) ? cellNumbers[i++] : otherCellNumbers[j++];
+        while (i < cellNumbers.length)
+            merged[k++] = cellNumbers[i++];
+        while (j < otherCellNumbers.length)
+            merged[k++] = otherCellNumbers[j++];
+        return merged;
     }
 
     /**
@@ -180,17 +340,20 @@ public class LabelSet {
      * in the t-SNE plot.
      */
     private void setUpClusters() {
-        Cluster cluster = new Cluster("Cluster 1", this);
+        Cluster cluster = addCluster("Cluster 1");
         clusters.add(cluster);
-        if (!ControllerMediator.getInstance().isCellPlotCleared()) {
-            for (ClusterViewController.CellDataItem cell : ControllerMediator.getInstance().getCells(false)) {
-                cluster.addCell(cell);
-                cellNumberClusterMap.put(cell.getCellNumber(), cluster);
-            }
-        } else {
-            // when the t-SNE plot is drawn, all cells should belong to this cluster
-            for (int i = 0; i < ControllerMediator.getInstance().getNumCellsToPlot(); i++)
-                cellNumberClusterMap.put(i, cluster);
+        // all cells belong to this cluster, whether or not the t-SNE plot is drawn
+        numCells = ControllerMediator.getInstance().getNumCellsToPlot();
+        cellClusterCodes = new int[numCells];
+        rebuildClusterCells();
+        // the cluster's aggregates are added up from the label set in use's, if it has them for all the cells
+        LabelSet labelSetInUse = ControllerMediator.getInstance().getLabelSetInUse();
+        ClusterAggregates clusterAggregatesInUse = (labelSetInUse != null) ? labelSetInUse.getCalculatedClusterAggregates() : null;
+        if (clusterAggregatesInUse != null) {
+            ClusterAggregates mergedClusterAggregates = clusterAggregatesInUse.mergeAllCodes();
+            if (mergedClusterAggregates.getNumCells(0) == numCells)
+                clusterAggregates = mergedClusterAggregates;
         }
+        cellsInPlot = !ControllerMediator.getInstance().isCellPlotCleared();
     }
 }
@@ -8,6 +8,9 @@ import controller.clusterview.TSNESettingsController;
 import controller.clusterview.UMAPSettingsController;
 import controller.labelsetmanager.AddLabelSetViewController;
 import controller.labelsetmanager.LabelSetManagerController;
+import expression.ExpressionMatrix;
+import expression.ExpressionTransform;
+import expression.ExpressionVisitor;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.layout.Pane;
@@ -210,6 +213,10 @@ public class ControllerMediator implements Mediator{
         clusterViewController.handleColoringChange();
     }
 
+    public void clusterViewHandleExpressionTransformChange() {
+        clusterViewController.handleExpressionTransformChange();
+    }
+
     public void updateGeneLabels() {
         isoformPlotController.updateGeneLabels();
     }
@@ -319,6 +326,10 @@ public class ControllerMediator implements Mediator{
         labelSetManagerController.addCellsToLabelSetClusters();
     }
 
+    public void appendCellsToLabelSets(int firstCellNumber, Map<String, List<String>> cellLabels) {
+        labelSetManagerController.appendCellsToLabelSets(firstCellNumber, cellLabels);
+    }
+
     public Collection<LabelSet> getLabelSets() {
         return labelSetManagerController.getLabelSets();
     }
@@ -543,6 +554,10 @@ public class ControllerMediator implements Mediator{
         return isoformPlotController.getIsoformPlot();
     }
 
+    public List<Gene> getGenes() {
+        return geneSelectorController.getGenes();
+    }
+
     public Collection<Gene> getShownGenes() {
         return geneSelectorController.getShownGenes();
     }
@@ -627,6 +642,26 @@ public class ControllerMediator implements Mediator{
         return clusterViewController.getCells(onlySelected);
     }
 
+    public ClusterViewController.CellDataItem getCell(int cellNumber) {
+        return clusterViewController.getCellNumberCellMap().get(cellNumber);
+    }
+
+    public ExpressionMatrix getCellIsoformExpressionMatrix() {
+        return clusterViewController.getCellIsoformExpressionMatrix();
+    }
+
+    public ExpressionMatrix getTransformedCellIsoformExpressionMatrix() {
+        return clusterViewController.getTransformedExpressionMatrix();
+    }
+
+    public double[][] getEmbedding() {
+        return clusterViewController.getEmbedding();
+    }
+
+    public HashMap<String, Integer> getIsoformIndexMap() {
+        return clusterViewController.getIsoformIndexMap();
+    }
+
     public String getExpressionUnit() {
         return isoformPlotController.getExpressionUnit();
     }
@@ -703,6 +738,26 @@ public class ControllerMediator implements Mediator{
         return clusterViewController.getNumExpressingCells(isoformID, cluster, onlySelected);
     }
 
+    public void forEachExpressingCell(String isoformID, Collection<ClusterViewController.CellDataItem> cells, ExpressionVisitor visitor) {
+        clusterViewController.forEachExpressingCell(isoformID, cells, visitor);
+    }
+
+    public double getAverageExpressionInCluster(String isoformID, Cluster cluster, boolean includeZeros) {
+        return clusterViewController.getAverageExpressionInCluster(isoformID, cluster, includeZeros);
+    }
+
+    public double getRawAverageExpressionInCluster(String isoformID, Cluster cluster) {
+        return clusterViewController.getRawAverageExpressionInCluster(isoformID, cluster);
+    }
+
+    public double getNonExpressingLevel(String isoformID) {
+        return clusterViewController.getNonExpressingLevel(isoformID);
+    }
+
+    public void transformCellIsoformExpressionMatrix() {
+        clusterViewController.transformExpressionMatrix();
+    }
+
     public float getFigureScale() {
         return imageExporterController.getFigureScale();
     }
@@ -739,6 +794,10 @@ public class ControllerMediator implements Mediator{
         return mainController.isShowingMedian();
     }
 
+    public ExpressionTransform getExpressionTransform() {
+        return mainController.getExpressionTransform();
+    }
+
     public boolean isShowingAverage() {
         return mainController.isShowingAverage();
     }
@@ -787,6 +846,10 @@ public class ControllerMediator implements Mediator{
         return clusterViewController.isPlotCleared();
     }
 
+    public boolean isEmbeddingLoaded() {
+        return clusterViewController.isEmbeddingLoaded();
+    }
+
     public boolean isAddLabelSetViewDisplayed() {
         return addLabelSetViewController.isDisplayed();
     }
@@ -796,7 +859,7 @@ public class ControllerMediator implements Mediator{
     }
 
     //Setters
-    public void setCellIsoformExpressionMatrix(double[][] cellIsoformExpressionMatrix) {
+    public void setCellIsoformExpressionMatrix(ExpressionMatrix cellIsoformExpressionMatrix) {
         clusterViewController.setCellIsoformExpressionMatrix(cellIsoformExpressionMatrix);
     }
 
@@ -808,6 +871,11 @@ public class ControllerMediator implements Mediator{
         clusterViewController.setEmbedding(embedding);
     }
 
+    public void appendCells(ExpressionMatrix appendedMatrix, ExpressionMatrix transformedAppendedMatrix, double[][] cellsEmbedding,
+                            Map<String, List<String>> cellLabels) {
+        clusterViewController.appendCells(appendedMatrix, transformedAppendedMatrix, cellsEmbedding, cellLabels);
+    }
+
     public void setExpressionUnit(String expressionUnit) {
         isoformPlotController.setExpressionUnit(expressionUnit);
     }
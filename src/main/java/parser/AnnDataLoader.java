@@ -0,0 +1,435 @@
+package parser;
+
+import exceptions.*;
+import expression.ExpressionEncoding;
+import expression.ExpressionMatrix;
+import expression.ExpressionMatrixBuilder;
+import expression.IsoformQuorum;
+import expression.MatrixLayout;
+import io.jhdf.HdfFile;
+import io.jhdf.api.Attribute;
+import io.jhdf.api.Dataset;
+import io.jhdf.api.Group;
+import io.jhdf.api.Node;
+import labelset.LabelSet;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.util.*;
+
+/**
+ * Reads a dataset straight from an AnnData (.h5ad) file, using the pure-Java jHDF library:
+ *   - X (dense, or sparse in CSR format) is the cell isoform expression matrix
+ *   - var's index (var_names) is the isoform IDs
+ *   - obs's categorical columns are label sets
+ *   - obsm/X_umap is the embedding
+ *
+ * The expression matrix is read in slices of cells, so only one slice of X is ever on the heap
+ * besides the matrix being built
+ */
+class AnnDataLoader implements AutoCloseable {
+    static final String ANNDATA_EXTENSION = ".h5ad";
+    private static final String MATRIX_PATH = "X";
+    private static final String OBS_PATH = "obs";
+    private static final String VAR_PATH = "var";
+    private static final String EMBEDDING_PATH = "obsm/X_umap";
+    private static final String ENCODING_TYPE_ATTRIBUTE = "encoding-type";
+    private static final String INDEX_ATTRIBUTE = "_index";
+    private static final String COLUMN_ORDER_ATTRIBUTE = "column-order";
+    private static final String DEFAULT_INDEX_NAME = "_index";
+    // old AnnData versions keep the categories of obs columns in this group
+    private static final String OLD_CATEGORIES_GROUP = "__categories";
+    private static final String MISSING_CATEGORY = "NA";
+    private static final int DENSE_SLICE_NUM_VALUES = 4 * 1024 * 1024;
+    private static final int SPARSE_SLICE_NUM_VALUES = 4 * 1024 * 1024;
+
+    private final HdfFile hdfFile;
+
+    AnnDataLoader(String pathToAnnData) {
+        hdfFile = new HdfFile(new File(pathToAnnData));
+    }
+
+    static boolean isAnnDataFile(String path) {
+        return path != null && path.toLowerCase().endsWith(ANNDATA_EXTENSION);
+    }
+
+    @Override
+    public void close() {
+        hdfFile.close();
+    }
+
+    int getNumCells() throws AnnDataFormatException {
+        return getIndex(OBS_PATH).length;
+    }
+
+    /**
+     * @return map of isoform IDs (var_names) to their column in X
+     */
+    HashMap<String, Integer> getIsoformIndexMap() throws AnnDataFormatException, DuplicateColumnLabelException {
+        String[] isoformIDs = getIndex(VAR_PATH);
+        HashMap<String, Integer> isoformIndexMap = new HashMap<>();
+        for (int i = 0; i < isoformIDs.length; i++) {
+            if (isoformIndexMap.containsKey(isoformIDs[i]))
+                throw new DuplicateColumnLabelException(isoformIDs[i]);
+            isoformIndexMap.put(isoformIDs[i], i);
+        }
+        return isoformIndexMap;
+    }
+
+    /**
+     * Makes a label set from each categorical obs column, named after the column
+     */
+    List<LabelSet> getLabelSets() throws AnnDataFormatException {
+        List<LabelSet> labelSets = new ArrayList<>();
+        for (Map.Entry<String, String[]> column : getCategoricalColumns().entrySet())
+            labelSets.add(makeLabelSet(column.getKey(), column.getValue()));
+        if (labelSets.isEmpty())
+            throw new AnnDataFormatException("has no categorical obs columns to use as label sets, so label set files must be given");
+        return labelSets;
+    }
+
+    /**
+     * @return map of the names of the categorical obs columns to the columns' values, in the
+     * order AnnData keeps the columns. Other columns (e.g. numeric ones, such as n_genes) are
+     * skipped
+     */
+    LinkedHashMap<String, String[]> getCategoricalColumns() throws AnnDataFormatException {
+        Group obs = getGroup(OBS_PATH);
+        LinkedHashMap<String, String[]> categoricalColumns = new LinkedHashMap<>();
+        for (String columnName : getColumnNames(obs)) {
+            Node column = obs.getChild(columnName);
+            if (column == null)
+                continue;
+            String[] cellLabels = getCategoricalValues(obs, column);
+            if (cellLabels != null)
+                categoricalColumns.put(columnName, cellLabels);
+        }
+        return categoricalColumns;
+    }
+
+    /**
+     * @return the first two columns of obsm/X_umap, or null if the file has no UMAP
+     */
+    double[][] getEmbedding() throws AnnDataFormatException {
+        Node node = getNode(EMBEDDING_PATH);
+        if (!(node instanceof Dataset))
+            return null;
+
+        Dataset embeddingDataset = (Dataset) node;
+        int[] dimensions = embeddingDataset.getDimensions();
+        if (dimensions.length != 2 || dimensions[1] < 2)
+            throw new AnnDataFormatException("has an obsm/X_umap that does not have 2 columns");
+
+        Object data = embeddingDataset.getData(new long[]{0, 0}, new int[]{dimensions[0], 2});
+        double[][] embedding = new double[dimensions[0]][];
+        for (int i = 0; i < embedding.length; i++)
+            embedding[i] = toDoubleArray(Array.get(data, i));
+        return embedding;
+    }
+
+    /**
+     * Reads X into a matrix storing values in the given encoding, checking it is numCells x numIsoforms.
+     * Isoforms that don't meet the quorum counter's quorum are left out of the matrix. The matrix
+     * is laid out in the given layout, or in whichever takes less memory if it's null
+     * @throws RowLabelsLengthException X doesn't have a row for every cell
+     * @throws ColumnLabelsLengthException X doesn't have a column for every isoform
+     * @throws NegativeExpressionInMatrixException a negative expression value is found
+     */
+    ExpressionMatrix getExpressionMatrix(int numCells, int numIsoforms, ExpressionEncoding encoding, MatrixLayout layout,
+                                         IsoformQuorum.Counter quorumCounter) throws RNAScoopException {
+        Node matrix = getNode(MATRIX_PATH);
+        if (matrix instanceof Dataset)
+            return getDenseExpressionMatrix((Dataset) matrix, numCells, numIsoforms, encoding, layout, quorumCounter);
+        if (matrix instanceof Group)
+            return getSparseExpressionMatrix((Group) matrix, numCells, numIsoforms, encoding, layout, quorumCounter);
+        throw new AnnDataFormatException("has no X matrix");
+    }
+
+    private ExpressionMatrix getDenseExpressionMatrix(Dataset matrix, int numCells, int numIsoforms, ExpressionEncoding encoding, MatrixLayout layout,
+                                                      IsoformQuorum.Counter quorumCounter) throws RNAScoopException {
+        checkDimensions(matrix.getDimensions(), numCells, numIsoforms);
+
+        ExpressionMatrixBuilder matrixBuilder = new ExpressionMatrixBuilder(numCells, numIsoforms, encoding, quorumCounter, layout);
+        int sliceNumCells = Math.max(1, DENSE_SLICE_NUM_VALUES / Math.max(1, numIsoforms));
+        for (int sliceStart = 0; sliceStart < numCells; sliceStart += sliceNumCells) {
+            int numSliceCells = Math.min(sliceNumCells, numCells - sliceStart);
+            Object slice = matrix.getData(new long[]{sliceStart, 0}, new int[]{numSliceCells, numIsoforms});
+            for (int i = 0; i < numSliceCells; i++) {
+                double[] cellExpression = toDoubleArray(Array.get(slice, i));
+                checkNonNegative(cellExpression);
+                matrixBuilder.setCellExpression(sliceStart + i, cellExpression);
+            }
+        }
+        return matrixBuilder.build();
+    }
+
+    /**
+     * Reads a CSR matrix (data, indices and indptr datasets), a slice of cells at a time
+     */
+    private ExpressionMatrix getSparseExpressionMatrix(Group matrix, int numCells, int numIsoforms, ExpressionEncoding encoding, MatrixLayout layout,
+                                                       IsoformQuorum.Counter quorumCounter) throws RNAScoopException {
+        String encodingType = getStringAttribute(matrix, ENCODING_TYPE_ATTRIBUTE);
+        if (encodingType == null && getStringAttribute(matrix, "h5sparse_format") != null)
+            encodingType = getStringAttribute(matrix, "h5sparse_format") + "_matrix";
+        if (encodingType == null)
+            throw new AnnDataFormatException("has a sparse X with no encoding type");
+        if (!encodingType.equals("csr_matrix"))
+            throw new AnnDataFormatException("stores X as " + encodingType + ", only dense and CSR matrices are supported");
+
+        Attribute shapeAttribute = matrix.getAttribute("shape");
+        if (shapeAttribute == null)
+            throw new AnnDataFormatException("has a sparse X with no shape");
+        long[] shape = toLongArray(shapeAttribute.getData());
+        checkDimensions(new int[]{(int) shape[0], (int) shape[1]}, numCells, numIsoforms);
+
+        Dataset data = getDataset(matrix, "data");
+        Dataset indices = getDataset(matrix, "indices");
+        long[] cellPointers = toLongArray(getDataset(matrix, "indptr").getData());
+        if (cellPointers.length != numCells + 1)
+            throw new AnnDataFormatException("has a sparse X whose indptr doesn't have a pointer for every cell");
+
+        ExpressionMatrixBuilder matrixBuilder = new ExpressionMatrixBuilder(numCells, numIsoforms, encoding, quorumCounter, layout);
+        int sliceStart = 0;
+        while (sliceStart < numCells) {
+            // as many cells as fit in a slice, but always at least one
+            int sliceEnd = sliceStart + 1;
+            while (sliceEnd < numCells && cellPointers[sliceEnd + 1] - cellPointers[sliceStart] <= SPARSE_SLICE_NUM_VALUES)
+                sliceEnd++;
+
+            long sliceOffset = cellPointers[sliceStart];
+            int sliceNumValues = (int) (cellPointers[sliceEnd] - sliceOffset);
+            double[] sliceValues = new double[0];
+            long[] sliceIsoformIndices = new long[0];
+            if (sliceNumValues > 0) {
+                sliceValues = toDoubleArray(data.getData(new long[]{sliceOffset}, new int[]{sliceNumValues}));
+                sliceIsoformIndices = toLongArray(indices.getData(new long[]{sliceOffset}, new int[]{sliceNumValues}));
+            }
+
+            for (int cellNumber = sliceStart; cellNumber < sliceEnd; cellNumber++) {
+                int start = (int) (cellPointers[cellNumber] - sliceOffset);
+                int end = (int) (cellPointers[cellNumber + 1] - sliceOffset);
+                setSparseCellExpression(matrixBuilder, cellNumber, sliceIsoformIndices, sliceValues, start, end, numIsoforms);
+            }
+            sliceStart = sliceEnd;
+        }
+        return matrixBuilder.build();
+    }
+
+    private void setSparseCellExpression(ExpressionMatrixBuilder matrixBuilder, int cellNumber, long[] isoformIndices,
+                                         double[] values, int start, int end, int numIsoforms) throws RNAScoopException {
+        // isoform index in the high bits, entry in the low bits, so sorting sorts by isoform
+        long[] entries = new long[end - start];
+        int numNonZeros = 0;
+        for (int i = start; i < end; i++) {
+            if (isoformIndices[i] < 0 || isoformIndices[i] >= numIsoforms)
+                throw new AnnDataFormatException("has a sparse X with an isoform index out of range");
+            if (values[i] < 0)
+                throw new NegativeExpressionInMatrixException();
+            if (values[i] != 0)
+                entries[numNonZeros++] = (isoformIndices[i] << 32) | i;
+        }
+        Arrays.sort(entries, 0, numNonZeros);
+
+        int[] cellIsoformIndices = new int[numNonZeros];
+        double[] cellValues = new double[numNonZeros];
+        for (int i = 0; i < numNonZeros; i++) {
+            cellIsoformIndices[i] = (int) (entries[i] >>> 32);
+            cellValues[i] = values[(int) entries[i]];
+        }
+        matrixBuilder.setCellExpression(cellNumber, cellIsoformIndices, cellValues);
+    }
+
+    private static void checkDimensions(int[] dimensions, int numCells, int numIsoforms) throws RNAScoopException {
+        if (dimensions.length != 2)
+            throw new AnnDataFormatException("has an X that is not 2-dimensional");
+        if (dimensions[0] != numCells)
+            throw new RowLabelsLengthException();
+        if (dimensions[1] != numIsoforms)
+            throw new ColumnLabelsLengthException();
+    }
+
+    private static void checkNonNegative(double[] values) throws NegativeExpressionInMatrixException {
+        for (double d : values) {
+            if (d < 0)
+                throw new NegativeExpressionInMatrixException();
+        }
+    }
+
+    /**
+     * @return the values of the given obs column if it's categorical, otherwise null
+     */
+    private String[] getCategoricalValues(Group obs, Node column) throws AnnDataFormatException {
+        Object categoriesData;
+        Object codesData;
+        if (column instanceof Group) {
+            if (!"categorical".equals(getStringAttribute(column, ENCODING_TYPE_ATTRIBUTE)))
+                return null;
+            categoriesData = getDataset((Group) column, "categories").getData();
+            codesData = getDataset((Group) column, "codes").getData();
+        } else {
+            Node oldCategories = getOldCategories(obs, column.getName());
+            if (!(column instanceof Dataset) || !(oldCategories instanceof Dataset))
+                return null;
+            categoriesData = ((Dataset) oldCategories).getData();
+            codesData = ((Dataset) column).getData();
+        }
+
+        String[] categories = toStringArray(categoriesData);
+        long[] codes = toLongArray(codesData);
+        String[] values = new String[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] >= categories.length)
+                throw new AnnDataFormatException("has an obs column (" + column.getName() + ") with a category code out of range");
+            values[i] = (codes[i] < 0) ? MISSING_CATEGORY : categories[(int) codes[i]];
+        }
+        return values;
+    }
+
+    /**
+     * @return the categories old AnnData versions keep for the obs column with the given name in
+     * obs/__categories, or null if there are none (the column isn't categorical, or the file was
+     * written by AnnData 0.7 or later, which has no __categories group)
+     */
+    private static Node getOldCategories(Group obs, String columnName) {
+        // getChild() returns null for a missing child, whereas getByPath() throws
+        Node oldCategoriesGroup = obs.getChild(OLD_CATEGORIES_GROUP);
+        if (!(oldCategoriesGroup instanceof Group))
+            return null;
+        return ((Group) oldCategoriesGroup).getChild(columnName);
+    }
+
+    /**
+     * Makes a label set of the given labels, with clusters in the order their labels first appear
+     */
+    private static LabelSet makeLabelSet(String name, String[] cellLabels) {
+        Map<String, Integer> clusterCodes = new HashMap<>();
+        List<String> clusterNames = new ArrayList<>();
+        int[] cellClusterCodes = new int[cellLabels.length];
+        for (int cellNumber = 0; cellNumber < cellLabels.length; cellNumber++) {
+            Integer code = clusterCodes.get(cellLabels[cellNumber]);
+            if (code == null) {
+                code = clusterNames.size();
+                clusterCodes.put(cellLabels[cellNumber], code);
+                clusterNames.add(cellLabels[cellNumber]);
+            }
+            cellClusterCodes[cellNumber] = code;
+        }
+        return new LabelSet(cellClusterCodes, clusterNames, name);
+    }
+
+    /**
+     * Names of the obs columns, in the order AnnData keeps them
+     */
+    private List<String> getColumnNames(Group obs) {
+        Attribute columnOrder = obs.getAttribute(COLUMN_ORDER_ATTRIBUTE);
+        if (columnOrder != null && columnOrder.getData() != null) {
+            String[] columnNames = toStringArray(columnOrder.getData());
+            if (columnNames.length > 0)
+                return Arrays.asList(columnNames);
+        }
+        String indexName = getIndexName(obs);
+        List<String> columnNames = new ArrayList<>();
+        for (String childName : obs.getChildren().keySet()) {
+            if (!childName.equals(indexName) && !childName.equals(OLD_CATEGORIES_GROUP))
+                columnNames.add(childName);
+        }
+        return columnNames;
+    }
+
+    /**
+     * @return obs_names or var_names
+     */
+    private String[] getIndex(String dataFramePath) throws AnnDataFormatException {
+        Group dataFrame = getGroup(dataFramePath);
+        Node index = dataFrame.getChild(getIndexName(dataFrame));
+        if (!(index instanceof Dataset))
+            throw new AnnDataFormatException("has no index for " + dataFramePath);
+        return toStringArray(((Dataset) index).getData());
+    }
+
+    private static String getIndexName(Group dataFrame) {
+        String indexName = getStringAttribute(dataFrame, INDEX_ATTRIBUTE);
+        return (indexName != null) ? indexName : DEFAULT_INDEX_NAME;
+    }
+
+    private Node getNode(String path) {
+        try {
+            return hdfFile.getByPath(path);
+        } catch (RuntimeException e) {
+            // jHDF throws if the path doesn't exist
+            return null;
+        }
+    }
+
+    private Group getGroup(String path) throws AnnDataFormatException {
+        Node node = getNode(path);
+        if (!(node instanceof Group))
+            throw new AnnDataFormatException("has no " + path + " group (data frames stored as compound datasets by old AnnData versions are not supported)");
+        return (Group) node;
+    }
+
+    private static Dataset getDataset(Group group, String name) throws AnnDataFormatException {
+        Node node = group.getChild(name);
+        if (!(node instanceof Dataset))
+            throw new AnnDataFormatException("has no " + group.getName() + "/" + name + " dataset");
+        return (Dataset) node;
+    }
+
+    private static String getStringAttribute(Node node, String name) {
+        Attribute attribute = node.getAttribute(name);
+        if (attribute == null)
+            return null;
+        Object data = attribute.getData();
+        if (data instanceof String[])
+            return ((String[]) data).length > 0 ? ((String[]) data)[0] : null;
+        return (data != null) ? data.toString() : null;
+    }
+
+    private static String[] toStringArray(Object data) {
+        if (data instanceof String[])
+            return (String[]) data;
+        int length = Array.getLength(data);
+        String[] strings = new String[length];
+        for (int i = 0; i < length; i++)
+            strings[i] = String.valueOf(Array.get(data, i));
+        return strings;
+    }
+
+    /**
+     * Converts a 1-dimensional array of any numeric type to doubles
+     */
+    private static double[] toDoubleArray(Object data) {
+        if (data instanceof double[])
+            return (double[]) data;
+        int length = Array.getLength(data);
+        double[] doubles = new double[length];
+        if (data instanceof float[]) {
+            float[] floats = (float[]) data;
+            for (int i = 0; i < length; i++)
+                doubles[i] = floats[i];
+        } else {
+            for (int i = 0; i < length; i++)
+                doubles[i] = ((Number) Array.get(data, i)).doubleValue();
+        }
+        return doubles;
+    }
+
+    /**
+     * Converts a 1-dimensional array of any integer type to longs
+     */
+    private static long[] toLongArray(Object data) {
+        if (data instanceof long[])
+            return (long[]) data;
+        int length = Array.getLength(data);
+        long[] longs = new long[length];
+        if (data instanceof int[]) {
+            int[] ints = (int[]) data;
+            for (int i = 0; i < length; i++)
+                longs[i] = ints[i];
+        } else {
+            for (int i = 0; i < length; i++)
+                longs[i] = ((Number) Array.get(data, i)).longValue();
+        }
+        return longs;
+    }
+}
@@ -0,0 +1,253 @@
+package parser;
+
+import annotation.Exon;
+import annotation.Gene;
+import annotation.Isoform;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Binary index of the genes in a GTF file, so a GTF that was loaded before can be read back
+ * without parsing its text. The index is written next to the GTF (<gtf path>.rsidx) or, if
+ * the GTF's directory can't be written to, in ~/.rnascoop/annotation-cache
+ *
+ * An index is only used if the GTF's size, modification time and content hash match the ones
+ * it was written for. The content hash is a CRC32 of evenly spaced samples of the file (plus
+ * its start and end), so checking it doesn't mean reading the whole GTF. The genes are stored
+ * deflated, with a CRC32 of the deflated bytes in the header, so a corrupt index is detected and
+ * rebuilt instead of being loaded
+ *
+ * Format (big-endian): magic number, version, GTF size, GTF modification time, GTF content
+ * hash, CRC32 of the rest of the file, then deflated: chromosome names, genes (ID, name,
+ * chromosome, strand, start, end, isoforms (ID, name, exons (start, end)))
+ */
+class AnnotationIndex {
+    static final String INDEX_EXTENSION = ".rsidx";
+    private static final int MAGIC_NUMBER = 0x52534149;
+    private static final int FORMAT_VERSION = 1;
+    // magic number, version, GTF size, GTF modification time and GTF content hash come first
+    private static final long CHECKSUM_OFFSET = 4 + 4 + 8 + 8 + 8;
+    private static final Path CACHE_DIRECTORY = Paths.get(System.getProperty("user.home"), ".rnascoop", "annotation-cache");
+    private static final int NUM_HASH_SAMPLES = 64;
+    private static final int HASH_SAMPLE_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Reads the genes in the index of the GTF at the given path
+     *
+     * @return map of the genes, key is the gene's ID, or null if the GTF has no index or its index
+     *         is out of date or corrupt
+     */
+    static Map<String, Gene> load(String pathToGTF) {
+        File gtfFile = new File(pathToGTF);
+        for (Path indexPath : getIndexPaths(gtfFile)) {
+            if (!Files.isRegularFile(indexPath))
+                continue;
+            try {
+                Map<String, Gene> genes = read(indexPath, gtfFile);
+                if (genes != null)
+                    return genes;
+            } catch (IOException | RuntimeException e) {
+                // corrupt index, will be rebuilt
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes an index of the given genes, which were parsed from the GTF at the given path. The
+     * index is written to a temporary file first, so a failed write never leaves a partial index
+     *
+     * @return where the index was written
+     */
+    static Path save(String pathToGTF, Map<String, Gene> genes) throws IOException {
+        File gtfFile = new File(pathToGTF);
+        long gtfSize = gtfFile.length();
+        long gtfModified = gtfFile.lastModified();
+        long contentHash = getContentHash(gtfFile);
+
+        IOException lastException = null;
+        for (Path indexPath : getIndexPaths(gtfFile)) {
+            try {
+                Files.createDirectories(indexPath.getParent());
+                Path tempPath = Files.createTempFile(indexPath.getParent(), indexPath.getFileName().toString(), ".tmp");
+                try {
+                    write(tempPath, gtfSize, gtfModified, contentHash, genes);
+                    Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tempPath);
+                }
+                return indexPath;
+            } catch (IOException e) {
+                lastException = e;
+            }
+        }
+        throw lastException;
+    }
+
+    /**
+     * Index next to the GTF first, then one in the cache directory
+     */
+    private static List<Path> getIndexPaths(File gtfFile) {
+        File absoluteGTFFile = gtfFile.getAbsoluteFile();
+        String cachedIndexName = absoluteGTFFile.getName() + "-" + Integer.toHexString(absoluteGTFFile.getPath().hashCode()) + INDEX_EXTENSION;
+        return Arrays.asList(Paths.get(absoluteGTFFile.getPath() + INDEX_EXTENSION),
+                             CACHE_DIRECTORY.resolve(cachedIndexName));
+    }
+
+    private static Map<String, Gene> read(Path indexPath, File gtfFile) throws IOException {
+        try (DataInputStream header = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath), BUFFER_SIZE))) {
+            if (header.readInt() != MAGIC_NUMBER || header.readInt() != FORMAT_VERSION)
+                return null;
+            if (header.readLong() != gtfFile.length() || header.readLong() != gtfFile.lastModified())
+                return null;
+            if (header.readLong() != getContentHash(gtfFile))
+                return null;
+            // check the rest of the file before parsing it, so corrupt counts are never used
+            if (header.readLong() != getChecksum(indexPath))
+                return null;
+
+            Map<String, Gene> genes = readGenes(new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(header, new Inflater(), BUFFER_SIZE), BUFFER_SIZE)));
+            return genes;
+        }
+    }
+
+    private static Map<String, Gene> readGenes(DataInputStream in) throws IOException {
+        String[] chromosomes = new String[in.readInt()];
+        for (int i = 0; i < chromosomes.length; i++)
+            chromosomes[i] = in.readUTF();
+
+        int numGenes = in.readInt();
+        Map<String, Gene> genes = new HashMap<>(numGenes * 4 / 3 + 1);
+        for (int i = 0; i < numGenes; i++) {
+            String geneID = in.readUTF();
+            String geneName = readNullableString(in);
+            String chromosome = chromosomes[in.readInt()];
+            String strand = in.readBoolean() ? "+" : "-";
+            Gene gene = new Gene(geneID, chromosome, strand);
+            gene.setName(geneName);
+            gene.setStartNucleotide(in.readInt());
+            gene.setEndNucleotide(in.readInt());
+
+            int numIsoforms = in.readInt();
+            for (int j = 0; j < numIsoforms; j++) {
+                String isoformID = in.readUTF();
+                Isoform isoform = new Isoform(isoformID, gene);
+                isoform.setName(readNullableString(in));
+                int numExons = in.readInt();
+                for (int k = 0; k < numExons; k++)
+                    isoform.addExon(new Exon(in.readInt(), in.readInt()));
+                gene.addIsoform(isoformID, isoform);
+            }
+            genes.put(geneID, gene);
+        }
+        return genes;
+    }
+
+    private static void write(Path indexPath, long gtfSize, long gtfModified, long contentHash, Map<String, Gene> genes) throws IOException {
+        CheckedOutputStream checked;
+        try (DataOutputStream header = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath), BUFFER_SIZE))) {
+            header.writeInt(MAGIC_NUMBER);
+            header.writeInt(FORMAT_VERSION);
+            header.writeLong(gtfSize);
+            header.writeLong(gtfModified);
+            header.writeLong(contentHash);
+            // checksum is filled in once the genes are written
+            header.writeLong(0);
+
+            checked = new CheckedOutputStream(header, new CRC32());
+            DeflaterOutputStream deflated = new DeflaterOutputStream(checked, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(deflated, BUFFER_SIZE));
+            writeGenes(out, genes);
+            out.flush();
+            deflated.finish();
+        }
+
+        try (RandomAccessFile index = new RandomAccessFile(indexPath.toFile(), "rw")) {
+            index.seek(CHECKSUM_OFFSET);
+            index.writeLong(checked.getChecksum().getValue());
+        }
+    }
+
+    private static void writeGenes(DataOutputStream out, Map<String, Gene> genes) throws IOException {
+        Map<String, Integer> chromosomeIndices = new LinkedHashMap<>();
+        for (Gene gene : genes.values())
+            chromosomeIndices.putIfAbsent(gene.getChromosome(), chromosomeIndices.size());
+        out.writeInt(chromosomeIndices.size());
+        for (String chromosome : chromosomeIndices.keySet())
+            out.writeUTF(chromosome);
+
+        out.writeInt(genes.size());
+        for (Gene gene : genes.values()) {
+            out.writeUTF(gene.getId());
+            writeNullableString(out, gene.getName());
+            out.writeInt(chromosomeIndices.get(gene.getChromosome()));
+            out.writeBoolean(gene.isOnPositiveStrand());
+            out.writeInt(gene.getStartNucleotide());
+            out.writeInt(gene.getEndNucleotide());
+
+            out.writeInt(gene.getNumIsoforms());
+            for (Isoform isoform : gene.getIsoforms()) {
+                out.writeUTF(isoform.getId());
+                writeNullableString(out, isoform.getName());
+                out.writeInt(isoform.getExons().size());
+                for (Exon exon : isoform.getExons()) {
+                    out.writeInt(exon.getStartNucleotide());
+                    out.writeInt(exon.getEndNucleotide());
+                }
+            }
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null)
+            out.writeUTF(string);
+    }
+
+    /**
+     * CRC32 of the bytes after the header of the index at the given path
+     */
+    private static long getChecksum(Path indexPath) throws IOException {
+        try (InputStream index = Files.newInputStream(indexPath)) {
+            CheckedInputStream checked = new CheckedInputStream(index, new CRC32());
+            long numHeaderBytes = CHECKSUM_OFFSET + 8;
+            while (numHeaderBytes > 0)
+                numHeaderBytes -= index.skip(numHeaderBytes);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (checked.read(buffer) != -1);
+            return checked.getChecksum().getValue();
+        }
+    }
+
+    /**
+     * CRC32 of the first and last blocks of the file and of blocks spaced evenly between them
+     */
+    private static long getContentHash(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] sample = new byte[HASH_SAMPLE_SIZE];
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            long fileSize = randomAccessFile.length();
+            long lastSampleStart = Math.max(0, fileSize - HASH_SAMPLE_SIZE);
+            for (int i = 0; i < NUM_HASH_SAMPLES; i++) {
+                long sampleStart = lastSampleStart * i / (NUM_HASH_SAMPLES - 1);
+                int sampleSize = (int) Math.min(HASH_SAMPLE_SIZE, fileSize - sampleStart);
+                randomAccessFile.seek(sampleStart);
+                randomAccessFile.readFully(sample, 0, sampleSize);
+                crc.update(sample, 0, sampleSize);
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,50 @@
+package parser;
+
+import expression.ExpressionMatrix;
+import expression.ExpressionVisitor;
+
+/**
+ * Expression matrix read straight from the columns of a memory-mapped Arrow file, a numeric
+ * column per isoform and a row per cell, so it takes no room on the heap. Each isoform's values
+ * are contiguous in the file, so per-isoform scans read them in order
+ */
+class ArrowExpressionMatrix implements ExpressionMatrix {
+    private final ArrowFile.Column[] isoformColumns;
+    private final int numCells;
+
+    ArrowExpressionMatrix(ArrowFile.Column[] isoformColumns, int numCells) {
+        this.isoformColumns = isoformColumns;
+        this.numCells = numCells;
+    }
+
+    @Override
+    public int getNumCells() {
+        return numCells;
+    }
+
+    @Override
+    public int getNumIsoforms() {
+        return isoformColumns.length;
+    }
+
+    @Override
+    public double getExpression(int cellNumber, int isoformIndex) {
+        return isoformColumns[isoformIndex].getDouble(cellNumber);
+    }
+
+    @Override
+    public void getCellExpression(int cellNumber, double[] expressionLevels) {
+        for (int isoformIndex = 0; isoformIndex < isoformColumns.length; isoformIndex++)
+            expressionLevels[isoformIndex] = isoformColumns[isoformIndex].getDouble(cellNumber);
+    }
+
+    @Override
+    public void forEachExpressingCell(int isoformIndex, ExpressionVisitor visitor) {
+        isoformColumns[isoformIndex].forEachNonZero(visitor);
+    }
+
+    @Override
+    public boolean isStoredByIsoform() {
+        return true;
+    }
+}
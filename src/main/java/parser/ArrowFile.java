@@ -0,0 +1,612 @@
+package parser;
+
+import exceptions.ArrowFormatException;
+import expression.ExpressionVisitor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads the columns of an Apache Arrow IPC file (Feather v2 files are the same format) through
+ * memory-mapped buffers, so values are read straight from the file rather than being parsed or
+ * copied onto the heap. Opening a file only reads its footer and the metadata of its record
+ * batches, which are flatbuffers read by the Table class below
+ *
+ * Only flat columns of integers, single or double precision floats and UTF-8 strings are read,
+ * each of which can be dictionary-encoded. Record batches can't be compressed, and neither a
+ * record batch's body nor the footer can be over 2 GB (the most one mapped buffer can hold).
+ * Null values are read as 0 (or null strings)
+ */
+class ArrowFile {
+    private static final String[] ARROW_EXTENSIONS = {".arrow", ".feather"};
+    private static final byte[] MAGIC = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+    // the file begins with the magic string padded to 8 bytes, and ends with the footer's
+    // length and the magic string
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = Integer.BYTES + 6;
+    private static final int CONTINUATION_MARKER = 0xFFFFFFFF;
+    // Block, FieldNode and Buffer structs
+    private static final int BLOCK_SIZE = 24;
+    private static final int FIELD_NODE_SIZE = 16;
+    private static final int BUFFER_SIZE = 16;
+    // Type union
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_FLOATING_POINT = 3;
+    private static final byte TYPE_UTF8 = 5;
+    private static final byte TYPE_LARGE_UTF8 = 20;
+    // FloatingPoint precisions
+    private static final short PRECISION_SINGLE = 1;
+    private static final short PRECISION_DOUBLE = 2;
+    // MessageHeader union
+    private static final byte HEADER_DICTIONARY_BATCH = 2;
+    private static final byte HEADER_RECORD_BATCH = 3;
+
+    private final String pathToFile;
+    private final List<Column> columns;
+    private long numRows;
+
+    private ArrowFile(String pathToFile, List<Column> columns) {
+        this.pathToFile = pathToFile;
+        this.columns = columns;
+    }
+
+    static boolean isArrowFile(String path) {
+        if (path == null)
+            return false;
+        String lowerCasePath = path.toLowerCase();
+        for (String extension : ARROW_EXTENSIONS) {
+            if (lowerCasePath.endsWith(extension))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Maps the Arrow file at the given path and reads its schema, dictionaries and record
+     * batches' metadata
+     */
+    static ArrowFile open(String pathToFile) throws IOException, ArrowFormatException {
+        try (FileChannel channel = FileChannel.open(Paths.get(pathToFile), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE + TRAILER_SIZE || !hasMagic(map(channel, 0, MAGIC.length), 0) ||
+                !hasMagic(map(channel, fileSize - MAGIC.length, MAGIC.length), 0))
+                throw new ArrowFormatException(pathToFile, "is not an Arrow IPC file (streams must be written as files)");
+
+            int footerLength = map(channel, fileSize - TRAILER_SIZE, Integer.BYTES).getInt(0);
+            if (footerLength <= 0 || footerLength > fileSize - HEADER_SIZE - TRAILER_SIZE)
+                throw new ArrowFormatException(pathToFile, "has an invalid footer");
+            Table footer = Table.getRoot(map(channel, fileSize - TRAILER_SIZE - footerLength, footerLength));
+
+            ArrowFile arrowFile = new ArrowFile(pathToFile, readColumns(pathToFile, footer.getTable(1)));
+            arrowFile.readDictionaries(channel, footer);
+            arrowFile.readRecordBatches(channel, footer);
+            return arrowFile;
+        } catch (IndexOutOfBoundsException e) {
+            // offsets in the flatbuffers that point outside of them
+            throw new ArrowFormatException(pathToFile, "has invalid metadata");
+        }
+    }
+
+    long getNumRows() {
+        return numRows;
+    }
+
+    int getNumColumns() {
+        return columns.size();
+    }
+
+    Column getColumn(int columnIndex) {
+        return columns.get(columnIndex);
+    }
+
+    /**
+     * Returns the column with the given name, or null if there isn't one
+     */
+    Column getColumn(String name) {
+        for (Column column : columns) {
+            if (column.getName().equals(name))
+                return column;
+        }
+        return null;
+    }
+
+    String getPath() {
+        return pathToFile;
+    }
+
+    /**
+     * A column of the file, split into a chunk per record batch
+     */
+    static class Column {
+        private final String name;
+        // type of the column's values, or of its dictionary's values if it's dictionary-encoded
+        private final ValueType valueType;
+        // type of the column's dictionary indices, null if it isn't dictionary-encoded
+        private final ValueType indexType;
+        private final long dictionaryID;
+        private final List<Chunk> chunks = new ArrayList<>();
+        // number of the first row of each chunk, and the number of rows after the last chunk
+        private long[] chunkStarts = {0};
+        private List<String> dictionary;
+
+        private Column(String name, ValueType valueType, ValueType indexType, long dictionaryID) {
+            this.name = name;
+            this.valueType = valueType;
+            this.indexType = indexType;
+            this.dictionaryID = dictionaryID;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isNumeric() {
+            return indexType == null && valueType != ValueType.UTF8 && valueType != ValueType.LARGE_UTF8;
+        }
+
+        boolean isDictionaryEncoded() {
+            return indexType != null;
+        }
+
+        /**
+         * Returns the value at the given row (0 if it's null). The column must be numeric
+         */
+        double getDouble(long row) {
+            int chunkIndex = getChunkIndex(row);
+            Chunk chunk = chunks.get(chunkIndex);
+            int index = (int) (row - chunkStarts[chunkIndex]);
+            return chunk.isNull(index) ? 0 : valueType.getDouble(chunk.data, index);
+        }
+
+        /**
+         * Visits every row whose value is nonzero (and not null), in order. The column must be
+         * numeric
+         */
+        void forEachNonZero(ExpressionVisitor visitor) {
+            for (int chunkIndex = 0; chunkIndex < chunks.size(); chunkIndex++) {
+                Chunk chunk = chunks.get(chunkIndex);
+                int chunkStart = (int) chunkStarts[chunkIndex];
+                for (int index = 0; index < chunk.length; index++) {
+                    double value = valueType.getDouble(chunk.data, index);
+                    if (value != 0 && !chunk.isNull(index))
+                        visitor.visit(chunkStart + index, value);
+                }
+            }
+        }
+
+        /**
+         * Returns the index into the column's dictionary of the value at the given row, or -1
+         * if it's null. The column must be dictionary-encoded
+         */
+        int getDictionaryIndex(long row) {
+            int chunkIndex = getChunkIndex(row);
+            Chunk chunk = chunks.get(chunkIndex);
+            int index = (int) (row - chunkStarts[chunkIndex]);
+            return chunk.isNull(index) ? -1 : (int) indexType.getDouble(chunk.data, index);
+        }
+
+        List<String> getDictionary() {
+            return dictionary;
+        }
+
+        /**
+         * Returns the value at the given row as a string, or null if it's null
+         */
+        String getString(long row) {
+            if (isDictionaryEncoded()) {
+                int dictionaryIndex = getDictionaryIndex(row);
+                return (dictionaryIndex < 0) ? null : dictionary.get(dictionaryIndex);
+            }
+            int chunkIndex = getChunkIndex(row);
+            Chunk chunk = chunks.get(chunkIndex);
+            int index = (int) (row - chunkStarts[chunkIndex]);
+            return chunk.isNull(index) ? null : valueType.getString(chunk, index);
+        }
+
+        private int getChunkIndex(long row) {
+            if (chunks.size() == 1)
+                return 0;
+            int chunkIndex = Arrays.binarySearch(chunkStarts, row);
+            // rows in the middle of a chunk aren't found, and a chunk with no rows starts where
+            // the next one does
+            if (chunkIndex < 0)
+                return -chunkIndex - 2;
+            while (chunkIndex < chunks.size() - 1 && chunkStarts[chunkIndex + 1] == row)
+                chunkIndex++;
+            return chunkIndex;
+        }
+
+        private void addChunk(Chunk chunk) {
+            chunks.add(chunk);
+            chunkStarts = Arrays.copyOf(chunkStarts, chunkStarts.length + 1);
+            chunkStarts[chunkStarts.length - 1] = chunkStarts[chunkStarts.length - 2] + chunk.length;
+        }
+    }
+
+    /**
+     * Buffers of a column in one record batch. The validity bitmap is null if none of the values
+     * are null, the offsets are only there for strings
+     */
+    private static class Chunk {
+        private final int length;
+        private final ByteBuffer validity;
+        private final ByteBuffer offsets;
+        private final ByteBuffer data;
+
+        private Chunk(int length, ByteBuffer validity, ByteBuffer offsets, ByteBuffer data) {
+            this.length = length;
+            this.validity = validity;
+            this.offsets = offsets;
+            this.data = data;
+        }
+
+        private boolean isNull(int index) {
+            return validity != null && (validity.get(index >>> 3) & (1 << (index & 7))) == 0;
+        }
+    }
+
+    private enum ValueType {
+        INT8(1), INT16(2), INT32(4), INT64(8), UINT8(1), UINT16(2), UINT32(4), UINT64(8), FLOAT(4), DOUBLE(8), UTF8(0), LARGE_UTF8(0);
+
+        private final int numBytes;
+
+        ValueType(int numBytes) {
+            this.numBytes = numBytes;
+        }
+
+        private static ValueType getIntType(int bitWidth, boolean isSigned) {
+            switch (bitWidth) {
+                case 8: return isSigned ? INT8 : UINT8;
+                case 16: return isSigned ? INT16 : UINT16;
+                case 32: return isSigned ? INT32 : UINT32;
+                case 64: return isSigned ? INT64 : UINT64;
+                default: return null;
+            }
+        }
+
+        private double getDouble(ByteBuffer data, int index) {
+            switch (this) {
+                case INT8: return data.get(index);
+                case INT16: return data.getShort(index * 2);
+                case INT32: return data.getInt(index * 4);
+                case INT64: return data.getLong(index * 8);
+                case UINT8: return data.get(index) & 0xFF;
+                case UINT16: return data.getShort(index * 2) & 0xFFFF;
+                case UINT32: return data.getInt(index * 4) & 0xFFFFFFFFL;
+                case UINT64: return toUnsignedDouble(data.getLong(index * 8));
+                case FLOAT: return data.getFloat(index * 4);
+                case DOUBLE: return data.getDouble(index * 8);
+                default: throw new IllegalStateException("Not a number type: " + this);
+            }
+        }
+
+        private String getString(Chunk chunk, int index) {
+            if (this == UTF8 || this == LARGE_UTF8) {
+                int start = (this == UTF8) ? chunk.offsets.getInt(index * 4) : (int) chunk.offsets.getLong(index * 8);
+                int end = (this == UTF8) ? chunk.offsets.getInt(index * 4 + 4) : (int) chunk.offsets.getLong(index * 8 + 8);
+                byte[] bytes = new byte[end - start];
+                ByteBuffer data = chunk.data.duplicate();
+                data.position(start);
+                data.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            double value = getDouble(chunk.data, index);
+            return (this == FLOAT || this == DOUBLE) ? String.valueOf(value) : String.valueOf((long) value);
+        }
+
+        private static double toUnsignedDouble(long value) {
+            double doubleValue = (double) (value >>> 1) * 2;
+            return doubleValue + (value & 1);
+        }
+
+        private int getNumBuffers() {
+            return (this == UTF8 || this == LARGE_UTF8) ? 3 : 2;
+        }
+    }
+
+    /**
+     * Makes a column for each of the schema's fields
+     */
+    private static List<Column> readColumns(String pathToFile, Table schema) throws ArrowFormatException {
+        if (schema == null)
+            throw new ArrowFormatException(pathToFile, "has no schema");
+
+        List<Column> columns = new ArrayList<>();
+        for (int i = 0; i < schema.getVectorLength(1); i++) {
+            Table field = schema.getTableElement(1, i);
+            String name = field.getString(0);
+            if (field.getVectorLength(5) > 0)
+                throw new ArrowFormatException(pathToFile, "has a nested column (" + name + "), only flat columns are supported");
+
+            ValueType valueType = getValueType(field.getByte(2, (byte) 0), field.getTable(3));
+            if (valueType == null)
+                throw new ArrowFormatException(pathToFile, "has a column (" + name + ") whose type isn't supported, only integers, " +
+                                                           "single or double precision floats and UTF-8 strings are");
+            Table dictionaryEncoding = field.getTable(4);
+            ValueType indexType = null;
+            long dictionaryID = -1;
+            if (dictionaryEncoding != null) {
+                Table indexInt = dictionaryEncoding.getTable(1);
+                indexType = (indexInt == null) ? ValueType.INT32 : ValueType.getIntType(indexInt.getInt(0, 0), indexInt.getBoolean(1, false));
+                dictionaryID = dictionaryEncoding.getLong(0, 0);
+            }
+            columns.add(new Column(name, valueType, indexType, dictionaryID));
+        }
+        return columns;
+    }
+
+    private static ValueType getValueType(byte typeType, Table type) {
+        if (typeType == TYPE_INT && type != null)
+            return ValueType.getIntType(type.getInt(0, 0), type.getBoolean(1, false));
+        if (typeType == TYPE_FLOATING_POINT && type != null) {
+            short precision = type.getShort(0, (short) 0);
+            if (precision == PRECISION_SINGLE)
+                return ValueType.FLOAT;
+            if (precision == PRECISION_DOUBLE)
+                return ValueType.DOUBLE;
+            return null;
+        }
+        if (typeType == TYPE_UTF8)
+            return ValueType.UTF8;
+        if (typeType == TYPE_LARGE_UTF8)
+            return ValueType.LARGE_UTF8;
+        return null;
+    }
+
+    /**
+     * Reads the values of each dictionary onto the heap (dictionaries hold the distinct values
+     * of a column, so they're small) and gives them to the columns they encode
+     */
+    private void readDictionaries(FileChannel channel, Table footer) throws IOException, ArrowFormatException {
+        Map<Long, List<String>> dictionaries = new HashMap<>();
+        for (int i = 0; i < footer.getVectorLength(2); i++) {
+            Table dictionaryBatch = readMessageHeader(channel, footer, 2, i, HEADER_DICTIONARY_BATCH);
+            long dictionaryID = dictionaryBatch.getLong(0, 0);
+            Column encodedColumn = null;
+            for (Column column : columns) {
+                if (column.isDictionaryEncoded() && column.dictionaryID == dictionaryID)
+                    encodedColumn = column;
+            }
+            if (encodedColumn == null)
+                continue;
+
+            // the dictionary is a record batch with one column, of the encoded column's value type
+            Column dictionaryColumn = new Column(encodedColumn.name, encodedColumn.valueType, null, -1);
+            readRecordBatch(channel, footer, 2, i, dictionaryBatch.getTable(1), Collections.singletonList(dictionaryColumn));
+            List<String> dictionary = dictionaries.get(dictionaryID);
+            if (dictionary == null || !dictionaryBatch.getBoolean(2, false)) {
+                // a batch that isn't a delta replaces the dictionary
+                dictionary = new ArrayList<>();
+                dictionaries.put(dictionaryID, dictionary);
+            }
+            for (long row = 0; row < dictionaryColumn.chunkStarts[dictionaryColumn.chunkStarts.length - 1]; row++)
+                dictionary.add(dictionaryColumn.getString(row));
+        }
+
+        for (Column column : columns) {
+            if (column.isDictionaryEncoded()) {
+                column.dictionary = dictionaries.get(column.dictionaryID);
+                if (column.dictionary == null)
+                    throw new ArrowFormatException(pathToFile, "has no dictionary for its column " + column.name);
+            }
+        }
+    }
+
+    private void readRecordBatches(FileChannel channel, Table footer) throws IOException, ArrowFormatException {
+        for (int i = 0; i < footer.getVectorLength(3); i++) {
+            Table recordBatch = readMessageHeader(channel, footer, 3, i, HEADER_RECORD_BATCH);
+            numRows += readRecordBatch(channel, footer, 3, i, recordBatch, columns);
+        }
+    }
+
+    /**
+     * Reads the header of the message in the given block (the given element of the footer's
+     * vector of blocks), checking it is of the given type
+     */
+    private Table readMessageHeader(FileChannel channel, Table footer, int blocksField, int blockIndex, byte headerType) throws IOException, ArrowFormatException {
+        int block = footer.getStructElement(blocksField, blockIndex, BLOCK_SIZE);
+        long offset = footer.buffer.getLong(block);
+        int metadataLength = footer.buffer.getInt(block + 8);
+        if (offset < HEADER_SIZE || metadataLength <= Integer.BYTES || offset + metadataLength > channel.size())
+            throw new ArrowFormatException(pathToFile, "has an invalid footer");
+
+        ByteBuffer metadata = map(channel, offset, metadataLength);
+        // the message's flatbuffer follows its length, which older files don't precede with
+        // the continuation marker
+        int messageStart = (metadata.getInt(0) == CONTINUATION_MARKER) ? 2 * Integer.BYTES : Integer.BYTES;
+        Table message = Table.getRoot(slice(metadata, messageStart, metadataLength - messageStart));
+        Table header = message.getTable(2);
+        if (message.getByte(1, (byte) 0) != headerType || header == null)
+            throw new ArrowFormatException(pathToFile, "has an invalid footer");
+        return header;
+    }
+
+    /**
+     * Maps the body of the record batch in the given block, and adds each column's chunk of
+     * it to the column
+     *
+     * @return number of rows in the record batch
+     */
+    private long readRecordBatch(FileChannel channel, Table footer, int blocksField, int blockIndex, Table recordBatch,
+                                 List<Column> columns) throws IOException, ArrowFormatException {
+        if (recordBatch == null)
+            throw new ArrowFormatException(pathToFile, "has an invalid record batch");
+        if (recordBatch.getTable(3) != null)
+            throw new ArrowFormatException(pathToFile, "is compressed, only uncompressed Arrow files are supported");
+
+        int block = footer.getStructElement(blocksField, blockIndex, BLOCK_SIZE);
+        long bodyOffset = footer.buffer.getLong(block) + footer.buffer.getInt(block + 8);
+        long bodyLength = footer.buffer.getLong(block + 16);
+        if (bodyLength > Integer.MAX_VALUE)
+            throw new ArrowFormatException(pathToFile, "has a record batch over 2 GB");
+        if (bodyOffset + bodyLength > channel.size())
+            throw new ArrowFormatException(pathToFile, "is truncated");
+        ByteBuffer body = map(channel, bodyOffset, bodyLength);
+
+        long length = recordBatch.getLong(0, 0);
+        if (recordBatch.getVectorLength(1) != columns.size())
+            throw new ArrowFormatException(pathToFile, "has a record batch whose number of columns doesn't match its schema");
+        int bufferIndex = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            int fieldNode = recordBatch.getStructElement(1, i, FIELD_NODE_SIZE);
+            long columnLength = recordBatch.buffer.getLong(fieldNode);
+            long nullCount = recordBatch.buffer.getLong(fieldNode + 8);
+            if (columnLength != length)
+                throw new ArrowFormatException(pathToFile, "has a record batch whose columns don't all have the same number of rows");
+
+            int numBuffers = column.isDictionaryEncoded() ? 2 : column.valueType.getNumBuffers();
+            ByteBuffer[] buffers = new ByteBuffer[numBuffers];
+            for (int j = 0; j < numBuffers; j++, bufferIndex++) {
+                if (bufferIndex >= recordBatch.getVectorLength(2))
+                    throw new ArrowFormatException(pathToFile, "has a record batch with missing buffers");
+                int buffer = recordBatch.getStructElement(2, bufferIndex, BUFFER_SIZE);
+                long bufferOffset = recordBatch.buffer.getLong(buffer);
+                long bufferLength = recordBatch.buffer.getLong(buffer + 8);
+                if (bufferOffset < 0 || bufferLength < 0 || bufferOffset + bufferLength > bodyLength)
+                    throw new ArrowFormatException(pathToFile, "has a record batch with a buffer outside of its body");
+                buffers[j] = slice(body, (int) bufferOffset, (int) bufferLength);
+            }
+
+            ValueType dataType = column.isDictionaryEncoded() ? column.indexType : column.valueType;
+            ByteBuffer validity = (nullCount > 0 && buffers[0].capacity() > 0) ? buffers[0] : null;
+            ByteBuffer offsets = (numBuffers == 3) ? buffers[1] : null;
+            ByteBuffer data = buffers[numBuffers - 1];
+            if (data.capacity() < columnLength * dataType.numBytes)
+                throw new ArrowFormatException(pathToFile, "has a record batch whose column " + column.name + " is missing values");
+            column.addChunk(new Chunk((int) columnLength, validity, offsets, data));
+        }
+        return length;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the given part of the given buffer as a little-endian buffer of its own
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static boolean hasMagic(ByteBuffer buffer, int offset) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(offset + i) != MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A flatbuffer table. Its fields are read through its vtable, which gives the offset of
+     * each field from the table (0 for fields that aren't there, which have their default value)
+     */
+    private static class Table {
+        private final ByteBuffer buffer;
+        private final int position;
+        private final int vtable;
+
+        private Table(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+            vtable = position - buffer.getInt(position);
+        }
+
+        /**
+         * Returns the root table of the flatbuffer in the given (little-endian) buffer
+         */
+        private static Table getRoot(ByteBuffer buffer) {
+            return new Table(buffer, buffer.getInt(0));
+        }
+
+        private long getLong(int field, long defaultValue) {
+            int offset = getFieldOffset(field);
+            return (offset == 0) ? defaultValue : buffer.getLong(position + offset);
+        }
+
+        private int getInt(int field, int defaultValue) {
+            int offset = getFieldOffset(field);
+            return (offset == 0) ? defaultValue : buffer.getInt(position + offset);
+        }
+
+        private short getShort(int field, short defaultValue) {
+            int offset = getFieldOffset(field);
+            return (offset == 0) ? defaultValue : buffer.getShort(position + offset);
+        }
+
+        private byte getByte(int field, byte defaultValue) {
+            int offset = getFieldOffset(field);
+            return (offset == 0) ? defaultValue : buffer.get(position + offset);
+        }
+
+        private boolean getBoolean(int field, boolean defaultValue) {
+            int offset = getFieldOffset(field);
+            return (offset == 0) ? defaultValue : buffer.get(position + offset) != 0;
+        }
+
+        /**
+         * Returns the table the given field refers to, or null if the field isn't there
+         */
+        private Table getTable(int field) {
+            int reference = getReference(field);
+            return (reference < 0) ? null : new Table(buffer, reference);
+        }
+
+        private String getString(int field) {
+            int reference = getReference(field);
+            if (reference < 0)
+                return null;
+            byte[] bytes = new byte[buffer.getInt(reference)];
+            ByteBuffer string = buffer.duplicate();
+            string.position(reference + Integer.BYTES);
+            string.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int getVectorLength(int field) {
+            int reference = getReference(field);
+            return (reference < 0) ? 0 : buffer.getInt(reference);
+        }
+
+        private Table getTableElement(int field, int index) {
+            int element = getReference(field) + Integer.BYTES * (1 + index);
+            return new Table(buffer, element + buffer.getInt(element));
+        }
+
+        /**
+         * Returns the position of the given element of a vector of structs of the given size
+         */
+        private int getStructElement(int field, int index, int structSize) {
+            return getReference(field) + Integer.BYTES + structSize * index;
+        }
+
+        /**
+         * Returns the position of the table, vector or string the given field refers to, or -1
+         * if the field isn't there
+         */
+        private int getReference(int field) {
+            int offset = getFieldOffset(field);
+            if (offset == 0)
+                return -1;
+            int fieldPosition = position + offset;
+            return fieldPosition + buffer.getInt(fieldPosition);
+        }
+
+        private int getFieldOffset(int field) {
+            int vtableOffset = Short.BYTES * (2 + field);
+            if (vtableOffset >= (buffer.getShort(vtable) & 0xFFFF))
+                return 0;
+            return buffer.getShort(vtable + vtableOffset) & 0xFFFF;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package parser;
+
+import exceptions.*;
+import expression.ExpressionEncoding;
+import expression.ExpressionMatrix;
+import expression.ExpressionMatrixBuilder;
+import expression.IsoformQuorum;
+import expression.MatrixLayout;
+import labelset.LabelSet;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Reads dataset files written as Apache Arrow IPC files (e.g. by pyarrow's feather.write_feather()),
+ * which are memory-mapped rather than parsed:
+ *   - an expression matrix, either dense (a numeric column per isoform, named after its ID, and a
+ *     row per cell) or sparse (a row per nonzero value, with its cell number, isoform index and
+ *     value in the CELL_COLUMN, ISOFORM_COLUMN and VALUE_COLUMN columns)
+ *   - a label set, from the column named after the label set, or the file's first string or
+ *     dictionary-encoded column if there isn't one. Each category is a cluster
+ *   - an embedding, from the file's first two numeric columns
+ */
+class ArrowLoader {
+    static final String CELL_COLUMN = "cell";
+    static final String ISOFORM_COLUMN = "isoform";
+    static final String VALUE_COLUMN = "value";
+    private static final String MISSING_CATEGORY = "NA";
+
+    private final ArrowFile arrowFile;
+
+    ArrowLoader(String pathToFile) throws IOException, ArrowFormatException {
+        arrowFile = ArrowFile.open(pathToFile);
+    }
+
+    static boolean isArrowFile(String path) {
+        return ArrowFile.isArrowFile(path);
+    }
+
+    /**
+     * @return map of isoform IDs (the dense matrix's column names) to their column
+     * @throws ArrowFormatException the matrix is sparse, so it has no isoform IDs
+     */
+    HashMap<String, Integer> getIsoformIndexMap() throws ArrowFormatException, DuplicateColumnLabelException {
+        if (isSparseMatrix())
+            throw new ArrowFormatException(arrowFile.getPath(), "is a sparse matrix, which has no isoform IDs, so an isoform IDs file must be given");
+
+        HashMap<String, Integer> isoformIndexMap = new HashMap<>();
+        for (int i = 0; i < arrowFile.getNumColumns(); i++) {
+            String isoformID = arrowFile.getColumn(i).getName();
+            if (isoformIndexMap.containsKey(isoformID))
+                throw new DuplicateColumnLabelException(isoformID);
+            isoformIndexMap.put(isoformID, i);
+        }
+        return isoformIndexMap;
+    }
+
+    /**
+     * Returns the matrix, checking it is numCells x numIsoforms (numCells is not checked if it's
+     * negative). A dense matrix is read from the mapped file as it is, unless it's given a heap
+     * layout (dense or sparse), in which case it's copied into a matrix in that layout and
+     * encoding. A sparse matrix is always built on the heap, in the given layout and encoding
+     * (whichever layout takes less memory if it's null or STORE). Isoforms that don't meet the
+     * quorum counter's quorum are left out of the matrix; a mapped matrix leaves out their columns
+     *
+     * The values of a mapped matrix are checked in one pass over its columns, which also counts
+     * them for the quorum
+     */
+    ExpressionMatrix getExpressionMatrix(int numCells, int numIsoforms, ExpressionEncoding encoding, MatrixLayout layout,
+                                         IsoformQuorum.Counter quorumCounter) throws RNAScoopException {
+        if (isSparseMatrix())
+            return getSparseExpressionMatrix(numCells, numIsoforms, encoding, (layout != MatrixLayout.STORE) ? layout : null, quorumCounter);
+
+        if (arrowFile.getNumRows() == 0)
+            throw new MatrixSizeZeroException();
+        if (numCells >= 0 && arrowFile.getNumRows() != numCells)
+            throw new RowLabelsLengthException();
+        if (arrowFile.getNumColumns() != numIsoforms)
+            throw new ColumnLabelsLengthException();
+
+        ArrowFile.Column[] isoformColumns = new ArrowFile.Column[numIsoforms];
+        for (int i = 0; i < numIsoforms; i++) {
+            isoformColumns[i] = arrowFile.getColumn(i);
+            if (!isoformColumns[i].isNumeric())
+                throw new ArrowFormatException(arrowFile.getPath(), "has a column that isn't numeric (" + isoformColumns[i].getName() + ") in its matrix");
+        }
+        if (layout == null || layout == MatrixLayout.STORE)
+            return getMappedExpressionMatrix(isoformColumns, quorumCounter);
+
+        ExpressionMatrix mappedMatrix = new ArrowExpressionMatrix(isoformColumns, (int) arrowFile.getNumRows());
+
+        ExpressionMatrixBuilder matrixBuilder = new ExpressionMatrixBuilder(mappedMatrix.getNumCells(), numIsoforms, encoding, quorumCounter, layout);
+        double[] cellExpression = new double[numIsoforms];
+        for (int cellNumber = 0; cellNumber < mappedMatrix.getNumCells(); cellNumber++) {
+            mappedMatrix.getCellExpression(cellNumber, cellExpression);
+            for (double expression : cellExpression) {
+                if (expression < 0)
+                    throw new NegativeExpressionInMatrixException();
+            }
+            matrixBuilder.setCellExpression(cellNumber, cellExpression);
+        }
+        return matrixBuilder.build();
+    }
+
+    /**
+     * Checks the columns' values aren't negative and counts them for the quorum, then maps the
+     * columns of the isoforms that meet it, in order, so the matrix's isoform indices are the
+     * kept isoforms' positions among them
+     */
+    private ExpressionMatrix getMappedExpressionMatrix(ArrowFile.Column[] isoformColumns, IsoformQuorum.Counter quorumCounter)
+            throws NegativeExpressionInMatrixException {
+        boolean[] hasNegativeExpression = new boolean[1];
+        for (int i = 0; i < isoformColumns.length; i++) {
+            int isoformIndex = i;
+            isoformColumns[i].forEachNonZero((cellNumber, expression) -> {
+                if (expression < 0)
+                    hasNegativeExpression[0] = true;
+                quorumCounter.count(isoformIndex, expression);
+            });
+            if (hasNegativeExpression[0])
+                throw new NegativeExpressionInMatrixException();
+        }
+
+        int[] keptIsoforms = quorumCounter.getKeptIsoforms();
+        if (keptIsoforms != null && keptIsoforms.length < isoformColumns.length) {
+            ArrowFile.Column[] keptColumns = new ArrowFile.Column[keptIsoforms.length];
+            for (int i = 0; i < keptIsoforms.length; i++)
+                keptColumns[i] = isoformColumns[keptIsoforms[i]];
+            isoformColumns = keptColumns;
+        }
+        return new ArrowExpressionMatrix(isoformColumns, (int) arrowFile.getNumRows());
+    }
+
+    /**
+     * Makes a label set named after the given name from the column with that name, or from
+     * the file's first string or dictionary-encoded column if there isn't one (its first column
+     * if it has neither). Clusters are in the order their labels first appear
+     */
+    LabelSet getLabelSet(String labelSetName) throws ArrowFormatException {
+        ArrowFile.Column column = arrowFile.getColumn(labelSetName);
+        for (int i = 0; column == null && i < arrowFile.getNumColumns(); i++) {
+            if (!arrowFile.getColumn(i).isNumeric())
+                column = arrowFile.getColumn(i);
+        }
+        if (column == null && arrowFile.getNumColumns() > 0)
+            column = arrowFile.getColumn(0);
+        if (column == null)
+            throw new ArrowFormatException(arrowFile.getPath(), "has no columns to use as a label set");
+
+        Map<String, Integer> clusterCodes = new HashMap<>();
+        List<String> clusterNames = new ArrayList<>();
+        // cluster code of each dictionary entry, so labels don't have to be looked up by name
+        int[] dictionaryClusterCodes = null;
+        if (column.isDictionaryEncoded()) {
+            dictionaryClusterCodes = new int[column.getDictionary().size()];
+            Arrays.fill(dictionaryClusterCodes, -1);
+        }
+
+        int[] cellClusterCodes = new int[(int) arrowFile.getNumRows()];
+        for (int cellNumber = 0; cellNumber < cellClusterCodes.length; cellNumber++) {
+            int dictionaryIndex = (dictionaryClusterCodes != null) ? column.getDictionaryIndex(cellNumber) : -1;
+            if (dictionaryClusterCodes != null && dictionaryIndex >= dictionaryClusterCodes.length)
+                throw new ArrowFormatException(arrowFile.getPath(), "has a dictionary index out of range in its column " + column.getName());
+            if (dictionaryIndex >= 0 && dictionaryClusterCodes[dictionaryIndex] >= 0) {
+                cellClusterCodes[cellNumber] = dictionaryClusterCodes[dictionaryIndex];
+                continue;
+            }
+
+            String label = column.getString(cellNumber);
+            if (label == null)
+                label = MISSING_CATEGORY;
+            Integer code = clusterCodes.get(label);
+            if (code == null) {
+                code = clusterNames.size();
+                clusterCodes.put(label, code);
+                clusterNames.add(label);
+            }
+            cellClusterCodes[cellNumber] = code;
+            if (dictionaryIndex >= 0)
+                dictionaryClusterCodes[dictionaryIndex] = code;
+        }
+        return new LabelSet(cellClusterCodes, clusterNames, labelSetName);
+    }
+
+    /**
+     * @return the file's first two numeric columns, as the x and y coordinates of each cell
+     */
+    double[][] getEmbedding() throws ArrowFormatException {
+        List<ArrowFile.Column> coordinateColumns = new ArrayList<>();
+        for (int i = 0; i < arrowFile.getNumColumns() && coordinateColumns.size() < 2; i++) {
+            if (arrowFile.getColumn(i).isNumeric())
+                coordinateColumns.add(arrowFile.getColumn(i));
+        }
+        if (coordinateColumns.size() < 2)
+            throw new ArrowFormatException(arrowFile.getPath(), "doesn't have two numeric columns to use as the embedding's coordinates");
+
+        double[][] embedding = new double[(int) arrowFile.getNumRows()][];
+        for (int cellNumber = 0; cellNumber < embedding.length; cellNumber++)
+            embedding[cellNumber] = new double[]{coordinateColumns.get(0).getDouble(cellNumber), coordinateColumns.get(1).getDouble(cellNumber)};
+        return embedding;
+    }
+
+    private boolean isSparseMatrix() {
+        return arrowFile.getNumColumns() == 3 && arrowFile.getColumn(CELL_COLUMN) != null && arrowFile.getColumn(ISOFORM_COLUMN) != null &&
+               arrowFile.getColumn(VALUE_COLUMN) != null;
+    }
+
+    /**
+     * Builds a matrix from the sparse matrix's rows, which can be in any order. The number of
+     * cells is one more than the highest cell number if it isn't given
+     */
+    private ExpressionMatrix getSparseExpressionMatrix(int numCells, int numIsoforms, ExpressionEncoding encoding, MatrixLayout layout,
+                                                       IsoformQuorum.Counter quorumCounter) throws RNAScoopException {
+        ArrowFile.Column cellColumn = getNumericColumn(CELL_COLUMN);
+        ArrowFile.Column isoformColumn = getNumericColumn(ISOFORM_COLUMN);
+        ArrowFile.Column valueColumn = getNumericColumn(VALUE_COLUMN);
+        long numValues = arrowFile.getNumRows();
+        if (numValues > Integer.MAX_VALUE)
+            throw new ArrowFormatException(arrowFile.getPath(), "has more sparse matrix values than can be loaded");
+        if (numCells < 0) {
+            for (long row = 0; row < numValues; row++)
+                numCells = (int) Math.max(numCells, checkWholeNumber(cellColumn.getDouble(row)));
+            numCells++;
+        }
+        if (numCells == 0)
+            throw new MatrixSizeZeroException();
+
+        // the rows are grouped by cell: each cell's values start after the ones of the cells before it
+        int[] cellStarts = new int[numCells + 1];
+        for (long row = 0; row < numValues; row++) {
+            double cellNumber = checkWholeNumber(cellColumn.getDouble(row));
+            double isoformIndex = checkWholeNumber(isoformColumn.getDouble(row));
+            double value = valueColumn.getDouble(row);
+            if (cellNumber < 0 || cellNumber >= numCells)
+                throw new RowLabelsLengthException();
+            if (isoformIndex < 0 || isoformIndex >= numIsoforms)
+                throw new ColumnLabelsLengthException();
+            if (value < 0)
+                throw new NegativeExpressionInMatrixException();
+            if (value != 0)
+                cellStarts[(int) cellNumber + 1]++;
+        }
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++)
+            cellStarts[cellNumber + 1] += cellStarts[cellNumber];
+
+        // isoform index in the high bits, row in the low bits, so sorting a cell's entries sorts them by isoform
+        long[] entries = new long[cellStarts[numCells]];
+        int[] nextEntries = Arrays.copyOf(cellStarts, numCells);
+        for (long row = 0; row < numValues; row++) {
+            if (valueColumn.getDouble(row) != 0)
+                entries[nextEntries[(int) cellColumn.getDouble(row)]++] = ((long) isoformColumn.getDouble(row) << 32) | row;
+        }
+
+        ExpressionMatrixBuilder matrixBuilder = new ExpressionMatrixBuilder(numCells, numIsoforms, encoding, quorumCounter, layout);
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++) {
+            int start = cellStarts[cellNumber];
+            int end = cellStarts[cellNumber + 1];
+            Arrays.sort(entries, start, end);
+            int[] isoformIndices = new int[end - start];
+            double[] values = new double[end - start];
+            for (int i = start; i < end; i++) {
+                isoformIndices[i - start] = (int) (entries[i] >>> 32);
+                values[i - start] = valueColumn.getDouble(entries[i] & 0xFFFFFFFFL);
+                if (i > start && isoformIndices[i - start] == isoformIndices[i - start - 1])
+                    throw new ArrowFormatException(arrowFile.getPath(), "has more than one value for an isoform in a cell in its sparse matrix");
+            }
+            matrixBuilder.setCellExpression(cellNumber, isoformIndices, values);
+        }
+        return matrixBuilder.build();
+    }
+
+    /**
+     * Returns the given cell number or isoform index of the sparse matrix, checking it's a whole
+     * number (which NaN and infinity aren't), as it's truncated to an int
+     */
+    private double checkWholeNumber(double coordinate) throws ArrowFormatException {
+        if (coordinate != Math.rint(coordinate) || Double.isInfinite(coordinate))
+            throw new ArrowFormatException(arrowFile.getPath(), "has a cell number or isoform index that isn't a whole number (" + coordinate +
+                                                                ") in its sparse matrix");
+        return coordinate;
+    }
+
+    private ArrowFile.Column getNumericColumn(String name) throws ArrowFormatException {
+        ArrowFile.Column column = arrowFile.getColumn(name);
+        if (!column.isNumeric())
+            throw new ArrowFormatException(arrowFile.getPath(), "has a sparse matrix whose " + name + " column isn't numeric");
+        return column;
+    }
+}
@@ -0,0 +1,250 @@
+package parser;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF file (blocked gzip, as written by bgzip), inflating its blocks in parallel.
+ * Every block of a BGZF file is a complete gzip member whose size is in its header, so a reader
+ * thread can split the file into blocks without inflating it. Groups of blocks are inflated by
+ * a pool of workers, and the inflated groups are read back in file order. At most
+ * MAX_PENDING_GROUPS groups are held at once
+ */
+class BgzfInputStream extends InputStream {
+    private static final int BLOCKS_PER_GROUP = 16;
+    private static final int NUM_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final int MAX_PENDING_GROUPS = NUM_WORKERS * 4;
+    private static final int HEADER_SIZE = 12;
+    // CRC32 and ISIZE
+    private static final int TRAILER_SIZE = 8;
+    private static final byte[] END = new byte[0];
+
+    private final InputStream file;
+    private final ExecutorService workers;
+    private final BlockingQueue<Future<byte[]>> pendingGroups;
+    private final Thread reader;
+    private byte[] group;
+    private int position;
+
+    BgzfInputStream(String path) throws IOException {
+        file = new BufferedInputStream(new FileInputStream(path), 1024 * 1024);
+        workers = Executors.newFixedThreadPool(NUM_WORKERS, runnable -> {
+            Thread thread = new Thread(runnable, "BGZF Block Inflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pendingGroups = new ArrayBlockingQueue<>(MAX_PENDING_GROUPS);
+        reader = new Thread(this::readBlocks, "BGZF Block Reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Returns whether the file at the given path starts with a BGZF block header
+     */
+    static boolean isBgzfFile(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            byte[] header = new byte[HEADER_SIZE];
+            if (readFully(in, header, 0, HEADER_SIZE) < HEADER_SIZE || !isGzipHeaderWithExtra(header))
+                return false;
+            int extraLength = getUnsignedShort(header, 10);
+            byte[] extra = new byte[extraLength];
+            return readFully(in, extra, 0, extraLength) == extraLength && getBlockSize(extra) >= 0;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextGroup())
+            return -1;
+        return group[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!nextGroup())
+            return -1;
+        int numBytes = Math.min(len, group.length - position);
+        System.arraycopy(group, position, b, off, numBytes);
+        position += numBytes;
+        return numBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.interrupt();
+        workers.shutdownNow();
+        file.close();
+    }
+
+    /**
+     * Moves to the next inflated group if the current one has been read
+     *
+     * @return false if the end of the file has been reached
+     */
+    private boolean nextGroup() throws IOException {
+        while (group == null || position == group.length) {
+            if (group == END)
+                return false;
+            try {
+                group = pendingGroups.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                group = END;
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Splits the file into blocks and hands them to the workers in groups of BLOCKS_PER_GROUP
+     */
+    private void readBlocks() {
+        try {
+            List<byte[]> blocks = new ArrayList<>(BLOCKS_PER_GROUP);
+            byte[] block;
+            while ((block = readBlock()) != null) {
+                blocks.add(block);
+                if (blocks.size() == BLOCKS_PER_GROUP) {
+                    submitGroup(blocks);
+                    blocks = new ArrayList<>(BLOCKS_PER_GROUP);
+                }
+            }
+            if (!blocks.isEmpty())
+                submitGroup(blocks);
+            pendingGroups.put(CompletableFuture.completedFuture(END));
+        } catch (IOException e) {
+            CompletableFuture<byte[]> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            try {
+                pendingGroups.put(failure);
+            } catch (InterruptedException interrupted) {
+                // stream was closed
+            }
+        } catch (InterruptedException | RejectedExecutionException e) {
+            // stream was closed
+        }
+    }
+
+    private void submitGroup(List<byte[]> blocks) throws InterruptedException {
+        pendingGroups.put(workers.submit(() -> inflateGroup(blocks)));
+    }
+
+    /**
+     * Reads the next whole block (header, compressed data and trailer)
+     *
+     * @return the block, or null if the end of the file has been reached
+     */
+    private byte[] readBlock() throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int headerLength = readFully(file, header, 0, HEADER_SIZE);
+        if (headerLength == 0)
+            return null;
+        if (headerLength < HEADER_SIZE || !isGzipHeaderWithExtra(header))
+            throw new IOException("BGZF file has an invalid block header");
+
+        int extraLength = getUnsignedShort(header, 10);
+        byte[] extra = new byte[extraLength];
+        if (readFully(file, extra, 0, extraLength) < extraLength)
+            throw new IOException("BGZF file is truncated");
+        int blockSize = getBlockSize(extra);
+        if (blockSize < HEADER_SIZE + extraLength + TRAILER_SIZE)
+            throw new IOException("BGZF file has an invalid block header");
+
+        byte[] block = new byte[blockSize];
+        System.arraycopy(header, 0, block, 0, HEADER_SIZE);
+        System.arraycopy(extra, 0, block, HEADER_SIZE, extraLength);
+        int restLength = blockSize - HEADER_SIZE - extraLength;
+        if (readFully(file, block, HEADER_SIZE + extraLength, restLength) < restLength)
+            throw new IOException("BGZF file is truncated");
+        return block;
+    }
+
+    /**
+     * Inflates the given blocks into one array, checking each block's CRC32 and size
+     */
+    private static byte[] inflateGroup(List<byte[]> blocks) throws IOException {
+        int groupLength = 0;
+        for (byte[] block : blocks)
+            groupLength += getInt(block, block.length - 4);
+        byte[] group = new byte[groupLength];
+
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            int groupPosition = 0;
+            for (byte[] block : blocks) {
+                int dataStart = HEADER_SIZE + getUnsignedShort(block, 10);
+                int blockLength = getInt(block, block.length - 4);
+                inflater.reset();
+                inflater.setInput(block, dataStart, block.length - TRAILER_SIZE - dataStart);
+                int length = 0;
+                while (length < blockLength && !inflater.finished()) {
+                    int numInflated = inflater.inflate(group, groupPosition + length, blockLength - length);
+                    // a truncated deflate stream needs more input than the block has
+                    if (numInflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        throw new IOException("BGZF file has a corrupt block");
+                    length += numInflated;
+                }
+                crc.reset();
+                crc.update(group, groupPosition, length);
+                if (length != blockLength || (int) crc.getValue() != getInt(block, block.length - TRAILER_SIZE))
+                    throw new IOException("BGZF file has a corrupt block");
+                groupPosition += blockLength;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("BGZF file has a corrupt block", e);
+        } finally {
+            inflater.end();
+        }
+        return group;
+    }
+
+    private static boolean isGzipHeaderWithExtra(byte[] header) {
+        // ID1, ID2, CM (deflate), FLG with FEXTRA set
+        return (header[0] & 0xFF) == 31 && (header[1] & 0xFF) == 139 && header[2] == 8 && (header[3] & 4) != 0;
+    }
+
+    /**
+     * Returns the block's size from its "BC" extra subfield, or -1 if it has none
+     */
+    private static int getBlockSize(byte[] extra) {
+        int position = 0;
+        while (position + 4 <= extra.length) {
+            int subfieldLength = getUnsignedShort(extra, position + 2);
+            if (extra[position] == 'B' && extra[position + 1] == 'C' && subfieldLength == 2 && position + 6 <= extra.length)
+                return getUnsignedShort(extra, position + 4) + 1;
+            position += 4 + subfieldLength;
+        }
+        return -1;
+    }
+
+    private static int getUnsignedShort(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8;
+    }
+
+    private static int getInt(byte[] bytes, int position) {
+        return getUnsignedShort(bytes, position) | getUnsignedShort(bytes, position + 2) << 16;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int numRead = 0;
+        int n;
+        while (numRead < length && (n = in.read(buffer, offset + numRead, length - numRead)) != -1)
+            numRead += n;
+        return numRead;
+    }
+}
@@ -0,0 +1,140 @@
+package parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads lines straight from bytes, without creating a String per line. Bytes come either from a
+ * stream, read into a buffer that is reused for every line, or from a byte array that is already
+ * in memory (e.g. a chunk of a larger file). Subclasses tokenize the current line, which is
+ * buffer[lineStart, lineEnd)
+ */
+class ByteLineReader {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream inputStream;
+    protected byte[] buffer;
+    // buffer[bufferStart, bufferEnd) holds bytes that haven't been read as lines yet
+    private int bufferStart;
+    private int bufferEnd;
+    private boolean reachedEndOfInput;
+
+    // current line, not including its line break
+    protected int lineStart;
+    protected int lineEnd;
+    private int lineNumber;
+
+    ByteLineReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+        buffer = new byte[DEFAULT_BUFFER_SIZE];
+        lineNumber = 0;
+    }
+
+    /**
+     * Reads bytes[offset, offset + length), which start at the line with the given number
+     */
+    ByteLineReader(byte[] bytes, int offset, int length, int firstLineNumber) {
+        inputStream = null;
+        buffer = bytes;
+        bufferStart = offset;
+        bufferEnd = offset + length;
+        reachedEndOfInput = true;
+        lineNumber = firstLineNumber - 1;
+    }
+
+    /**
+     * Moves to the next line. A last line with no line break after it counts as a line, like it
+     * does for BufferedReader.readLine()
+     *
+     * @return false if there are no lines left
+     */
+    boolean nextLine() throws IOException {
+        int lineBreak = findLineBreak();
+        while (lineBreak == -1 && !reachedEndOfInput) {
+            fillBuffer();
+            lineBreak = findLineBreak();
+        }
+
+        if (lineBreak == -1) {
+            if (bufferStart == bufferEnd)
+                return false;
+            lineBreak = bufferEnd;
+        }
+
+        lineStart = bufferStart;
+        lineEnd = lineBreak;
+        if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r')
+            lineEnd--;
+        bufferStart = Math.min(lineBreak + 1, bufferEnd);
+        lineNumber++;
+        return true;
+    }
+
+    /**
+     * @return the number of the current line, starting from 1
+     */
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return whether the current line is empty or only has whitespace
+     */
+    boolean isBlankLine() {
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (!isWhitespace(buffer[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Only meant for error messages, as it creates a String
+     */
+    String getLine() {
+        return new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Same characters as \\s in a regular expression
+     */
+    static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private int findLineBreak() {
+        for (int i = bufferStart; i < bufferEnd; i++) {
+            if (buffer[i] == '\n')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Moves unread bytes to the start of the buffer and reads more after them. The buffer only
+     * grows if a single line doesn't fit in it
+     */
+    private void fillBuffer() throws IOException {
+        int numUnreadBytes = bufferEnd - bufferStart;
+        if (numUnreadBytes == buffer.length) {
+            byte[] largerBuffer = new byte[buffer.length * 2];
+            System.arraycopy(buffer, bufferStart, largerBuffer, 0, numUnreadBytes);
+            buffer = largerBuffer;
+        } else if (bufferStart > 0) {
+            System.arraycopy(buffer, bufferStart, buffer, 0, numUnreadBytes);
+        }
+        bufferStart = 0;
+        bufferEnd = numUnreadBytes;
+
+        int numBytesRead = inputStream.read(buffer, bufferEnd, buffer.length - bufferEnd);
+        if (numBytesRead == -1)
+            reachedEndOfInput = true;
+        else
+            bufferEnd += numBytesRead;
+    }
+}
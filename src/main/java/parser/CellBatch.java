@@ -0,0 +1,29 @@
+package parser;
+
+/**
+ * Batch of cells appended to a loaded dataset: a matrix of the batch's cells, and the isoform
+ * IDs of its columns (which are matched to the loaded dataset's isoforms by ID)
+ */
+public class CellBatch {
+    private final String matrixPath;
+    private final String isoformIDsPath;
+    private final int numCells;
+
+    public CellBatch(String matrixPath, String isoformIDsPath, int numCells) {
+        this.matrixPath = matrixPath;
+        this.isoformIDsPath = isoformIDsPath;
+        this.numCells = numCells;
+    }
+
+    public String getMatrixPath() {
+        return matrixPath;
+    }
+
+    public String getIsoformIDsPath() {
+        return isoformIDsPath;
+    }
+
+    public int getNumCells() {
+        return numCells;
+    }
+}
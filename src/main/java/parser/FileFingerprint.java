@@ -0,0 +1,56 @@
+package parser;
+
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * Identifies a version of a file by its path, size and last modified time, so a file that was
+ * loaded before can be recognized as unchanged without reading it again
+ */
+public class FileFingerprint {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+
+    private FileFingerprint(String path, long size, long lastModified) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns the fingerprint of the file at the given path as it is now, or null if no path is
+     * given or there is no file at the path
+     */
+    public static FileFingerprint of(String path) {
+        if (path == null || path.equals(""))
+            return null;
+        File file = new File(path);
+        if (!file.isFile())
+            return null;
+        return new FileFingerprint(file.getAbsolutePath(), file.length(), file.lastModified());
+    }
+
+    /**
+     * Whether the given fingerprints are of the same version of a file. Missing fingerprints
+     * never match
+     */
+    public static boolean matches(FileFingerprint fingerprint, FileFingerprint otherFingerprint) {
+        return fingerprint != null && fingerprint.equals(otherFingerprint);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FileFingerprint fingerprint = (FileFingerprint) o;
+        return size == fingerprint.size &&
+                lastModified == fingerprint.lastModified &&
+                path.equals(fingerprint.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, size, lastModified);
+    }
+}
@@ -0,0 +1,252 @@
+package parser;
+
+import annotation.Exon;
+import annotation.Gene;
+import annotation.Isoform;
+import exceptions.RNAScoopException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads the genes in a GTF file. The file is read in line-aligned chunks (shards), which are
+ * parsed on a thread pool into their own gene maps. The maps are then merged in file order, so
+ * genes and isoforms whose exons are in more than one shard end up the same as if the file had
+ * been parsed a line at a time
+ *
+ * A loader can be given the isoform IDs of the dataset's matrix, in which case exons of any
+ * other transcript are skipped, so no annotation is built for isoforms the dataset doesn't have
+ *
+ * A loader only keeps the state of its own file, so several GTF files can be loaded at the same
+ * time
+ */
+class GTFLoader {
+    private static final int SHARD_SIZE = 8 * 1024 * 1024;
+    private static final int NUM_WORKERS = Runtime.getRuntime().availableProcessors();
+    // max number of shards read but not yet parsed, limits memory used by the reader
+    private static final int MAX_PENDING_SHARDS = NUM_WORKERS * 2;
+
+    private final String pathToGTF;
+    private final Set<String> isoformIDs;
+    private final Set<String> skippedIsoformIDs;
+    private final ConcurrentMap<String, String> chromosomePool;
+    private final Semaphore pendingShards;
+    private final AtomicBoolean failed;
+
+    GTFLoader(String pathToGTF) {
+        this(pathToGTF, null);
+    }
+
+    /**
+     * @param isoformIDs IDs of the isoforms to load, or null if every isoform in the file is loaded
+     */
+    GTFLoader(String pathToGTF, Set<String> isoformIDs) {
+        this.pathToGTF = pathToGTF;
+        this.isoformIDs = isoformIDs;
+        skippedIsoformIDs = ConcurrentHashMap.newKeySet();
+        chromosomePool = new ConcurrentHashMap<>();
+        pendingShards = new Semaphore(MAX_PENDING_SHARDS);
+        failed = new AtomicBoolean(false);
+    }
+
+    /**
+     * Parses the GTF file. If the file has errors, the exception for the first erroneous line
+     * is thrown, with that line's number
+     *
+     * @return map of all genes in the file, key is the gene's ID, value is the gene
+     */
+    Map<String, Gene> load() throws IOException, RNAScoopException {
+        ExecutorService workers = Executors.newFixedThreadPool(NUM_WORKERS, runnable -> {
+            Thread thread = new Thread(runnable, "GTF Loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (InputStream gtfStream = Parser.openDataFile(pathToGTF)) {
+            // futures are in file order, so the first one to fail holds the first erroneous line
+            List<Future<Map<String, Gene>>> shardFutures = new ArrayList<>();
+            LineChunkReader shardReader = new LineChunkReader(gtfStream, SHARD_SIZE);
+            while (!failed.get() && shardReader.nextChunk())
+                submitShard(shardReader.getChunk(), shardReader.getChunkLength(), shardReader.getChunkFirstLine() + 1, workers, shardFutures);
+
+            Map<String, Gene> genes = new HashMap<>();
+            for (Future<Map<String, Gene>> shardFuture : shardFutures)
+                mergeGenes(genes, waitForShard(shardFuture));
+            return genes;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the given genes with only the isoforms this loader loads, e.g. to filter genes read
+     * from an annotation index. Genes left without isoforms are dropped, and the others' start and
+     * end are set from the isoforms they keep
+     */
+    Map<String, Gene> keepLoadedIsoforms(Map<String, Gene> genes) {
+        if (isoformIDs == null)
+            return genes;
+
+        Map<String, Gene> keptGenes = new HashMap<>();
+        for (Gene gene : genes.values()) {
+            Gene keptGene = null;
+            for (Isoform isoform : gene.getIsoforms()) {
+                if (!isoformIDs.contains(isoform.getId())) {
+                    skippedIsoformIDs.add(isoform.getId());
+                    continue;
+                }
+                if (keptGene == null) {
+                    keptGene = new Gene(gene.getId(), gene.getChromosome(), gene.isOnPositiveStrand() ? "+" : "-");
+                    keptGene.setName(gene.getName());
+                    keptGenes.put(gene.getId(), keptGene);
+                }
+                Isoform keptIsoform = new Isoform(isoform.getId(), keptGene);
+                keptIsoform.setName(isoform.getName());
+                for (Exon exon : isoform.getExons())
+                    keptIsoform.addExon(exon);
+                keptGene.addIsoform(isoform.getId(), keptIsoform);
+                if (keptGene.getStartNucleotide() > keptIsoform.getStartNucleotide())
+                    keptGene.setStartNucleotide(keptIsoform.getStartNucleotide());
+                if (keptGene.getEndNucleotide() < keptIsoform.getEndNucleotide())
+                    keptGene.setEndNucleotide(keptIsoform.getEndNucleotide());
+            }
+        }
+        return keptGenes;
+    }
+
+    /**
+     * Number of different transcripts skipped because they aren't in the isoform IDs given
+     */
+    int getNumSkippedIsoforms() {
+        return skippedIsoformIDs.size();
+    }
+
+    private void submitShard(byte[] shard, int length, int firstLineNumber, ExecutorService workers,
+                             List<Future<Map<String, Gene>>> shardFutures) {
+        try {
+            pendingShards.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        shardFutures.add(workers.submit(() -> {
+            try {
+                return parseShard(shard, length, firstLineNumber);
+            } catch (Exception e) {
+                failed.set(true);
+                throw e;
+            } finally {
+                pendingShards.release();
+            }
+        }));
+    }
+
+    private Map<String, Gene> parseShard(byte[] shard, int length, int firstLineNumber) throws IOException, RNAScoopException {
+        Map<String, Gene> genes = new HashMap<>();
+        GTFScanner scanner = new GTFScanner(shard, length, firstLineNumber, chromosomePool);
+        while (scanner.nextExon()) {
+            if (isoformIDs != null && !isoformIDs.contains(scanner.getIsoformID()))
+                skippedIsoformIDs.add(scanner.getIsoformID());
+            else
+                storeExonInformation(scanner, genes);
+        }
+        return genes;
+    }
+
+    /**
+     * Adds the exon the scanner is at to its correct isoform which is associated with its gene
+     */
+    private static void storeExonInformation(GTFScanner scanner, Map<String, Gene> genes) {
+        String geneID = scanner.getGeneID();
+        String isoformID = scanner.getIsoformID();
+        String geneName = scanner.getGeneName();
+        String isoformName = scanner.getIsoformName();
+        Gene gene;
+        Isoform isoform;
+        Exon exon;
+        if(genes.containsKey(geneID)) {
+            gene = genes.get(geneID);
+        } else {
+            gene = new Gene(geneID, scanner.getChromosome(), scanner.getStrand());
+            genes.put(geneID, gene);
+        }
+        if(gene.hasIsoform(isoformID)) {
+            isoform = gene.getIsoform(isoformID);
+        } else {
+            isoform = new Isoform(isoformID, gene);
+            gene.addIsoform(isoformID, isoform);
+        }
+        exon = new Exon(scanner.getStartNucleotide(), scanner.getEndNucleotide());
+        isoform.addExon(exon);
+
+        if (geneName != null && gene.getName() == null)
+            gene.setName(geneName);
+        if (isoformName != null && isoform.getName() == null)
+            isoform.setName(isoformName);
+        if (gene.getStartNucleotide() > exon.getStartNucleotide())
+            gene.setStartNucleotide(exon.getStartNucleotide());
+        if (gene.getEndNucleotide() < exon.getEndNucleotide())
+            gene.setEndNucleotide(exon.getEndNucleotide());
+    }
+
+    /**
+     * Adds the genes parsed from a shard to the genes parsed from the shards before it. A gene
+     * that was already parsed keeps its chromosome, strand and name from the earlier shards
+     */
+    private static void mergeGenes(Map<String, Gene> genes, Map<String, Gene> shardGenes) {
+        for (Gene shardGene : shardGenes.values()) {
+            Gene gene = genes.putIfAbsent(shardGene.getId(), shardGene);
+            if (gene != null)
+                mergeGene(gene, shardGene);
+        }
+    }
+
+    private static void mergeGene(Gene gene, Gene shardGene) {
+        for (Isoform shardIsoform : shardGene.getIsoforms()) {
+            Isoform isoform;
+            if (gene.hasIsoform(shardIsoform.getId())) {
+                isoform = gene.getIsoform(shardIsoform.getId());
+            } else {
+                isoform = new Isoform(shardIsoform.getId(), gene);
+                gene.addIsoform(shardIsoform.getId(), isoform);
+            }
+            for (Exon exon : shardIsoform.getExons())
+                isoform.addExon(exon);
+
+            if (shardIsoform.getName() != null && isoform.getName() == null)
+                isoform.setName(shardIsoform.getName());
+        }
+
+        if (shardGene.getName() != null && gene.getName() == null)
+            gene.setName(shardGene.getName());
+        if (gene.getStartNucleotide() > shardGene.getStartNucleotide())
+            gene.setStartNucleotide(shardGene.getStartNucleotide());
+        if (gene.getEndNucleotide() < shardGene.getEndNucleotide())
+            gene.setEndNucleotide(shardGene.getEndNucleotide());
+    }
+
+    private static Map<String, Gene> waitForShard(Future<Map<String, Gene>> shardFuture) throws IOException, RNAScoopException {
+        try {
+            return shardFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RNAScoopException)
+                throw (RNAScoopException) cause;
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
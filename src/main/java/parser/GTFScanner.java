@@ -0,0 +1,327 @@
+package parser;
+
+import exceptions.GTFInvalidEndNucleotideException;
+import exceptions.GTFInvalidStartNucleotideException;
+import exceptions.GTFMissingAttributesInfoException;
+import exceptions.RNAScoopException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Scans a GTF file in a single pass over its bytes, skipping every line that isn't an exon.
+ * For exon lines, only the chromosome, coordinates, strand and the gene_id, transcript_id,
+ * gene_name and transcript_name attributes are turned into values
+ *
+ * Lines are read the same way they were when the GTF was split with regular expressions:
+ * anything after a "#" is a comment, a line must have exactly 9 tab-separated columns, and an
+ * attribute must look like: name "value"
+ *
+ * Chromosome names are interned, so every exon on a chromosome shares one String. Values that
+ * are the same as on the previous exon line (e.g. the gene ID of consecutive exons) reuse the
+ * previous line's String
+ */
+class GTFScanner extends ByteLineReader {
+    private static final int NUM_COLUMNS = 9;
+    private static final byte[] EXON_FEATURE = bytes("exon");
+    private static final byte[] GENE_ID_ATTRIBUTE = bytes("gene_id");
+    private static final byte[] TRANSCRIPT_ID_ATTRIBUTE = bytes("transcript_id");
+    private static final byte[] GENE_NAME_ATTRIBUTE = bytes("gene_name");
+    private static final byte[] TRANSCRIPT_NAME_ATTRIBUTE = bytes("transcript_name");
+
+    // start and end of each column in the current line
+    private final int[] columnStarts = new int[NUM_COLUMNS];
+    private final int[] columnEnds = new int[NUM_COLUMNS];
+
+    private final RepeatedString chromosomes;
+    private final RepeatedString geneIDs = new RepeatedString(null);
+    private final RepeatedString isoformIDs = new RepeatedString(null);
+    private final RepeatedString geneNames = new RepeatedString(null);
+    private final RepeatedString isoformNames = new RepeatedString(null);
+
+    // values of the current exon
+    private String chromosome;
+    private int startNucleotide;
+    private int endNucleotide;
+    private String strand;
+    private String geneID;
+    private String isoformID;
+    private String geneName;
+    private String isoformName;
+
+    /**
+     * Scans bytes[0, length), which start at the line with the given number. Chromosome names
+     * are interned in the given pool, which can be shared by scanners running at the same time
+     */
+    GTFScanner(byte[] bytes, int length, int firstLineNumber, ConcurrentMap<String, String> chromosomePool) {
+        super(bytes, 0, length, firstLineNumber);
+        chromosomes = new RepeatedString(chromosomePool);
+    }
+
+    /**
+     * Moves to the next exon line, and parses it
+     *
+     * @return false if there are no exons left
+     */
+    boolean nextExon() throws IOException, RNAScoopException {
+        while (nextLine()) {
+            if (splitColumns() && columnEquals(2, EXON_FEATURE)) {
+                parseExon();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String getChromosome() {
+        return chromosome;
+    }
+
+    int getStartNucleotide() {
+        return startNucleotide;
+    }
+
+    int getEndNucleotide() {
+        return endNucleotide;
+    }
+
+    String getStrand() {
+        return strand;
+    }
+
+    String getGeneID() {
+        return geneID;
+    }
+
+    String getIsoformID() {
+        return isoformID;
+    }
+
+    /**
+     * @return the gene's name, or null if the exon line doesn't have one
+     */
+    String getGeneName() {
+        return geneName;
+    }
+
+    /**
+     * @return the isoform's name, or null if the exon line doesn't have one
+     */
+    String getIsoformName() {
+        return isoformName;
+    }
+
+    private void parseExon() throws GTFInvalidStartNucleotideException, GTFInvalidEndNucleotideException, GTFMissingAttributesInfoException {
+        chromosome = chromosomes.get(buffer, columnStarts[0], columnEnds[0]);
+        try {
+            startNucleotide = parseInt(columnStarts[3], columnEnds[3]);
+        } catch (NumberFormatException e) {
+            throw new GTFInvalidStartNucleotideException(getLineNumber());
+        }
+        try {
+            endNucleotide = parseInt(columnStarts[4], columnEnds[4]);
+        } catch (NumberFormatException e) {
+            throw new GTFInvalidEndNucleotideException(getLineNumber());
+        }
+        strand = getStrand(columnStarts[6], columnEnds[6]);
+        parseAttributes(columnStarts[8], columnEnds[8]);
+    }
+
+    /**
+     * Finds the columns of the current line, ignoring comments
+     *
+     * @return false if the line doesn't have 9 columns
+     */
+    private boolean splitColumns() {
+        int end = lineStart;
+        while (end < lineEnd && buffer[end] != '#')
+            end++;
+        // empty columns at the end of a line are ignored
+        while (end > lineStart && buffer[end - 1] == '\t')
+            end--;
+
+        int numColumns = 0;
+        int columnStart = lineStart;
+        for (int i = lineStart; i <= end; i++) {
+            if (i == end || buffer[i] == '\t') {
+                if (numColumns == NUM_COLUMNS)
+                    return false;
+                columnStarts[numColumns] = columnStart;
+                columnEnds[numColumns] = i;
+                numColumns++;
+                columnStart = i + 1;
+            }
+        }
+        return numColumns == NUM_COLUMNS;
+    }
+
+    private boolean columnEquals(int column, byte[] value) {
+        return rangeEquals(columnStarts[column], columnEnds[column], value);
+    }
+
+    private boolean rangeEquals(int start, int end, byte[] value) {
+        if (end - start != value.length)
+            return false;
+        for (int i = 0; i < value.length; i++) {
+            if (buffer[start + i] != value[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses buffer[start, end) the way Integer.parseInt() would
+     */
+    private int parseInt(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        if (i == end)
+            throw new NumberFormatException();
+
+        long value = 0;
+        for (; i < end; i++) {
+            if (!isDigit(buffer[i]))
+                throw new NumberFormatException();
+            value = value * 10 + (buffer[i] - '0');
+            if (value > (long) Integer.MAX_VALUE + 1)
+                throw new NumberFormatException();
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE)
+            throw new NumberFormatException();
+        return (int) value;
+    }
+
+    private String getStrand(int start, int end) {
+        if (end - start == 1) {
+            if (buffer[start] == '+')
+                return "+";
+            if (buffer[start] == '-')
+                return "-";
+        }
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8).intern();
+    }
+
+    /**
+     * Sets the IDs and names from the attributes column, which is split on ";". Attributes
+     * that don't look like: name "value" are ignored. If an attribute is given more than once,
+     * its last value is used
+     */
+    private void parseAttributes(int start, int end) throws GTFMissingAttributesInfoException {
+        geneID = null;
+        isoformID = null;
+        geneName = null;
+        isoformName = null;
+
+        int attributeStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || buffer[i] == ';') {
+                parseAttribute(attributeStart, i);
+                attributeStart = i + 1;
+            }
+        }
+
+        if (geneID == null || isoformID == null)
+            throw new GTFMissingAttributesInfoException(getLineNumber());
+    }
+
+    /**
+     * Parses an attribute of the form: name "value" (whitespace around the name and value is
+     * optional, neither may contain whitespace)
+     */
+    private void parseAttribute(int start, int end) {
+        while (start < end && isWhitespace(buffer[start]))
+            start++;
+        while (end > start && isWhitespace(buffer[end - 1]))
+            end--;
+        if (end - start < 4 || buffer[end - 1] != '"')
+            return;
+
+        // the name ends at the whitespace before the value, or if there's no whitespace, at the
+        // last quote that leaves a non-empty value
+        int nameEnd = start;
+        while (nameEnd < end && !isWhitespace(buffer[nameEnd]))
+            nameEnd++;
+        int valueStart;
+        if (nameEnd < end) {
+            valueStart = nameEnd;
+            while (isWhitespace(buffer[valueStart]))
+                valueStart++;
+            if (buffer[valueStart] != '"')
+                return;
+            valueStart++;
+            for (int i = valueStart; i < end; i++) {
+                if (isWhitespace(buffer[i]))
+                    return;
+            }
+        } else {
+            nameEnd = end - 3;
+            while (nameEnd > start && buffer[nameEnd] != '"')
+                nameEnd--;
+            if (nameEnd == start)
+                return;
+            valueStart = nameEnd + 1;
+        }
+        int valueEnd = end - 1;
+        if (valueEnd <= valueStart)
+            return;
+
+        if (rangeEquals(start, nameEnd, GENE_ID_ATTRIBUTE))
+            geneID = geneIDs.get(buffer, valueStart, valueEnd);
+        else if (rangeEquals(start, nameEnd, TRANSCRIPT_ID_ATTRIBUTE))
+            isoformID = isoformIDs.get(buffer, valueStart, valueEnd);
+        else if (rangeEquals(start, nameEnd, GENE_NAME_ATTRIBUTE))
+            geneName = geneNames.get(buffer, valueStart, valueEnd);
+        else if (rangeEquals(start, nameEnd, TRANSCRIPT_NAME_ATTRIBUTE))
+            isoformName = isoformNames.get(buffer, valueStart, valueEnd);
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Turns bytes into a String, reusing the last String made if the bytes haven't changed. If
+     * given a pool, every distinct value is also interned in it
+     */
+    private static class RepeatedString {
+        private final Map<String, String> pool;
+        private byte[] lastBytes = new byte[0];
+        private int lastLength;
+        private String lastString;
+
+        private RepeatedString(Map<String, String> pool) {
+            this.pool = pool;
+        }
+
+        private String get(byte[] buffer, int start, int end) {
+            int length = end - start;
+            if (lastString != null && length == lastLength) {
+                boolean same = true;
+                for (int i = 0; i < length && same; i++)
+                    same = buffer[start + i] == lastBytes[i];
+                if (same)
+                    return lastString;
+            }
+
+            String string = new String(buffer, start, length, StandardCharsets.UTF_8);
+            if (pool != null) {
+                String pooledString = pool.putIfAbsent(string, string);
+                if (pooledString != null)
+                    string = pooledString;
+            }
+            if (lastBytes.length < length)
+                lastBytes = new byte[Math.max(length, lastBytes.length * 2)];
+            System.arraycopy(buffer, start, lastBytes, 0, length);
+            lastLength = length;
+            lastString = string;
+            return string;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads a stream in chunks that end on line breaks, counting the lines in each chunk so the
+ * chunks can be parsed independently (e.g. on different threads) while still knowing which line
+ * of the file each of their lines is. Every chunk is a new array, so it can be handed off
+ */
+class LineChunkReader {
+    private final InputStream inputStream;
+    private final int chunkSize;
+
+    // bytes read after the end of the last chunk
+    private byte[] buffer;
+    private int length;
+    private boolean reachedEndOfInput;
+
+    private byte[] chunk;
+    private int chunkLength;
+    private int chunkFirstLine;
+    private int numLinesRead;
+
+    LineChunkReader(InputStream inputStream, int chunkSize) {
+        this.inputStream = inputStream;
+        this.chunkSize = chunkSize;
+        buffer = new byte[chunkSize];
+    }
+
+    /**
+     * Reads the next chunk. A chunk only ends without a line break if it's the end of the file
+     *
+     * @return false if there are no chunks left
+     */
+    boolean nextChunk() throws IOException {
+        while (!reachedEndOfInput) {
+            if (length == buffer.length) {
+                int lastLineBreak = lastIndexOfLineBreak(buffer, length);
+                if (lastLineBreak != -1) {
+                    // the partial line at the end of the buffer starts the next chunk
+                    byte[] nextBuffer = new byte[Math.max(chunkSize, length - lastLineBreak - 1)];
+                    System.arraycopy(buffer, lastLineBreak + 1, nextBuffer, 0, length - lastLineBreak - 1);
+                    setChunk(buffer, lastLineBreak + 1);
+                    buffer = nextBuffer;
+                    length -= chunkLength;
+                    return true;
+                }
+                // a line is longer than a chunk
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+
+            int numBytesRead = inputStream.read(buffer, length, buffer.length - length);
+            if (numBytesRead == -1)
+                reachedEndOfInput = true;
+            else
+                length += numBytesRead;
+        }
+
+        if (length == 0)
+            return false;
+        setChunk(buffer, length);
+        buffer = null;
+        length = 0;
+        return true;
+    }
+
+    byte[] getChunk() {
+        return chunk;
+    }
+
+    int getChunkLength() {
+        return chunkLength;
+    }
+
+    /**
+     * @return the index (starting from 0) in the file of the chunk's first line
+     */
+    int getChunkFirstLine() {
+        return chunkFirstLine;
+    }
+
+    /**
+     * @return the number of lines in all chunks read so far
+     */
+    int getNumLinesRead() {
+        return numLinesRead;
+    }
+
+    private void setChunk(byte[] chunk, int chunkLength) {
+        this.chunk = chunk;
+        this.chunkLength = chunkLength;
+        chunkFirstLine = numLinesRead;
+        numLinesRead += countLines(chunk, chunkLength);
+    }
+
+    private static int lastIndexOfLineBreak(byte[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '\n')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Counts lines the way BufferedReader.readLine() would, including a last line with no line
+     * break after it
+     */
+    private static int countLines(byte[] chunk, int length) {
+        int numLines = 0;
+        for (int i = 0; i < length; i++) {
+            if (chunk[i] == '\n')
+                numLines++;
+        }
+        if (chunk[length - 1] != '\n')
+            numLines++;
+        return numLines;
+    }
+}
@@ -0,0 +1,276 @@
+package parser;
+
+import exceptions.*;
+import expression.ExpressionEncoding;
+import expression.ExpressionMatrix;
+import expression.ExpressionMatrixBuilder;
+import expression.IsoformQuorum;
+import expression.MatrixLayout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streams a sparse Matrix Market (coordinate format) expression matrix straight into a sparse
+ * matrix, without ever holding the dense matrix. Only the matrix's nonzero entries are kept
+ *
+ * The matrix may be cells x isoforms or isoforms x cells (as single-cell pipelines usually
+ * write it); its orientation is worked out from its size. Real, integer and pattern matrices are
+ * supported, pattern entries get an expression of 1. Duplicate entries are added together
+ */
+class MatrixMarketParser extends ByteLineReader {
+    static final String MATRIX_MARKET_EXTENSION = ".mtx";
+    private static final String BANNER = "%%MatrixMarket";
+    private static final int MAX_NUM_FIELDS = 5;
+
+    private final int[] fieldStarts = new int[MAX_NUM_FIELDS];
+    private final int[] fieldEnds = new int[MAX_NUM_FIELDS];
+    private int numFields;
+
+    MatrixMarketParser(InputStream inputStream) {
+        super(inputStream);
+    }
+
+    static boolean isMatrixMarketFile(String pathToMatrix) {
+        String lowerCasePath = pathToMatrix.toLowerCase();
+        return lowerCasePath.endsWith(MATRIX_MARKET_EXTENSION) || lowerCasePath.endsWith(MATRIX_MARKET_EXTENSION + Parser.GZIP_EXTENSION);
+    }
+
+    /**
+     * Parses the matrix into one storing values in the given encoding, checking it has the given
+     * number of cells and isoforms. Isoforms that don't meet the quorum counter's quorum are left
+     * out of the parsed matrix. The matrix is laid out in the given layout, or in whichever
+     * takes less memory if it's null
+     * @throws RowLabelsLengthException neither of the matrix's dimensions is the number of cells
+     * @throws ColumnLabelsLengthException the matrix's other dimension isn't the number of isoforms
+     * @throws NegativeExpressionInMatrixException a negative expression value is found
+     * @throws MatrixMarketFormatException the file isn't a valid coordinate Matrix Market file
+     * @throws ExpressionEncodingException a value can't be stored in the given encoding
+     */
+    ExpressionMatrix parse(int numCells, int numIsoforms, ExpressionEncoding encoding, IsoformQuorum.Counter quorumCounter,
+                           MatrixLayout layout) throws IOException, RNAScoopException {
+        boolean isPattern = parseBanner();
+
+        if (!nextDataLine() || numFields != 3)
+            throw new MatrixMarketFormatException("should give the number of rows, columns and entries", getLineNumber());
+        int numRows = parseCount(0);
+        int numCols = parseCount(1);
+        long numEntries = parseCount(2);
+
+        boolean rowsAreCells;
+        if (numRows == numCells && numCols == numIsoforms)
+            rowsAreCells = true;
+        else if (numCols == numCells && numRows == numIsoforms)
+            rowsAreCells = false;
+        else if (numRows != numCells && numCols != numCells)
+            throw new RowLabelsLengthException();
+        else
+            throw new ColumnLabelsLengthException();
+        if (numEntries > Integer.MAX_VALUE - 8)
+            throw new MatrixMarketFormatException("has more entries than can be loaded", getLineNumber());
+
+        int[] cellNumbers = new int[(int) numEntries];
+        int[] isoformIndices = new int[(int) numEntries];
+        double[] values = new double[(int) numEntries];
+        int numEntriesRead = 0;
+        int numNonZeros = 0;
+        int numValueFields = isPattern ? 2 : 3;
+
+        while (nextDataLine()) {
+            if (numEntriesRead == numEntries)
+                throw new MatrixMarketFormatException("is an entry past the number of entries given in the header", getLineNumber());
+            if (numFields != numValueFields)
+                throw new MatrixMarketFormatException("should have " + numValueFields + " columns", getLineNumber());
+            int row = parseIndex(0, numRows);
+            int col = parseIndex(1, numCols);
+            double value = isPattern ? 1 : parseValue(2);
+            numEntriesRead++;
+
+            if (value < 0)
+                throw new NegativeExpressionInMatrixException();
+            if (value == 0)
+                continue;
+            cellNumbers[numNonZeros] = rowsAreCells ? row : col;
+            isoformIndices[numNonZeros] = rowsAreCells ? col : row;
+            values[numNonZeros] = value;
+            numNonZeros++;
+        }
+        if (numEntriesRead != numEntries)
+            throw new MatrixMarketFormatException("is the end of the file, but the header says there are " + numEntries + " entries", getLineNumber());
+
+        return buildMatrix(numCells, numIsoforms, encoding, quorumCounter, layout, cellNumbers, isoformIndices, values, numNonZeros);
+    }
+
+    /**
+     * Reads the header and up to the given number of entries into the given sample, so the
+     * matrix's storage can be planned before it's parsed. Explicit zeros are sampled as zeros
+     * @throws MatrixMarketFormatException the file isn't a valid coordinate Matrix Market file
+     */
+    void sample(StoragePlanner.Sample sample, int maxNumEntries) throws IOException, MatrixMarketFormatException {
+        boolean isPattern = parseBanner();
+        if (!nextDataLine() || numFields != 3)
+            throw new MatrixMarketFormatException("should give the number of rows, columns and entries", getLineNumber());
+        sample.setDimensions(parseCount(0), parseCount(1), parseCount(2));
+
+        int numValueFields = isPattern ? 2 : 3;
+        for (int i = 0; i < maxNumEntries && nextDataLine(); i++) {
+            if (numFields != numValueFields)
+                throw new MatrixMarketFormatException("should have " + numValueFields + " columns", getLineNumber());
+            sample.addValue(isPattern ? 1 : parseValue(2));
+        }
+    }
+
+    /**
+     * Checks the first line is a Matrix Market banner for a matrix this parser supports
+     *
+     * @return whether the matrix is a pattern matrix (entries have no values)
+     */
+    private boolean parseBanner() throws IOException, MatrixMarketFormatException {
+        if (!nextLine())
+            throw new MatrixMarketFormatException("should be a %%MatrixMarket header, but the file is empty", 1);
+        splitFields();
+        if (numFields != 5 || !fieldEquals(0, BANNER) || !fieldEquals(1, "matrix"))
+            throw new MatrixMarketFormatException("should be a %%MatrixMarket matrix header", getLineNumber());
+        if (!fieldEquals(2, "coordinate"))
+            throw new MatrixMarketFormatException("should say the matrix is in coordinate (sparse) format", getLineNumber());
+        if (!fieldEquals(4, "general"))
+            throw new MatrixMarketFormatException("should say the matrix is general (symmetric matrices are not supported)", getLineNumber());
+
+        if (fieldEquals(3, "pattern"))
+            return true;
+        if (fieldEquals(3, "real") || fieldEquals(3, "integer"))
+            return false;
+        throw new MatrixMarketFormatException("should say the matrix is real, integer or pattern", getLineNumber());
+    }
+
+    /**
+     * Moves to the next line that isn't blank or a comment, and splits it into fields
+     *
+     * @return false if there are no lines left
+     */
+    private boolean nextDataLine() throws IOException {
+        while (nextLine()) {
+            if (lineStart < lineEnd && buffer[lineStart] == '%')
+                continue;
+            splitFields();
+            if (numFields > 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Splits the current line on runs of spaces and tabs
+     */
+    private void splitFields() {
+        numFields = 0;
+        int i = lineStart;
+        while (i < lineEnd) {
+            while (i < lineEnd && isWhitespace(buffer[i]))
+                i++;
+            if (i == lineEnd)
+                break;
+            int fieldStart = i;
+            while (i < lineEnd && !isWhitespace(buffer[i]))
+                i++;
+            if (numFields < MAX_NUM_FIELDS) {
+                fieldStarts[numFields] = fieldStart;
+                fieldEnds[numFields] = i;
+            }
+            numFields++;
+        }
+    }
+
+    private boolean fieldEquals(int field, String value) {
+        String fieldValue = new String(buffer, fieldStarts[field], fieldEnds[field] - fieldStarts[field], StandardCharsets.ISO_8859_1);
+        return fieldValue.equalsIgnoreCase(value);
+    }
+
+    private int parseCount(int field) throws MatrixMarketFormatException {
+        long value = 0;
+        for (int i = fieldStarts[field]; i < fieldEnds[field]; i++) {
+            if (!isDigit(buffer[i]) || value > Integer.MAX_VALUE)
+                throw new MatrixMarketFormatException("has an invalid size", getLineNumber());
+            value = value * 10 + (buffer[i] - '0');
+        }
+        if (value > Integer.MAX_VALUE)
+            throw new MatrixMarketFormatException("has an invalid size", getLineNumber());
+        return (int) value;
+    }
+
+    /**
+     * @return the 0-based index in the given field, which is 1-based in the file
+     */
+    private int parseIndex(int field, int size) throws MatrixMarketFormatException {
+        long index = 0;
+        for (int i = fieldStarts[field]; i < fieldEnds[field]; i++) {
+            if (!isDigit(buffer[i]) || index > size)
+                throw new MatrixMarketFormatException("has an index that isn't between 1 and " + size, getLineNumber());
+            index = index * 10 + (buffer[i] - '0');
+        }
+        if (index < 1 || index > size)
+            throw new MatrixMarketFormatException("has an index that isn't between 1 and " + size, getLineNumber());
+        return (int) index - 1;
+    }
+
+    private double parseValue(int field) throws MatrixMarketFormatException {
+        try {
+            return NumericTokenizer.parseDouble(buffer, fieldStarts[field], fieldEnds[field]);
+        } catch (NumberFormatException e) {
+            throw new MatrixMarketFormatException("has a value that is not a number", getLineNumber());
+        }
+    }
+
+    /**
+     * Groups the entries by cell (counting sort), then sorts each cell's entries by isoform
+     */
+    private static ExpressionMatrix buildMatrix(int numCells, int numIsoforms, ExpressionEncoding encoding, IsoformQuorum.Counter quorumCounter,
+                                                MatrixLayout layout, int[] cellNumbers, int[] isoformIndices, double[] values,
+                                                int numNonZeros) throws ExpressionEncodingException {
+        int[] cellStarts = new int[numCells + 1];
+        for (int i = 0; i < numNonZeros; i++)
+            cellStarts[cellNumbers[i] + 1]++;
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++)
+            cellStarts[cellNumber + 1] += cellStarts[cellNumber];
+
+        int[] order = new int[numNonZeros];
+        int[] nextPositions = Arrays.copyOf(cellStarts, numCells);
+        for (int i = 0; i < numNonZeros; i++)
+            order[nextPositions[cellNumbers[i]]++] = i;
+
+        ExpressionMatrixBuilder matrixBuilder = new ExpressionMatrixBuilder(numCells, numIsoforms, encoding, quorumCounter, layout);
+        for (int cellNumber = 0; cellNumber < numCells; cellNumber++) {
+            int start = cellStarts[cellNumber];
+            int numCellEntries = cellStarts[cellNumber + 1] - start;
+
+            // isoform index in the high bits, entry in the low bits, so sorting sorts by isoform
+            long[] entries = new long[numCellEntries];
+            for (int i = 0; i < numCellEntries; i++)
+                entries[i] = ((long) isoformIndices[order[start + i]] << 32) | order[start + i];
+            Arrays.sort(entries);
+
+            int[] cellIsoformIndices = new int[numCellEntries];
+            double[] cellValues = new double[numCellEntries];
+            int numCellNonZeros = 0;
+            for (long entry : entries) {
+                int isoformIndex = (int) (entry >>> 32);
+                double value = values[(int) entry];
+                if (numCellNonZeros > 0 && cellIsoformIndices[numCellNonZeros - 1] == isoformIndex) {
+                    cellValues[numCellNonZeros - 1] += value;
+                } else {
+                    cellIsoformIndices[numCellNonZeros] = isoformIndex;
+                    cellValues[numCellNonZeros] = value;
+                    numCellNonZeros++;
+                }
+            }
+            if (numCellNonZeros < numCellEntries) {
+                cellIsoformIndices = Arrays.copyOf(cellIsoformIndices, numCellNonZeros);
+                cellValues = Arrays.copyOf(cellValues, numCellNonZeros);
+            }
+            matrixBuilder.setCellExpression(cellNumber, cellIsoformIndices, cellValues);
+        }
+        return matrixBuilder.build();
+    }
+}
@@ -0,0 +1,170 @@
+package parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads delimiter-separated numbers a line at a time straight from bytes, without creating a
+ * String per line or per value
+ *
+ * Values are split the way String.split() splits them: empty values at the end of a line are
+ * ignored. Decimal and scientific notation values are parsed directly; anything else (e.g.
+ * "NaN", hexadecimal) is handed to Double.parseDouble(), so results are always the same as
+ * Double.parseDouble() would give
+ */
+class NumericTokenizer extends ByteLineReader {
+    // largest mantissa that a double represents exactly
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private String invalidValue;
+
+    NumericTokenizer(InputStream inputStream) {
+        super(inputStream);
+    }
+
+    /**
+     * Tokenizes bytes[offset, offset + length), which start at the line with the given number
+     */
+    NumericTokenizer(byte[] bytes, int offset, int length, int firstLineNumber) {
+        super(bytes, offset, length, firstLineNumber);
+    }
+
+    @Override
+    boolean nextLine() throws IOException {
+        invalidValue = null;
+        return super.nextLine();
+    }
+
+    /**
+     * Parses the values in the current line into the given array. If the line has more values
+     * than fit in the array, the extra values are counted but not parsed. If a value is not a
+     * number, the remaining values are still counted, and the invalid value can be retrieved
+     * with getInvalidValue()
+     *
+     * @return the number of values in the line
+     */
+    int parseLine(byte delimiter, double[] values) {
+        int end = lineEnd;
+        // empty values at the end of a line are ignored
+        while (end > lineStart && buffer[end - 1] == delimiter)
+            end--;
+        if (end == lineStart) {
+            // like String.split(), an empty line has one empty value, but a line of only
+            // delimiters has none
+            if (lineEnd > lineStart)
+                return 0;
+            if (values.length > 0 && invalidValue == null)
+                parseValue(lineStart, lineStart, values, 0);
+            return 1;
+        }
+
+        int numValues = 0;
+        int valueStart = lineStart;
+        for (int i = lineStart; i <= end; i++) {
+            if (i == end || buffer[i] == delimiter) {
+                if (numValues < values.length && invalidValue == null)
+                    parseValue(valueStart, i, values, numValues);
+                numValues++;
+                valueStart = i + 1;
+            }
+        }
+        return numValues;
+    }
+
+    /**
+     * @return the first value in the current line that is not a number, or null if there isn't one
+     */
+    String getInvalidValue() {
+        return invalidValue;
+    }
+
+    private void parseValue(int start, int end, double[] values, int index) {
+        try {
+            values[index] = parseDouble(buffer, start, end);
+        } catch (NumberFormatException e) {
+            invalidValue = new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Parses bytes[start, end) as a double, giving the same result as Double.parseDouble()
+     */
+    static double parseDouble(byte[] bytes, int start, int end) {
+        int i = start;
+        // Double.parseDouble() ignores leading and trailing whitespace
+        while (i < end && bytes[i] <= ' ')
+            i++;
+        while (end > i && bytes[end - 1] <= ' ')
+            end--;
+
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int numDigits = 0;
+        int exponent = 0;
+        boolean mantissaOverflow = false;
+
+        for (; i < end && isDigit(bytes[i]); i++, numDigits++) {
+            if (mantissa < MAX_EXACT_MANTISSA / 10)
+                mantissa = mantissa * 10 + (bytes[i] - '0');
+            else
+                mantissaOverflow = true;
+        }
+        if (i < end && bytes[i] == '.') {
+            for (i++; i < end && isDigit(bytes[i]); i++, numDigits++) {
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (bytes[i] - '0');
+                    exponent--;
+                } else {
+                    mantissaOverflow = true;
+                }
+            }
+        }
+        if (numDigits > 0 && i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            int exponentStart = ++i;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                exponentStart = ++i;
+            }
+            int explicitExponent = 0;
+            for (; i < end && isDigit(bytes[i]); i++) {
+                if (explicitExponent < 100000)
+                    explicitExponent = explicitExponent * 10 + (bytes[i] - '0');
+            }
+            if (i == exponentStart)
+                return parseDoubleSlowly(bytes, start, end);
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        if (numDigits == 0 || i != end || mantissaOverflow)
+            return parseDoubleSlowly(bytes, start, end);
+
+        // mantissa and power of ten are both exact, so one multiplication or division is
+        // correctly rounded
+        double value;
+        if (mantissa == 0)
+            value = 0;
+        else if (exponent >= 0 && exponent < POWERS_OF_TEN.length)
+            value = mantissa * POWERS_OF_TEN[exponent];
+        else if (exponent < 0 && -exponent < POWERS_OF_TEN.length)
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        else
+            return parseDoubleSlowly(bytes, start, end);
+        return negative ? -value : value;
+    }
+
+    private static double parseDoubleSlowly(byte[] bytes, int start, int end) {
+        return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+    }
+
+}
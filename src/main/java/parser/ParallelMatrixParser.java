@@ -0,0 +1,182 @@
+package parser;
+
+import exceptions.ColumnLabelsLengthException;
+import exceptions.ExpressionEncodingException;
+import exceptions.MatrixNotNumberException;
+import exceptions.NegativeExpressionInMatrixException;
+import exceptions.RowLabelsLengthException;
+import expression.ExpressionEncoding;
+import expression.ExpressionMatrix;
+import expression.ExpressionMatrixBuilder;
+import expression.IsoformQuorum;
+import expression.MatrixLayout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Parses an expression matrix text file using all available cores. The calling thread
+ * reads the file and splits it into chunks that end on line breaks, counting the lines in
+ * each chunk so every chunk knows which rows it holds. A pool of workers tokenizes the chunks'
+ * bytes directly into their rows of the matrix
+ */
+class ParallelMatrixParser {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int NUM_WORKERS = Runtime.getRuntime().availableProcessors();
+    // max number of chunks read but not yet parsed, limits memory used by the reader
+    private static final int MAX_PENDING_CHUNKS = NUM_WORKERS * 2;
+
+    private final int numRows;
+    private final int numCols;
+    private final byte columnDelimiter;
+    private final ExpressionMatrixBuilder matrixBuilder;
+    private final Semaphore pendingChunks;
+    private final AtomicBoolean failed;
+
+    /**
+     * @param quorumCounter counts the cells each isoform (column) is expressed in. Columns that
+     *                      don't meet its quorum are left out of the parsed matrix
+     * @param layout layout of the parsed matrix, or null for whichever takes less memory
+     */
+    ParallelMatrixParser(char columnDelimiter, int numRows, int numCols, ExpressionEncoding encoding, IsoformQuorum.Counter quorumCounter,
+                         MatrixLayout layout) {
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.columnDelimiter = (byte) columnDelimiter;
+        matrixBuilder = new ExpressionMatrixBuilder(numRows, numCols, encoding, quorumCounter, layout);
+        pendingChunks = new Semaphore(MAX_PENDING_CHUNKS);
+        failed = new AtomicBoolean(false);
+    }
+
+    /**
+     * Parses the matrix in the given stream. Errors are reported exactly as if the file had
+     * been parsed a line at a time: if several rows are invalid, the exception for the first
+     * one is thrown
+     * @throws NegativeExpressionInMatrixException a negative expression value is found
+     * @throws ColumnLabelsLengthException unexpected number of columns in input matrix
+     * @throws RowLabelsLengthException unexpected number of rows in input matrix
+     * @throws MatrixNotNumberException a value in the matrix is not a number
+     * @throws ExpressionEncodingException a value can't be stored in the matrix's encoding
+     */
+    ExpressionMatrix parse(InputStream matrixStream) throws IOException, NegativeExpressionInMatrixException, ColumnLabelsLengthException, RowLabelsLengthException, MatrixNotNumberException, ExpressionEncodingException {
+        ExecutorService workers = Executors.newFixedThreadPool(NUM_WORKERS, runnable -> {
+            Thread thread = new Thread(runnable, "Matrix Parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            // futures are in row order, so the first one to fail holds the first invalid row
+            List<Future<?>> chunkFutures = new ArrayList<>();
+            int numLinesRead = readChunks(matrixStream, workers, chunkFutures);
+
+            for (Future<?> chunkFuture : chunkFutures)
+                waitForChunk(chunkFuture);
+
+            if (numLinesRead < numRows) {
+                // too few rows
+                throw new RowLabelsLengthException();
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        return matrixBuilder.build();
+    }
+
+    /**
+     * Reads the stream into line-aligned chunks and hands them to the workers. Stops once the line
+     * after the last row has been read, as nothing after it is looked at
+     *
+     * @return the number of lines read
+     */
+    private int readChunks(InputStream matrixStream, ExecutorService workers, List<Future<?>> chunkFutures) throws IOException {
+        LineChunkReader chunkReader = new LineChunkReader(matrixStream, CHUNK_SIZE);
+
+        while (chunkReader.getNumLinesRead() <= numRows && !failed.get() && chunkReader.nextChunk())
+            submitChunk(chunkReader.getChunk(), chunkReader.getChunkLength(), chunkReader.getChunkFirstLine(), workers, chunkFutures);
+        return chunkReader.getNumLinesRead();
+    }
+
+    private void submitChunk(byte[] chunk, int length, int firstRow, ExecutorService workers, List<Future<?>> chunkFutures) {
+        try {
+            pendingChunks.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        chunkFutures.add(workers.submit(() -> {
+            try {
+                parseChunk(chunk, length, firstRow);
+            } catch (Exception e) {
+                failed.set(true);
+                throw e;
+            } finally {
+                pendingChunks.release();
+            }
+            return null;
+        }));
+    }
+
+    private void parseChunk(byte[] chunk, int length, int firstRow) throws IOException, NegativeExpressionInMatrixException, ColumnLabelsLengthException, RowLabelsLengthException, MatrixNotNumberException, ExpressionEncodingException {
+        NumericTokenizer tokenizer = new NumericTokenizer(chunk, 0, length, firstRow + 1);
+        double[] row = new double[numCols];
+
+        for (int rowNumber = firstRow; rowNumber <= numRows && tokenizer.nextLine(); rowNumber++) {
+            if (rowNumber < numRows) {
+                parseRow(tokenizer, row);
+                // the builder only keeps the nonzero values, so the row array can be reused
+                matrixBuilder.setCellExpression(rowNumber, row);
+            } else if (!tokenizer.isBlankLine()) {
+                // too many rows
+                throw new RowLabelsLengthException();
+            }
+        }
+    }
+
+    private void parseRow(NumericTokenizer tokenizer, double[] row) throws NegativeExpressionInMatrixException, ColumnLabelsLengthException, MatrixNotNumberException {
+        int numValues = tokenizer.parseLine(columnDelimiter, row);
+
+        if (tokenizer.getInvalidValue() != null)
+            throw new MatrixNotNumberException(tokenizer.getInvalidValue(), tokenizer.getLineNumber());
+
+        if (numValues != numCols) {
+            // unexpected number of columns
+            throw new ColumnLabelsLengthException();
+        }
+
+        for (double d : row) {
+            if (d < 0) {
+                throw new NegativeExpressionInMatrixException();
+            }
+        }
+    }
+
+    private static void waitForChunk(Future<?> chunkFuture) throws NegativeExpressionInMatrixException, ColumnLabelsLengthException, RowLabelsLengthException, MatrixNotNumberException, ExpressionEncodingException {
+        try {
+            chunkFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof NegativeExpressionInMatrixException)
+                throw (NegativeExpressionInMatrixException) cause;
+            if (cause instanceof ColumnLabelsLengthException)
+                throw (ColumnLabelsLengthException) cause;
+            if (cause instanceof RowLabelsLengthException)
+                throw (RowLabelsLengthException) cause;
+            if (cause instanceof MatrixNotNumberException)
+                throw (MatrixNotNumberException) cause;
+            if (cause instanceof ExpressionEncodingException)
+                throw (ExpressionEncodingException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
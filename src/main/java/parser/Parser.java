@@ -1,13 +1,12 @@
 package parser;
 
-import annotation.Exon;
 import annotation.Gene;
-import annotation.Isoform;
 import exceptions.*;
+import expression.*;
 import javafx.application.Platform;
-import labelset.Cluster;
 import labelset.LabelSet;
 import mediator.ControllerMediator;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import persistence.CurrentSession;
 import persistence.SessionIO;
@@ -17,16 +16,18 @@ import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.GZIPInputStream;
 
 import static javafx.application.Platform.isFxApplicationThread;
 import static javafx.application.Platform.runLater;
 
 public class Parser {
-    private static final String GZIP_EXTENSION = ".gz";
+    static final String GZIP_EXTENSION = ".gz";
+    // matrix layout that lets the storage planner pick the layout
+    private static final String AUTO_MATRIX_LAYOUT = "auto";
 
     /**
      * Reads in JSON file at given path. File specifies paths to the
@@ -34,7 +35,6 @@ public class Parser {
      */
     public static boolean loadJSONFile(String pathToPaths)  {
         try {
-            clearCurrentSessionData();
             runLater(() ->  ControllerMediator.getInstance().addConsoleMessage("Loading file from path: " + pathToPaths));
             Path jsonPath = Paths.get(pathToPaths);
             byte[] encoded = Files.readAllBytes(jsonPath);
@@ -45,7 +45,12 @@ public class Parser {
             JSONObject jsonObj = new JSONObject(pathsString);
             String gtf = resolveRelativePath((String) jsonObj.get(SessionMaker.GTF_PATH_KEY), jsonParent);
             String matrix = resolveRelativePath((String) jsonObj.get(SessionMaker.MATRIX_PATH_KEY), jsonParent);
-            String isoformLabels = resolveRelativePath((String) jsonObj.get(SessionMaker.ISOFORM_LABELS_PATH_KEY), jsonParent);
+            // an AnnData file has its own isoform IDs and label sets, so they don't have to be given
+            // (nor do the isoform IDs of a dense Arrow matrix, which are its column names)
+            String isoformLabels = null;
+            if (jsonObj.has(SessionMaker.ISOFORM_LABELS_PATH_KEY) || !holdsIsoformIDs(matrix)) {
+                isoformLabels = resolveRelativePath((String) jsonObj.get(SessionMaker.ISOFORM_LABELS_PATH_KEY), jsonParent);
+            }
 
             String embedding = null;
             if (jsonObj.has(SessionMaker.EMBEDDING_PATH_KEY)) {
@@ -53,13 +58,20 @@ public class Parser {
             }
 
             Map<String, String> labelSets = new HashMap<>();
-            JSONObject labelSetsJSONObject = jsonObj.getJSONObject(SessionMaker.CELL_LABELS_PATH_KEY);
-            for (String labelSetName : labelSetsJSONObject.keySet())
+            if (jsonObj.has(SessionMaker.CELL_LABELS_PATH_KEY) || !isAnnDataFile(matrix)) {
+                JSONObject labelSetsJSONObject = jsonObj.getJSONObject(SessionMaker.CELL_LABELS_PATH_KEY);
+                for (String labelSetName : labelSetsJSONObject.keySet())
                     labelSets.put(labelSetName, resolveRelativePath(labelSetsJSONObject.getString(labelSetName), jsonParent));
+            }
 
             String expressionUnit = (jsonObj.has(SessionMaker.EXPRESSION_UNIT_KEY))? jsonObj.getString(SessionMaker.EXPRESSION_UNIT_KEY) : null;
+            ExpressionEncoding expressionEncoding = getExpressionEncoding(jsonObj);
+            MatrixLayout matrixLayout = getMatrixLayout(jsonObj);
+            boolean labelledIsoformsOnly = jsonObj.optBoolean(SessionMaker.LABELLED_ISOFORMS_ONLY_KEY, false);
+            IsoformQuorum isoformQuorum = getIsoformQuorum(jsonObj);
 
-            loadDatasetFiles(gtf, matrix, isoformLabels, embedding, labelSets, expressionUnit);
+            loadDatasetFiles(gtf, matrix, isoformLabels, embedding, labelSets, expressionUnit, expressionEncoding, matrixLayout, labelledIsoformsOnly,
+                             isoformQuorum);
             runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Successfully loaded file from path: " + pathToPaths));
             return true;
         } catch (RNAScoopException e){
@@ -74,11 +86,11 @@ public class Parser {
     }
 
     public static boolean loadDatasetFromIndividualPaths(String gtf, String matrix, String isoformLabels, String embedding,
-                                                         Map<String, String> labelSets, String expressionUnit)  {
+                                                         Map<String, String> labelSets, String expressionUnit, boolean labelledIsoformsOnly,
+                                                         IsoformQuorum isoformQuorum)  {
         try {
-            Parser.clearCurrentSessionData();
             runLater(() ->  ControllerMediator.getInstance().addConsoleMessage("Loading dataset"));
-            loadDatasetFiles(gtf, matrix, isoformLabels, embedding, labelSets, expressionUnit);
+            loadDatasetFiles(gtf, matrix, isoformLabels, embedding, labelSets, expressionUnit, null, null, labelledIsoformsOnly, isoformQuorum);
             runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Successfully loaded dataset"));
             return true;
         } catch (RNAScoopException e){
@@ -96,17 +108,29 @@ public class Parser {
         try {
             String gtf = prevSession.getString(SessionMaker.GTF_PATH_KEY);
             String matrix = prevSession.getString(SessionMaker.MATRIX_PATH_KEY);
-            String isoformLabels = prevSession.getString(SessionMaker.ISOFORM_LABELS_PATH_KEY);
-            Map<String, String> labelSets = (Map<String, String>)(Map<String, ?>) prevSession.getJSONObject(SessionMaker.CELL_LABELS_PATH_KEY).toMap();
+            String isoformLabels = (prevSession.has(SessionMaker.ISOFORM_LABELS_PATH_KEY) || !holdsIsoformIDs(matrix))? prevSession.getString(SessionMaker.ISOFORM_LABELS_PATH_KEY) : null;
+            Map<String, String> labelSets = (prevSession.has(SessionMaker.CELL_LABELS_PATH_KEY) || !isAnnDataFile(matrix))?
+                    (Map<String, String>)(Map<String, ?>) prevSession.getJSONObject(SessionMaker.CELL_LABELS_PATH_KEY).toMap() : new HashMap<>();
             String embedding = (prevSession.has(SessionMaker.EMBEDDING_PATH_KEY))? prevSession.getString(SessionMaker.EMBEDDING_PATH_KEY) : null;
             String expressionUnit = (prevSession.has(SessionMaker.EXPRESSION_UNIT_KEY))? prevSession.getString(SessionMaker.EXPRESSION_UNIT_KEY) : null;
-
-            runLater(() ->  ControllerMediator.getInstance().addConsoleMessage("Parsing previous session GTF file..."));
-            GTFLoader.loadGTF(gtf);
-            runLater(() ->  ControllerMediator.getInstance().addConsoleMessage("Parsing previous session matrix files..."));
-            Map<LabelSet, String> labelSetPathMap = CellPlotInfoLoader.loadCellPlotInfo(matrix, isoformLabels, labelSets, embedding);
+            ExpressionEncoding expressionEncoding = getExpressionEncoding(prevSession);
+            MatrixLayout matrixLayout = getMatrixLayout(prevSession);
+            boolean labelledIsoformsOnly = prevSession.optBoolean(SessionMaker.LABELLED_ISOFORMS_ONLY_KEY, false);
+            IsoformQuorum isoformQuorum = getIsoformQuorum(prevSession);
+            List<CellBatch> appendedCellBatches = getAppendedCellBatches(prevSession);
+
+            runLater(() ->  ControllerMediator.getInstance().addConsoleMessage("Parsing previous session GTF and matrix files..."));
+            FileFingerprint[] fileFingerprints = getFileFingerprints(gtf, matrix, isoformLabels, embedding);
+            Map<LabelSet, String> labelSetPathMap = loadDataset(gtf, matrix, isoformLabels, embedding, labelSets, expressionEncoding, matrixLayout,
+                                                                labelledIsoformsOnly, isoformQuorum, appendedCellBatches, ReusableDatasetData.NONE);
             ControllerMediator.getInstance().setExpressionUnit(expressionUnit);
             CurrentSession.saveLoadedPaths(gtf, matrix, isoformLabels, labelSetPathMap, embedding);
+            CurrentSession.saveExpressionEncoding(expressionEncoding);
+            CurrentSession.saveMatrixLayout(matrixLayout);
+            CurrentSession.saveLabelledIsoformsOnly(labelledIsoformsOnly);
+            CurrentSession.saveIsoformQuorum(isoformQuorum);
+            CurrentSession.saveAppendedCellBatches(appendedCellBatches);
+            saveFileFingerprints(fileFingerprints);
             runLater(() ->  ControllerMediator.getInstance().addConsoleMessage("Finished parsing previous session dataset files"));
             return true;
         } catch (RNAScoopException e){
@@ -120,6 +144,48 @@ public class Parser {
         }
     }
 
+    /**
+     * Reads the batch of cells described by the JSON file at the given path and appends it to the
+     * loaded dataset. The file gives the paths to the batch's matrix and isoform IDs, to the
+     * labels of its cells for each loaded label set, and optionally to their embedding. Only the
+     * batch is read: the cells already loaded, the GTF and the label set files aren't re-read
+     */
+    public static boolean appendCellsFromJSONFile(String pathToBatch) {
+        try {
+            if (CurrentSession.getMatrixPath() == null)
+                throw new AppendCellsWithoutDatasetException();
+            runLater(() ->  ControllerMediator.getInstance().addConsoleMessage("Appending cells from path: " + pathToBatch));
+            Path jsonPath = Paths.get(pathToBatch);
+            byte[] encoded = Files.readAllBytes(jsonPath);
+            String pathsString = new String(encoded, Charset.defaultCharset());
+
+            // resolve relative paths in JSON
+            String jsonParent = jsonPath.toAbsolutePath().getParent().toString();
+            JSONObject jsonObj = new JSONObject(pathsString);
+            String matrix = resolveRelativePath((String) jsonObj.get(SessionMaker.MATRIX_PATH_KEY), jsonParent);
+            String isoformLabels = resolveRelativePath((String) jsonObj.get(SessionMaker.ISOFORM_LABELS_PATH_KEY), jsonParent);
+            String embedding = null;
+            if (jsonObj.has(SessionMaker.EMBEDDING_PATH_KEY))
+                embedding = resolveRelativePath((String) jsonObj.get(SessionMaker.EMBEDDING_PATH_KEY), jsonParent);
+            Map<String, String> labelSets = new HashMap<>();
+            if (jsonObj.has(SessionMaker.CELL_LABELS_PATH_KEY)) {
+                JSONObject labelSetsJSONObject = jsonObj.getJSONObject(SessionMaker.CELL_LABELS_PATH_KEY);
+                for (String labelSetName : labelSetsJSONObject.keySet())
+                    labelSets.put(labelSetName, resolveRelativePath(labelSetsJSONObject.getString(labelSetName), jsonParent));
+            }
+
+            appendCells(matrix, isoformLabels, labelSets, embedding);
+            runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Successfully appended cells from path: " + pathToBatch));
+            return true;
+        } catch (RNAScoopException e){
+            runLater(() -> ControllerMediator.getInstance().addConsoleErrorMessage(e.getMessage()));
+            return false;
+        } catch (Exception e) {
+            runLater(() -> ControllerMediator.getInstance().addConsoleUnexpectedExceptionMessage(e));
+            return false;
+        }
+    }
+
     /**
      * Assumes cell plot info (like expression matrix) has already been loaded
      */
@@ -134,6 +200,8 @@ public class Parser {
             } else {
                 ControllerMediator.getInstance().addConsoleErrorMessage("Uploaded label set does not have the same number of cells as the expression matrix");
             }
+        } catch (RNAScoopException e) {
+            ControllerMediator.getInstance().addConsoleErrorMessage(e.getMessage());
         } catch (IOException e) {
             ControllerMediator.getInstance().addConsoleUnexpectedExceptionMessage(e);
         }
@@ -141,33 +209,41 @@ public class Parser {
     }
 
     /**
-     * Creates a label set from given label set file. Label set is made based on map of cells
-     * (represented by their numbers) and the clusters they belong to.
+     * Creates a label set from given label set file. Label set is made based on the code of
+     * the cluster each cell (represented by its number) belongs to. Clusters get codes in the
+     * order their labels first appear in the file.
      * If the first line of the cell labels file says "T Cells", the cell represented by the first
-     * row of the matrix should be in the cluster labelled "T Cells". The map from which the
-     * label set is produced will map 0 to a cluster with label "T Cells"
+     * row of the matrix should be in the cluster labelled "T Cells". The label set's cell 0 will
+     * have the code of the cluster with label "T Cells"
+     *
+     * Arrow files are read by ArrowLoader, from the column named after the label set (or their
+     * first string column)
      */
-    public static LabelSet getLabelSet(File labelSetFile, String labelSetName) throws IOException {
-        Map<Integer, Cluster> cellNumberClusterMap = new LinkedHashMap<>();
-        Map<String, Cluster> clusterMap = new HashMap<>();
+    public static LabelSet getLabelSet(File labelSetFile, String labelSetName) throws IOException, RNAScoopException {
+        if (ArrowLoader.isArrowFile(labelSetFile.getName()))
+            return new ArrowLoader(labelSetFile.getPath()).getLabelSet(labelSetName);
 
-        String currentLabel;
-        Cluster cluster;
-        int cellNumber = 0;
+        Map<String, Integer> clusterCodes = new HashMap<>();
+        List<String> clusterNames = new ArrayList<>();
+        int[] cellClusterCodes = new int[1024];
+        int numCells = 0;
 
-        BufferedReader reader= new BufferedReader(new FileReader(labelSetFile));
-        while ((currentLabel = reader.readLine()) != null) {
-            if (clusterMap.containsKey(currentLabel)) {
-                cluster = clusterMap.get(currentLabel);
-            } else {
-                cluster = new Cluster(currentLabel);
-                clusterMap.put(currentLabel, cluster);
+        String currentLabel;
+        try (BufferedReader reader = new BufferedReader(new FileReader(labelSetFile))) {
+            while ((currentLabel = reader.readLine()) != null) {
+                Integer code = clusterCodes.get(currentLabel);
+                if (code == null) {
+                    code = clusterNames.size();
+                    clusterCodes.put(currentLabel, code);
+                    clusterNames.add(currentLabel);
+                }
+                if (numCells == cellClusterCodes.length)
+                    cellClusterCodes = Arrays.copyOf(cellClusterCodes, numCells * 2);
+                cellClusterCodes[numCells++] = code;
             }
-            cellNumberClusterMap.put(cellNumber, cluster);
-            cellNumber++;
         }
 
-        return new LabelSet(cellNumberClusterMap, labelSetName);
+        return new LabelSet(Arrays.copyOf(cellClusterCodes, numCells), clusterNames, labelSetName);
     }
 
     public static Set<String> loadGeneSelectionFile(File geneSelectionFile) {
@@ -198,14 +274,210 @@ public class Parser {
         while (!clearedData.get());
     }
 
-    private static void loadDatasetFiles(String gtf, String matrix, String isoformLabels, String embedding,
-                                         Map<String, String> labelSets, String expressionUnit) throws IOException, RNAScoopException {
-        runLater(() ->  ControllerMediator.getInstance().addConsoleMessage("Parsing GTF file..."));
-        GTFLoader.loadGTF(gtf);
-        runLater(() ->  ControllerMediator.getInstance().addConsoleMessage("Parsing matrix files..."));
-        Map<LabelSet, String> labelSetPathMap = CellPlotInfoLoader.loadCellPlotInfo(matrix, isoformLabels, labelSets, embedding);
+    /**
+     * Whether the matrix at the given path is an AnnData (.h5ad) file, which also holds the
+     * dataset's isoform IDs, label sets and embedding
+     */
+    public static boolean isAnnDataFile(String pathToMatrix) {
+        return AnnDataLoader.isAnnDataFile(pathToMatrix);
+    }
+
+    /**
+     * Whether the matrix at the given path can hold the dataset's isoform IDs, so an isoform IDs
+     * file doesn't have to be given: AnnData files, and Arrow files (if their matrix is dense)
+     */
+    public static boolean holdsIsoformIDs(String pathToMatrix) {
+        return AnnDataLoader.isAnnDataFile(pathToMatrix) || ArrowLoader.isArrowFile(pathToMatrix);
+    }
+
+    private static void loadDatasetFiles(String gtf, String matrix, String isoformLabels, String embedding, Map<String, String> labelSets,
+                                         String expressionUnit, ExpressionEncoding expressionEncoding, MatrixLayout matrixLayout,
+                                         boolean labelledIsoformsOnly, IsoformQuorum isoformQuorum) throws IOException, RNAScoopException {
+        // the loaded data is cleared once what can be reused has been collected from it
+        ReusableDatasetData reusableData = ReusableDatasetData.collect(gtf, matrix, isoformLabels, embedding, expressionEncoding, matrixLayout,
+                                                                       labelledIsoformsOnly, isoformQuorum);
+        clearCurrentSessionData();
+        runLater(() ->  ControllerMediator.getInstance().addConsoleMessage("Parsing GTF and matrix files..."));
+        FileFingerprint[] fileFingerprints = getFileFingerprints(gtf, matrix, isoformLabels, embedding);
+        Map<LabelSet, String> labelSetPathMap = loadDataset(gtf, matrix, isoformLabels, embedding, labelSets, expressionEncoding, matrixLayout,
+                                                            labelledIsoformsOnly, isoformQuorum, new ArrayList<>(), reusableData);
         if (expressionUnit != null && !expressionUnit.equals("")) ControllerMediator.getInstance().setExpressionUnit(expressionUnit);
         CurrentSession.saveLoadedPaths(gtf, matrix, isoformLabels, labelSetPathMap, embedding);
+        CurrentSession.saveExpressionEncoding(expressionEncoding);
+        CurrentSession.saveMatrixLayout(matrixLayout);
+        CurrentSession.saveLabelledIsoformsOnly(labelledIsoformsOnly);
+        CurrentSession.saveIsoformQuorum(isoformQuorum);
+        saveFileFingerprints(fileFingerprints);
+    }
+
+    /**
+     * Returns fingerprints of the given GTF, matrix, isoform IDs and embedding files. They're
+     * taken before the files are read, so a file changed while it's read isn't taken to be the
+     * version that was read
+     */
+    private static FileFingerprint[] getFileFingerprints(String gtf, String matrix, String isoformLabels, String embedding) {
+        return new FileFingerprint[] {FileFingerprint.of(gtf), FileFingerprint.of(matrix), FileFingerprint.of(isoformLabels), FileFingerprint.of(embedding)};
+    }
+
+    private static void saveFileFingerprints(FileFingerprint[] fileFingerprints) {
+        CurrentSession.saveFileFingerprints(fileFingerprints[0], fileFingerprints[1], fileFingerprints[2], fileFingerprints[3]);
+    }
+
+    /**
+     * Returns the expression encoding given in the dataset JSON or session, null if none is given
+     * (so the storage planner picks one)
+     * @throws ExpressionEncodingException the encoding given isn't one of the expression encodings
+     */
+    private static ExpressionEncoding getExpressionEncoding(JSONObject jsonObj) throws ExpressionEncodingException {
+        if (!jsonObj.has(SessionMaker.EXPRESSION_ENCODING_KEY))
+            return null;
+
+        String encodingName = jsonObj.getString(SessionMaker.EXPRESSION_ENCODING_KEY);
+        ExpressionEncoding expressionEncoding = ExpressionEncoding.fromName(encodingName);
+        if (expressionEncoding == null)
+            throw new ExpressionEncodingException(encodingName);
+        return expressionEncoding;
+    }
+
+    /**
+     * Returns the matrix layout given in the dataset JSON or session, null if none is given or it
+     * is "auto" (so the storage planner picks one)
+     * @throws MatrixLayoutException the layout given isn't auto or one of the matrix layouts
+     */
+    private static MatrixLayout getMatrixLayout(JSONObject jsonObj) throws MatrixLayoutException {
+        String layoutName = jsonObj.optString(SessionMaker.MATRIX_LAYOUT_KEY, AUTO_MATRIX_LAYOUT);
+        if (layoutName.equalsIgnoreCase(AUTO_MATRIX_LAYOUT))
+            return null;
+
+        MatrixLayout matrixLayout = MatrixLayout.fromName(layoutName);
+        if (matrixLayout == null)
+            throw new MatrixLayoutException(layoutName);
+        return matrixLayout;
+    }
+
+    /**
+     * Returns the quorum isoforms must meet to be loaded, as given in the dataset JSON or session
+     * (no quorum if none is given)
+     * @throws InvalidIsoformQuorumException the min expression or min cells given is negative
+     */
+    private static IsoformQuorum getIsoformQuorum(JSONObject jsonObj) throws InvalidIsoformQuorumException {
+        if (!jsonObj.has(SessionMaker.MIN_ISOFORM_CELLS_KEY))
+            return IsoformQuorum.NONE;
+
+        double minExpression = jsonObj.optDouble(SessionMaker.MIN_ISOFORM_EXPRESSION_KEY, 0);
+        int minCells = jsonObj.getInt(SessionMaker.MIN_ISOFORM_CELLS_KEY);
+        if (!(minExpression >= 0) || minCells < 0)
+            throw new InvalidIsoformQuorumException();
+        return new IsoformQuorum(minExpression, minCells);
+    }
+
+    /**
+     * Returns the batches of cells that were appended to the session's dataset, in the order they
+     * were appended
+     */
+    private static List<CellBatch> getAppendedCellBatches(JSONObject prevSession) {
+        List<CellBatch> appendedCellBatches = new ArrayList<>();
+        JSONArray appendedCellBatchesJSONArray = prevSession.optJSONArray(SessionMaker.APPENDED_CELLS_KEY);
+        if (appendedCellBatchesJSONArray != null) {
+            for (int i = 0; i < appendedCellBatchesJSONArray.length(); i++) {
+                JSONObject appendedCellBatch = appendedCellBatchesJSONArray.getJSONObject(i);
+                appendedCellBatches.add(new CellBatch(appendedCellBatch.getString(SessionMaker.MATRIX_PATH_KEY),
+                                                      appendedCellBatch.getString(SessionMaker.ISOFORM_LABELS_PATH_KEY),
+                                                      appendedCellBatch.getInt(SessionMaker.NUM_CELLS_KEY)));
+            }
+        }
+        return appendedCellBatches;
+    }
+
+    /**
+     * Reads a batch of cells and appends it to the loaded dataset (the batch's matrix, the labels
+     * of its cells in each loaded label set, and their embedding coordinates). The max fold
+     * changes of the genes are then recalculated, as the clusters have new cells
+     *
+     * @param pathsToLabelSets maps the name of each loaded label set to the path of the labels of
+     *                         the batch's cells in it
+     * @param pathToEmbedding path to the embedding of the batch's cells, null if there isn't one
+     */
+    private static void appendCells(String matrix, String isoformLabels, Map<String, String> pathsToLabelSets,
+                                    String pathToEmbedding) throws IOException, RNAScoopException {
+        Collection<LabelSet> labelSets = ControllerMediator.getInstance().getLabelSets();
+        Map<String, List<String>> cellLabels = new HashMap<>();
+        int numCells = -1;
+        for (LabelSet labelSet : labelSets) {
+            String pathToLabelSet = pathsToLabelSets.get(labelSet.getName());
+            if (pathToLabelSet == null)
+                throw new MissingAppendedCellLabelsException(labelSet.getName());
+            List<String> labels = getCellLabels(new File(getLocalPath(pathToLabelSet)));
+            if (numCells < 0)
+                numCells = labels.size();
+            else if (numCells != labels.size())
+                throw new RowLabelsLengthException();
+            cellLabels.put(labelSet.getName(), labels);
+        }
+
+        double[][] embedding = (pathToEmbedding != null) ? CellPlotInfoLoader.getEmbedding(pathToEmbedding) : null;
+        if (embedding == null && ControllerMediator.getInstance().isEmbeddingLoaded())
+            throw new DatasetMissingPathException("the appended cells' embedding");
+        if (numCells < 0) {
+            if (embedding == null)
+                throw new DatasetMissingPathException("the appended cells' labels or embedding");
+            numCells = embedding.length;
+        }
+        if (embedding != null && embedding.length != numCells)
+            throw new EmbeddingLengthException();
+
+        CellBatch cellBatch = new CellBatch(matrix, isoformLabels, numCells);
+        ExpressionMatrix cells = CellPlotInfoLoader.readCellBatch(cellBatch, ControllerMediator.getInstance().getIsoformIndexMap(),
+                                                                  CurrentSession.getExpressionEncoding());
+        // the view of the matrix with the cells appended in the expression transform in use is
+        // made here, as making it reads the whole matrix (for CPM and z-scores)
+        ExpressionMatrix appendedMatrix = AppendedExpressionMatrix.append(ControllerMediator.getInstance().getCellIsoformExpressionMatrix(), cells);
+        ExpressionMatrix transformedAppendedMatrix = ControllerMediator.getInstance().getExpressionTransform().apply(appendedMatrix);
+        AtomicBoolean appendedCells = new AtomicBoolean(false);
+        // anything thrown while appending on the JavaFX thread is rethrown here, so it's reported
+        AtomicReference<Throwable> appendingException = new AtomicReference<>();
+        Platform.runLater(() -> {
+            try {
+                ControllerMediator.getInstance().appendCells(appendedMatrix, transformedAppendedMatrix, embedding, cellLabels);
+                CurrentSession.saveAppendedCellBatch(cellBatch);
+            } catch (Throwable e) {
+                appendingException.set(e);
+            } finally {
+                appendedCells.set(true);
+            }
+        });
+        while (!appendedCells.get());
+        if (appendingException.get() instanceof Error)
+            throw (Error) appendingException.get();
+        if (appendingException.get() != null)
+            throw (RuntimeException) appendingException.get();
+
+        // the saved max fold changes don't have the appended cells
+        for (LabelSet labelSet : labelSets)
+            ControllerMediator.getInstance().geneSelectorHandleRemovedLabelSet(labelSet);
+        if (!ControllerMediator.getInstance().isCellPlotCleared()) {
+            ControllerMediator.getInstance().calculateAndSaveMaxFoldChange(labelSets);
+            ControllerMediator.getInstance().updateGenesMaxFoldChange();
+            ControllerMediator.getInstance().updateFilterCellCategories();
+            runLater(() -> ControllerMediator.getInstance().updateIsoformPlot(false));
+        }
+        int numAppendedCells = numCells;
+        int numLoadedCells = ControllerMediator.getInstance().getNumCellsToPlot();
+        runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Appended " + numAppendedCells + " cells (" + numLoadedCells + " cells loaded)"));
+    }
+
+    /**
+     * Returns the labels in the given cell labels file, the first being the label of the
+     * first cell
+     */
+    private static List<String> getCellLabels(File cellLabelsFile) throws IOException {
+        List<String> labels = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(cellLabelsFile))) {
+            String label;
+            while ((label = reader.readLine()) != null)
+                labels.add(label);
+        }
+        return labels;
     }
 
     private static String getLabelSetName(File labelSetFile) {
@@ -216,6 +488,8 @@ public class Parser {
     }
 
     private static String resolveRelativePath(String f, String parent) throws FileNotFoundException {
+        if (RemoteFile.isRemote(f))
+            return f;
         if (! new File(f).exists()) {
             String newPath = parent + File.separator + f;
             if (! new File(newPath).exists()) {
@@ -226,8 +500,180 @@ public class Parser {
         return f;
     }
 
+    /**
+     * Reads the GTF and the cell plot info files at the same time, and only shows the dataset once
+     * all of them have been read and checked against each other. Errors are reported in the order
+     * the files used to be read in one after another (GTF, isoform IDs, label sets, matrix,
+     * embedding), so the same error is reported no matter which file finishes reading first
+     *
+     * If only labelled isoforms are loaded, the GTF is read once the isoform IDs have been, and
+     * skips every transcript that isn't one of them. An error in the isoform IDs is then reported
+     * before any error in the GTF
+     *
+     * The cells of the given appended batches are appended to the matrix's cells. The label sets
+     * and embedding must have the cells of the matrix and of the batches
+     *
+     * Data of the loaded dataset read from unchanged files is reused instead of being read again,
+     * but is still checked against the other files
+     *
+     * @param expressionEncoding encoding of the matrix's values, null to let the storage planner
+     *                           pick one (the batches' cells are then stored as doubles)
+     * @param matrixLayout layout of the matrix, null to let the storage planner pick one
+     * @return map of the loaded label sets to their paths
+     */
+    private static Map<LabelSet, String> loadDataset(String gtf, String matrix, String isoformLabels, String embedding, Map<String, String> labelSets,
+                                                     ExpressionEncoding expressionEncoding, MatrixLayout matrixLayout, boolean labelledIsoformsOnly,
+                                                     IsoformQuorum isoformQuorum, List<CellBatch> appendedCellBatches,
+                                                     ReusableDatasetData reusableData) throws IOException, RNAScoopException {
+        ExecutorService fileReaders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Dataset File Reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            CompletableFuture<Set<String>> isoformIDsFuture = new CompletableFuture<>();
+            Map<String, Gene> reusableGenes = reusableData.getGenes();
+            Future<Map<String, Gene>> genesFuture;
+            if (reusableGenes != null) {
+                runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Reusing the loaded GTF annotation, as the GTF hasn't changed"));
+                genesFuture = CompletableFuture.completedFuture(reusableGenes);
+            } else {
+                genesFuture = fileReaders.submit(() -> getGenes(gtf, labelledIsoformsOnly ? waitForFile(isoformIDsFuture) : null));
+            }
+            Future<CellPlotInfo> cellPlotInfoFuture = fileReaders.submit(() -> {
+                try {
+                    CellPlotInfo cellPlotInfo = CellPlotInfoLoader.readCellPlotInfo(matrix, isoformLabels, labelSets, embedding, expressionEncoding,
+                                                                                     matrixLayout, isoformQuorum, getNumCells(appendedCellBatches),
+                                                                                     reusableData, isoformIDsFuture, fileReaders);
+                    return CellPlotInfoLoader.appendCellBatches(cellPlotInfo, appendedCellBatches,
+                                                                (expressionEncoding != null) ? expressionEncoding : ExpressionEncoding.DOUBLE);
+                } catch (Exception e) {
+                    // so the GTF isn't left waiting for isoform IDs that won't be read
+                    isoformIDsFuture.completeExceptionally(e);
+                    throw e;
+                }
+            });
+
+            Map<String, Gene> genes = waitForFile(genesFuture);
+            CellPlotInfo cellPlotInfo = waitForFile(cellPlotInfoFuture);
+
+            showGenes(genes);
+            CellPlotInfoLoader.setCellPlotInfo(cellPlotInfo);
+            return cellPlotInfo.labelSetPathMap;
+        } finally {
+            // stops reading the other files if one of them failed
+            fileReaders.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the genes in the GTF at the given path, from its index if it has an up-to-date one
+     *
+     * @param isoformIDs IDs of the isoforms to load, or null if every isoform in the GTF is loaded
+     */
+    private static Map<String, Gene> getGenes(String gtf, Set<String> isoformIDs) throws IOException, RNAScoopException {
+        String pathToGTF = getLocalPath(gtf);
+        GTFLoader gtfLoader = new GTFLoader(pathToGTF, isoformIDs);
+        Map<String, Gene> genes = AnnotationIndex.load(pathToGTF);
+        if (genes != null) {
+            runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Loaded GTF annotation from its index"));
+            genes = gtfLoader.keepLoadedIsoforms(genes);
+        } else {
+            genes = gtfLoader.load();
+            // an index of only some of the GTF's isoforms can't be used for other datasets
+            if (isoformIDs == null)
+                saveAnnotationIndex(pathToGTF, genes);
+        }
+
+        if (isoformIDs != null) {
+            int numSkippedIsoforms = gtfLoader.getNumSkippedIsoforms();
+            runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Skipped " + numSkippedIsoforms +
+                                                                                " GTF transcripts that aren't in the isoform IDs"));
+        }
+        return genes;
+    }
+
+    /**
+     * Shows the given genes in the genes table
+     */
+    private static void showGenes(Map<String, Gene> genes) {
+        ArrayList<Gene> geneList = new ArrayList<>(genes.values());
+        if (!isFxApplicationThread())
+            runLater(() -> ControllerMediator.getInstance().updateGenesTable(geneList));
+        else
+            ControllerMediator.getInstance().updateGenesTable(geneList);
+    }
+
+    private static int getNumCells(List<CellBatch> cellBatches) {
+        int numCells = 0;
+        for (CellBatch cellBatch : cellBatches)
+            numCells += cellBatch.getNumCells();
+        return numCells;
+    }
+
+    private static <T> T waitForFile(Future<T> fileFuture) throws IOException, RNAScoopException {
+        try {
+            return fileFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RNAScoopException)
+                throw (RNAScoopException) cause;
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Returns the path on disk of the file at the given path, which can also be the URL of a file
+     * on an HTTP(S) server. Remote files are downloaded into the remote file cache (with parallel
+     * range requests), unless they're cached already
+     */
+    static String getLocalPath(String path) throws RemoteFileException {
+        if (!RemoteFile.isRemote(path))
+            return path;
+        try {
+            String localPath = RemoteFile.open(path).download().toString();
+            runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Fetched " + path));
+            return localPath;
+        } catch (IOException e) {
+            throw new RemoteFileException(path, e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the data file at the given path, decompressing it if it's gzipped. BGZF files
+     * (e.g. from bgzip) have their blocks inflated in parallel. Other gzipped files are
+     * inflated on a thread of their own, ahead of the reader
+     */
+    static InputStream openDataFile(String path) throws IOException {
+        if (!path.toLowerCase().endsWith(GZIP_EXTENSION))
+            return new FileInputStream(path);
+        if (BgzfInputStream.isBgzfFile(path))
+            return new BgzfInputStream(path);
+        return new PipelinedInputStream(new GZIPInputStream(new FileInputStream(path), 64 * 1024));
+    }
+
+    /**
+     * Saves an index of the GTF's genes so the GTF doesn't have to be parsed next time. The dataset
+     * still loads if the index can't be saved
+     */
+    private static void saveAnnotationIndex(String pathToGTF, Map<String, Gene> genes) {
+        try {
+            Path indexPath = AnnotationIndex.save(pathToGTF, genes);
+            runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Saved GTF annotation index to: " + indexPath));
+        } catch (IOException e) {
+            runLater(() -> ControllerMediator.getInstance().addConsoleErrorMessage("Could not save GTF annotation index: " + e.getMessage()));
+        }
+    }
+
     private static void clearLoadedData() {
-        GTFLoader.removeParsedGenes();
         ControllerMediator.getInstance().updateGenesTable(new ArrayList<>());
         ControllerMediator.getInstance().setCellIsoformExpressionMatrix(null);
         ControllerMediator.getInstance().setIsoformIndexMap(null);
@@ -236,209 +682,279 @@ public class Parser {
         CurrentSession.clearSavedPaths();
     }
 
-    private static class GTFLoader {
-        /**
-         * Map of all genes parser has parsed so far
-         * Key is the gene's ID, value is the gene
-         */
-        private static HashMap<String, Gene> parsedGenes = new HashMap<>();
+    /**
+     * Cell plot info that has been read and checked, but not yet shown
+     */
+    private static class CellPlotInfo {
+        private final ExpressionMatrix cellIsoformExpressionMatrix;
+        private final HashMap<String, Integer> isoformIndexMap;
+        private final List<LabelSet> labelSets;
+        private final Map<LabelSet, String> labelSetPathMap;
+        private final double[][] embedding;
+
+        private CellPlotInfo(ExpressionMatrix cellIsoformExpressionMatrix, HashMap<String, Integer> isoformIndexMap,
+                             List<LabelSet> labelSets, Map<LabelSet, String> labelSetPathMap, double[][] embedding) {
+            this.cellIsoformExpressionMatrix = cellIsoformExpressionMatrix;
+            this.isoformIndexMap = isoformIndexMap;
+            this.labelSets = labelSets;
+            this.labelSetPathMap = labelSetPathMap;
+            this.embedding = embedding;
+        }
+    }
 
-        public static void loadGTF(String pathToGTF) throws IOException, RNAScoopException {
-            BufferedReader reader;
+    private static class CellPlotInfoLoader {
 
-            if (pathToGTF.toLowerCase().endsWith(GZIP_EXTENSION)) {
-                reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(pathToGTF))));
+        /**
+         * Reads cell plot info (matrix, isoform labels, label sets, embedding). The files are read
+         * at the same time by the given file readers; the matrix is parsed as soon as the isoform
+         * labels and the first label set are read, as those give its dimensions. Once every file
+         * has been read, they are checked against each other
+         *
+         * Isoforms that don't meet the given quorum are left out of the matrix as it's parsed, and
+         * the isoform index map is rebuilt to only have the isoforms kept
+         *
+         * The reusable matrix (with its isoform index map) and embedding are used instead of
+         * reading the matrix and embedding, if there are any. The isoform IDs are still read, as
+         * the GTF might need them
+         *
+         * @param numAppendedCells number of cells appended after the matrix's cells, which the
+         *                         label sets and embedding also have
+         * @param isoformIDsFuture completed with the isoform IDs as soon as they're read
+         */
+        public static CellPlotInfo readCellPlotInfo(String pathToMatrix, String pathToIsoformLabels, Map<String, String> pathsToLabelSets,
+                                                    String pathToEmbedding, ExpressionEncoding expressionEncoding, MatrixLayout matrixLayout,
+                                                    IsoformQuorum isoformQuorum, int numAppendedCells, ReusableDatasetData reusableData,
+                                                    CompletableFuture<Set<String>> isoformIDsFuture, ExecutorService fileReaders) throws IOException, RNAScoopException {
+            if (AnnDataLoader.isAnnDataFile(pathToMatrix))
+                return readAnnDataCellPlotInfo(pathToMatrix, pathToIsoformLabels, pathsToLabelSets, pathToEmbedding, expressionEncoding, matrixLayout,
+                                               isoformQuorum, numAppendedCells, isoformIDsFuture);
+
+            Future<HashMap<String, Integer>> isoformIndexMapFuture = fileReaders.submit(() -> isGiven(pathToIsoformLabels) ? getIsoformIndexMap(pathToIsoformLabels) :
+                                                                                              new ArrowLoader(getLocalPath(pathToMatrix)).getIsoformIndexMap());
+            List<String> labelSetPaths = new ArrayList<>();
+            List<Future<LabelSet>> labelSetFutures = new ArrayList<>();
+            for (Map.Entry<String, String> pathToLabelSet : pathsToLabelSets.entrySet()) {
+                String path = pathToLabelSet.getValue();
+                String labelSetName = pathToLabelSet.getKey();
+                labelSetPaths.add(path);
+                labelSetFutures.add(fileReaders.submit(() -> getLabelSet(new File(getLocalPath(path)), labelSetName)));
             }
-            else {
-                reader = new BufferedReader(new InputStreamReader(new FileInputStream(pathToGTF)));
+            Future<double[][]> embeddingFuture = null;
+            if (reusableData.getEmbedding() != null) {
+                runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Reusing the loaded embedding, as the embedding file hasn't changed"));
+                embeddingFuture = CompletableFuture.completedFuture(reusableData.getEmbedding());
+            } else if (isGiven(pathToEmbedding)) {
+                embeddingFuture = fileReaders.submit(() -> getEmbedding(pathToEmbedding));
             }
 
-            String currentLine;
-            int lineNumber = 0;
-            while ((currentLine = reader.readLine()) != null) {
-                ++lineNumber;
-                String dataString = removeComments(currentLine);
-                String[] data = dataString.split("\t");
-                if (data.length == 9 && isExonData(data)) {
-                    ExonDataParser.parse(data, lineNumber);
+            HashMap<String, Integer> isoformIndexMap = waitForFile(isoformIndexMapFuture);
+            isoformIDsFuture.complete(new HashSet<>(isoformIndexMap.keySet()));
+            int numIsoforms = isoformIndexMap.size();
+            IsoformQuorum.Counter quorumCounter = isoformQuorum.newCounter(numIsoforms);
+            ExpressionMatrix reusableMatrix = reusableData.getCellIsoformExpressionMatrix();
+            if (reusableMatrix != null)
+                runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Reusing the loaded matrix, as the matrix and isoform IDs haven't changed"));
+            Future<ExpressionMatrix> matrixFuture = fileReaders.submit(() -> {
+                int numCells = labelSetFutures.isEmpty() ? -1 : waitForFile(labelSetFutures.get(0)).getNumCellsInLabelSet() - numAppendedCells;
+                if (reusableMatrix == null)
+                    return getCellIsoformExpressionMatrix(pathToMatrix, numCells, numIsoforms, expressionEncoding, matrixLayout, quorumCounter);
+                if (numCells >= 0 && reusableMatrix.getNumCells() != numCells)
+                    throw new RowLabelsLengthException();
+                return reusableMatrix;
+            });
+
+            List<LabelSet> labelSets = new ArrayList<>();
+            Map<LabelSet, String> labelSetPathMap =  new HashMap<>();
+            int numCells = -1;
+            for (int i = 0; i < labelSetFutures.size(); i++) {
+                LabelSet labelSet = waitForFile(labelSetFutures.get(i));
+                if (numCells < 0) {
+                    numCells = labelSet.getNumCellsInLabelSet();
+                }
+                else if (numCells != labelSet.getNumCellsInLabelSet()) {
+                    // inconsistent number of cell labels between sets
+                    throw new RowLabelsLengthException();
                 }
+                labelSets.add(labelSet);
+                labelSetPathMap.put(labelSet, labelSetPaths.get(i));
             }
-            ArrayList<Gene> geneList = new ArrayList<>(parsedGenes.values());
-            if (!isFxApplicationThread())
-                runLater(() -> ControllerMediator.getInstance().updateGenesTable(geneList));
+
+            ExpressionMatrix cellIsoformExpressionMatrix = waitForFile(matrixFuture);
+            if (reusableMatrix != null)
+                isoformIndexMap = reusableData.getIsoformIndexMap();
             else
-                ControllerMediator.getInstance().updateGenesTable(geneList);
-            removeParsedGenes();
-            reader.close();
+                isoformIndexMap = getKeptIsoformIndexMap(isoformIndexMap, cellIsoformExpressionMatrix, quorumCounter);
+
+            double[][] embedding = null;
+            if (embeddingFuture != null) {
+                embedding = waitForFile(embeddingFuture);
+
+                if (embedding.length != numCells)
+                    throw new EmbeddingLengthException();
+            }
+
+            return new CellPlotInfo(cellIsoformExpressionMatrix, isoformIndexMap, labelSets, labelSetPathMap, embedding);
         }
 
         /**
-         * Removes data from previously parsed GTF file
+         * Reads cell plot info from an AnnData file. Isoform IDs, label sets or an embedding given
+         * in their own files are used instead of the ones in the AnnData file. Label sets read from
+         * the AnnData file have no path, so they're written to files when the session is saved.
+         * The AnnData file's embedding isn't used if cells were appended, as it doesn't have them
+         *
+         * The matrix isn't sampled by the storage planner, so it's stored as doubles if no
+         * encoding is given, and in whichever layout takes less memory if no layout is given (it
+         * can't be stored out of core)
          */
-        public static void removeParsedGenes() {
-            parsedGenes.clear();
+        private static CellPlotInfo readAnnDataCellPlotInfo(String pathToAnnData, String pathToIsoformLabels, Map<String, String> pathsToLabelSets, String pathToEmbedding,
+                                                            ExpressionEncoding expressionEncoding, MatrixLayout matrixLayout, IsoformQuorum isoformQuorum,
+                                                            int numAppendedCells, CompletableFuture<Set<String>> isoformIDsFuture) throws IOException, RNAScoopException {
+            try (AnnDataLoader annDataLoader = new AnnDataLoader(getLocalPath(pathToAnnData))) {
+                HashMap<String, Integer> isoformIndexMap = isGiven(pathToIsoformLabels) ?
+                        getIsoformIndexMap(pathToIsoformLabels) : annDataLoader.getIsoformIndexMap();
+                isoformIDsFuture.complete(new HashSet<>(isoformIndexMap.keySet()));
+                int numIsoforms = isoformIndexMap.size();
+                int numCells = annDataLoader.getNumCells();
+                List<LabelSet> labelSets = new ArrayList<>();
+                Map<LabelSet, String> labelSetPathMap =  new HashMap<>();
+                if (pathsToLabelSets.isEmpty()) {
+                    labelSets.addAll(annDataLoader.getLabelSets());
+                } else if (getLabelSets(pathsToLabelSets, labelSets, labelSetPathMap) != numCells + numAppendedCells) {
+                    throw new RowLabelsLengthException();
+                }
+
+                IsoformQuorum.Counter quorumCounter = isoformQuorum.newCounter(numIsoforms);
+                if (matrixLayout == MatrixLayout.STORE)
+                    runLater(() -> ControllerMediator.getInstance().addConsoleMessage("AnnData matrices can't be stored out of core, so the matrix is loaded into memory"));
+                ExpressionMatrix cellIsoformExpressionMatrix = annDataLoader.getExpressionMatrix(numCells, numIsoforms,
+                                                                                                 (expressionEncoding != null) ? expressionEncoding : ExpressionEncoding.DOUBLE,
+                                                                                                 (matrixLayout != MatrixLayout.STORE) ? matrixLayout : null,
+                                                                                                 quorumCounter);
+                isoformIndexMap = getKeptIsoformIndexMap(isoformIndexMap, cellIsoformExpressionMatrix, quorumCounter);
+
+                double[][] embedding = null;
+                if (isGiven(pathToEmbedding))
+                    embedding = getEmbedding(pathToEmbedding);
+                else if (numAppendedCells == 0)
+                    embedding = annDataLoader.getEmbedding();
+                if (embedding != null && embedding.length != numCells + numAppendedCells)
+                    throw new EmbeddingLengthException();
+
+                return new CellPlotInfo(cellIsoformExpressionMatrix, isoformIndexMap, labelSets, labelSetPathMap, embedding);
+            }
         }
 
         /**
-         * Remove all characters following "#" (GTF comment symbol)
+         * Returns the given cell plot info with the cells of the given batches appended to its
+         * matrix's cells
          */
-        private static String removeComments(String exonDataString) {
-            return exonDataString.split("#")[0];
+        public static CellPlotInfo appendCellBatches(CellPlotInfo cellPlotInfo, List<CellBatch> cellBatches,
+                                                     ExpressionEncoding expressionEncoding) throws IOException, RNAScoopException {
+            ExpressionMatrix cellIsoformExpressionMatrix = cellPlotInfo.cellIsoformExpressionMatrix;
+            for (CellBatch cellBatch : cellBatches) {
+                ExpressionMatrix cells = readCellBatch(cellBatch, cellPlotInfo.isoformIndexMap, expressionEncoding);
+                cellIsoformExpressionMatrix = AppendedExpressionMatrix.append(cellIsoformExpressionMatrix, cells);
+            }
+            if (cellBatches.size() > 0) {
+                int numAppendedCells = getNumCells(cellBatches);
+                runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Appended " + numAppendedCells + " cells from " +
+                                                                                    cellBatches.size() + " batches"));
+            }
+            return new CellPlotInfo(cellIsoformExpressionMatrix, cellPlotInfo.isoformIndexMap, cellPlotInfo.labelSets, cellPlotInfo.labelSetPathMap,
+                                    cellPlotInfo.embedding);
         }
 
-
         /**
-         * Returns true if feature field (in the line of the GTF file data represents) is "exon"
-         * @param data represents a line in a GTF file, each element is the element of a column
+         * Reads the matrix of the given batch of cells, with its columns matched by isoform ID to
+         * the loaded isoforms in the given isoform index map. Isoforms of the batch that aren't
+         * loaded are left out, and loaded isoforms the batch doesn't have aren't expressed in its
+         * cells. The batch's matrix is used as it is if its isoforms are the loaded ones, in the
+         * same order
          */
-        private static boolean isExonData(String[] data) {
-            return data[2].equals("exon");
-        }
-
-        private static class ExonDataParser {
-
-            private static Pattern attributePattern = Pattern.compile("\\s*(\\S+)\\s*\"(\\S+)\"\\s*");
-
-            private static String[] exonData;
-            private static int lineNumber;
-            private static String chromosome;
-            private static int endNucleotide;
-            private static int startNucleotide;
-            private static String strand;
-            // attribute values
-            private static String geneID;
-            private static String isoformID;
-            private static String geneName;
-            private static String isoformName;
-
-            private static void clearData() {
-                exonData = null;
-                chromosome = null;
-                endNucleotide = 0;
-                startNucleotide = 0;
-                strand = null;
-                geneID = null;
-                isoformID = null;
-                geneName = null;
-                isoformName = null;
-            }
-
-            /**
-             * Parses array of exon information
-             * Adds exon to its correct isoform which is associated with its gene
-             * @param exonData array of exon information
-             */
-            private static void parse(String[] exonData, int lineNumber) throws RNAScoopException {
-                ExonDataParser.exonData = exonData;
-                ExonDataParser.lineNumber = lineNumber;
-
-                setChromosome();
-                setStartNucleotide();
-                setEndNucleotide();
-                setStrand();
-                setAttributeValues();
-
-                storeExonInformation();
-                clearData();
-            }
-
-            private static void setChromosome() {
-                chromosome = exonData[0];
-            }
-
-            private static void setStartNucleotide() throws GTFInvalidStartNucleotideException {
-                try {
-                    startNucleotide = Integer.parseInt(exonData[3]);
-                } catch (NumberFormatException e) {
-                    throw new GTFInvalidStartNucleotideException(lineNumber);
-                }
+        private static ExpressionMatrix readCellBatch(CellBatch cellBatch, HashMap<String, Integer> isoformIndexMap,
+                                                      ExpressionEncoding expressionEncoding) throws IOException, RNAScoopException {
+            HashMap<String, Integer> batchIsoformIndexMap = getIsoformIndexMap(cellBatch.getIsoformIDsPath());
+            int numBatchIsoforms = batchIsoformIndexMap.size();
+            int numCells = cellBatch.getNumCells();
+            ExpressionMatrix batchMatrix = getCellIsoformExpressionMatrix(cellBatch.getMatrixPath(), numCells, numBatchIsoforms, expressionEncoding, null,
+                                                                          IsoformQuorum.NONE.newCounter(numBatchIsoforms));
+
+            // loaded index of each of the batch's isoforms, -1 if it isn't loaded
+            int[] loadedIsoformIndices = new int[numBatchIsoforms];
+            boolean hasLoadedIsoforms = numBatchIsoforms == isoformIndexMap.size();
+            for (Map.Entry<String, Integer> batchIsoformIndex : batchIsoformIndexMap.entrySet()) {
+                Integer isoformIndex = isoformIndexMap.get(batchIsoformIndex.getKey());
+                loadedIsoformIndices[batchIsoformIndex.getValue()] = (isoformIndex != null) ? isoformIndex : -1;
+                if (isoformIndex == null || !isoformIndex.equals(batchIsoformIndex.getValue()))
+                    hasLoadedIsoforms = false;
             }
-
-            private static void setEndNucleotide() throws GTFInvalidEndNucleotideException {
-                try {
-                    endNucleotide = Integer.parseInt(exonData[4]);
-                } catch (NumberFormatException e) {
-                    throw new GTFInvalidEndNucleotideException(lineNumber);
-                }
-            }
-
-            private static void setStrand() {
-                strand = exonData[6];
-            }
-
-            private static void setAttributeValues() throws GTFMissingAttributesInfoException {
-                for (String p : exonData[8].split(";")) {
-                    Matcher m = attributePattern.matcher(p);
-                    if (m.matches()) {
-                        String attributeName = m.group(1);
-                        String attributeValue = m.group(2);
-                        switch (attributeName) {
-                            case "gene_id":
-                                geneID = attributeValue;
-                                break;
-                            case "transcript_id":
-                                isoformID = attributeValue;
-                                break;
-                            case "gene_name":
-                                geneName = attributeValue;
-                                break;
-                            case "transcript_name":
-                                isoformName = attributeValue;
-                                break;
-                        }
+            if (hasLoadedIsoforms)
+                return batchMatrix;
+
+            ExpressionMatrixBuilder builder = new ExpressionMatrixBuilder(numCells, isoformIndexMap.size(), expressionEncoding);
+            double[] loadedExpression = new double[isoformIndexMap.size()];
+            int[] expressedIsoforms = new int[numBatchIsoforms];
+            for (int cellNumber = 0; cellNumber < numCells; cellNumber++) {
+                int[] numExpressedIsoforms = new int[1];
+                batchMatrix.forEachExpressedIsoform(cellNumber, (batchIsoformIndex, expression) -> {
+                    int isoformIndex = loadedIsoformIndices[batchIsoformIndex];
+                    if (isoformIndex >= 0) {
+                        loadedExpression[isoformIndex] = expression;
+                        expressedIsoforms[numExpressedIsoforms[0]++] = isoformIndex;
                     }
+                });
+                int[] isoformIndices = Arrays.copyOf(expressedIsoforms, numExpressedIsoforms[0]);
+                Arrays.sort(isoformIndices);
+                double[] values = new double[isoformIndices.length];
+                for (int i = 0; i < isoformIndices.length; i++) {
+                    values[i] = loadedExpression[isoformIndices[i]];
+                    loadedExpression[isoformIndices[i]] = 0;
                 }
-                if (geneID == null || isoformID == null)
-                    throw new GTFMissingAttributesInfoException(lineNumber);
-            }
-
-            private static void storeExonInformation() {
-                Gene gene;
-                Isoform isoform;
-                Exon exon;
-                if(parsedGenes.containsKey(geneID)) {
-                    gene = parsedGenes.get(geneID);
-                } else {
-                    gene = new Gene(geneID, chromosome, strand);
-                    parsedGenes.put(geneID, gene);
-                }
-                if(gene.hasIsoform(isoformID)) {
-                    isoform = gene.getIsoform(isoformID);
-                } else {
-                    isoform = new Isoform(isoformID, gene);
-                    gene.addIsoform(isoformID, isoform);
-                }
-                exon = new Exon(startNucleotide, endNucleotide);
-                isoform.addExon(exon);
-
-                if (geneName != null && gene.getName() == null)
-                    gene.setName(geneName);
-                if (isoformName != null && isoform.getName() == null)
-                    isoform.setName(isoformName);
-                if (gene.getStartNucleotide() > exon.getStartNucleotide())
-                    gene.setStartNucleotide(exon.getStartNucleotide());
-                if (gene.getEndNucleotide() < exon.getEndNucleotide())
-                    gene.setEndNucleotide(exon.getEndNucleotide());
+                builder.setCellExpression(cellNumber, isoformIndices, values);
             }
+            if (batchMatrix instanceof CompressedExpressionMatrix)
+                ((CompressedExpressionMatrix) batchMatrix).close();
+            return builder.build();
         }
-    }
-
-    private static class CellPlotInfoLoader {
 
         /**
-         * Loads cell plot info (matrix, isoform labels, label sets, embedding), and returns map containing the loaded
-         * label sets and their respective paths
+         * Returns the isoform index map of the given matrix, which has only the isoforms kept by
+         * the quorum counter if some were left out of it. Kept isoforms keep their order, so their
+         * indices are their positions among the kept isoforms
          */
-        public static Map<LabelSet, String> loadCellPlotInfo(String pathToMatrix, String pathToIsoformLabels, Map<String, String> pathsToLabelSets, String pathToEmbedding) throws IOException, RNAScoopException {
-            HashMap<String, Integer> isoformIndexMap = getIsoformIndexMap(pathToIsoformLabels);
+        private static HashMap<String, Integer> getKeptIsoformIndexMap(HashMap<String, Integer> isoformIndexMap, ExpressionMatrix cellIsoformExpressionMatrix,
+                                                                       IsoformQuorum.Counter quorumCounter) {
             int numIsoforms = isoformIndexMap.size();
-            List<LabelSet> labelSets = new ArrayList<>();
-            Map<LabelSet, String> labelSetPathMap =  new HashMap<>();
+            int[] keptIsoforms = quorumCounter.getKeptIsoforms();
+            // expression stores are read as they are, with every isoform
+            if (keptIsoforms == null || cellIsoformExpressionMatrix.getNumIsoforms() == numIsoforms)
+                return isoformIndexMap;
+
+            String[] isoformIDs = new String[numIsoforms];
+            for (Map.Entry<String, Integer> isoformIndex : isoformIndexMap.entrySet())
+                isoformIDs[isoformIndex.getValue()] = isoformIndex.getKey();
+            HashMap<String, Integer> keptIsoformIndexMap = new HashMap<>();
+            for (int i = 0; i < keptIsoforms.length; i++)
+                keptIsoformIndexMap.put(isoformIDs[keptIsoforms[i]], i);
+
+            int numPrunedIsoforms = numIsoforms - keptIsoforms.length;
+            runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Pruned " + numPrunedIsoforms + " of " + numIsoforms +
+                                                                                " isoforms that don't meet the expression quorum"));
+            return keptIsoformIndexMap;
+        }
+
+        /**
+         * Reads the label sets at the given paths into the given list and map
+         *
+         * @return number of cells in the label sets
+         * @throws RowLabelsLengthException the label sets don't all have the same number of cells
+         */
+        private static int getLabelSets(Map<String, String> pathsToLabelSets, List<LabelSet> labelSets, Map<LabelSet, String> labelSetPathMap) throws IOException, RNAScoopException {
             int numCells = -1;
             for (Map.Entry<String, String> pathToLabelSet : pathsToLabelSets.entrySet()) {
                 String path = pathToLabelSet.getValue();
                 String labelSetName = pathToLabelSet.getKey();
-                LabelSet labelSet = getLabelSet(new File(path), labelSetName);
+                LabelSet labelSet = getLabelSet(new File(getLocalPath(path)), labelSetName);
                 if (numCells < 0) {
                     numCells = labelSet.getNumCellsInLabelSet();
                 }
@@ -449,102 +965,223 @@ public class Parser {
                 labelSets.add(labelSet);
                 labelSetPathMap.put(labelSet, path);
             }
+            return numCells;
+        }
 
-            double[][] cellIsoformExpressionMatrix = getCellIsoformExpressionMatrix(pathToMatrix, numCells, numIsoforms);
-
-            if (pathToEmbedding != null && !pathToEmbedding.equals("")) {
-                double[][] embedding = getEmbedding(pathToEmbedding);
-
-                if (embedding.length != numCells)
-                    throw new EmbeddingLengthException();
-                ControllerMediator.getInstance().setEmbedding(embedding);
-            }
-
-            ControllerMediator.getInstance().setCellIsoformExpressionMatrix(cellIsoformExpressionMatrix);
-            ControllerMediator.getInstance().setIsoformIndexMap(isoformIndexMap);
+        /**
+         * Shows the given cell plot info
+         */
+        public static void setCellPlotInfo(CellPlotInfo cellPlotInfo) {
+            if (cellPlotInfo.embedding != null)
+                ControllerMediator.getInstance().setEmbedding(cellPlotInfo.embedding);
+            ControllerMediator.getInstance().setCellIsoformExpressionMatrix(cellPlotInfo.cellIsoformExpressionMatrix);
+            ControllerMediator.getInstance().setIsoformIndexMap(cellPlotInfo.isoformIndexMap);
             AtomicBoolean addedLabelSets = new AtomicBoolean(false);
             Platform.runLater(() -> {
-                ControllerMediator.getInstance().addLabelSets(labelSets);
+                ControllerMediator.getInstance().addLabelSets(cellPlotInfo.labelSets);
                 addedLabelSets.set(true);
             });
             while (!addedLabelSets.get());
-            return labelSetPathMap;
+        }
+
+        private static boolean isGiven(String path) {
+            return path != null && !path.equals("");
         }
 
         /**
-         * Creates a cell isoform expression matrix by reading the given data file
-         * Throws exceptions if size of the matrix is 0, or if the matrix contains negative
-         * expression values
+         * Creates a cell isoform expression matrix by reading the given data file (a TSV or a
+         * sparse Matrix Market file), or by mapping it if it is a binary expression store
+         * Throws exceptions if size of the matrix is 0, if the matrix contains negative
+         * expression values, or if its dimensions don't match the number of cells and isoforms
+         * Parsed matrices leave out the isoforms that don't meet the quorum counter's quorum.
+         * Expression stores aren't on the heap, so they keep every isoform
+         *
+         * Compressed expression stores on HTTP(S) servers are read block by block as their blocks
+         * are used. Other remote matrices are downloaded first
+         *
+         * Arrow files are memory-mapped, see getArrowCellIsoformExpressionMatrix()
+         *
+         * How a TSV or Matrix Market matrix is stored is planned by the storage planner from a
+         * sample of its values, around the encoding and layout given (either can be null). If a
+         * value past the sample can't be stored in the whole number encoding picked from it, the
+         * matrix is parsed again as planned for fractional values
          */
-        private static double[][] getCellIsoformExpressionMatrix(String pathToMatrix, int numCells, int numIsoforms) throws MatrixSizeZeroException, NegativeExpressionInMatrixException, ColumnLabelsLengthException, RowLabelsLengthException {
-            double[][] cellIsoformExpressionMatrix = parse2DMatrix(pathToMatrix, "\t", numCells, numIsoforms);
-            if (cellIsoformExpressionMatrix.length == 0)
+        private static ExpressionMatrix getCellIsoformExpressionMatrix(String matrix, int numCells, int numIsoforms, ExpressionEncoding expressionEncoding,
+                                                                       MatrixLayout matrixLayout, IsoformQuorum.Counter quorumCounter) throws IOException, RNAScoopException {
+            boolean isMappedStore = matrix.toLowerCase().endsWith(MappedExpressionMatrix.STORE_EXTENSION);
+            boolean isCompressedStore = matrix.toLowerCase().endsWith(CompressedExpressionMatrix.STORE_EXTENSION);
+            String pathToMatrix = isCompressedStore ? matrix : getLocalPath(matrix);
+            if ((isMappedStore || isCompressedStore) && quorumCounter.getKeptIsoforms() != null)
+                runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Isoforms in expression stores aren't pruned by the expression quorum"));
+            if (isMappedStore)
+                return getMappedCellIsoformExpressionMatrix(pathToMatrix, numCells, numIsoforms);
+            if (isCompressedStore)
+                return getCompressedCellIsoformExpressionMatrix(pathToMatrix, numCells, numIsoforms);
+            if (ArrowLoader.isArrowFile(pathToMatrix))
+                return getArrowCellIsoformExpressionMatrix(pathToMatrix, numCells, numIsoforms, expressionEncoding, matrixLayout, quorumCounter);
+
+            StoragePlanner.Plan plan = StoragePlanner.plan(pathToMatrix, numCells, numIsoforms, expressionEncoding, matrixLayout);
+            runLater(() -> ControllerMediator.getInstance().addConsoleMessage(plan.getDescription()));
+            try {
+                return getPlannedCellIsoformExpressionMatrix(pathToMatrix, numCells, numIsoforms, plan, quorumCounter);
+            } catch (ExpressionEncodingException e) {
+                StoragePlanner.Plan fallback = plan.getFallback();
+                if (fallback == null)
+                    throw e;
+                runLater(() -> ControllerMediator.getInstance().addConsoleMessage("The expression matrix has values the \"" + plan.getEncoding().getName() +
+                                                                                    "\" expression encoding can't store past the sampled rows, so it's parsed again"));
+                runLater(() -> ControllerMediator.getInstance().addConsoleMessage(fallback.getDescription()));
+                quorumCounter.reset();
+                return getPlannedCellIsoformExpressionMatrix(pathToMatrix, numCells, numIsoforms, fallback, quorumCounter);
+            }
+        }
+
+        /**
+         * Stores the TSV or Matrix Market matrix at the given path as planned
+         */
+        private static ExpressionMatrix getPlannedCellIsoformExpressionMatrix(String pathToMatrix, int numCells, int numIsoforms, StoragePlanner.Plan plan,
+                                                                              IsoformQuorum.Counter quorumCounter) throws IOException, RNAScoopException {
+            if (plan.isStore()) {
+                if (quorumCounter.getKeptIsoforms() != null)
+                    runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Isoforms in expression stores aren't pruned by the expression quorum"));
+                convertToStore(pathToMatrix, plan.getPathToStore());
+                return getCompressedCellIsoformExpressionMatrix(plan.getPathToStore(), numCells, numIsoforms);
+            }
+            if (MatrixMarketParser.isMatrixMarketFile(pathToMatrix))
+                return getMatrixMarketCellIsoformExpressionMatrix(pathToMatrix, numCells, numIsoforms, plan.getEncoding(), plan.getLayout(), quorumCounter);
+
+            ExpressionMatrix cellIsoformExpressionMatrix = parse2DMatrix(pathToMatrix, '\t', numCells, numIsoforms, plan.getEncoding(), plan.getLayout(),
+                                                                         quorumCounter);
+            if (cellIsoformExpressionMatrix.getNumCells() == 0)
                 throw new MatrixSizeZeroException();
 
             return cellIsoformExpressionMatrix;
         }
 
         /**
-         * Parse a 2D matrix text file.
-         * @param pathToMatrix input matrix path
-         * @param columnDelimiter column delimiter
-         * @param numRows number of matrix rows
-         * @param numCols number of matrix columns
-         * @return 2D double array
-         * @throws NegativeExpressionInMatrixException a negative expression value is found
-         * @throws ColumnLabelsLengthException unexpected number of columns in input matrix
-         * @throws RowLabelsLengthException unexpected number of rows in input matrix
+         * Converts the TSV at the given path to a compressed expression store at the given store
+         * path, unless a store converted from the TSV's current version is already there. The
+         * store is written to a temporary file first, so a conversion that doesn't finish isn't
+         * taken for a converted store
          */
-        private static double[][] parse2DMatrix(String pathToMatrix, String columnDelimiter, int numRows, int numCols) throws NegativeExpressionInMatrixException, ColumnLabelsLengthException, RowLabelsLengthException {
-            double[][] matrix = new double[numRows][numCols];
+        private static void convertToStore(String pathToMatrix, String pathToStore) throws IOException, RNAScoopException {
+            File matrixFile = new File(pathToMatrix);
+            File storeFile = new File(pathToStore);
+            if (storeFile.exists() && storeFile.lastModified() >= matrixFile.lastModified()) {
+                runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Reusing the expression store converted from the matrix at: " + pathToStore));
+                return;
+            }
 
-            try {
-                BufferedReader reader;
+            runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Converting the expression matrix to an expression store at: " + pathToStore));
+            Files.createDirectories(storeFile.getAbsoluteFile().toPath().getParent());
+            String pathToPartialStore = pathToStore.substring(0, pathToStore.length() - CompressedExpressionMatrix.STORE_EXTENSION.length()) +
+                                        ".partial" + CompressedExpressionMatrix.STORE_EXTENSION;
+            ExpressionStoreConverter.convert(pathToMatrix, pathToPartialStore);
+            Files.move(Paths.get(pathToPartialStore), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
 
-                if (pathToMatrix.toLowerCase().endsWith(GZIP_EXTENSION)) {
-                    reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(pathToMatrix))));
-                }
-                else {
-                    reader = new BufferedReader(new InputStreamReader(new FileInputStream(pathToMatrix)));
-                }
+        /**
+         * Maps the expression store at the given path. Values were validated when the store was
+         * written, so only its dimensions are checked. The store isn't on the heap, so its values
+         * are read as the doubles they were written as, whatever the expression encoding
+         */
+        private static ExpressionMatrix getMappedCellIsoformExpressionMatrix(String pathToStore, int numCells, int numIsoforms) throws IOException, RNAScoopException {
+            ExpressionMatrix cellIsoformExpressionMatrix = MappedExpressionMatrix.open(pathToStore);
+            if (cellIsoformExpressionMatrix.getNumCells() == 0)
+                throw new MatrixSizeZeroException();
+            if (cellIsoformExpressionMatrix.getNumCells() != numCells)
+                throw new RowLabelsLengthException();
+            if (cellIsoformExpressionMatrix.getNumIsoforms() != numIsoforms)
+                throw new ColumnLabelsLengthException();
 
-                Pattern pattern = Pattern.compile(columnDelimiter);
+            return cellIsoformExpressionMatrix;
+        }
 
-                for (int i=0; i<numRows; ++i) {
-                    String line = reader.readLine();
-                    if (line == null) {
-                        // too few rows
-                        throw new RowLabelsLengthException();
-                    }
+        /**
+         * Opens the compressed expression store at the given path or URL. Its blocks are read when
+         * needed, so only its dimensions are checked
+         */
+        private static ExpressionMatrix getCompressedCellIsoformExpressionMatrix(String pathToStore, int numCells, int numIsoforms) throws IOException, RNAScoopException {
+            CompressedExpressionMatrix cellIsoformExpressionMatrix = RemoteFile.isRemote(pathToStore) ? openRemoteStore(pathToStore) :
+                                                                     CompressedExpressionMatrix.open(pathToStore);
+            try {
+                if (cellIsoformExpressionMatrix.getNumCells() == 0)
+                    throw new MatrixSizeZeroException();
+                if (cellIsoformExpressionMatrix.getNumCells() != numCells)
+                    throw new RowLabelsLengthException();
+                if (cellIsoformExpressionMatrix.getNumIsoforms() != numIsoforms)
+                    throw new ColumnLabelsLengthException();
+            } catch (RNAScoopException e) {
+                cellIsoformExpressionMatrix.close();
+                throw e;
+            }
 
-                    matrix[i] = pattern.splitAsStream(line)
-                                .mapToDouble(Double::parseDouble)
-                                .toArray();
+            long cacheSizeInMB = cellIsoformExpressionMatrix.getBlockCache().getCapacityInBytes() / (1024 * 1024);
+            runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Opened compressed expression store with a " +
+                                                                                cacheSizeInMB + " MB block cache"));
+            return cellIsoformExpressionMatrix;
+        }
 
-                    if (matrix[i].length != numCols) {
-                        // unexpected number of columns
-                        throw new ColumnLabelsLengthException();
-                    }
+        /**
+         * Reads the matrix in the Arrow file at the given path. A dense matrix is read straight
+         * from the mapped file, unless a heap layout (dense or sparse) is given. A sparse matrix
+         * is built on the heap, stored as doubles if no encoding is given
+         */
+        private static ExpressionMatrix getArrowCellIsoformExpressionMatrix(String pathToMatrix, int numCells, int numIsoforms, ExpressionEncoding expressionEncoding,
+                                                                            MatrixLayout matrixLayout, IsoformQuorum.Counter quorumCounter) throws IOException, RNAScoopException {
+            ExpressionMatrix cellIsoformExpressionMatrix = new ArrowLoader(pathToMatrix).getExpressionMatrix(numCells, numIsoforms,
+                                                                                                             (expressionEncoding != null) ? expressionEncoding : ExpressionEncoding.DOUBLE,
+                                                                                                             matrixLayout, quorumCounter);
+            if (cellIsoformExpressionMatrix instanceof ArrowExpressionMatrix)
+                runLater(() -> ControllerMediator.getInstance().addConsoleMessage("Memory-mapped the Arrow expression matrix"));
+            return cellIsoformExpressionMatrix;
+        }
 
-                    for (double d : matrix[i]) {
-                        if (d < 0) {
-                            throw new NegativeExpressionInMatrixException();
-                        }
-                    }
-                }
+        private static CompressedExpressionMatrix openRemoteStore(String url) throws RNAScoopException {
+            try {
+                return CompressedExpressionMatrix.open(RemoteFile.open(url));
+            } catch (IOException e) {
+                throw new RemoteFileException(url, e.getMessage());
+            }
+        }
 
-                String line = reader.readLine();
-                if (line != null && !line.matches("\\s*")) {
-                    // too many rows
-                    throw new RowLabelsLengthException();
-                }
+        /**
+         * Streams the sparse Matrix Market file at the given path into a matrix in the given layout
+         */
+        private static ExpressionMatrix getMatrixMarketCellIsoformExpressionMatrix(String pathToMatrix, int numCells, int numIsoforms, ExpressionEncoding expressionEncoding,
+                                                                                   MatrixLayout matrixLayout, IsoformQuorum.Counter quorumCounter) throws IOException, RNAScoopException {
+            if (numCells == 0)
+                throw new MatrixSizeZeroException();
 
-                reader.close();
+            try (InputStream matrixStream = openDataFile(pathToMatrix)) {
+                return new MatrixMarketParser(matrixStream).parse(numCells, numIsoforms, expressionEncoding, quorumCounter, matrixLayout);
+            }
+        }
+
+        /**
+         * Parse a 2D matrix text file, splitting the work between all available cores.
+         * @param pathToMatrix input matrix path
+         * @param columnDelimiter column delimiter
+         * @param numRows number of matrix rows
+         * @param numCols number of matrix columns
+         * @param expressionEncoding how the matrix's values are stored
+         * @param matrixLayout layout of the matrix, null for whichever takes less memory
+         * @param quorumCounter counts the cells each column is expressed in, columns that don't meet
+         *                      its quorum are left out
+         * @return expression matrix, in the given layout
+         * @throws NegativeExpressionInMatrixException a negative expression value is found
+         * @throws ColumnLabelsLengthException unexpected number of columns in input matrix
+         * @throws RowLabelsLengthException unexpected number of rows in input matrix
+         * @throws MatrixNotNumberException a value in the matrix is not a number
+         * @throws ExpressionEncodingException a value can't be stored in the given encoding
+         */
+        private static ExpressionMatrix parse2DMatrix(String pathToMatrix, char columnDelimiter, int numRows, int numCols, ExpressionEncoding expressionEncoding,
+                                                      MatrixLayout matrixLayout, IsoformQuorum.Counter quorumCounter) throws NegativeExpressionInMatrixException, ColumnLabelsLengthException, RowLabelsLengthException, MatrixNotNumberException, ExpressionEncodingException {
+            try (InputStream matrixStream = openDataFile(pathToMatrix)) {
+                return new ParallelMatrixParser(columnDelimiter, numRows, numCols, expressionEncoding, quorumCounter, matrixLayout).parse(matrixStream);
             } catch (IOException e) {
                 throw new IllegalArgumentException(e);
             }
-
-            return matrix;
         }
 
         /**
@@ -558,14 +1195,7 @@ public class Parser {
             List<double[]> rows = new ArrayList<>();
 
             try {
-                BufferedReader reader;
-
-                if (pathToMatrix.toLowerCase().endsWith(GZIP_EXTENSION)) {
-                    reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(pathToMatrix))));
-                }
-                else {
-                    reader = new BufferedReader(new InputStreamReader(new FileInputStream(pathToMatrix)));
-                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(openDataFile(pathToMatrix)));
 
                 String line;
                 double val;
@@ -604,8 +1234,8 @@ public class Parser {
          * Creates map that maps each isoform ID to its column number in the matrix (e.g. if the
          * first column represents IsoformA, IsoformA's ID will be mapped to 0)
          */
-        private static HashMap<String, Integer> getIsoformIndexMap(String pathToIsoformLabels) throws IOException, DuplicateColumnLabelException {
-            File isoformLabelsFile = new File(pathToIsoformLabels);
+        private static HashMap<String, Integer> getIsoformIndexMap(String pathToIsoformLabels) throws IOException, RNAScoopException {
+            File isoformLabelsFile = new File(getLocalPath(pathToIsoformLabels));
             BufferedReader reader= new BufferedReader(new FileReader(isoformLabelsFile));
             HashMap<String, Integer> isoformIndexMap = new HashMap<>();
             String currentLabel;
@@ -619,26 +1249,25 @@ public class Parser {
             return isoformIndexMap;
         }
 
-        private static double[][] getEmbedding(String pathToEmbedding) throws IOException, EmbeddingColumnsException, EmbeddingNotNumberException {
-            String currentLabel;
-            int lineNumber = 1;
-            ArrayList<double[]> embeddingArrayList = new ArrayList<>();
+        private static double[][] getEmbedding(String pathToEmbedding) throws IOException, RNAScoopException {
+            if (ArrowLoader.isArrowFile(pathToEmbedding))
+                return new ArrowLoader(getLocalPath(pathToEmbedding)).getEmbedding();
 
-            File embeddingFile = new File(pathToEmbedding);
-            BufferedReader reader= new BufferedReader(new FileReader(embeddingFile));
-            while ((currentLabel = reader.readLine()) != null) {
-                String[] cellCoordsString = currentLabel.split("\t");
+            ArrayList<double[]> embeddingArrayList = new ArrayList<>();
 
-                if (cellCoordsString.length != 2)
-                    throw new EmbeddingColumnsException(lineNumber);
+            try (InputStream embeddingStream = new FileInputStream(getLocalPath(pathToEmbedding))) {
+                NumericTokenizer tokenizer = new NumericTokenizer(embeddingStream);
+                while (tokenizer.nextLine()) {
+                    double[] cellCoords = new double[2];
+                    if (tokenizer.parseLine((byte) '\t', cellCoords) != 2)
+                        throw new EmbeddingColumnsException(tokenizer.getLineNumber());
 
-                try {
-                    double[] cellCoords = Arrays.stream(cellCoordsString).mapToDouble(Double::parseDouble).toArray();
+                    if (tokenizer.getInvalidValue() != null) {
+                        String[] cellCoordsString = tokenizer.getLine().split("\t");
+                        throw new EmbeddingNotNumberException("(" + cellCoordsString[0] + ", " + cellCoordsString[1] + ")", tokenizer.getLineNumber());
+                    }
                     embeddingArrayList.add(cellCoords);
-                } catch (NumberFormatException e) {
-                    throw new EmbeddingNotNumberException("(" + cellCoordsString[0] + ", " + cellCoordsString[1] + ")", lineNumber);
                 }
-                lineNumber++;
             }
 
             double[][] embedding = new double[embeddingArrayList.size()][];
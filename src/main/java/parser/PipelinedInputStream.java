@@ -0,0 +1,128 @@
+package parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads another stream ahead of its reader on a producer thread, so the work of producing the
+ * bytes (e.g. inflating a gzipped file) runs at the same time as the work of parsing them. The
+ * producer fills a ring of NUM_BUFFERS buffers, which are handed back to it once they're read
+ */
+class PipelinedInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int NUM_BUFFERS = 4;
+    private static final Chunk END = new Chunk(null, -1);
+
+    private final InputStream source;
+    private final BlockingQueue<Chunk> filledChunks;
+    private final BlockingQueue<byte[]> freeBuffers;
+    private final Thread producer;
+    private volatile IOException producerException;
+    private Chunk chunk;
+    private int position;
+
+    PipelinedInputStream(InputStream source) {
+        this.source = source;
+        // one more than the number of buffers, so the end can always be added
+        filledChunks = new ArrayBlockingQueue<>(NUM_BUFFERS + 1);
+        freeBuffers = new ArrayBlockingQueue<>(NUM_BUFFERS);
+        for (int i = 0; i < NUM_BUFFERS; i++)
+            freeBuffers.add(new byte[BUFFER_SIZE]);
+
+        producer = new Thread(this::produce, "Input Stream Producer");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk())
+            return -1;
+        return chunk.buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!nextChunk())
+            return -1;
+        int numBytes = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk.buffer, position, b, off, numBytes);
+        position += numBytes;
+        return numBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        producer.interrupt();
+        source.close();
+    }
+
+    /**
+     * Moves to the next filled chunk if the current one has been read
+     *
+     * @return false if the end of the stream has been reached
+     */
+    private boolean nextChunk() throws IOException {
+        if (chunk == END)
+            return false;
+        if (chunk != null && position < chunk.length)
+            return true;
+
+        if (chunk != null)
+            freeBuffers.add(chunk.buffer);
+        try {
+            chunk = filledChunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        position = 0;
+        if (chunk == END) {
+            if (producerException != null)
+                throw producerException;
+            return false;
+        }
+        return true;
+    }
+
+    private void produce() {
+        try {
+            while (true) {
+                byte[] buffer = freeBuffers.take();
+                int length = readFully(buffer);
+                if (length > 0)
+                    filledChunks.put(new Chunk(buffer, length));
+                if (length < buffer.length)
+                    break;
+            }
+        } catch (IOException e) {
+            producerException = e;
+        } catch (InterruptedException e) {
+            // stream was closed
+            return;
+        }
+        filledChunks.add(END);
+    }
+
+    private int readFully(byte[] buffer) throws IOException {
+        int length = 0;
+        int numRead;
+        while (length < buffer.length && (numRead = source.read(buffer, length, buffer.length - length)) != -1)
+            length += numRead;
+        return length;
+    }
+
+    private static class Chunk {
+        private final byte[] buffer;
+        private final int length;
+
+        private Chunk(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package parser;
+
+import expression.ExpressionStoreSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * File on an HTTP(S) server, read with range requests. The file is split into blocks of
+ * BLOCK_SIZE bytes, which are fetched NUM_FETCHERS at a time and kept in a disk cache (in
+ * ~/.rnascoop/remote-cache, unless the CACHE_DIRECTORY_PROPERTY system property gives another
+ * directory), so each block is only fetched once. Expression stores are read block by block as
+ * their blocks are used; files that have to be read from disk are downloaded whole into the cache
+ *
+ * Cached blocks are kept for the URL's file as long as the server gives it the same size and
+ * validator (its ETag, or its Last-Modified date if it has none). Blocks of other versions of the
+ * file are deleted when the file is opened. Range requests are made with If-Range, so a file that
+ * changes on the server after it's opened is never read as a mix of its versions
+ */
+public class RemoteFile implements ExpressionStoreSource {
+    public static final String CACHE_DIRECTORY_PROPERTY = "rnascoop.remoteCacheDir";
+    static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int NUM_FETCHERS = 8;
+    private static final int TIMEOUT_IN_MILLISECONDS = 30000;
+    private static final String BLOCK_EXTENSION = ".block";
+    private static final ExecutorService FETCHERS = Executors.newFixedThreadPool(NUM_FETCHERS, runnable -> {
+        Thread thread = new Thread(runnable, "Remote File Fetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String url;
+    private final long size;
+    private final Path cacheDirectory;
+    private final String eTag;
+    private final String lastModified;
+    // blocks being fetched, so threads reading the same block wait for the same request
+    private final ConcurrentHashMap<Long, Future<byte[]>> pendingBlocks;
+
+    private RemoteFile(String url, long size, Path cacheDirectory, String eTag, String lastModified) {
+        this.url = url;
+        this.size = size;
+        this.cacheDirectory = cacheDirectory;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        pendingBlocks = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Whether the given path is the URL of a file on an HTTP(S) server
+     */
+    public static boolean isRemote(String path) {
+        if (path == null)
+            return false;
+        String lowerCasePath = path.toLowerCase();
+        return lowerCasePath.startsWith("http://") || lowerCasePath.startsWith("https://");
+    }
+
+    /**
+     * Asks the server for the size and validator of the file at the given URL, and opens its
+     * blocks in the cache
+     */
+    public static RemoteFile open(String url) throws IOException {
+        HttpURLConnection connection = connect(url);
+        try {
+            connection.setRequestMethod("HEAD");
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK)
+                throw new IOException("the server responded with HTTP " + responseCode);
+            long size = connection.getContentLengthLong();
+            if (size < 0)
+                throw new IOException("the server didn't give the file's size");
+            String eTag = connection.getHeaderField("ETag");
+            String lastModified = connection.getHeaderField("Last-Modified");
+            String validator = (eTag != null) ? eTag : lastModified;
+
+            Path urlDirectory = getCacheRoot().resolve(hash(url));
+            Path cacheDirectory = urlDirectory.resolve(size + "-" + hash(validator == null ? "" : validator).substring(0, 16));
+            deleteOtherVersions(urlDirectory, cacheDirectory);
+            return new RemoteFile(url, size, cacheDirectory, eTag, lastModified);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return url;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Reads the given bytes of the file. Blocks that aren't cached are fetched in parallel
+     */
+    @Override
+    public ByteBuffer read(long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > size)
+            throw new IOException("read past the end of the file");
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        if (length == 0)
+            return buffer;
+
+        long firstBlock = position / BLOCK_SIZE;
+        long lastBlock = (position + length - 1) / BLOCK_SIZE;
+        List<Future<byte[]>> blocks = new ArrayList<>();
+        for (long block = firstBlock; block <= lastBlock; block++)
+            blocks.add(getBlock(block));
+
+        for (long block = firstBlock; block <= lastBlock; block++) {
+            byte[] bytes = waitForBlock(blocks.get((int) (block - firstBlock)));
+            long blockStart = block * BLOCK_SIZE;
+            int from = (int) (Math.max(position, blockStart) - blockStart);
+            int to = (int) (Math.min(position + length, blockStart + bytes.length) - blockStart);
+            buffer.put(bytes, from, to - from);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Returns the path of a copy of the whole file in the cache, downloading the blocks that aren't
+     * cached first. The copy has the file's name, so its extension tells its format. The
+     * blocks are written straight into the copy, and at most twice NUM_FETCHERS of them are held
+     * at once
+     */
+    public Path download() throws IOException {
+        Path file = cacheDirectory.resolve(getFileName());
+        if (Files.isRegularFile(file) && Files.size(file) == size)
+            return file;
+
+        Files.createDirectories(cacheDirectory);
+        Path partialFile = Files.createTempFile(cacheDirectory, "download", ".part");
+        try (FileChannel channel = FileChannel.open(partialFile, StandardOpenOption.WRITE)) {
+            ArrayDeque<Future<Void>> pendingWrites = new ArrayDeque<>();
+            long numBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            for (long block = 0; block < numBlocks; block++) {
+                if (pendingWrites.size() >= 2 * NUM_FETCHERS)
+                    waitForBlock(pendingWrites.removeFirst());
+                long blockNumber = block;
+                pendingWrites.addLast(FETCHERS.submit(() -> {
+                    Path blockFile = getBlockFile(blockNumber);
+                    byte[] bytes = isCached(blockNumber) ? Files.readAllBytes(blockFile) : fetchBlock(blockNumber);
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    while (buffer.hasRemaining())
+                        channel.write(buffer, blockNumber * BLOCK_SIZE + buffer.position());
+                    return null;
+                }));
+            }
+            while (!pendingWrites.isEmpty())
+                waitForBlock(pendingWrites.removeFirst());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partialFile);
+            throw e;
+        }
+        Files.move(partialFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // the whole file is cached now, so its blocks aren't needed
+        try (DirectoryStream<Path> blockFiles = Files.newDirectoryStream(cacheDirectory, "*" + BLOCK_EXTENSION)) {
+            for (Path blockFile : blockFiles)
+                Files.deleteIfExists(blockFile);
+        }
+        return file;
+    }
+
+    @Override
+    public void close() {
+        // nothing is held open between requests
+    }
+
+    private Future<byte[]> getBlock(long block) throws IOException {
+        Path file = cacheDirectory.resolve(getFileName());
+        if (Files.isRegularFile(file) && Files.size(file) == size)
+            return CompletableFuture.completedFuture(readBlock(file, block));
+        if (isCached(block))
+            return CompletableFuture.completedFuture(Files.readAllBytes(getBlockFile(block)));
+
+        return pendingBlocks.computeIfAbsent(block, key -> FETCHERS.submit(() -> {
+            try {
+                byte[] bytes = fetchBlock(key);
+                saveBlock(key, bytes);
+                return bytes;
+            } finally {
+                pendingBlocks.remove(key);
+            }
+        }));
+    }
+
+    private boolean isCached(long block) throws IOException {
+        Path blockFile = getBlockFile(block);
+        return Files.isRegularFile(blockFile) && Files.size(blockFile) == getBlockSize(block);
+    }
+
+    /**
+     * Reads the given block of the whole file's copy in the cache
+     */
+    private byte[] readBlock(Path file, long block) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(getBlockSize(block));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, block * BLOCK_SIZE + buffer.position()) < 0)
+                    throw new IOException("unexpected end of the cached file");
+            }
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Fetches the given block from the server with a range request. The request's If-Range has
+     * the validator the file was opened with, so the server sends the whole file instead of the
+     * block if the file has changed since, and the block is never taken from another version
+     */
+    private byte[] fetchBlock(long block) throws IOException {
+        long start = block * BLOCK_SIZE;
+        byte[] bytes = new byte[getBlockSize(block)];
+        HttpURLConnection connection = connect(url);
+        try {
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + (start + bytes.length - 1));
+            String ifRange = getIfRange();
+            if (ifRange != null)
+                connection.setRequestProperty("If-Range", ifRange);
+            int responseCode = connection.getResponseCode();
+            if ((responseCode == HttpURLConnection.HTTP_PARTIAL || responseCode == HttpURLConnection.HTTP_OK) &&
+                hasChanged(connection))
+                throw new IOException("the file changed on the server while it was being read, open it again");
+            // a server that ignores the range sends the whole file, which is only the block asked
+            // for if the file has one block
+            boolean isWholeFile = responseCode == HttpURLConnection.HTTP_OK && start == 0 && bytes.length == size;
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL && !isWholeFile) {
+                if (responseCode == HttpURLConnection.HTTP_OK)
+                    throw new IOException("the server doesn't support range requests");
+                throw new IOException("the server responded with HTTP " + responseCode);
+            }
+
+            try (InputStream response = connection.getInputStream()) {
+                int length = 0;
+                while (length < bytes.length) {
+                    int numRead = response.read(bytes, length, bytes.length - length);
+                    if (numRead < 0)
+                        throw new IOException("the server sent less of the file than it was asked for");
+                    length += numRead;
+                }
+            }
+            return bytes;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Validator to send in If-Range: the ETag if it's strong (weak ETags can't be used for ranges),
+     * otherwise the Last-Modified date. Null if the server gave neither
+     */
+    private String getIfRange() {
+        if (eTag != null && !eTag.startsWith("W/"))
+            return eTag;
+        return lastModified;
+    }
+
+    /**
+     * Whether the response is for another version of the file than the one that was opened: its
+     * validators differ from the ones given when the file was opened, or the server sent the whole
+     * file for a range request made with If-Range. A server that ignores ranges altogether also
+     * sends the whole file, so that's only taken as a change if the response doesn't give the
+     * validator the file was opened with
+     */
+    private boolean hasChanged(HttpURLConnection connection) throws IOException {
+        String responseETag = connection.getHeaderField("ETag");
+        String responseLastModified = connection.getHeaderField("Last-Modified");
+        if ((eTag != null && responseETag != null && !eTag.equals(responseETag)) ||
+            (lastModified != null && responseLastModified != null && !lastModified.equals(responseLastModified)))
+            return true;
+        if (connection.getResponseCode() == HttpURLConnection.HTTP_OK && getIfRange() != null) {
+            boolean givesValidator = (eTag != null && eTag.equals(responseETag)) ||
+                                     (eTag == null && lastModified.equals(responseLastModified));
+            return !givesValidator || connection.getContentLengthLong() != size;
+        }
+        return false;
+    }
+
+    /**
+     * Saves the given block in the cache. The block is written to a temporary file first, so a
+     * block that's only partly written is never read. The block has been fetched whether or not it
+     * can be saved, so errors are ignored
+     */
+    private void saveBlock(long block, byte[] bytes) {
+        try {
+            Files.createDirectories(cacheDirectory);
+            Path partialFile = Files.createTempFile(cacheDirectory, "block", ".part");
+            try {
+                Files.write(partialFile, bytes);
+                Files.move(partialFile, getBlockFile(block), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partialFile);
+            }
+        } catch (IOException e) {
+            // the block will be fetched again next time
+        }
+    }
+
+    private Path getBlockFile(long block) {
+        return cacheDirectory.resolve(block + BLOCK_EXTENSION);
+    }
+
+    private int getBlockSize(long block) {
+        return (int) Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+    }
+
+    /**
+     * Name of the file in the URL's path (without its query), e.g. "matrix.tsv.gz"
+     */
+    private String getFileName() throws IOException {
+        String path = new URL(url).getPath();
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        try {
+            fileName = URLDecoder.decode(fileName, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            // not percent-encoded, use the name as it is
+        }
+        fileName = fileName.replaceAll("[\\\\/:*?\"<>|]", "_");
+        return (fileName.isEmpty() || fileName.endsWith(BLOCK_EXTENSION) || fileName.endsWith(".part")) ? "file" + fileName : fileName;
+    }
+
+    private static <T> T waitForBlock(Future<T> blockFuture) throws IOException {
+        try {
+            return blockFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while fetching the file", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static HttpURLConnection connect(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_IN_MILLISECONDS);
+        connection.setReadTimeout(TIMEOUT_IN_MILLISECONDS);
+        // byte ranges are of the file as it's stored
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    private static Path getCacheRoot() {
+        String cacheDirectory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        if (cacheDirectory != null && !cacheDirectory.trim().isEmpty())
+            return Paths.get(cacheDirectory.trim());
+        return Paths.get(System.getProperty("user.home"), ".rnascoop", "remote-cache");
+    }
+
+    /**
+     * Deletes the cached versions of a URL's file other than the one in the given directory. The
+     * cache still works if they can't be deleted, so errors are ignored
+     */
+    private static void deleteOtherVersions(Path urlDirectory, Path cacheDirectory) {
+        if (!Files.isDirectory(urlDirectory))
+            return;
+        try (DirectoryStream<Path> versionDirectories = Files.newDirectoryStream(urlDirectory)) {
+            for (Path versionDirectory : versionDirectories) {
+                if (versionDirectory.equals(cacheDirectory))
+                    continue;
+                try (Stream<Path> files = Files.walk(versionDirectory)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // deleted next time
+        }
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hash = new StringBuilder();
+            for (byte b : digest)
+                hash.append(String.format("%02x", b));
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
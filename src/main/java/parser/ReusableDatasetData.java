@@ -0,0 +1,125 @@
+package parser;
+
+import annotation.Gene;
+import expression.CompressedExpressionMatrix;
+import expression.ExpressionEncoding;
+import expression.ExpressionMatrix;
+import expression.IsoformQuorum;
+import expression.MappedExpressionMatrix;
+import expression.MatrixLayout;
+import mediator.ControllerMediator;
+import persistence.CurrentSession;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Data of the loaded dataset that can be reused when a dataset is loaded, because it was read
+ * from the same, unchanged files (and with the same settings) as the dataset being loaded.
+ * Files are recognized as unchanged by their fingerprints. Label sets aren't reused, as they
+ * can be changed in RNA-Scoop (and are quick to read again)
+ */
+class ReusableDatasetData {
+    static final ReusableDatasetData NONE = new ReusableDatasetData(null, null, null, null);
+
+    private final Map<String, Gene> genes;
+    private final ExpressionMatrix cellIsoformExpressionMatrix;
+    private final HashMap<String, Integer> isoformIndexMap;
+    private final double[][] embedding;
+
+    private ReusableDatasetData(Map<String, Gene> genes, ExpressionMatrix cellIsoformExpressionMatrix, HashMap<String, Integer> isoformIndexMap,
+                                double[][] embedding) {
+        this.genes = genes;
+        this.cellIsoformExpressionMatrix = cellIsoformExpressionMatrix;
+        this.isoformIndexMap = isoformIndexMap;
+        this.embedding = embedding;
+    }
+
+    /**
+     * Collects the loaded data that can be reused to load a dataset from the given files with
+     * the given settings. Must be called before the loaded data is cleared
+     *
+     * Genes are reused if the GTF hasn't changed (nor, if only labelled isoforms are loaded, the
+     * isoform IDs). The matrix is reused if neither it nor the isoform IDs have changed, it was
+     * loaded with the same encoding and layout settings, and its values were pruned by the same
+     * quorum. Expression stores
+     * and AnnData files aren't reused, as they're closed when the loaded data is cleared (and
+     * are opened without being parsed anyway). The matrix and embedding aren't reused if cells
+     * were appended to them
+     */
+    static ReusableDatasetData collect(String gtf, String matrix, String isoformLabels, String embedding, ExpressionEncoding expressionEncoding,
+                                       MatrixLayout matrixLayout, boolean labelledIsoformsOnly, IsoformQuorum isoformQuorum) {
+        boolean isoformIDsUnchanged = FileFingerprint.matches(FileFingerprint.of(isoformLabels), CurrentSession.getIsoformIDsFingerprint());
+
+        Map<String, Gene> reusableGenes = null;
+        if (FileFingerprint.matches(FileFingerprint.of(gtf), CurrentSession.getGTFFingerprint()) &&
+            labelledIsoformsOnly == CurrentSession.isLabelledIsoformsOnly() && (!labelledIsoformsOnly || isoformIDsUnchanged)) {
+            List<Gene> loadedGenes = ControllerMediator.getInstance().getGenes();
+            if (!loadedGenes.isEmpty()) {
+                reusableGenes = new HashMap<>();
+                for (Gene gene : loadedGenes)
+                    reusableGenes.put(gene.getId(), gene);
+            }
+        }
+
+        boolean cellsAppended = !CurrentSession.getAppendedCellBatches().isEmpty();
+        ExpressionMatrix reusableMatrix = null;
+        HashMap<String, Integer> reusableIsoformIndexMap = null;
+        ExpressionMatrix loadedMatrix = ControllerMediator.getInstance().getCellIsoformExpressionMatrix();
+        if (!cellsAppended && isoformIDsUnchanged && loadedMatrix != null && !isStore(loadedMatrix) && !Parser.isAnnDataFile(matrix) &&
+            FileFingerprint.matches(FileFingerprint.of(matrix), CurrentSession.getMatrixFingerprint()) &&
+            Objects.equals((expressionEncoding != null) ? expressionEncoding.getName() : null, CurrentSession.getExpressionEncodingName()) &&
+            Objects.equals((matrixLayout != null) ? matrixLayout.getName() : null, CurrentSession.getMatrixLayoutName()) &&
+            isoformQuorum.equals(CurrentSession.getIsoformQuorum())) {
+            reusableMatrix = loadedMatrix;
+            reusableIsoformIndexMap = ControllerMediator.getInstance().getIsoformIndexMap();
+        }
+
+        double[][] reusableEmbedding = null;
+        if (!cellsAppended && !Parser.isAnnDataFile(matrix) &&
+            FileFingerprint.matches(FileFingerprint.of(embedding), CurrentSession.getEmbeddingFingerprint()))
+            reusableEmbedding = ControllerMediator.getInstance().getEmbedding();
+
+        return new ReusableDatasetData(reusableGenes, reusableMatrix, reusableIsoformIndexMap, reusableEmbedding);
+    }
+
+    /**
+     * @return the reusable genes (with their max fold changes cleared), or null if the GTF has
+     * to be read
+     */
+    Map<String, Gene> getGenes() {
+        if (genes != null) {
+            for (Gene gene : genes.values())
+                gene.clearMaxFoldChanges();
+        }
+        return genes;
+    }
+
+    /**
+     * @return the reusable matrix, or null if the matrix has to be read
+     */
+    ExpressionMatrix getCellIsoformExpressionMatrix() {
+        return cellIsoformExpressionMatrix;
+    }
+
+    /**
+     * @return the isoform index map of the reusable matrix (with only the isoforms that met the
+     * quorum), or null if the matrix has to be read
+     */
+    HashMap<String, Integer> getIsoformIndexMap() {
+        return isoformIndexMap;
+    }
+
+    /**
+     * @return the reusable embedding, or null if the embedding has to be read
+     */
+    double[][] getEmbedding() {
+        return embedding;
+    }
+
+    private static boolean isStore(ExpressionMatrix cellIsoformExpressionMatrix) {
+        return cellIsoformExpressionMatrix instanceof CompressedExpressionMatrix || cellIsoformExpressionMatrix instanceof MappedExpressionMatrix;
+    }
+}
@@ -0,0 +1,377 @@
+package parser;
+
+import exceptions.RNAScoopException;
+import expression.CompressedExpressionMatrix;
+import expression.ExpressionEncoding;
+import expression.ExpressionStoreConverter;
+import expression.MappedExpressionMatrix;
+import expression.MatrixLayout;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Plans how an expression matrix is stored before it's parsed. The first rows of a TSV (or the
+ * header and first entries of a Matrix Market file) are sampled for the matrix's dimensions,
+ * how many of its values are nonzero, and whether they're whole numbers. The heap each
+ * representation would need while the matrix is parsed is then estimated and compared to the
+ * heap that's free:
+ *   - the encoding is the smallest one that stores the sampled values exactly (short or int for
+ *     whole numbers, double otherwise), or float if only that fits
+ *   - the layout is whichever of dense and sparse takes less memory
+ *   - if no in-memory representation fits, a TSV is converted to a compressed expression store
+ *     next to it (or in ~/.rnascoop/stores if its directory can't be written to), which is read
+ *     out of core
+ * An encoding or layout given in the dataset file is used as it is, and the rest is planned
+ * around it
+ */
+class StoragePlanner {
+    private static final int NUM_SAMPLED_ROWS = 256;
+    private static final int NUM_SAMPLED_ENTRIES = 1 << 16;
+    // part of the free heap the matrix may take while it's parsed, the rest being left for the
+    // GTF, label sets and everything else
+    private static final double HEAP_FRACTION = 0.75;
+    // bytes each row collected by ExpressionMatrixBuilder takes besides its values (the headers
+    // of its index and value arrays and the references to them)
+    private static final int ROW_OVERHEAD = 56;
+    private static final String STORE_DIRECTORY = System.getProperty("user.home") + File.separator + ".rnascoop" + File.separator + "stores";
+
+    /**
+     * How a matrix is stored. A plan with a store path stores the matrix out of core, in the
+     * compressed expression store at that path
+     */
+    static class Plan {
+        private final ExpressionEncoding encoding;
+        private final MatrixLayout layout;
+        private final String pathToStore;
+        private final String description;
+        // planned as if the sampled values weren't all whole numbers, null if they weren't
+        private final Plan fallback;
+
+        private Plan(ExpressionEncoding encoding, MatrixLayout layout, String pathToStore, String description, Plan fallback) {
+            this.encoding = encoding;
+            this.layout = layout;
+            this.pathToStore = pathToStore;
+            this.description = description;
+            this.fallback = fallback;
+        }
+
+        ExpressionEncoding getEncoding() {
+            return encoding;
+        }
+
+        MatrixLayout getLayout() {
+            return layout;
+        }
+
+        String getPathToStore() {
+            return pathToStore;
+        }
+
+        boolean isStore() {
+            return layout == MatrixLayout.STORE;
+        }
+
+        /**
+         * Returns the plan to use if a value past the sampled ones can't be stored in this plan's
+         * whole number encoding, or null if the encoding wasn't picked from the sample
+         */
+        Plan getFallback() {
+            return fallback;
+        }
+
+        /**
+         * Describes the plan for the console
+         */
+        String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * Values sampled from a matrix
+     */
+    static class Sample {
+        private long numValues;
+        private long numNonZeros;
+        private boolean wholeNumbers = true;
+        private double maxValue;
+        // dimensions given in a Matrix Market header
+        private int numRows = -1;
+        private int numCols = -1;
+        private long numEntries = -1;
+
+        void addValue(double value) {
+            numValues++;
+            if (value != 0) {
+                numNonZeros++;
+                maxValue = Math.max(maxValue, value);
+                if (value != Math.rint(value))
+                    wholeNumbers = false;
+            }
+        }
+
+        void setDimensions(int numRows, int numCols, long numEntries) {
+            this.numRows = numRows;
+            this.numCols = numCols;
+            this.numEntries = numEntries;
+        }
+
+        private double getDensity() {
+            return (numValues > 0) ? (double) numNonZeros / numValues : 0;
+        }
+    }
+
+    /**
+     * Plans how to store the TSV or Matrix Market matrix at the given path
+     *
+     * @param numCells number of cells in the matrix, or -1 if it's not known yet (then estimated
+     *                 from the file's size)
+     * @param requestedEncoding encoding given in the dataset file, or null to pick one
+     * @param requestedLayout layout given in the dataset file, or null to pick one
+     */
+    static Plan plan(String pathToMatrix, int numCells, int numIsoforms, ExpressionEncoding requestedEncoding,
+                     MatrixLayout requestedLayout) throws IOException, RNAScoopException {
+        boolean isMatrixMarket = MatrixMarketParser.isMatrixMarketFile(pathToMatrix);
+        if (requestedEncoding != null && requestedLayout != null && (requestedLayout != MatrixLayout.STORE || !isMatrixMarket))
+            return new Plan(requestedEncoding, requestedLayout, getStorePath(requestedLayout, pathToMatrix),
+                            "Storing the expression matrix as given in the dataset file (" + describe(requestedEncoding, requestedLayout) + ")", null);
+
+        Sample sample = new Sample();
+        long numNonZeros;
+        long numEntries = 0;
+        if (isMatrixMarket) {
+            try (InputStream matrixStream = Parser.openDataFile(pathToMatrix)) {
+                new MatrixMarketParser(matrixStream).sample(sample, NUM_SAMPLED_ENTRIES);
+            }
+            if (numCells < 0)
+                numCells = (sample.numRows == numIsoforms) ? sample.numCols : sample.numRows;
+            numEntries = sample.numEntries;
+            numNonZeros = Math.round(sample.numEntries * sample.getDensity());
+        } else {
+            int numEstimatedCells = sampleTSV(pathToMatrix, numIsoforms, sample);
+            if (numCells < 0)
+                numCells = numEstimatedCells;
+            numNonZeros = Math.round((double) numCells * numIsoforms * sample.getDensity());
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        Estimator estimator = new Estimator(numCells, numIsoforms, numNonZeros, numEntries, (long) (freeHeap * HEAP_FRACTION));
+        Plan fallback = null;
+        if (requestedEncoding == null && sample.wholeNumbers && sample.numNonZeros > 0) {
+            sample.wholeNumbers = false;
+            fallback = choose(pathToMatrix, isMatrixMarket, sample, estimator, null, requestedLayout, null);
+            sample.wholeNumbers = true;
+        }
+        return choose(pathToMatrix, isMatrixMarket, sample, estimator, requestedEncoding, requestedLayout, fallback);
+    }
+
+    private static Plan choose(String pathToMatrix, boolean isMatrixMarket, Sample sample, Estimator estimator, ExpressionEncoding requestedEncoding,
+                               MatrixLayout requestedLayout, Plan fallback) {
+        List<ExpressionEncoding> encodings = new ArrayList<>();
+        if (requestedEncoding != null) {
+            encodings.add(requestedEncoding);
+        } else {
+            ExpressionEncoding exactEncoding = getExactEncoding(sample);
+            encodings.add(exactEncoding);
+            if (ExpressionEncoding.FLOAT.getNumBytes() < exactEncoding.getNumBytes())
+                encodings.add(ExpressionEncoding.FLOAT);
+        }
+        String matrixDescription = estimator.describeMatrix();
+
+        if (requestedLayout != MatrixLayout.STORE) {
+            for (ExpressionEncoding encoding : encodings) {
+                MatrixLayout layout = (requestedLayout != null) ? requestedLayout : estimator.getSmallerLayout(encoding);
+                long peakSize = estimator.getPeakSize(encoding, layout, isMatrixMarket);
+                if (peakSize <= estimator.heapBudget)
+                    return new Plan(encoding, layout, null, "Storing the expression matrix " + matrixDescription + " " + describe(encoding, layout) +
+                                                            ": about " + formatSize(peakSize) + " of the " + formatSize(estimator.heapBudget) +
+                                                            " of heap available while it's parsed", fallback);
+            }
+        }
+
+        ExpressionEncoding encoding = encodings.get(encodings.size() - 1);
+        if (isMatrixMarket || requestedLayout != null && requestedLayout != MatrixLayout.STORE) {
+            // Matrix Market files can't be converted to expression stores, so they're parsed anyway
+            MatrixLayout layout = (requestedLayout != null && requestedLayout != MatrixLayout.STORE) ? requestedLayout : MatrixLayout.SPARSE;
+            String reason = (requestedLayout == MatrixLayout.STORE) ? " (Matrix Market files can't be converted to expression stores)" : "";
+            return new Plan(encoding, layout, null, "Storing the expression matrix " + matrixDescription + " " + describe(encoding, layout) + reason +
+                                                    ", which needs about " + formatSize(estimator.getPeakSize(encoding, layout, isMatrixMarket)) +
+                                                    " of the " + formatSize(estimator.heapBudget) + " of heap available", fallback);
+        }
+        String reason = (requestedLayout == MatrixLayout.STORE) ? "as given in the dataset file" :
+                        "as it needs more than the " + formatSize(estimator.heapBudget) + " of heap available";
+        // values are read from stores as the doubles they were written as
+        return new Plan(ExpressionEncoding.DOUBLE, MatrixLayout.STORE, getStorePath(MatrixLayout.STORE, pathToMatrix),
+                        "Storing the expression matrix " + matrixDescription + " out of core in a compressed expression store, " + reason, null);
+    }
+
+    /**
+     * Returns the smallest encoding that stores the sampled values exactly
+     */
+    private static ExpressionEncoding getExactEncoding(Sample sample) {
+        if (sample.wholeNumbers && ExpressionEncoding.SHORT.canEncode(sample.maxValue))
+            return ExpressionEncoding.SHORT;
+        if (sample.wholeNumbers && ExpressionEncoding.INT.canEncode(sample.maxValue))
+            return ExpressionEncoding.INT;
+        return ExpressionEncoding.DOUBLE;
+    }
+
+    /**
+     * Samples the values in the first rows of the TSV at the given path
+     *
+     * @return the estimated number of rows in the TSV, from the size of the sampled rows
+     */
+    private static int sampleTSV(String pathToMatrix, int numIsoforms, Sample sample) throws IOException {
+        boolean isGzipped = pathToMatrix.toLowerCase().endsWith(Parser.GZIP_EXTENSION);
+        // the file stream is closed even if the gzip header can't be read (closing it twice is harmless)
+        try (CountingInputStream fileStream = new CountingInputStream(new FileInputStream(pathToMatrix));
+             CountingInputStream matrixStream = isGzipped ? new CountingInputStream(new GZIPInputStream(fileStream)) : fileStream) {
+            NumericTokenizer tokenizer = new NumericTokenizer(matrixStream);
+            double[] row = new double[numIsoforms];
+            int numRows = 0;
+            long numRowBytes = 0;
+            while (numRows < NUM_SAMPLED_ROWS && tokenizer.nextLine()) {
+                if (tokenizer.isBlankLine())
+                    break;
+                int numValues = Math.min(tokenizer.parseLine((byte) '\t', row), numIsoforms);
+                if (tokenizer.getInvalidValue() == null) {
+                    for (int i = 0; i < numValues; i++)
+                        sample.addValue(row[i]);
+                }
+                numRows++;
+                numRowBytes += tokenizer.lineEnd - tokenizer.lineStart + 1;
+            }
+            if (numRows < NUM_SAMPLED_ROWS || numRowBytes == 0)
+                return numRows;
+
+            // the compression ratio of the bytes read so far
+            double compressionRatio = (double) fileStream.getNumBytesRead() / matrixStream.getNumBytesRead();
+            double numEstimatedRows = (double) numRows * new File(pathToMatrix).length() / (numRowBytes * compressionRatio);
+            return (int) Math.min(Integer.MAX_VALUE, Math.round(numEstimatedRows));
+        }
+    }
+
+    /**
+     * Returns the path of the store the matrix at the given path is converted to if it's stored
+     * in the given layout, or null if it's stored on the heap
+     */
+    private static String getStorePath(MatrixLayout layout, String pathToMatrix) {
+        if (layout != MatrixLayout.STORE)
+            return null;
+        String defaultPath = ExpressionStoreConverter.getDefaultStorePath(pathToMatrix);
+        String storePath = defaultPath.substring(0, defaultPath.length() - MappedExpressionMatrix.STORE_EXTENSION.length()) +
+                           CompressedExpressionMatrix.STORE_EXTENSION;
+        File storeDirectory = new File(storePath).getAbsoluteFile().getParentFile();
+        if (storeDirectory.canWrite())
+            return storePath;
+        return STORE_DIRECTORY + File.separator + new File(storePath).getName();
+    }
+
+    private static String describe(ExpressionEncoding encoding, MatrixLayout layout) {
+        if (layout == MatrixLayout.STORE)
+            return "out of core in a compressed expression store";
+        return ((layout == MatrixLayout.DENSE) ? "densely" : "sparsely") + " with the \"" + encoding.getName() + "\" expression encoding";
+    }
+
+    private static String formatSize(long numBytes) {
+        if (numBytes < 1024L * 1024 * 1024)
+            return String.format("%.1f MB", numBytes / (1024.0 * 1024));
+        return String.format("%.1f GB", numBytes / (1024.0 * 1024 * 1024));
+    }
+
+    /**
+     * Estimates the heap a matrix needs while it's parsed, in each representation
+     */
+    private static class Estimator {
+        private final int numCells;
+        private final int numIsoforms;
+        private final long numNonZeros;
+        // entries in a Matrix Market file, which are all kept until they're sorted by cell
+        private final long numEntries;
+        private final long heapBudget;
+
+        private Estimator(int numCells, int numIsoforms, long numNonZeros, long numEntries, long heapBudget) {
+            this.numCells = numCells;
+            this.numIsoforms = numIsoforms;
+            this.numNonZeros = numNonZeros;
+            this.numEntries = numEntries;
+            this.heapBudget = heapBudget;
+        }
+
+        /**
+         * The layout ExpressionMatrixBuilder would pick for the given encoding
+         */
+        private MatrixLayout getSmallerLayout(ExpressionEncoding encoding) {
+            return (getSize(encoding, MatrixLayout.SPARSE) < getSize(encoding, MatrixLayout.DENSE)) ? MatrixLayout.SPARSE : MatrixLayout.DENSE;
+        }
+
+        /**
+         * Size of the parsed matrix, estimated the way ExpressionMatrixBuilder estimates it
+         */
+        private long getSize(ExpressionEncoding encoding, MatrixLayout layout) {
+            if (layout == MatrixLayout.SPARSE)
+                return 2 * numNonZeros * (Integer.BYTES + encoding.getNumBytes()) + (long) (numCells + numIsoforms + 2) * Integer.BYTES;
+            // every value, stored by cell and by isoform
+            return 2L * numCells * numIsoforms * encoding.getNumBytes();
+        }
+
+        /**
+         * Heap taken while the matrix is built: the rows collected by the builder and the built
+         * matrix, and the entries of a Matrix Market file (a cell number, isoform index and
+         * double value each, and their order once sorted by cell)
+         */
+        private long getPeakSize(ExpressionEncoding encoding, MatrixLayout layout, boolean isMatrixMarket) {
+            long rowsSize = numNonZeros * (Integer.BYTES + encoding.getNumBytes()) + (long) numCells * ROW_OVERHEAD;
+            long entriesSize = isMatrixMarket ? numEntries * (2 * Integer.BYTES + Double.BYTES) + numNonZeros * Integer.BYTES : 0;
+            return rowsSize + getSize(encoding, layout) + entriesSize;
+        }
+
+        private String describeMatrix() {
+            double density = (numCells > 0 && numIsoforms > 0) ? (double) numNonZeros / numCells / numIsoforms : 0;
+            return String.format("(%,d cells x %,d isoforms, %.1f%% nonzero)", numCells, numIsoforms, density * 100);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long numBytesRead;
+
+        private CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                numBytesRead++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int numRead = super.read(bytes, offset, length);
+            if (numRead > 0)
+                numBytesRead += numRead;
+            return numRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long numSkipped = super.skip(n);
+            numBytesRead += numSkipped;
+            return numSkipped;
+        }
+
+        private long getNumBytesRead() {
+            return numBytesRead;
+        }
+    }
+}
@@ -1,8 +1,15 @@
 package persistence;
 
+import expression.ExpressionEncoding;
+import expression.MatrixLayout;
+import expression.IsoformQuorum;
 import labelset.LabelSet;
+import parser.CellBatch;
+import parser.FileFingerprint;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class CurrentSession {
@@ -11,6 +18,16 @@ public class CurrentSession {
     private static String isoformIDsPath;
     private static Map<LabelSet, String> labelSetPaths;
     private static String embeddingPath;
+    private static ExpressionEncoding expressionEncoding;
+    private static MatrixLayout matrixLayout;
+    private static boolean labelledIsoformsOnly;
+    private static IsoformQuorum isoformQuorum;
+    private static List<CellBatch> appendedCellBatches = new ArrayList<>();
+    // versions of the GTF, matrix, isoform IDs and embedding files that were loaded
+    private static FileFingerprint gtfFingerprint;
+    private static FileFingerprint matrixFingerprint;
+    private static FileFingerprint isoformIDsFingerprint;
+    private static FileFingerprint embeddingFingerprint;
 
     /**
      * Saves paths of loaded dataset files. Should be called when new input JSON file is loaded
@@ -30,6 +47,76 @@ public class CurrentSession {
         CurrentSession.isoformIDsPath = null;
         CurrentSession.labelSetPaths = null;
         CurrentSession.embeddingPath = null;
+        CurrentSession.expressionEncoding = null;
+        CurrentSession.matrixLayout = null;
+        CurrentSession.labelledIsoformsOnly = false;
+        CurrentSession.isoformQuorum = null;
+        CurrentSession.appendedCellBatches = new ArrayList<>();
+        CurrentSession.gtfFingerprint = null;
+        CurrentSession.matrixFingerprint = null;
+        CurrentSession.isoformIDsFingerprint = null;
+        CurrentSession.embeddingFingerprint = null;
+    }
+
+    /**
+     * Saves fingerprints of the loaded dataset files, taken before they were read, so they can
+     * be recognized as unchanged when the dataset is loaded again
+     */
+    public static void saveFileFingerprints(FileFingerprint gtfFingerprint, FileFingerprint matrixFingerprint,
+                                            FileFingerprint isoformIDsFingerprint, FileFingerprint embeddingFingerprint) {
+        CurrentSession.gtfFingerprint = gtfFingerprint;
+        CurrentSession.matrixFingerprint = matrixFingerprint;
+        CurrentSession.isoformIDsFingerprint = isoformIDsFingerprint;
+        CurrentSession.embeddingFingerprint = embeddingFingerprint;
+    }
+
+    /**
+     * Saves the encoding the dataset file gave for the loaded expression matrix's values, null
+     * if it let the storage planner pick one
+     */
+    public static void saveExpressionEncoding(ExpressionEncoding expressionEncoding) {
+        CurrentSession.expressionEncoding = expressionEncoding;
+    }
+
+    /**
+     * Saves the layout the dataset file gave for the loaded expression matrix, null if it let
+     * the storage planner pick one
+     */
+    public static void saveMatrixLayout(MatrixLayout matrixLayout) {
+        CurrentSession.matrixLayout = matrixLayout;
+    }
+
+    /**
+     * Saves whether only the GTF isoforms in the isoform IDs file were loaded
+     */
+    public static void saveLabelledIsoformsOnly(boolean labelledIsoformsOnly) {
+        CurrentSession.labelledIsoformsOnly = labelledIsoformsOnly;
+    }
+
+    /**
+     * Saves the quorum isoforms had to meet to be loaded
+     */
+    public static void saveIsoformQuorum(IsoformQuorum isoformQuorum) {
+        CurrentSession.isoformQuorum = isoformQuorum;
+    }
+
+    /**
+     * Saves the batches of cells appended to the loaded dataset, in the order they were appended
+     */
+    public static void saveAppendedCellBatches(List<CellBatch> appendedCellBatches) {
+        CurrentSession.appendedCellBatches = new ArrayList<>(appendedCellBatches);
+    }
+
+    /**
+     * Saves a batch of cells appended to the loaded dataset. The loaded label set and embedding
+     * files don't have the batch's cells, so their paths are cleared (the label sets and
+     * embedding are then written to files with every cell when the session is saved)
+     */
+    public static void saveAppendedCellBatch(CellBatch cellBatch) {
+        appendedCellBatches.add(cellBatch);
+        if (labelSetPaths != null)
+            labelSetPaths.clear();
+        embeddingPath = null;
     }
 
     /**
@@ -87,4 +174,65 @@ public class CurrentSession {
     public static String getEmbeddingPath() {
         return embeddingPath;
     }
+
+    public static List<CellBatch> getAppendedCellBatches() {
+        return appendedCellBatches;
+    }
+
+    /**
+     * @return encoding the dataset file gave for the loaded expression matrix's values, DOUBLE if
+     * it didn't give one (cells appended to the dataset are stored in this encoding)
+     */
+    public static ExpressionEncoding getExpressionEncoding() {
+        return (expressionEncoding != null) ? expressionEncoding : ExpressionEncoding.DOUBLE;
+    }
+
+    public static FileFingerprint getGTFFingerprint() {
+        return gtfFingerprint;
+    }
+
+    public static FileFingerprint getMatrixFingerprint() {
+        return matrixFingerprint;
+    }
+
+    public static FileFingerprint getIsoformIDsFingerprint() {
+        return isoformIDsFingerprint;
+    }
+
+    public static FileFingerprint getEmbeddingFingerprint() {
+        return embeddingFingerprint;
+    }
+
+    /**
+     * @return quorum isoforms had to meet to be loaded, NONE if none was saved
+     */
+    public static IsoformQuorum getIsoformQuorum() {
+        return (isoformQuorum != null) ? isoformQuorum : IsoformQuorum.NONE;
+    }
+
+    public static String getExpressionEncodingName() {
+        return (expressionEncoding != null) ? expressionEncoding.getName() : null;
+    }
+
+    public static String getMatrixLayoutName() {
+        return (matrixLayout != null) ? matrixLayout.getName() : null;
+    }
+
+    public static boolean isLabelledIsoformsOnly() {
+        return labelledIsoformsOnly;
+    }
+
+    /**
+     * @return min expression of the isoform quorum, or null if isoforms weren't pruned
+     */
+    public static Double getMinIsoformExpression() {
+        return (isoformQuorum != null && isoformQuorum.isRequired()) ? isoformQuorum.getMinExpression() : null;
+    }
+
+    /**
+     * @return min cells of the isoform quorum, or null if isoforms weren't pruned
+     */
+    public static Integer getMinIsoformCells() {
+        return (isoformQuorum != null && isoformQuorum.isRequired()) ? isoformQuorum.getMinCells() : null;
+    }
 }
@@ -1,9 +1,11 @@
 package persistence;
 
 import labelset.LabelSet;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import mediator.ControllerMediator;
+import parser.CellBatch;
 
 import java.io.IOException;
 
@@ -14,6 +16,13 @@ public class SessionMaker {
     public static final String CELL_LABELS_PATH_KEY = "cell_labels";
     public static final String EMBEDDING_PATH_KEY = "embedding";
     public static final String EXPRESSION_UNIT_KEY = "expression_unit";
+    public static final String EXPRESSION_ENCODING_KEY = "expression_encoding";
+    public static final String MATRIX_LAYOUT_KEY = "matrix_layout";
+    public static final String LABELLED_ISOFORMS_ONLY_KEY = "labelled_isoforms_only";
+    public static final String MIN_ISOFORM_EXPRESSION_KEY = "min_isoform_expression";
+    public static final String MIN_ISOFORM_CELLS_KEY = "min_isoform_cells";
+    public static final String APPENDED_CELLS_KEY = "appended_cells";
+    public static final String NUM_CELLS_KEY = "num_cells";
     public static final String CELL_PLOT_CLEARED_KEY = "cell_plot_cleared";
     public static final String CELLS_SELECTED_KEY = "cells_selected";
     public static final String CELL_CATEGORIES_SELECTED_KEY = "cell_categories_selected";
@@ -37,6 +46,7 @@ public class SessionMaker {
     public static final String SHOW_ISOFORM_NAME_KEY = "show_isoform_name";
     public static final String SHOW_ISOFORM_ID_KEY = "show_isoform_id";
     public static final String COLOR_CELL_PLOT_BY_ISOFORM_KEY = "color_cell_plot_by_isoform";
+    public static final String EXPRESSION_TRANSFORM_KEY = "expression_transform";
     public static final String MIN_GRADIENT_KEY = "min_gradient_key";
     public static final String MAX_GRADIENT_KEY = "max_gradient_key";
     public static final String RECOMMENDED_MIN_GRADIENT_KEY = "recommended_min_gradient_key";
@@ -84,6 +94,12 @@ public class SessionMaker {
         session.put(CELL_LABELS_PATH_KEY, CurrentSession.getLabelSetPaths());
         session.put(EMBEDDING_PATH_KEY, CurrentSession.getEmbeddingPath());
         session.put(EXPRESSION_UNIT_KEY, ControllerMediator.getInstance().getExpressionUnit());
+        session.put(EXPRESSION_ENCODING_KEY, CurrentSession.getExpressionEncodingName());
+        session.put(MATRIX_LAYOUT_KEY, CurrentSession.getMatrixLayoutName());
+        session.put(LABELLED_ISOFORMS_ONLY_KEY, CurrentSession.isLabelledIsoformsOnly());
+        session.put(MIN_ISOFORM_EXPRESSION_KEY, CurrentSession.getMinIsoformExpression());
+        session.put(MIN_ISOFORM_CELLS_KEY, CurrentSession.getMinIsoformCells());
+        session.put(APPENDED_CELLS_KEY, getAppendedCellBatches());
         session.put(CELL_PLOT_CLEARED_KEY, ControllerMediator.getInstance().isCellPlotCleared());
         session.put(CELLS_SELECTED_KEY, ControllerMediator.getInstance().getSelectedCellNumbers());
         session.put(CELL_CATEGORIES_SELECTED_KEY, ControllerMediator.getInstance().getSelectedCellCategoryNames());
@@ -107,6 +123,7 @@ public class SessionMaker {
         session.put(SHOW_ISOFORM_NAME_KEY, ControllerMediator.getInstance().isShowingIsoformName());
         session.put(SHOW_ISOFORM_ID_KEY, ControllerMediator.getInstance().isShowingIsoformID());
         session.put(COLOR_CELL_PLOT_BY_ISOFORM_KEY, ControllerMediator.getInstance().isColoringCellPlotBySelectedIsoform());
+        session.put(EXPRESSION_TRANSFORM_KEY, ControllerMediator.getInstance().getExpressionTransform().getName());
         session.put(MIN_GRADIENT_KEY, ControllerMediator.getInstance().getGradientMin());
         session.put(MAX_GRADIENT_KEY, ControllerMediator.getInstance().getGradientMax());
         session.put(RECOMMENDED_MIN_GRADIENT_KEY, ControllerMediator.getInstance().getRecommendedGradientMin());
@@ -142,4 +159,20 @@ public class SessionMaker {
         session.put(NUM_LABEL_SETS_EXPORTED_KEY, ControllerMediator.getInstance().getNumLabelSetsExported());
         return session;
     }
+
+    /**
+     * Returns the batches of cells appended to the loaded dataset, each with the paths to its
+     * matrix and isoform IDs, and its number of cells
+     */
+    private static JSONArray getAppendedCellBatches() {
+        JSONArray appendedCellBatches = new JSONArray();
+        for (CellBatch cellBatch : CurrentSession.getAppendedCellBatches()) {
+            JSONObject appendedCellBatch = new JSONObject();
+            appendedCellBatch.put(MATRIX_PATH_KEY, cellBatch.getMatrixPath());
+            appendedCellBatch.put(ISOFORM_LABELS_PATH_KEY, cellBatch.getIsoformIDsPath());
+            appendedCellBatch.put(NUM_CELLS_KEY, cellBatch.getNumCells());
+            appendedCellBatches.put(appendedCellBatch);
+        }
+        return appendedCellBatches;
+    }
 }